@@ -0,0 +1,134 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.Variable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A join tree of an alpha-acyclic query body: a tree over its RelationalAtoms such that the atoms containing
+ * any variable form a connected subtree. A query body has a join tree iff it is alpha-acyclic.
+ *
+ * The tree is found by the GYO reduction of the hypergraph of the body (a vertex per variable, an edge per atom):
+ * the variables of a single remaining atom are removed, then every atom whose remaining variables all belong to
+ * another remaining atom is removed and becomes a child of that atom, until nothing changes. The body is acyclic iff
+ * a single atom is left, the root. The comparisons between the variables of several atoms are not part of the
+ * hypergraph.
+ */
+public class JoinTree {
+
+    private final int[] parents;
+    // the parent of every atom, -1 for the root
+    private final int[] topDownOrder;
+    // the atoms breadth first from the root: every atom comes after its parent
+
+    private JoinTree(int[] parents) {
+        this.parents = parents;
+        List<Integer> order = new ArrayList<>();
+        for (int atom = 0; atom < parents.length; atom++)
+            if (parents[atom] < 0) order.add(atom);
+        for (int i = 0; i < order.size(); i++) {
+            for (int atom = 0; atom < parents.length; atom++)
+                if (parents[atom] == order.get(i)) order.add(atom);
+        }
+        this.topDownOrder = order.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Build the join tree of a query body.
+     * @param relationalAtoms the RelationalAtoms of the query body.
+     * @return the join tree, or {@code null} if the query body is cyclic.
+     */
+    public static JoinTree build(List<RelationalAtom> relationalAtoms) {
+        List<Set<String>> edges = new ArrayList<>();
+        for (RelationalAtom rAtom : relationalAtoms) {
+            Set<String> edge = new HashSet<>();
+            for (Term term : rAtom.getTerms())
+                if (term instanceof Variable) edge.add(((Variable) term).getName());
+            edges.add(edge);
+        }
+        int[] parents = new int[edges.size()];
+        boolean[] removed = new boolean[edges.size()];
+        int remaining = edges.size();
+        boolean changed = true;
+        while (changed && remaining > 1) {
+            changed = false;
+            for (int i = 0; i < edges.size(); i++) {
+                if (removed[i]) continue;
+                changed |= edges.get(i).removeIf(variable -> countEdges(edges, removed, variable) == 1);
+            }
+            for (int i = 0; i < edges.size() && remaining > 1; i++) {
+                if (removed[i]) continue;
+                for (int j = 0; j < edges.size(); j++) {
+                    if (i != j && !removed[j] && edges.get(j).containsAll(edges.get(i))) {
+                        removed[i] = true;
+                        parents[i] = j;
+                        remaining--;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (remaining > 1) return null;
+        for (int i = 0; i < edges.size(); i++)
+            if (!removed[i]) parents[i] = -1;
+        return new JoinTree(parents);
+    }
+
+    private static int countEdges(List<Set<String>> edges, boolean[] removed, String variable) {
+        int count = 0;
+        for (int i = 0; i < edges.size(); i++)
+            if (!removed[i] && edges.get(i).contains(variable)) count++;
+        return count;
+    }
+
+    /**
+     * @return the parent of every atom (its position in the query body), -1 for the root.
+     */
+    public int[] getParents() {
+        return this.parents.clone();
+    }
+
+    /**
+     * @return the positions of the atoms in the query body, breadth first from the root: every atom comes after its parent.
+     */
+    public int[] getTopDownOrder() {
+        return this.topDownOrder.clone();
+    }
+
+    /**
+     * Check whether the atoms of the query body, in their order, can be joined along the tree:
+     * every atom after the first one is a neighbour of some atom before it, so that every prefix is a subtree.
+     * @return {@code true} if the order of the query body follows the tree.
+     */
+    public boolean followsBodyOrder() {
+        for (int atom = 1; atom < this.parents.length; atom++) {
+            boolean connected = this.parents[atom] >= 0 && this.parents[atom] < atom;
+            for (int other = 0; other < atom && !connected; other++)
+                connected = this.parents[other] == atom;
+            if (!connected) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param order the positions of the atoms of the query body in a new order.
+     * @return the same tree over the atoms in the new order.
+     */
+    public JoinTree reorder(int[] order) {
+        int[] positions = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+            positions[order[i]] = i;
+        int[] reordered = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int parent = this.parents[order[i]];
+            reordered[i] = parent < 0 ? -1 : positions[parent];
+        }
+        return new JoinTree(reordered);
+    }
+}
@@ -6,6 +6,7 @@ import ed.inf.adbs.minibase.operators.*;
 import ed.inf.adbs.minibase.parser.QueryParser;
 import ed.inf.adbs.minibase.dbhelper.*;
 
+import java.io.File;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
@@ -16,10 +17,43 @@ import java.util.List;
  */
 public class Minibase {
 
+    private static boolean reportStatistics = false;
+    // whether the execution statistics are printed to the error stream after the query is evaluated
+    private static String executionMode = "tuple";
+    // how the query plan is evaluated: tuple-at-a-time (Operator#getNextTuple()), with the vectorized path
+    // (Operator#getNextBatch) or tuple-at-a-time with reused row buffers (Operator#getNextTuple(Tuple))
+    private static boolean compilePlan = false;
+    // whether the query plan is compiled into a generated class (PlanCompiler), the interpreted plan is the fallback
+    private static String joinAlgorithm = "auto";
+    // the join operator used when the children are joined on an equality: HashJoinOperator (hash),
+    // SortMergeJoinOperator (sortmerge), GraceHashJoinOperator (grace), ParallelHashJoinOperator (parallel), the hash
+    // join unless the right relation may not fit in the operator memory, then the Grace hash join, or both inputs are
+    // large and there are several join threads, then the parallel hash join (auto), or IndexNestedLoopJoinOperator when the right relation has an index on the join key and the left input
+    // is small (auto, or index whenever there is such an index); the joins without an equality use the
+    // BlockNestedLoopJoinOperator. 'block' and 'nested' use the block or the tuple nested loop JoinOperator for all the joins
+    private static String triejoinMode = "auto";
+    // whether the query body is joined by a single LeapfrogTriejoinOperator: for the cyclic queries (auto),
+    // for all the queries of several atoms (on), or never (off)
+    private static String yannakakisMode = "auto";
+    // whether the atoms of an acyclic query body are reduced by a YannakakisReducer before they are joined:
+    // for three atoms or more when the relations are estimated to fit in the operator memory (auto),
+    // for all the acyclic queries of several atoms (on), or never (off)
+    private static final int TEXT_TO_MEMORY_RATIO = 6;
+    // the estimated ratio between the size of the parsed tuples of a relation and the size of its text file
+    private static final int ESTIMATED_FIELD_BYTES = 6;
+    // the estimated size of a field in a text file, with its separator
+    private static final int INDEX_PROBE_COST = 16;
+    // the estimated cost of an index probe (a descent of the tree and a record read at a random offset),
+    // as a number of records read sequentially
+    private static final long PARALLEL_JOIN_ROWS = 100000;
+    // the estimated number of rows of both inputs above which a join is partitioned across the join threads,
+    // provided that both inputs are estimated to fit in the operator memory together (the join reads them both in memory)
+
     public static void main(String[] args) {
 
-        if (args.length != 3) {
-            System.err.println("Usage: Minibase database_dir input_file output_file");
+        if (args.length < 3) {
+            System.err.println("Usage: Minibase database_dir input_file output_file [option=value ...]");
+            System.err.println("Options: scan=scanner|buffered|mapped|parallel, threads=<n>, prefetch=<batches>, columnar=on|off, cache=<megabytes>, stats=on|off, exec=tuple|batch|reuse, dictionary=on|off, codegen=on|off, join=auto|hash|grace|parallel|sortmerge|index|block|nested, jointhreads=<n>, triejoin=auto|on|off, yannakakis=auto|on|off, memory=<megabytes>");
             return;
         }
 
@@ -27,13 +61,86 @@ public class Minibase {
         String inputFile = args[1];
         String outputFile = args[2];
 
+        DatabaseCatalog dbcat = DatabaseCatalog.getInstance();
+        for (int i = 3; i < args.length; i++) {
+            if (!applyOption(dbcat, args[i])) {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
         evaluateCQ(databaseDir, inputFile, outputFile);
     }
 
+    /**
+     * Apply a command line option of the form {@code name=value} to the catalog.
+     * @param dbcat the database catalog to be configured.
+     * @param option the option string.
+     * @return {@code true} if the option is recognised, {@code false} otherwise.
+     */
+    private static boolean applyOption(DatabaseCatalog dbcat, String option) {
+        String[] parts = option.split("=", 2);
+        if (parts.length != 2) return false;
+        switch (parts[0]) {
+            case "scan":
+                dbcat.setScanMode(ScanMode.fromString(parts[1]));
+                return true;
+            case "threads":
+                dbcat.setScanThreads(Integer.parseInt(parts[1]));
+                return true;
+            case "jointhreads":
+                dbcat.setJoinThreads(Integer.parseInt(parts[1]));
+                return true;
+            case "prefetch":
+                dbcat.setPrefetchDepth(Integer.parseInt(parts[1]));
+                return true;
+            case "columnar":
+                dbcat.setPreferColumnar(parts[1].equals("on"));
+                return true;
+            case "stats":
+                reportStatistics = parts[1].equals("on");
+                return true;
+            case "dictionary":
+                dbcat.setUseDictionary(parts[1].equals("on"));
+                return true;
+            case "exec":
+                if (!parts[1].equals("tuple") && !parts[1].equals("batch") && !parts[1].equals("reuse")) return false;
+                executionMode = parts[1];
+                return true;
+            case "codegen":
+                compilePlan = parts[1].equals("on");
+                return true;
+            case "join":
+                if (!parts[1].equals("auto") && !parts[1].equals("hash") && !parts[1].equals("grace")
+                        && !parts[1].equals("parallel") && !parts[1].equals("sortmerge")
+                        && !parts[1].equals("index") && !parts[1].equals("block") && !parts[1].equals("nested")) return false;
+                joinAlgorithm = parts[1];
+                return true;
+            case "triejoin":
+                if (!parts[1].equals("auto") && !parts[1].equals("on") && !parts[1].equals("off")) return false;
+                triejoinMode = parts[1];
+                return true;
+            case "yannakakis":
+                if (!parts[1].equals("auto") && !parts[1].equals("on") && !parts[1].equals("off")) return false;
+                yannakakisMode = parts[1];
+                return true;
+            case "memory":
+                dbcat.setOperatorMemory(Long.parseLong(parts[1]) << 20);
+                return true;
+            case "cache":
+                dbcat.setCacheBudget(Long.parseLong(parts[1]) << 20);
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public static void evaluateCQ(String databaseDir, String inputFile, String outputFile) {
         try {
             DatabaseCatalog dbcat = DatabaseCatalog.getInstance();
             dbcat.init(databaseDir);
+            // the spill statistics are reported per query
+            dbcat.getSpillStatistics().clear();
 
             Query query = QueryParser.parse(Paths.get(inputFile));
 
@@ -41,8 +148,30 @@ public class Minibase {
             // then execute the {@link Operator#dump(String)} method on root to get the query result
             Operator queryPlan = buildQueryPlan(query);
             if (queryPlan != null) {
+                CompiledOperator compiledPlan = compilePlan ? PlanCompiler.compile(queryPlan) : null;
+                if (compiledPlan != null) queryPlan = compiledPlan;
                 OutputFileWriter.initialiseOutputWriter(outputFile);
-                queryPlan.dump(outputFile);
+                long start = System.nanoTime();
+                if (executionMode.equals("batch"))
+                    queryPlan.dumpBatches(outputFile);
+                else if (executionMode.equals("reuse"))
+                    queryPlan.dumpReusing(outputFile);
+                else
+                    queryPlan.dump(outputFile);
+                long executeNanos = System.nanoTime() - start;
+                // the readers and the off-heap buffers of the materializing operators are released here
+                queryPlan.close();
+                if (reportStatistics) {
+                    System.err.println(dbcat.getRelationCache());
+                    System.err.println(dbcat.getScanStatistics());
+                    System.err.println(dbcat.getSpillStatistics());
+                    System.err.println("RowArena{peakReservedBytes=" + RowArena.getPeakReservedBytes()
+                            + ", reservedBytesAfterClose=" + RowArena.getReservedBytes() + "}");
+                    // the compile time of a compiled plan is not part of its execution time
+                    System.err.printf("Execution{plan=%s, compileTime=%.1f ms, executionTime=%.1f ms}%n",
+                            compiledPlan != null ? "compiled" : "interpreted",
+                            compiledPlan != null ? compiledPlan.getCompileNanos() / 1e6 : 0.0, executeNanos / 1e6);
+                }
             } else {
                 System.out.println("-- Empty query --");
             }
@@ -58,9 +187,18 @@ public class Minibase {
      * The {@code RelationalAtom} in the query body will be processed from left to right,
      * building a tree in a Post-Order Traversal.
      * For each {@code RelationalAtom}:
-     *      (1) Generate a {@link ScanOperator} for its target relation;
-     *      (2) Generate a {@link SelectOperator} above it, depending on the {@code ComparisonAtom} related to it;
-     *      (3) Join the roots of current subtree and the previous subtree on the right, using a {@link JoinOperator}.
+     *      (1) Generate a {@link ScanOperator} for its target relation,
+     *          the {@code ComparisonAtom} that only involve its variables are checked inside the scan;
+     *      (2) Only the live columns of the atom are output by the scan (projection pushdown);
+     *      (3) Join the roots of current subtree and the previous subtree on the right: if they are joined on some
+     *          equality, with a {@link HashJoinOperator}, or a {@link GraceHashJoinOperator} when the right relation
+     *          may not fit in the operator memory, or a {@link ParallelHashJoinOperator} when both inputs are large,
+     *          or an {@link IndexNestedLoopJoinOperator} when the right relation has an index on the join key and
+     *          the left input is estimated to be small;
+     *          otherwise with a {@link BlockNestedLoopJoinOperator} (see {@link #chooseJoinAlgorithm}).
+     * A cyclic query body is instead joined by a single {@link LeapfrogTriejoinOperator} over the scans of all its
+     * atoms (see {@link #useTriejoin}). The atoms of an acyclic query body may first be reduced by a
+     * {@link YannakakisReducer}, then joined in an order following its join tree (see {@link #useSemiJoinReduction}).
      * After all the body atoms are processed, one of {@link ProjectOperator}/{@link SumOperator}
      * will be built above the root of previous tree.
      * @param query a {@link Query} instance, represents a input query.
@@ -69,7 +207,7 @@ public class Minibase {
     private static Operator buildQueryPlan(Query query) {
         // Use two list to store RelationAtoms and ComparisonAtoms separately
         // Later the script will build a new tree branch (starting from ScanOperator) for each RelationalAtom,
-        // and find the relative ComparisonAtoms for each ComparisonAtom, using these conditions in SelectOperator and JoinOperator.
+        // and find the relative ComparisonAtoms for each ComparisonAtom, using these conditions in ScanOperator and JoinOperator.
         List<RelationalAtom> relationalAtoms = new ArrayList<>();
         List<ComparisonAtom> selectConditions = new ArrayList<>();
 
@@ -111,8 +249,57 @@ public class Minibase {
             }
         }
 
-        // Generate the query plan tree
+        // Generate the query plan tree: a single worst-case optimal join for a cyclic query,
+        // otherwise a left-deep tree of binary joins, over the fully reduced atoms for an acyclic one
+        Operator root;
+        if (useTriejoin(relationalAtoms)) {
+            root = buildTriejoin(relationalAtoms, selectConditions, query.getHead());
+        } else {
+            JoinTree tree = useSemiJoinReduction(relationalAtoms);
+            YannakakisReducer reducer = null;
+            if (tree != null) {
+                // join the atoms in the order of the body, unless a prefix of it is not connected in the tree
+                if (!tree.followsBodyOrder()) {
+                    int[] order = tree.getTopDownOrder();
+                    List<RelationalAtom> reordered = new ArrayList<>();
+                    for (int atom : order)
+                        reordered.add(relationalAtoms.get(atom));
+                    relationalAtoms = reordered;
+                    tree = tree.reorder(order);
+                }
+                reducer = new YannakakisReducer(tree.getParents(), tree.getTopDownOrder());
+            }
+            root = buildLeftDeepJoins(relationalAtoms, selectConditions, query.getHead(), reducer);
+        }
+
+        // Project operation & Aggregation operations
+        Head head = query.getHead();
+        if(head.getSumAggregate() != null)
+        {
+            root = new SumOperator(root, query.getHeadAtom());
+        }
+        else {
+
+            root = new ProjectOperator(root, query.getHeadAtom());
+        }
+        return root;
+    }
+
+    /**
+     * Build the left-deep join tree of the query body, see {@link #buildQueryPlan}.
+     * @param relationalAtoms the RelationalAtoms of the query body, without constants.
+     * @param selectConditions all the ComparisonAtoms of the query body.
+     * @param head the query head.
+     * @param reducer the reducer of the atoms, whose scans are registered in the order of the atoms,
+     *                {@code null} to join the scans directly.
+     * @return the root of the join tree.
+     */
+    private static Operator buildLeftDeepJoins(List<RelationalAtom> relationalAtoms,
+                                               List<ComparisonAtom> selectConditions, Head head,
+                                               YannakakisReducer reducer) {
         Operator root = null;
+        long rootRows = 0;
+        // the estimated number of rows of the root, see estimateRows
         List<String> previousVariables = new ArrayList<>();
         for (RelationalAtom rAtom : relationalAtoms) {
             // subtreeVariables: Stores the appeared variable names in the previous built subtree,
@@ -124,15 +311,18 @@ public class Minibase {
                 if (term instanceof Variable) subtreeVariables.add(((Variable) term).getName());
             }
 
-            // Scan operation
-            Operator subtree = new ScanOperator(rAtom);
-
-            // Select operation
+            // Scan operation, the select conditions that only involve the variables of this atom are checked
+            // inside the scan, and only the live columns of the atom are decoded and output
             List<ComparisonAtom> selectCompAtomList = new ArrayList<>();
             for (ComparisonAtom cAtom : selectConditions)
                 if (variableAllAppeared(cAtom, subtreeVariables))
                     selectCompAtomList.add(cAtom);
-            subtree = new SelectOperator(subtree, selectCompAtomList);
+            ScanOperator subtree = new ScanOperator(rAtom,
+                    computeLiveColumns(rAtom, relationalAtoms, selectConditions, selectCompAtomList, head),
+                    selectCompAtomList);
+            long subtreeRows = estimateRows(rAtom.getName(), selectCompAtomList);
+            // the reduced tuples of the atom, which are no longer read through the scan
+            Operator input = reducer == null ? subtree : reducer.leaf(subtree);
 
             // Join operation
             List<String> mergedVariables = new ArrayList<>();
@@ -140,7 +330,8 @@ public class Minibase {
             mergedVariables.addAll(subtreeVariables);
             if (root == null) {
                 // if this is the first branch of query plan tree, record it as root
-                root = subtree;
+                root = input;
+                rootRows = subtreeRows;
             } else {
                 // if before this branch starting from the current RelationalAtom,
                 // there already exists a subtree at left side,
@@ -152,24 +343,206 @@ public class Minibase {
                             variableAllAppeared(cAtom, mergedVariables))
                         joinCompAtomList.add(cAtom);
                 }
-                root = new JoinOperator(root, subtree, joinCompAtomList);
+                boolean hasEquality =
+                        JoinOperator.hasEquality(root.getVarList(), input.getVarList(), joinCompAtomList);
+                BPlusTreeIndex index = hasEquality && reducer == null
+                        ? IndexNestedLoopJoinOperator.findIndex(root, subtree, joinCompAtomList) : null;
+                String algorithm = chooseJoinAlgorithm(rAtom.getName(), hasEquality, index, rootRows,
+                        root.getVarList().size(), subtreeRows);
+                if (algorithm.equals("index"))
+                    root = new IndexNestedLoopJoinOperator(root, subtree, joinCompAtomList, index);
+                else if (algorithm.equals("nested"))
+                    root = new JoinOperator(root, input, joinCompAtomList);
+                else if (algorithm.equals("block"))
+                    root = new BlockNestedLoopJoinOperator(root, input, joinCompAtomList);
+                else if (algorithm.equals("parallel"))
+                    root = new ParallelHashJoinOperator(root, input, joinCompAtomList);
+                else if (algorithm.equals("grace"))
+                    root = new GraceHashJoinOperator(root, input, joinCompAtomList);
+                else if (algorithm.equals("sortmerge"))
+                    root = new SortMergeJoinOperator(root, input, joinCompAtomList);
+                else
+                    root = new HashJoinOperator(root, input, joinCompAtomList);
+                // a key join keeps about the rows of its larger input
+                rootRows = Math.max(rootRows, subtreeRows);
             }
 
             // update variable list after two subtrees are joined
             previousVariables = mergedVariables;
         }
+        return root;
+    }
 
-        // Project operation & Aggregation operations
-        Head head = query.getHead();
-        if(head.getSumAggregate() != null)
-        {
-            root = new SumOperator(root, query.getHeadAtom());
+    /**
+     * Decide whether the query body is joined by a {@link LeapfrogTriejoinOperator}, following the 'triejoin' option:
+     * 'auto' for the cyclic queries (see {@link JoinTree#build}), 'on' for all the queries of several atoms.
+     * The atoms holding a variable twice are not supported.
+     * @param relationalAtoms the RelationalAtoms of the query body, without constants.
+     * @return {@code true} to use the leapfrog triejoin.
+     */
+    private static boolean useTriejoin(List<RelationalAtom> relationalAtoms) {
+        if (triejoinMode.equals("off") || relationalAtoms.size() < 2) return false;
+        for (RelationalAtom rAtom : relationalAtoms) {
+            List<String> variables = new ArrayList<>();
+            for (Term term : rAtom.getTerms()) {
+                String name = ((Variable) term).getName();
+                if (variables.contains(name)) return false;
+                variables.add(name);
+            }
         }
-        else {
+        return triejoinMode.equals("on") || JoinTree.build(relationalAtoms) == null;
+    }
 
-            root = new ProjectOperator(root, query.getHeadAtom());
+    /**
+     * Decide whether the atoms of the query body are reduced by a {@link YannakakisReducer} before they are joined,
+     * following the 'yannakakis' option: the query body must be acyclic. In the 'auto' mode, it must hold three atoms
+     * or more (a single join already drops the dangling tuples of its inputs), and the estimated size of the parsed
+     * relations (their text files times {@link #TEXT_TO_MEMORY_RATIO}) must fit in the operator memory of the
+     * catalog, as the reducer holds them all in memory.
+     * @param relationalAtoms the RelationalAtoms of the query body, without constants.
+     * @return the join tree of the query body, or {@code null} not to reduce it.
+     */
+    private static JoinTree useSemiJoinReduction(List<RelationalAtom> relationalAtoms) {
+        if (yannakakisMode.equals("off") || relationalAtoms.size() < 2) return null;
+        if (yannakakisMode.equals("auto")) {
+            if (relationalAtoms.size() < 3) return null;
+            DatabaseCatalog dbcat = DatabaseCatalog.getInstance();
+            long estimatedBytes = 0;
+            for (RelationalAtom rAtom : relationalAtoms)
+                estimatedBytes += new File(dbcat.getRelationPath(rAtom.getName())).length() * TEXT_TO_MEMORY_RATIO;
+            if (estimatedBytes > dbcat.getOperatorMemory()) return null;
         }
-        return root;
+        return JoinTree.build(relationalAtoms);
+    }
+
+    /**
+     * Build a {@link LeapfrogTriejoinOperator} over a scan of every atom of the query body, with the same scan
+     * conditions and live columns as in the left-deep plan; the conditions between the variables of several atoms
+     * are checked by a {@link SelectOperator} above the join.
+     * @param relationalAtoms the RelationalAtoms of the query body, without constants.
+     * @param selectConditions all the ComparisonAtoms of the query body.
+     * @param head the query head.
+     * @return the root of the join.
+     */
+    private static Operator buildTriejoin(List<RelationalAtom> relationalAtoms, List<ComparisonAtom> selectConditions,
+                                          Head head) {
+        List<Operator> scans = new ArrayList<>();
+        List<ComparisonAtom> joinConditions = new ArrayList<>(selectConditions);
+        for (RelationalAtom rAtom : relationalAtoms) {
+            List<String> atomVariables = new ArrayList<>();
+            for (Term term : rAtom.getTerms())
+                atomVariables.add(((Variable) term).getName());
+            List<ComparisonAtom> scanConditions = new ArrayList<>();
+            for (ComparisonAtom cAtom : selectConditions)
+                if (variableAllAppeared(cAtom, atomVariables)) scanConditions.add(cAtom);
+            // compared by identity: Atom#equals holds for any two atoms of the same class
+            joinConditions.removeIf(cAtom -> scanConditions.stream().anyMatch(scanCondition -> scanCondition == cAtom));
+            scans.add(new ScanOperator(rAtom,
+                    computeLiveColumns(rAtom, relationalAtoms, selectConditions, scanConditions, head),
+                    scanConditions));
+        }
+        Operator root = new LeapfrogTriejoinOperator(scans);
+        return joinConditions.isEmpty() ? root : new SelectOperator(root, joinConditions);
+    }
+
+    /**
+     * Choose the operator of a join with a relation, following the 'join' option.
+     * In the 'auto' mode, a join without an equality uses the block nested loop join. An equi-join uses the index
+     * nested loop join if the relation has an index on the join key and probing it for every left row costs less
+     * than reading the relation ({@link #INDEX_PROBE_COST}); otherwise the hash join, unless the estimated size of
+     * the parsed relation (its text file times {@link #TEXT_TO_MEMORY_RATIO}) exceeds the operator memory of the
+     * catalog: its hash table could then not be held in memory, while the Grace hash join partitions both inputs
+     * to disk. When both inputs are estimated to hold {@link #PARALLEL_JOIN_ROWS} rows or more and the catalog has
+     * several join threads, the parallel hash join partitions them across the threads instead; unlike the hash join,
+     * it also reads the whole left input in memory, so the estimated size of the left rows ({@link #ESTIMATED_FIELD_BYTES}
+     * per field, times {@link #TEXT_TO_MEMORY_RATIO}) and of the relation must fit in the operator memory together.
+     * The forced 'parallel' mode does not check it.
+     * @param relationName the relation on the right side of the join.
+     * @param hasEquality whether the join has an equality between the two sides (see {@link JoinOperator#hasEquality}).
+     * @param index an index of the relation on the join key, {@code null} if there is none.
+     * @param leftRows the estimated number of rows of the left input.
+     * @param leftColumns the number of columns of the left input.
+     * @param rightRows the estimated number of rows of the relation that satisfy its scan conditions.
+     * @return "index", "hash", "grace", "parallel", "sortmerge", "block" or "nested".
+     */
+    private static String chooseJoinAlgorithm(String relationName, boolean hasEquality, BPlusTreeIndex index,
+                                              long leftRows, int leftColumns, long rightRows) {
+        if (joinAlgorithm.equals("block") || joinAlgorithm.equals("nested")) return joinAlgorithm;
+        if (!hasEquality) return "block";
+        if (index != null && (joinAlgorithm.equals("index")
+                || (joinAlgorithm.equals("auto") && leftRows * INDEX_PROBE_COST < index.getEntryCount())))
+            return "index";
+        if (!joinAlgorithm.equals("auto") && !joinAlgorithm.equals("index")) return joinAlgorithm;
+        DatabaseCatalog dbcat = DatabaseCatalog.getInstance();
+        long estimatedBytes = new File(dbcat.getRelationPath(relationName)).length() * TEXT_TO_MEMORY_RATIO;
+        if (estimatedBytes > dbcat.getOperatorMemory()) return "grace";
+        long estimatedLeftBytes = leftRows * leftColumns * ESTIMATED_FIELD_BYTES * TEXT_TO_MEMORY_RATIO;
+        return dbcat.getJoinThreads() > 1 && Math.min(leftRows, rightRows) >= PARALLEL_JOIN_ROWS
+                && estimatedLeftBytes + estimatedBytes <= dbcat.getOperatorMemory() ? "parallel" : "hash";
+    }
+
+    /**
+     * Estimate the number of records of a relation that satisfy some scan conditions:
+     * the size of its text file over {@link #ESTIMATED_FIELD_BYTES} per field, times a selectivity of 1/10 for every
+     * '=' condition and of 1/3 for every other condition (the usual defaults without statistics on the values).
+     * @param relationName the name of relation.
+     * @param scanConditions the conditions checked by the scan of the relation.
+     * @return the estimated number of rows, at least 1.
+     */
+    private static long estimateRows(String relationName, List<ComparisonAtom> scanConditions) {
+        DatabaseCatalog dbcat = DatabaseCatalog.getInstance();
+        double rows = new File(dbcat.getRelationPath(relationName)).length()
+                / (double) (ESTIMATED_FIELD_BYTES * dbcat.getSchema(relationName).size());
+        for (ComparisonAtom condition : scanConditions)
+            rows *= condition.getOp() == ComparisonOperator.EQ ? 0.1 : 1 / 3.0;
+        return Math.max(1, (long) rows);
+    }
+
+    /**
+     * Work out which columns of a RelationalAtom are still needed above its scan (projection pushdown).
+     * A column is live if its variable is used by the query head (including the SUM term),
+     * by some ComparisonAtom that is not checked inside the scan, or by another column of the query body
+     * (i.e. it takes part in a join).
+     * The other columns are never output by the scan, and only decoded if a condition of the scan reads them.
+     * @param rAtom the atom to be scanned.
+     * @param relationalAtoms all the RelationalAtoms of the query body.
+     * @param conditions all the ComparisonAtoms of the query body.
+     * @param scanConditions the ComparisonAtoms that are checked inside the scan of {@code rAtom}.
+     * @param head the query head.
+     * @return a mask over the terms of {@code rAtom}, {@code true} for the live columns.
+     */
+    private static boolean[] computeLiveColumns(RelationalAtom rAtom, List<RelationalAtom> relationalAtoms,
+                                                List<ComparisonAtom> conditions, List<ComparisonAtom> scanConditions,
+                                                Head head) {
+        List<String> usedAbove = new ArrayList<>();
+        for (Variable variable : head.getVariables())
+            usedAbove.add(variable.getName());
+        if (head.getSumAggregate() != null) {
+            for (Term term : head.getSumAggregate().getProductTerms())
+                if (term instanceof Variable) usedAbove.add(((Variable) term).getName());
+        }
+        for (ComparisonAtom cAtom : conditions) {
+            // compared by identity: Atom#equals holds for any two atoms of the same class
+            if (scanConditions.stream().anyMatch(scanCondition -> scanCondition == cAtom)) continue;
+            if (cAtom.getTerm1() instanceof Variable) usedAbove.add(((Variable) cAtom.getTerm1()).getName());
+            if (cAtom.getTerm2() instanceof Variable) usedAbove.add(((Variable) cAtom.getTerm2()).getName());
+        }
+
+        List<Term> terms = rAtom.getTerms();
+        boolean[] live = new boolean[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            if (!(terms.get(i) instanceof Variable)) {
+                live[i] = true;
+                continue;
+            }
+            String name = ((Variable) terms.get(i)).getName();
+            int occurrences = 0;
+            for (RelationalAtom other : relationalAtoms)
+                for (Term term : other.getTerms())
+                    if (term instanceof Variable && ((Variable) term).getName().equals(name)) occurrences++;
+            live[i] = usedAbove.contains(name) || occurrences > 1;
+        }
+        return live;
     }
 
     /**
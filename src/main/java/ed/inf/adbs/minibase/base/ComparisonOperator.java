@@ -22,6 +22,52 @@ public enum ComparisonOperator {
         return text;
     }
 
+    /**
+     * Decide whether the operator holds, given the result of comparing its left operand to its right operand.
+     * @param comparison negative, zero or positive, as returned by {@code compareTo}.
+     * @return {@code true} if "left op right" holds.
+     */
+    public boolean holds(int comparison) {
+        switch (this) {
+            case EQ: return comparison == 0;
+            case NEQ: return comparison != 0;
+            case GT: return comparison > 0;
+            case GEQ: return comparison >= 0;
+            case LT: return comparison < 0;
+            default: return comparison <= 0;
+        }
+    }
+
+    /**
+     * Decide whether the operator holds between two ints, without comparing them first.
+     * @param left the left operand.
+     * @param right the right operand.
+     * @return {@code true} if "left op right" holds.
+     */
+    public boolean holds(int left, int right) {
+        switch (this) {
+            case EQ: return left == right;
+            case NEQ: return left != right;
+            case GT: return left > right;
+            case GEQ: return left >= right;
+            case LT: return left < right;
+            default: return left <= right;
+        }
+    }
+
+    /**
+     * @return the operator that holds for "right op' left" whenever this operator holds for "left op right".
+     */
+    public ComparisonOperator reverse() {
+        switch (this) {
+            case GT: return LT;
+            case GEQ: return LEQ;
+            case LT: return GT;
+            case LEQ: return GEQ;
+            default: return this;
+        }
+    }
+
     public static ComparisonOperator fromString(String s) throws NoSuchElementException {
         return Arrays.stream(values())
                 .filter(op -> op.text.equalsIgnoreCase(s))
@@ -0,0 +1,169 @@
+package ed.inf.adbs.minibase.benchmark;
+
+import ed.inf.adbs.minibase.base.ComparisonAtom;
+import ed.inf.adbs.minibase.base.ComparisonOperator;
+import ed.inf.adbs.minibase.base.IntegerConstant;
+import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.StringConstant;
+import ed.inf.adbs.minibase.base.SumAggregateTerm;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.Variable;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
+import ed.inf.adbs.minibase.operators.CompiledOperator;
+import ed.inf.adbs.minibase.operators.JoinOperator;
+import ed.inf.adbs.minibase.operators.Operator;
+import ed.inf.adbs.minibase.operators.PlanCompiler;
+import ed.inf.adbs.minibase.operators.ProjectOperator;
+import ed.inf.adbs.minibase.operators.ScanOperator;
+import ed.inf.adbs.minibase.operators.SelectOperator;
+import ed.inf.adbs.minibase.operators.SumOperator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Comparison of the interpreted execution of query plans with their execution as classes generated
+ * by {@link PlanCompiler}, over the synthetic relations B(int, int, string, int) and D(int, string)
+ * of {@link ExecutionBenchmark}, cached in memory.
+ *
+ * For every plan it reports the time of the first compilation (generating, compiling and loading the class),
+ * the best interpreted and compiled runs in nanoseconds per row of B (the compiled runs do not include
+ * the compilation, the class of an identical plan is cached), and the number of rows of B from which
+ * the compilation pays off: the first compilation divided by the time saved per row.
+ *
+ * Usage: CompilationBenchmark [number_of_rows] [repetitions]
+ */
+public class CompilationBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File dbDir = generateDatabase(rows);
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(dbDir.getPath());
+        dbc.setCacheBudget(1L << 30);
+        System.out.printf("Relation B: %d rows, relation D: 100 rows%n", rows);
+
+        for (boolean dictionary : new boolean[]{false, true}) {
+            dbc.setUseDictionary(dictionary);
+            String suffix = dictionary ? "+DICT" : "";
+            // Q(c, d) :- B(a, b, c, d), d < 50
+            measure("SELECT-PROJECT" + suffix, rows, repetitions, () -> new ProjectOperator(
+                    new SelectOperator(scanB(), Collections.singletonList(
+                            new ComparisonAtom(new Variable("d"), new IntegerConstant(50), ComparisonOperator.LT))),
+                    atom("Q", "c", "d")));
+            // Q(c, d) :- B(a, b, c, d), c >= 'mlpr'
+            measure("STRING-SELECT" + suffix, rows, repetitions, () -> new ProjectOperator(
+                    new SelectOperator(scanB(), Collections.singletonList(
+                            new ComparisonAtom(new Variable("c"), new StringConstant("mlpr"), ComparisonOperator.GEQ))),
+                    atom("Q", "c", "d")));
+            // Q(c, SUM(b)) :- B(a, b, c, d)
+            measure("SUM" + suffix, rows, repetitions, () -> {
+                List<Term> head = new ArrayList<>();
+                head.add(new Variable("c"));
+                head.add(new SumAggregateTerm("b"));
+                return new SumOperator(scanB(), new RelationalAtom("Q", head));
+            });
+            // Q(a, e) :- B(a, b, c, d), D(d, e)          (a hash probe per row of B once compiled)
+            measure("JOIN" + suffix, rows, repetitions, () -> new ProjectOperator(
+                    new JoinOperator(scanB(), new ScanOperator(atom("D", "d", "e")), new ArrayList<>()),
+                    atom("Q", "a", "e")));
+        }
+    }
+
+    private static ScanOperator scanB() {
+        return new ScanOperator(atom("B", "a", "b", "c", "d"));
+    }
+
+    private static RelationalAtom atom(String name, String... variables) {
+        List<Term> terms = new ArrayList<>();
+        for (String variable : variables)
+            terms.add(new Variable(variable));
+        return new RelationalAtom(name, terms);
+    }
+
+    /**
+     * Evaluate a plan several times interpreted and compiled, alternately, and print the best run of each.
+     * @param plan builds a fresh plan for every run.
+     */
+    private static void measure(String label, int rows, int repetitions, Supplier<Operator> plan) {
+        long firstCompile = -1;
+        long bestInterpreted = Long.MAX_VALUE, bestCompiled = Long.MAX_VALUE;
+        int interpretedCount = 0, compiledCount = 0;
+        for (int r = 0; r < repetitions; r++) {
+            Operator interpreted = plan.get();
+            long start = System.nanoTime();
+            interpretedCount = countTuples(interpreted);
+            bestInterpreted = Math.min(bestInterpreted, System.nanoTime() - start);
+            interpreted.close();
+
+            CompiledOperator compiled = PlanCompiler.compile(plan.get());
+            if (compiled == null) {
+                System.out.printf("%-19s not compiled%n", label);
+                return;
+            }
+            if (firstCompile < 0) firstCompile = compiled.getCompileNanos();
+            start = System.nanoTime();
+            compiledCount = countTuples(compiled);
+            bestCompiled = Math.min(bestCompiled, System.nanoTime() - start);
+            compiled.close();
+        }
+        if (interpretedCount != compiledCount)
+            throw new IllegalStateException(label + ": " + interpretedCount + " vs " + compiledCount + " rows");
+        double saved = (bestInterpreted - bestCompiled) / (double) rows;
+        System.out.printf("%-19s interpreted %7.1f ns/row   compiled %7.1f ns/row   first compilation %7.1f ms   "
+                        + "pays off from %s rows   (%d rows out)%n", label,
+                bestInterpreted / (double) rows, bestCompiled / (double) rows, firstCompile / 1e6,
+                saved > 0 ? String.valueOf((long) (firstCompile / saved)) : "no", interpretedCount);
+    }
+
+    private static int countTuples(Operator root) {
+        int count = 0;
+        while (root.getNextTuple() != null) count++;
+        return count;
+    }
+
+    /**
+     * Write a database directory with the relations B(int, int, string, int) and D(int, string) of random content,
+     * the same as {@link ExecutionBenchmark}.
+     * @param rows the number of rows of B.
+     * @return the database directory.
+     */
+    private static File generateDatabase(int rows) throws IOException {
+        File dbDir = Files.createTempDirectory("minibase-bench").toFile();
+        File filesDir = new File(dbDir, "files");
+        filesDir.mkdirs();
+        // files registered later are deleted first
+        dbDir.deleteOnExit();
+        filesDir.deleteOnExit();
+        new File(dbDir, "schema.txt").deleteOnExit();
+        new File(filesDir, "B.csv").deleteOnExit();
+        new File(filesDir, "D.csv").deleteOnExit();
+        try (BufferedWriter schema = new BufferedWriter(new FileWriter(new File(dbDir, "schema.txt")))) {
+            schema.write("B int int string int\n");
+            schema.write("D int string\n");
+        }
+        String[] words = {"adbs", "anlp", "ids", "mlpr", "rhcp", "smith", "anka", "iaml"};
+        Random random = new Random(42);
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "B.csv")))) {
+            for (int i = 0; i < rows; i++) {
+                relation.write(i + ", " + random.nextInt(1000000) + ", '" + words[random.nextInt(words.length)]
+                        + "', " + random.nextInt(100) + "\n");
+            }
+        }
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "D.csv")))) {
+            for (int i = 0; i < 100; i++)
+                relation.write(i + ", '" + words[i % words.length] + "'\n");
+        }
+        return dbDir;
+    }
+}
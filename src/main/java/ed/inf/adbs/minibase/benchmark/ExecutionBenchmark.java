@@ -0,0 +1,199 @@
+package ed.inf.adbs.minibase.benchmark;
+
+import ed.inf.adbs.minibase.base.ComparisonAtom;
+import ed.inf.adbs.minibase.base.ComparisonOperator;
+import ed.inf.adbs.minibase.base.IntegerConstant;
+import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.StringConstant;
+import ed.inf.adbs.minibase.base.SumAggregateTerm;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.Variable;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
+import ed.inf.adbs.minibase.dbhelper.Tuple;
+import ed.inf.adbs.minibase.dbhelper.TupleBatch;
+import ed.inf.adbs.minibase.operators.JoinOperator;
+import ed.inf.adbs.minibase.operators.Operator;
+import ed.inf.adbs.minibase.operators.ProjectOperator;
+import ed.inf.adbs.minibase.operators.ScanOperator;
+import ed.inf.adbs.minibase.operators.SelectOperator;
+import ed.inf.adbs.minibase.operators.SumOperator;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Comparison of the tuple-at-a-time execution ({@code Operator#getNextTuple()}), the vectorized execution
+ * ({@code Operator#getNextBatch()}) and the tuple-at-a-time execution with reused row buffers
+ * ({@code Operator#getNextTuple(Tuple)}) of the same query plans, over synthetic relations generated in a temporary
+ * database directory: a large relation B(int, int, string, int) and a small relation D(int, string).
+ * The relations are cached in memory (see {@code DatabaseCatalog#setCacheBudget}), so that the time is spent
+ * in the operators above the scans rather than in parsing the files.
+ *
+ * All the plans are measured with the strings as plain values and with the strings encoded
+ * by the global string dictionary (see {@code DatabaseCatalog#setUseDictionary}).
+ *
+ * Each plan is evaluated several times in every mode, alternately, and the best run is reported in nanoseconds
+ * per row of B, with the bytes allocated per row of B by the evaluating thread (the lowest of the runs);
+ * the first runs only warm up the JIT compiler, a few repetitions are needed.
+ *
+ * Usage: ExecutionBenchmark [number_of_rows] [repetitions]
+ */
+public class ExecutionBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File dbDir = generateDatabase(rows);
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(dbDir.getPath());
+        dbc.setCacheBudget(1L << 30);
+        System.out.printf("Relation B: %d rows, relation D: 100 rows%n", rows);
+
+        for (boolean dictionary : new boolean[]{false, true}) {
+            // the plans are built after this call, so that they all use the same dictionary
+            dbc.setUseDictionary(dictionary);
+            String suffix = dictionary ? "+DICT" : "";
+            // Q(c, d) :- B(a, b, c, d), d < 50          (the condition is left to a SelectOperator)
+            measure("SELECT-PROJECT" + suffix, rows, repetitions, () -> new ProjectOperator(
+                    new SelectOperator(scanB(), Collections.singletonList(
+                            new ComparisonAtom(new Variable("d"), new IntegerConstant(50), ComparisonOperator.LT))),
+                    atom("Q", "c", "d")));
+            // Q(c, d) :- B(a, b, c, d), c >= 'mlpr'
+            measure("STRING-SELECT" + suffix, rows, repetitions, () -> new ProjectOperator(
+                    new SelectOperator(scanB(), Collections.singletonList(
+                            new ComparisonAtom(new Variable("c"), new StringConstant("mlpr"), ComparisonOperator.GEQ))),
+                    atom("Q", "c", "d")));
+            // Q(c, SUM(b)) :- B(a, b, c, d)
+            measure("SUM" + suffix, rows, repetitions, () -> {
+                List<Term> head = new ArrayList<>();
+                head.add(new Variable("c"));
+                head.add(new SumAggregateTerm("b"));
+                return new SumOperator(scanB(), new RelationalAtom("Q", head));
+            });
+            // Q(a, e) :- B(a, b, c, d), D(d, e)          (tuple nested loop join, 100 pairs per row of B)
+            measure("JOIN" + suffix, rows, repetitions, () -> new ProjectOperator(
+                    new JoinOperator(scanB(), new ScanOperator(atom("D", "d", "e")), new ArrayList<>()),
+                    atom("Q", "a", "e")));
+            // Q(c, f) :- B(a, b, c, d), D(f, c)          (join on the string column)
+            measure("STRING-JOIN" + suffix, rows, repetitions, () -> new ProjectOperator(
+                    new JoinOperator(scanB(), new ScanOperator(atom("D", "f", "c")), new ArrayList<>()),
+                    atom("Q", "c", "f")));
+        }
+    }
+
+    private static ScanOperator scanB() {
+        return new ScanOperator(atom("B", "a", "b", "c", "d"));
+    }
+
+    private static RelationalAtom atom(String name, String... variables) {
+        List<Term> terms = new ArrayList<>();
+        for (String variable : variables)
+            terms.add(new Variable(variable));
+        return new RelationalAtom(name, terms);
+    }
+
+    /**
+     * Evaluate a plan several times tuple-at-a-time, vectorized and with reused row buffers,
+     * and print the best run of each mode.
+     * @param plan builds a fresh plan for every run.
+     */
+    private static void measure(String label, int rows, int repetitions, Supplier<Operator> plan) {
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        long[] allocated = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        int[] count = new int[3];
+        for (int r = 0; r < repetitions; r++) {
+            for (int mode = 0; mode < 3; mode++) {
+                Operator root = plan.get();
+                long allocatedStart = allocatedBytes();
+                long start = System.nanoTime();
+                count[mode] = mode == 0 ? countTuples(root) : mode == 1 ? countBatchRows(root) : countReusedTuples(root);
+                best[mode] = Math.min(best[mode], System.nanoTime() - start);
+                allocated[mode] = Math.min(allocated[mode], allocatedBytes() - allocatedStart);
+                root.close();
+            }
+        }
+        if (count[0] != count[1] || count[0] != count[2])
+            throw new IllegalStateException(label + ": " + Arrays.toString(count) + " rows");
+        System.out.printf("%-19s tuple %7.1f ns/row %6.1f B/row   batch %7.1f ns/row %6.1f B/row   "
+                        + "reuse %7.1f ns/row %6.1f B/row   (%d rows out)%n", label,
+                best[0] / (double) rows, allocated[0] / (double) rows, best[1] / (double) rows,
+                allocated[1] / (double) rows, best[2] / (double) rows, allocated[2] / (double) rows, count[0]);
+    }
+
+    /**
+     * @return the number of bytes allocated so far by the current thread, 0 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof ThreadMXBean)
+            return ((ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    private static int countTuples(Operator root) {
+        int count = 0;
+        while (root.getNextTuple() != null) count++;
+        return count;
+    }
+
+    private static int countReusedTuples(Operator root) {
+        Tuple buffer = new Tuple("Q", root.getVarList().size());
+        int count = 0;
+        while (root.getNextTuple(buffer) != null) count++;
+        return count;
+    }
+
+    private static int countBatchRows(Operator root) {
+        int count = 0;
+        TupleBatch batch;
+        while ((batch = root.getNextBatch()) != null) count += batch.size();
+        return count;
+    }
+
+    /**
+     * Write a database directory with the relations B(int, int, string, int) and D(int, string) of random content.
+     * @param rows the number of rows of B.
+     * @return the database directory.
+     */
+    private static File generateDatabase(int rows) throws IOException {
+        File dbDir = Files.createTempDirectory("minibase-bench").toFile();
+        File filesDir = new File(dbDir, "files");
+        filesDir.mkdirs();
+        // files registered later are deleted first
+        dbDir.deleteOnExit();
+        filesDir.deleteOnExit();
+        new File(dbDir, "schema.txt").deleteOnExit();
+        new File(filesDir, "B.csv").deleteOnExit();
+        new File(filesDir, "D.csv").deleteOnExit();
+        try (BufferedWriter schema = new BufferedWriter(new FileWriter(new File(dbDir, "schema.txt")))) {
+            schema.write("B int int string int\n");
+            schema.write("D int string\n");
+        }
+        String[] words = {"adbs", "anlp", "ids", "mlpr", "rhcp", "smith", "anka", "iaml"};
+        Random random = new Random(42);
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "B.csv")))) {
+            for (int i = 0; i < rows; i++) {
+                relation.write(i + ", " + random.nextInt(1000000) + ", '" + words[random.nextInt(words.length)]
+                        + "', " + random.nextInt(100) + "\n");
+            }
+        }
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "D.csv")))) {
+            for (int i = 0; i < 100; i++)
+                relation.write(i + ", '" + words[i % words.length] + "'\n");
+        }
+        return dbDir;
+    }
+}
@@ -0,0 +1,203 @@
+package ed.inf.adbs.minibase.benchmark;
+
+import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.SumAggregateTerm;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.Variable;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
+import ed.inf.adbs.minibase.dbhelper.RowArena;
+import ed.inf.adbs.minibase.dbhelper.Tuple;
+import ed.inf.adbs.minibase.operators.Operator;
+import ed.inf.adbs.minibase.operators.ProjectOperator;
+import ed.inf.adbs.minibase.operators.ScanOperator;
+import ed.inf.adbs.minibase.operators.SumOperator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Garbage collection cost of the materializing operators, whose state is held off-heap in a {@link RowArena},
+ * compared with the same state held as on-heap {@link Tuple} objects (a {@code HashSet} of the reported tuples,
+ * a {@code HashMap} from the group tuples to their sums, as the operators did before the arena).
+ * A synthetic relation G(int, int, string) with many distinct rows and groups, and a relation K(int, int, int)
+ * whose distinct rows are made of small ints (the hashes of such rows are close to each other, which the hash index of
+ * the arena must spread), are cached in memory (see {@code DatabaseCatalog#setCacheBudget}), then each plan is evaluated several times
+ * and the best run is reported with the collections and the collection time of the JVM during that run,
+ * and the peak off-heap memory of the arenas.
+ * Run it with a small heap (e.g. -Xmx1g) to make the difference visible.
+ *
+ * Usage: MaterializationBenchmark [number_of_rows] [repetitions]
+ */
+public class MaterializationBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File dbDir = generateDatabase(rows);
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(dbDir.getPath());
+        dbc.setCacheBudget(1L << 30);
+        System.out.printf("Relations G and K: %d rows each%n", rows);
+
+        // Q(a, b, c) :- G(a, b, c)          (duplicate elimination over mostly distinct rows)
+        measure("PROJECT-ARENA", repetitions, () -> drain(new ProjectOperator(scanG(), atom("Q", "a", "b", "c"))));
+        measure("PROJECT-HEAP", repetitions, () -> {
+            Operator scan = scanG();
+            Set<Tuple> reported = new HashSet<>();
+            Tuple tuple;
+            while ((tuple = scan.getNextTuple()) != null) reported.add(tuple);
+            scan.close();
+            return reported.size();
+        });
+        // Q(a, c, SUM(b)) :- G(a, b, c)       (rows / 2 groups)
+        measure("SUM-ARENA", repetitions, () -> {
+            List<Term> head = new ArrayList<>();
+            head.add(new Variable("a"));
+            head.add(new Variable("c"));
+            head.add(new SumAggregateTerm("b"));
+            return drain(new SumOperator(scanG(), new RelationalAtom("Q", head)));
+        });
+        measure("SUM-HEAP", repetitions, () -> {
+            Operator scan = scanG();
+            Map<Tuple, int[]> sums = new HashMap<>();
+            int[] groupIndices = {0, 2};
+            Tuple tuple;
+            while ((tuple = scan.getNextTuple()) != null)
+                sums.computeIfAbsent(tuple.project("Q", groupIndices), key -> new int[1])[0] += tuple.getInt(1);
+            scan.close();
+            return sums.size();
+        });
+        // Q(a, b, c) :- K(a, b, c)          (distinct rows of small ints)
+        measure("PROJECT-SMALL-ARENA", repetitions, () -> drain(new ProjectOperator(scanK(), atom("Q", "a", "b", "c"))));
+        measure("PROJECT-SMALL-HEAP", repetitions, () -> {
+            Operator scan = scanK();
+            Set<Tuple> reported = new HashSet<>();
+            Tuple tuple;
+            while ((tuple = scan.getNextTuple()) != null) reported.add(tuple);
+            scan.close();
+            return reported.size();
+        });
+        // Q(b, c, SUM(a)) :- K(a, b, c)       (rows / 64 groups of small ints)
+        measure("SUM-SMALL-ARENA", repetitions, () -> {
+            List<Term> head = new ArrayList<>();
+            head.add(new Variable("b"));
+            head.add(new Variable("c"));
+            head.add(new SumAggregateTerm("a"));
+            return drain(new SumOperator(scanK(), new RelationalAtom("Q", head)));
+        });
+        System.out.printf("Off-heap memory of the arenas: peak %.1f MB, %d bytes still reserved%n",
+                RowArena.getPeakReservedBytes() / (double) (1 << 20), RowArena.getReservedBytes());
+    }
+
+    private static ScanOperator scanG() {
+        return new ScanOperator(atom("G", "a", "b", "c"));
+    }
+
+    private static ScanOperator scanK() {
+        return new ScanOperator(atom("K", "a", "b", "c"));
+    }
+
+    private static RelationalAtom atom(String name, String... variables) {
+        List<Term> terms = new ArrayList<>();
+        for (String variable : variables)
+            terms.add(new Variable(variable));
+        return new RelationalAtom(name, terms);
+    }
+
+    /**
+     * Evaluate a plan to the end, then close it.
+     * @return the number of output tuples.
+     */
+    private static int drain(Operator root) {
+        int count = 0;
+        while (root.getNextTuple() != null) count++;
+        root.close();
+        return count;
+    }
+
+    /**
+     * Run a plan several times and print the best run, with the garbage collections done during that run.
+     * @param run evaluates the plan and returns the number of output tuples.
+     */
+    private static void measure(String label, int repetitions, Supplier<Integer> run) {
+        long bestNanos = Long.MAX_VALUE, bestCollections = 0, bestCollectionMillis = 0;
+        int count = 0;
+        for (int r = 0; r < repetitions; r++) {
+            System.gc();
+            long collections = collectionCount(), collectionMillis = collectionMillis();
+            long start = System.nanoTime();
+            count = run.get();
+            long nanos = System.nanoTime() - start;
+            if (nanos < bestNanos) {
+                bestNanos = nanos;
+                bestCollections = collectionCount() - collections;
+                bestCollectionMillis = collectionMillis() - collectionMillis;
+            }
+        }
+        System.out.printf("%-19s %8.1f ms   GC %3d collections %6d ms   (%d rows out)%n",
+                label, bestNanos / 1e6, bestCollections, bestCollectionMillis, count);
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, bean.getCollectionCount());
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, bean.getCollectionTime());
+        return millis;
+    }
+
+    /**
+     * Write a database directory with the relation G(int, int, string) of random content,
+     * every value of the first column appears in two rows, and the relation K(int, int, int) of distinct rows
+     * whose first two columns take 64 values.
+     * @param rows the number of rows of G and of K.
+     * @return the database directory.
+     */
+    private static File generateDatabase(int rows) throws IOException {
+        File dbDir = Files.createTempDirectory("minibase-bench").toFile();
+        File filesDir = new File(dbDir, "files");
+        filesDir.mkdirs();
+        // files registered later are deleted first
+        dbDir.deleteOnExit();
+        filesDir.deleteOnExit();
+        new File(dbDir, "schema.txt").deleteOnExit();
+        new File(filesDir, "G.csv").deleteOnExit();
+        new File(filesDir, "K.csv").deleteOnExit();
+        try (BufferedWriter schema = new BufferedWriter(new FileWriter(new File(dbDir, "schema.txt")))) {
+            schema.write("G int int string\nK int int int\n");
+        }
+        String[] words = {"adbs", "anlp", "ids", "mlpr"};
+        Random random = new Random(42);
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "G.csv")))) {
+            for (int i = 0; i < rows; i++) {
+                relation.write(i / 2 + ", " + random.nextInt(1000000) + ", '" + words[i / 2 % words.length] + "'\n");
+            }
+        }
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "K.csv")))) {
+            for (int i = 0; i < rows; i++) {
+                relation.write(i % 64 + ", " + i / 64 % 64 + ", " + i / 4096 + "\n");
+            }
+        }
+        return dbDir;
+    }
+}
@@ -0,0 +1,120 @@
+package ed.inf.adbs.minibase.benchmark;
+
+import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.Variable;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
+import ed.inf.adbs.minibase.operators.HashJoinOperator;
+import ed.inf.adbs.minibase.operators.Operator;
+import ed.inf.adbs.minibase.operators.ParallelHashJoinOperator;
+import ed.inf.adbs.minibase.operators.ScanOperator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Scaling of the {@link ParallelHashJoinOperator} with the number of worker threads, over synthetic relations
+ * generated in a temporary database directory: the equi-join L(a, b), R(b, c) on b, where every value of b
+ * appears in one row of R and about one row of L.
+ * The relations are cached in memory (see {@code DatabaseCatalog#setCacheBudget}), so that the time is spent
+ * in the join rather than in parsing the files; the children are still read on the calling thread.
+ *
+ * The single-threaded {@link HashJoinOperator} is measured first, then the parallel hash join with 1, 2, 4, ...
+ * threads up to the number of available processors (and that number itself). The best of several runs is reported,
+ * with its speedup over the parallel hash join on one thread.
+ *
+ * Usage: ParallelJoinBenchmark [number_of_rows] [repetitions]
+ */
+public class ParallelJoinBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File dbDir = generateDatabase(rows);
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(dbDir.getPath());
+        dbc.setCacheBudget(1L << 30);
+        System.out.printf("Relations L and R: %d rows each, %d processors%n",
+                rows, Runtime.getRuntime().availableProcessors());
+
+        measure("HASH", repetitions, 0, () -> new HashJoinOperator(scan("L", "a", "b"), scan("R", "b", "c"),
+                new ArrayList<>()));
+        long single = 0;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads = threads * 2 > maxThreads && threads < maxThreads
+                ? maxThreads : threads * 2) {
+            final int workers = threads;
+            long nanos = measure("PARALLEL-" + threads, repetitions, single, () -> new ParallelHashJoinOperator(
+                    scan("L", "a", "b"), scan("R", "b", "c"), new ArrayList<>(), workers));
+            if (threads == 1) single = nanos;
+        }
+    }
+
+    private static ScanOperator scan(String name, String... variables) {
+        List<Term> terms = new ArrayList<>();
+        for (String variable : variables)
+            terms.add(new Variable(variable));
+        return new ScanOperator(new RelationalAtom(name, terms));
+    }
+
+    /**
+     * Evaluate a join several times and print the best run.
+     * @param baseline the best run to compare with in nanoseconds, 0 for none.
+     * @param plan builds a fresh join.
+     * @return the best run in nanoseconds.
+     */
+    private static long measure(String label, int repetitions, long baseline, Supplier<Operator> plan) {
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for (int r = 0; r < repetitions; r++) {
+            Operator root = plan.get();
+            long start = System.nanoTime();
+            count = 0;
+            while (root.getNextTuple() != null) count++;
+            best = Math.min(best, System.nanoTime() - start);
+            root.close();
+        }
+        String speedup = baseline == 0 ? "" : String.format("   speedup %.2fx", baseline / (double) best);
+        System.out.printf("%-12s %8.1f ms%s   (%d rows out)%n", label, best / 1e6, speedup, count);
+        return best;
+    }
+
+    /**
+     * Write a database directory with the relations L(int, int) and R(int, string).
+     * @param rows the number of rows of each relation.
+     * @return the database directory.
+     */
+    private static File generateDatabase(int rows) throws IOException {
+        File dbDir = Files.createTempDirectory("minibase-bench").toFile();
+        File filesDir = new File(dbDir, "files");
+        filesDir.mkdirs();
+        // files registered later are deleted first
+        dbDir.deleteOnExit();
+        filesDir.deleteOnExit();
+        new File(dbDir, "schema.txt").deleteOnExit();
+        new File(filesDir, "L.csv").deleteOnExit();
+        new File(filesDir, "R.csv").deleteOnExit();
+        try (BufferedWriter schema = new BufferedWriter(new FileWriter(new File(dbDir, "schema.txt")))) {
+            schema.write("L int int\nR int string\n");
+        }
+        String[] words = {"adbs", "anlp", "ids", "mlpr"};
+        Random random = new Random(42);
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "L.csv")))) {
+            for (int i = 0; i < rows; i++)
+                relation.write(i + ", " + random.nextInt(rows) + "\n");
+        }
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "R.csv")))) {
+            for (int i = 0; i < rows; i++)
+                relation.write(i + ", '" + words[i % words.length] + "'\n");
+        }
+        return dbDir;
+    }
+}
@@ -0,0 +1,184 @@
+package ed.inf.adbs.minibase.benchmark;
+
+import ed.inf.adbs.minibase.base.ComparisonAtom;
+import ed.inf.adbs.minibase.base.ComparisonOperator;
+import ed.inf.adbs.minibase.base.IntegerConstant;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.Variable;
+import ed.inf.adbs.minibase.dbhelper.ColumnarConverter;
+import ed.inf.adbs.minibase.dbhelper.ColumnarFormat;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
+import ed.inf.adbs.minibase.dbhelper.ScanMode;
+import ed.inf.adbs.minibase.dbhelper.ZoneMap;
+import ed.inf.adbs.minibase.dbhelper.ZoneMapBuilder;
+import ed.inf.adbs.minibase.operators.ScanOperator;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throughput comparison of the scan paths of {@link ScanOperator}.
+ * A synthetic relation is generated in a temporary database directory,
+ * then it is fully scanned several times in every {@link ScanMode} and from its binary columnar file
+ * (with plain and with compressed column chunks), and the best run of each configuration is reported
+ * together with the size of the file that was read.
+ * The effect of projection pushdown, predicate pushdown, zone map block skipping and of the string dictionary
+ * is measured on the buffered scan.
+ * The parallel scan is measured with 1, 2, 4, ... worker threads up to the number of available processors,
+ * the prefetching scan with a queue of 8 batches (its stall times are printed).
+ * The bytes allocated per scanned record by the thread consuming the tuples are reported as well
+ * (allocations of background scan threads are not included).
+ *
+ * Usage: ScanBenchmark [number_of_rows] [repetitions]
+ */
+public class ScanBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File dbDir = generateDatabase(rows);
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(dbDir.getPath());
+        long fileSize = new File(dbc.getRelationPath("B")).length();
+        System.out.printf("Relation B: %d rows, %.1f MB%n", rows, fileSize / (double) (1 << 20));
+
+        for (ScanMode mode : ScanMode.values()) {
+            dbc.setScanMode(mode);
+            measure(mode.toString(), rows, fileSize, repetitions, null);
+        }
+        // parallel scan with an increasing number of worker threads
+        dbc.setScanMode(ScanMode.PARALLEL);
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            dbc.setScanThreads(threads);
+            measure("PARALLEL-" + threads, rows, fileSize, repetitions, null);
+        }
+        // buffered scan read ahead by a background thread
+        dbc.setScanMode(ScanMode.BUFFERED);
+        dbc.setPrefetchDepth(8);
+        dbc.getScanStatistics().clear();
+        measure("PREFETCH-8", rows, fileSize, repetitions, null);
+        System.out.println(dbc.getScanStatistics());
+        dbc.setPrefetchDepth(0);
+        dbc.getScanStatistics().clear();
+        // projection pushdown: only the first column is live
+        measure("BUFFERED-1", rows, fileSize, repetitions, new boolean[]{true, false, false, false});
+        // predicate pushdown: about 1% of the records satisfy d = 7
+        List<ComparisonAtom> conditions = new ArrayList<>();
+        conditions.add(new ComparisonAtom(new Variable("d"), new IntegerConstant(7), ComparisonOperator.EQ));
+        measure("BUFFERED-EQ", rows, fileSize, repetitions, null, conditions);
+        // data skipping: the first column is sorted, so a zone map rules out all the blocks but the first 1%
+        new File(dbc.getZoneMapPath("B")).deleteOnExit();
+        ZoneMapBuilder.build(dbc, "B", ZoneMap.DEFAULT_BLOCK_ROWS, true);
+        List<ComparisonAtom> rangeConditions = new ArrayList<>();
+        rangeConditions.add(new ComparisonAtom(new Variable("a"), new IntegerConstant(rows / 100), ComparisonOperator.LT));
+        measure("BUFFERED-ZM", rows, fileSize, repetitions, null, rangeConditions);
+        System.out.println(dbc.getScanStatistics());
+        // strings encoded with the global dictionary: no String is built for the string column
+        // (the dictionary is built by the first run, which is not the best one)
+        dbc.setUseDictionary(true);
+        measure("BUFFERED-DICT", rows, fileSize, repetitions, null);
+        dbc.setUseDictionary(false);
+
+        // columnar files with plain and with compressed column chunks
+        File columnarFile = new File(dbc.getColumnarPath("B"));
+        columnarFile.deleteOnExit();
+        ColumnarConverter.convert(dbc, "B", ColumnarFormat.DEFAULT_ROW_GROUP_SIZE, false);
+        measure("COL-PLAIN", rows, columnarFile.length(), repetitions, null);
+        ColumnarConverter.convert(dbc, "B", ColumnarFormat.DEFAULT_ROW_GROUP_SIZE, true);
+        measure("COL-PACKED", rows, columnarFile.length(), repetitions, null);
+    }
+
+    private static void measure(String label, int rows, long fileSize, int repetitions, boolean[] liveColumns) {
+        measure(label, rows, fileSize, repetitions, liveColumns, new ArrayList<>());
+    }
+
+    /**
+     * Scan the benchmark relation several times with the current catalog settings and print the best run.
+     * The throughput is given in scanned records, when there is no condition all of them must be returned.
+     */
+    private static void measure(String label, int rows, long fileSize, int repetitions, boolean[] liveColumns,
+                                List<ComparisonAtom> conditions) {
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        int count = 0;
+        for (int r = 0; r < repetitions; r++) {
+            long allocatedStart = allocatedBytes();
+            long start = System.nanoTime();
+            count = scanAll(liveColumns, conditions);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, allocatedBytes() - allocatedStart);
+            if (conditions.isEmpty() && count != rows)
+                throw new IllegalStateException(label + " returned " + count + " rows");
+        }
+        double seconds = best / 1e9;
+        System.out.printf("%-13s %8.1f ms %12.0f rows/s %8.1f MB/s %7.1f B/row (file %.1f MB, %d rows out)%n",
+                label, best / 1e6, rows / seconds, fileSize / seconds / (1 << 20), allocated / (double) rows,
+                fileSize / (double) (1 << 20), count);
+    }
+
+    /**
+     * @return the number of bytes allocated so far by the current thread, 0 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof ThreadMXBean)
+            return ((ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    /**
+     * Build a fresh {@link ScanOperator} over the benchmark relation and read all of its tuples.
+     * @param liveColumns the columns output by the scan, {@code null} for all of them.
+     * @param conditions the select conditions checked inside the scan.
+     * @return the number of tuples read.
+     */
+    private static int scanAll(boolean[] liveColumns, List<ComparisonAtom> conditions) {
+        List<Term> terms = new ArrayList<>();
+        for (String name : new String[]{"a", "b", "c", "d"})
+            terms.add(new Variable(name));
+        ScanOperator scan = new ScanOperator(new RelationalAtom("B", terms), liveColumns, conditions);
+        int count = 0;
+        while (scan.getNextTuple() != null) count++;
+        return count;
+    }
+
+    /**
+     * Write a database directory with a single relation B(int, int, string, int) of random content.
+     * @param rows the number of rows of the relation.
+     * @return the database directory.
+     */
+    private static File generateDatabase(int rows) throws IOException {
+        File dbDir = Files.createTempDirectory("minibase-bench").toFile();
+        File filesDir = new File(dbDir, "files");
+        filesDir.mkdirs();
+        // files registered later are deleted first
+        dbDir.deleteOnExit();
+        filesDir.deleteOnExit();
+        new File(dbDir, "schema.txt").deleteOnExit();
+        new File(filesDir, "B.csv").deleteOnExit();
+        try (BufferedWriter schema = new BufferedWriter(new FileWriter(new File(dbDir, "schema.txt")))) {
+            schema.write("B int int string int\n");
+        }
+        String[] words = {"adbs", "anlp", "ids", "mlpr", "rhcp", "smith", "anka", "iaml"};
+        Random random = new Random(42);
+        try (BufferedWriter relation = new BufferedWriter(new FileWriter(new File(filesDir, "B.csv")))) {
+            for (int i = 0; i < rows; i++) {
+                relation.write(i + ", " + random.nextInt(1000000) + ", '" + words[random.nextInt(words.length)]
+                        + "', " + random.nextInt(100) + "\n");
+            }
+        }
+        return dbDir;
+    }
+}
@@ -0,0 +1,217 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A persistent B+tree index on one column of a relation text file, stored as a sidecar file next to it
+ * (db/files/R.0.bpt for the first column of R) and built by {@link BPlusTreeIndexBuilder}.
+ * It maps every value of the column to the file offsets of the records holding it, which can then be read with
+ * {@link MappedRelationReader#readRecordAt(long)}. An index nested loop join probes it with the key of every left tuple.
+ *
+ * The file is divided into pages of {@link #PAGE_SIZE} bytes, mapped into memory when the index is read.
+ * The leaves hold the (key, record offset) entries in key order (the duplicate keys by record offset),
+ * and are linked to the next leaf; an internal node holds the first key of each of its children.
+ * The ints are compared as ints, the strings as their UTF-8 bytes (unsigned), like the zone maps compare them.
+ * An index is only used while the length and the modification time of the text file are the ones it was built from.
+ *
+ * File layout (big-endian):
+ *      page 0: int MAGIC, long sourceLength, long sourceLastModified, int column, byte keyType
+ *              (ColumnarFormat.TYPE_INT or TYPE_STRING), int rootPage, int height, long entryCount, int pageCount
+ *      node:   byte kind (LEAF or INTERNAL), short count, int nextLeaf (-1 for the last leaf and internal nodes),
+ *              short entryOffset * count (the offsets of the entries in the page, in key order),
+ *              then the entries, from the end of the page:
+ *              int key | short length, bytes key          (int or string key)
+ *              long recordOffset | int childPage          (leaf or internal entry)
+ */
+public class BPlusTreeIndex {
+
+    public static final int MAGIC = 0x4D424931; // "MBI1"
+    public static final String FILE_EXTENSION = ".bpt";
+    public static final int PAGE_SIZE = 4096;
+    public static final int MAX_KEY_BYTES = 1024;
+    // so that an internal node always holds several children
+
+    static final byte LEAF = 0;
+    static final byte INTERNAL = 1;
+    static final int NODE_HEADER = 1 + 2 + 4;
+
+    private static final long[] NO_OFFSETS = new long[0];
+
+    private final MappedByteBuffer buffer;
+    private final long sourceLength;
+    private final long sourceLastModified;
+    private final int column;
+    private final boolean intKey;
+    private final int rootPage;
+    private final int height;
+    private final long entryCount;
+
+    private BPlusTreeIndex(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.sourceLength = buffer.getLong(4);
+        this.sourceLastModified = buffer.getLong(12);
+        this.column = buffer.getInt(20);
+        this.intKey = buffer.get(24) == ColumnarFormat.TYPE_INT;
+        this.rootPage = buffer.getInt(25);
+        this.height = buffer.getInt(29);
+        this.entryCount = buffer.getLong(33);
+    }
+
+    /**
+     * Read an index file, the whole file is mapped into memory.
+     * @param file the index file.
+     * @return the index.
+     * @throws IOException if the file cannot be read or is not an index.
+     */
+    public static BPlusTreeIndex read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Index file larger than 2GB: " + file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < PAGE_SIZE || buffer.getInt(0) != MAGIC)
+                throw new IOException("Not an index file: " + file);
+            return new BPlusTreeIndex(buffer);
+        }
+    }
+
+    /**
+     * @param source the text file of the relation.
+     * @return {@code true} if the index was built from the current content of the file.
+     */
+    public boolean isCurrent(File source) {
+        return source.length() == this.sourceLength && source.lastModified() == this.sourceLastModified;
+    }
+
+    /**
+     * @return the indexed column of the relation.
+     */
+    public int getColumn() {
+        return this.column;
+    }
+
+    /**
+     * @return {@code true} if the indexed column is an int column, {@code false} for a string column.
+     */
+    public boolean isIntKey() {
+        return this.intKey;
+    }
+
+    /**
+     * @return the number of entries, the number of records of the relation.
+     */
+    public long getEntryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * @return the number of levels of the tree, 1 if the root is a leaf.
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return the file offsets of the records whose int key equals the value, in file order.
+     */
+    public long[] lookup(int key) {
+        return this.intKey ? this.lookup(key, null) : NO_OFFSETS;
+    }
+
+    /**
+     * @return the file offsets of the records whose string key equals the value, in file order.
+     */
+    public long[] lookup(String key) {
+        return this.intKey ? NO_OFFSETS : this.lookup(0, key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Descend to the leaf that may hold the first entry of the key, then collect the entries of the key
+     * from there on, following the links between the leaves.
+     */
+    private long[] lookup(int intKey, byte[] stringKey) {
+        int page = this.rootPage;
+        for (int level = 1; level < this.height; level++) {
+            // the last child whose first key is less than the key, the first one if there is none:
+            // the duplicates of the key may start at the end of that child
+            int count = this.count(page);
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (this.compareKey(page, middle, intKey, stringKey) < 0) low = middle;
+                else high = middle - 1;
+            }
+            page = this.buffer.getInt(this.entryValue(page, low));
+        }
+
+        // the first entry of the leaf whose key is not less than the key
+        int count = this.count(page);
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.compareKey(page, middle, intKey, stringKey) < 0) low = middle + 1;
+            else high = middle;
+        }
+
+        long[] offsets = NO_OFFSETS;
+        int found = 0;
+        int entry = low;
+        while (page >= 0) {
+            if (entry == this.count(page)) {
+                page = this.buffer.getInt(page * PAGE_SIZE + 3);
+                entry = 0;
+                continue;
+            }
+            if (this.compareKey(page, entry, intKey, stringKey) != 0) break;
+            if (found == offsets.length) offsets = Arrays.copyOf(offsets, Math.max(4, found * 2));
+            offsets[found++] = this.buffer.getLong(this.entryValue(page, entry));
+            entry++;
+        }
+        return found == offsets.length ? offsets : Arrays.copyOf(offsets, found);
+    }
+
+    private int count(int page) {
+        return this.buffer.getShort(page * PAGE_SIZE + 1) & 0xffff;
+    }
+
+    /**
+     * @return the position in the file of an entry of a node.
+     */
+    private int entryPosition(int page, int entry) {
+        return page * PAGE_SIZE + (this.buffer.getShort(page * PAGE_SIZE + NODE_HEADER + 2 * entry) & 0xffff);
+    }
+
+    /**
+     * @return the position in the file of the value of an entry (the record offset or the child page), after its key.
+     */
+    private int entryValue(int page, int entry) {
+        int position = this.entryPosition(page, entry);
+        return this.intKey ? position + 4 : position + 2 + (this.buffer.getShort(position) & 0xffff);
+    }
+
+    /**
+     * @return negative, zero or positive if the key of an entry is less than, equal to or greater than the key.
+     */
+    private int compareKey(int page, int entry, int intKey, byte[] stringKey) {
+        int position = this.entryPosition(page, entry);
+        if (this.intKey) return Integer.compare(this.buffer.getInt(position), intKey);
+        int length = this.buffer.getShort(position) & 0xffff;
+        int common = Math.min(length, stringKey.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (this.buffer.get(position + 2 + i) & 0xff) - (stringKey[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return length - stringKey.length;
+    }
+
+    @Override
+    public String toString() {
+        return "BPlusTreeIndex{column=" + this.column + ", entries=" + this.entryCount + ", height=" + this.height + "}";
+    }
+}
@@ -0,0 +1,220 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds the {@link BPlusTreeIndex} file (db/files/R.column.bpt) of a column of a relation text file.
+ * The (key, record offset) entries of the whole file are sorted in memory, then the tree is bulk-loaded bottom-up:
+ * the leaves are filled in key order, then every level of internal nodes holds the first keys of the level below,
+ * until a level fits in a single node, the root. The index of a relation is ignored by the planner once
+ * its text file is modified, it has to be built again.
+ *
+ * Usage: BPlusTreeIndexBuilder database_dir relation_name column
+ */
+public class BPlusTreeIndexBuilder {
+
+    private final boolean intKey;
+    private final int[] intKeys;
+    private final byte[][] stringKeys;
+    private final long[] recordOffsets;
+    private final Integer[] order;
+    // the entries, and their positions in key order
+
+    private final FileChannel channel;
+    private int pageCount = 1;
+    // the pages written so far, page 0 is the header
+
+    private BPlusTreeIndexBuilder(boolean intKey, int[] intKeys, byte[][] stringKeys, long[] recordOffsets,
+                                  FileChannel channel) {
+        this.intKey = intKey;
+        this.intKeys = intKeys;
+        this.stringKeys = stringKeys;
+        this.recordOffsets = recordOffsets;
+        this.channel = channel;
+        this.order = new Integer[recordOffsets.length];
+        for (int i = 0; i < this.order.length; i++) this.order[i] = i;
+        Comparator<Integer> byKey = intKey
+                ? Comparator.comparingInt(i -> intKeys[i])
+                : (a, b) -> ZoneMap.compareBytes(stringKeys[a], stringKeys[b]);
+        Arrays.sort(this.order, byKey.thenComparingLong(i -> recordOffsets[i]));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: BPlusTreeIndexBuilder database_dir relation_name column");
+            return;
+        }
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(args[0]);
+        int column = Integer.parseInt(args[2]);
+        BPlusTreeIndex index = build(dbc, args[1], column);
+        System.out.println("Built " + dbc.getIndexPath(args[1], column) + " (" + index.getEntryCount()
+                + " entries, height " + index.getHeight() + ")");
+    }
+
+    /**
+     * Build the index of a column of a relation text file.
+     * @param dbc the catalog providing the schema and the file paths.
+     * @param relationName the name of relation.
+     * @param column the indexed column.
+     * @return the index, read back from the written file.
+     * @throws IOException if the text file cannot be read, the index file cannot be written,
+     *                     or a string key is longer than {@link BPlusTreeIndex#MAX_KEY_BYTES}.
+     */
+    public static BPlusTreeIndex build(DatabaseCatalog dbc, String relationName, int column) throws IOException {
+        List<String> schema = dbc.getSchema(relationName);
+        if (column < 0 || column >= schema.size())
+            throw new IllegalArgumentException("Relation " + relationName + " has no column " + column);
+        boolean intKey = schema.get(column).equals("int");
+        File source = new File(dbc.getRelationPath(relationName));
+        long sourceLength = source.length();
+        long sourceLastModified = source.lastModified();
+
+        int[] intKeys = new int[1024];
+        byte[][] stringKeys = new byte[1024][];
+        long[] recordOffsets = new long[1024];
+        int entries = 0;
+        MappedRelationReader reader = new MappedRelationReader(source.getPath(), schema);
+        try {
+            boolean[] required = new boolean[schema.size()];
+            required[column] = true;
+            reader.setRequiredColumns(required);
+            while (reader.nextRecord()) {
+                if (entries == recordOffsets.length) {
+                    intKeys = Arrays.copyOf(intKeys, entries * 2);
+                    stringKeys = Arrays.copyOf(stringKeys, entries * 2);
+                    recordOffsets = Arrays.copyOf(recordOffsets, entries * 2);
+                }
+                if (intKey) {
+                    intKeys[entries] = reader.getInt(column);
+                } else {
+                    stringKeys[entries] = reader.getString(column).getBytes(StandardCharsets.UTF_8);
+                    if (stringKeys[entries].length > BPlusTreeIndex.MAX_KEY_BYTES)
+                        throw new IOException("Key longer than " + BPlusTreeIndex.MAX_KEY_BYTES + " bytes in " + source);
+                }
+                recordOffsets[entries++] = reader.getRecordOffset();
+            }
+        } finally {
+            reader.close();
+        }
+
+        // write into a temporary file first, so that a half-written file is never picked up by the catalog
+        Path target = Paths.get(dbc.getIndexPath(relationName, column));
+        Path temporary = Paths.get(target + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BPlusTreeIndexBuilder builder = new BPlusTreeIndexBuilder(intKey,
+                    Arrays.copyOf(intKeys, entries), Arrays.copyOf(stringKeys, entries),
+                    Arrays.copyOf(recordOffsets, entries), channel);
+            int[] root = builder.writeTree();
+
+            ByteBuffer header = ByteBuffer.allocate(BPlusTreeIndex.PAGE_SIZE);
+            header.putInt(BPlusTreeIndex.MAGIC);
+            header.putLong(sourceLength);
+            header.putLong(sourceLastModified);
+            header.putInt(column);
+            header.put(intKey ? ColumnarFormat.TYPE_INT : ColumnarFormat.TYPE_STRING);
+            header.putInt(root[0]);
+            header.putInt(root[1]);
+            header.putLong(entries);
+            header.putInt(builder.pageCount);
+            header.flip();
+            channel.write(header, 0);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        return BPlusTreeIndex.read(target.toFile());
+    }
+
+    /**
+     * Write the leaves, then the levels of internal nodes.
+     * @return the page of the root and the height of the tree.
+     */
+    private int[] writeTree() throws IOException {
+        // the nodes of the current level: their pages, and the position in key order of their first entry
+        List<Integer> pages = new ArrayList<>();
+        List<Integer> firstEntries = new ArrayList<>();
+        int entry = 0;
+        do {
+            int page = this.pageCount;
+            int end = this.fillNode(entry, this.order.length, null, null, page + 1);
+            pages.add(page);
+            firstEntries.add(entry);
+            entry = end;
+        } while (entry < this.order.length);
+        // the last leaf has no next leaf
+        this.channel.write(ByteBuffer.wrap(new byte[]{-1, -1, -1, -1}),
+                (long) pages.get(pages.size() - 1) * BPlusTreeIndex.PAGE_SIZE + 3);
+
+        int height = 1;
+        while (pages.size() > 1) {
+            List<Integer> parentPages = new ArrayList<>();
+            List<Integer> parentFirstEntries = new ArrayList<>();
+            int child = 0;
+            while (child < pages.size()) {
+                int page = this.pageCount;
+                int end = this.fillNode(child, pages.size(), pages, firstEntries, -1);
+                parentPages.add(page);
+                parentFirstEntries.add(firstEntries.get(child));
+                child = end;
+            }
+            pages = parentPages;
+            firstEntries = parentFirstEntries;
+            height++;
+        }
+        return new int[]{pages.get(0), height};
+    }
+
+    /**
+     * Fill a node with the entries from {@code first} on, as many as fit in a page, and write it as the next page.
+     * @param first the first entry: a position in key order for a leaf, the index of a child for an internal node.
+     * @param count the number of entries of the level.
+     * @param children the pages of the children for an internal node, {@code null} for a leaf.
+     * @param childFirstEntries the positions in key order of the first entries of the children, whose keys
+     *                          are the keys of an internal node.
+     * @param nextLeaf the page of the next leaf, for a leaf.
+     * @return the first entry that does not fit in the node.
+     */
+    private int fillNode(int first, int count, List<Integer> children, List<Integer> childFirstEntries, int nextLeaf)
+            throws IOException {
+        boolean leaf = children == null;
+        ByteBuffer page = ByteBuffer.allocate(BPlusTreeIndex.PAGE_SIZE);
+        int free = BPlusTreeIndex.PAGE_SIZE;
+        int entries = 0;
+        int entry = first;
+        while (entry < count) {
+            int keyPosition = leaf ? this.order[entry] : this.order[childFirstEntries.get(entry)];
+            byte[] key = this.intKey ? null : this.stringKeys[keyPosition];
+            int size = (this.intKey ? 4 : 2 + key.length) + (leaf ? 8 : 4);
+            if (free - size < BPlusTreeIndex.NODE_HEADER + 2 * (entries + 1)) break;
+            free -= size;
+            page.position(free);
+            if (this.intKey) page.putInt(this.intKeys[keyPosition]);
+            else page.putShort((short) key.length).put(key);
+            if (leaf) page.putLong(this.recordOffsets[keyPosition]);
+            else page.putInt(children.get(entry));
+            page.putShort(BPlusTreeIndex.NODE_HEADER + 2 * entries, (short) free);
+            entries++;
+            entry++;
+        }
+        page.put(0, leaf ? BPlusTreeIndex.LEAF : BPlusTreeIndex.INTERNAL);
+        page.putShort(1, (short) entries);
+        page.putInt(3, nextLeaf);
+        page.clear();
+        this.channel.write(page, (long) this.pageCount * BPlusTreeIndex.PAGE_SIZE);
+        this.pageCount++;
+        return entry;
+    }
+}
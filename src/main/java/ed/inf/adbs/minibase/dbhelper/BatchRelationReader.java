@@ -0,0 +1,67 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.List;
+
+/**
+ * A {@link RelationReader} over records that are already held in memory as a list of {@link RowBatch}.
+ * It is used to iterate the relations kept by the {@link RelationCache}: resetting it only rewinds the cursor.
+ */
+public class BatchRelationReader extends RelationReader {
+
+    private final List<RowBatch> batches;
+    private int batchIndex = 0;
+    private int row = -1;
+    private RowBatch current;
+
+    public BatchRelationReader(List<RowBatch> batches) {
+        this.batches = batches;
+        this.current = batches.isEmpty() ? null : batches.get(0);
+    }
+
+    @Override
+    public boolean nextRecord() {
+        if (this.current == null) return false;
+        this.row++;
+        while (this.row >= this.current.size()) {
+            this.batchIndex++;
+            if (this.batchIndex >= this.batches.size()) {
+                this.row = this.current.size();
+                return false;
+            }
+            this.current = this.batches.get(this.batchIndex);
+            this.row = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return this.current.getColumnCount();
+    }
+
+    @Override
+    public int getInt(int column) {
+        return this.current.getInt(this.row, column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return this.current.getString(this.row, column);
+    }
+
+    @Override
+    public int getStringCode(int column, StringDictionary dictionary) {
+        return this.current.getStringCode(this.row, column, dictionary);
+    }
+
+    @Override
+    public void reset() {
+        this.batchIndex = 0;
+        this.row = -1;
+        this.current = this.batches.isEmpty() ? null : this.batches.get(0);
+    }
+
+    @Override
+    public void close() {
+    }
+}
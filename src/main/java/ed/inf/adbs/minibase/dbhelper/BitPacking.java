@@ -0,0 +1,78 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers to store unsigned integers of a fixed bit width back to back, used by the compressed encodings
+ * of the columnar format (see {@link ColumnarFormat}).
+ * The values are packed starting from the lowest bit of the first byte; a width of 0 takes no bytes at all.
+ */
+public final class BitPacking {
+
+    private BitPacking() {}
+
+    /**
+     * @param range the largest unsigned value to be stored, at most 2^32 - 1.
+     * @return the number of bits needed to store every value between 0 and {@code range}.
+     */
+    public static int bitWidth(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    /**
+     * @return the number of bytes taken by {@code count} packed values of the given width.
+     */
+    public static long packedBytes(int count, int width) {
+        return ((long) count * width + 7) / 8;
+    }
+
+    /**
+     * Write values as packed unsigned integers.
+     * @param out the output stream.
+     * @param values the values, read as unsigned 32-bit integers that fit into {@code width} bits.
+     * @param from the index of the first value to be written.
+     * @param count the number of values to be written.
+     * @param width the bit width of each value, between 0 and 32.
+     */
+    public static void pack(DataOutputStream out, int[] values, int from, int count, int width) throws IOException {
+        long buffer = 0;
+        int bits = 0;
+        for (int i = from; i < from + count; i++) {
+            buffer |= (values[i] & 0xffffffffL) << bits;
+            bits += width;
+            while (bits >= 8) {
+                out.writeByte((int) buffer);
+                buffer >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) out.writeByte((int) buffer);
+    }
+
+    /**
+     * Read packed unsigned integers.
+     * @param in the buffer holding the packed values.
+     * @param offset the offset of the first packed byte in the buffer.
+     * @param count the number of values to be read.
+     * @param width the bit width of each value, between 0 and 32.
+     * @param out the array receiving the values from index 0.
+     * @return the offset after the last packed byte.
+     */
+    public static int unpack(ByteBuffer in, int offset, int count, int width, int[] out) {
+        long mask = (1L << width) - 1;
+        long buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            while (bits < width) {
+                buffer |= (in.get(offset++) & 0xffL) << bits;
+                bits += 8;
+            }
+            out[i] = (int) (buffer & mask);
+            buffer >>>= width;
+            bits -= width;
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,184 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A {@link RelationReader} that reads the relation file in large blocks into a reused heap buffer
+ * and tokenizes the records in place with a {@link CsvTokenizer}. This is the {@link ScanMode#BUFFERED} scan path.
+ *
+ * A record that is cut by the end of the buffer is moved to the front of the buffer before the next block is read,
+ * the buffer grows if a single record does not fit into it.
+ * The reader may be restricted to line-aligned byte ranges of the file (see {@link #restrictToRanges}),
+ * the bytes between two ranges are then never read.
+ */
+public class BufferedRelationReader extends RelationReader {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final String relationPath;
+    private final FileChannel channel;
+    private final CsvTokenizer tokenizer;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int position = 0;          // offset of the next unread byte in the buffer
+    private long bufferOffset = 0;     // file offset of the first byte in the buffer
+    private long[] rangeStarts = null; // the byte ranges read by this reader, null for the whole file
+    private long[] rangeEnds = null;
+    private int rangeIndex = 0;
+    private boolean endOfFile = false;
+
+    public BufferedRelationReader(String relationPath, List<String> schema) throws IOException {
+        this.relationPath = relationPath;
+        this.channel = FileChannel.open(Paths.get(relationPath), StandardOpenOption.READ);
+        this.tokenizer = new CsvTokenizer(schema);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Keep the unread bytes of the buffer, move them to the front and append the next block of the file.
+     */
+    private void refill() {
+        this.buffer.position(this.position);
+        this.buffer.compact();
+        this.bufferOffset += this.position;
+        if (!this.buffer.hasRemaining()) {
+            // a single record fills the whole buffer, make room for the rest of it
+            ByteBuffer larger = ByteBuffer.allocate(this.buffer.capacity() * 2);
+            this.buffer.flip();
+            larger.put(this.buffer);
+            this.buffer = larger;
+        }
+        try {
+            if (this.channel.read(this.buffer) < 0) this.endOfFile = true;
+        } catch (IOException e) {
+            System.out.println("Failed to read relation data file: " + this.relationPath);
+            e.printStackTrace();
+            this.endOfFile = true;
+        }
+        this.buffer.flip();
+        this.position = 0;
+    }
+
+    @Override
+    public boolean nextRecord() {
+        int lineEnd = this.position;
+        while (true) {
+            int limit = this.buffer.limit();
+            // skip the line breaks (and empty lines) before the record
+            while (this.position < limit && CsvTokenizer.isLineBreak(this.buffer.get(this.position)))
+                this.position++;
+            if (this.rangeEnds != null && this.bufferOffset + this.position >= this.rangeEnds[this.rangeIndex]) {
+                // the current range is finished, continue with the next one
+                if (this.rangeIndex + 1 >= this.rangeStarts.length) return false;
+                this.rangeIndex++;
+                this.seek(this.rangeStarts[this.rangeIndex]);
+                lineEnd = this.position;
+                continue;
+            }
+            if (lineEnd < this.position) lineEnd = this.position;
+            while (lineEnd < limit && !CsvTokenizer.isLineBreak(this.buffer.get(lineEnd)))
+                lineEnd++;
+            if (lineEnd < limit || this.endOfFile) break;
+            // the record is incomplete, read the next block and continue searching from where we stopped
+            lineEnd -= this.position;
+            this.refill();
+        }
+        if (this.position >= this.buffer.limit()) return false;
+        this.tokenizer.tokenize(this.buffer, this.position, lineEnd);
+        this.position = lineEnd;
+        return true;
+    }
+
+    /**
+     * Move to a file offset, the buffered bytes are kept if they contain the offset.
+     * @param offset the file offset of the next byte to read.
+     */
+    private void seek(long offset) {
+        if (offset >= this.bufferOffset && offset < this.bufferOffset + this.buffer.limit()) {
+            this.position = (int) (offset - this.bufferOffset);
+            return;
+        }
+        try {
+            this.channel.position(offset);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.buffer.clear();
+        this.buffer.limit(0);
+        this.position = 0;
+        this.bufferOffset = offset;
+        this.endOfFile = false;
+    }
+
+    /**
+     * Only read the records inside the given byte ranges from now on, starting from the first range.
+     */
+    @Override
+    public boolean restrictToRanges(long[] starts, long[] ends) {
+        this.rangeStarts = starts.length > 0 ? starts : new long[]{0};
+        this.rangeEnds = ends.length > 0 ? ends : new long[]{0};
+        this.reset();
+        return true;
+    }
+
+    @Override
+    public void setRequiredColumns(boolean[] required) {
+        this.tokenizer.setRequiredColumns(required);
+    }
+
+    @Override
+    public int getFieldCount() {
+        return this.tokenizer.getFieldCount();
+    }
+
+    @Override
+    public int getInt(int column) {
+        return this.tokenizer.getInt(this.buffer, column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return this.tokenizer.getString(this.buffer, column);
+    }
+
+    @Override
+    public int compareString(int column, byte[] value) {
+        return this.tokenizer.compareString(this.buffer, column, value);
+    }
+
+    @Override
+    public int compareStrings(int column1, int column2) {
+        return this.tokenizer.compareStrings(this.buffer, column1, column2);
+    }
+
+    @Override
+    public int getStringCode(int column, StringDictionary dictionary) {
+        return this.tokenizer.getStringCode(this.buffer, column, dictionary);
+    }
+
+    /**
+     * Move the channel back to the beginning of the file (or of the first range) and drop the buffered bytes.
+     */
+    @Override
+    public void reset() {
+        this.rangeIndex = 0;
+        this.buffer.clear();
+        this.buffer.limit(0);
+        this.bufferOffset = -1;
+        this.seek(this.rangeStarts == null ? 0 : this.rangeStarts[0]);
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk converter from the text relation files (db/files/*.csv) into the binary columnar format
+ * described in {@link ColumnarFormat}. The column types are taken from schema.txt through the {@link DatabaseCatalog}.
+ * Once a relation has been converted, {@link DatabaseCatalog#openRelation(String)} reads the binary file instead of the text file.
+ *
+ * By default every column chunk is written with the smallest of the encodings available for its type:
+ * int columns may be bit-packed from their minimum, delta-coded or run-length coded,
+ * string columns are dictionary-coded with packed codes when they have few distinct values.
+ * With the 'plain' argument only the plain and the original dictionary encodings are used.
+ *
+ * Usage: ColumnarConverter database_dir [row_group_size] [compressed|plain]
+ */
+public class ColumnarConverter {
+
+    private final List<String> schema;
+    private final int rowGroupSize;
+    private final boolean compress;
+
+    private final int[][] intValues;
+    private final String[][] stringValues;
+    private int rowCount = 0;
+
+    private ColumnarConverter(List<String> schema, int rowGroupSize, boolean compress) {
+        this.schema = schema;
+        this.rowGroupSize = rowGroupSize;
+        this.compress = compress;
+        this.intValues = new int[schema.size()][];
+        this.stringValues = new String[schema.size()][];
+        for (int i = 0; i < schema.size(); i++) {
+            if (schema.get(i).equals("int"))
+                this.intValues[i] = new int[rowGroupSize];
+            else
+                this.stringValues[i] = new String[rowGroupSize];
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ColumnarConverter database_dir [row_group_size] [compressed|plain]");
+            return;
+        }
+        int rowGroupSize = args.length > 1 ? Integer.parseInt(args[1]) : ColumnarFormat.DEFAULT_ROW_GROUP_SIZE;
+        boolean compress = args.length <= 2 || !args[2].equals("plain");
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(args[0]);
+        for (String relationName : dbc.getRelationNames()) {
+            convert(dbc, relationName, rowGroupSize, compress);
+            System.out.println("Converted " + relationName + " -> " + dbc.getColumnarPath(relationName)
+                    + " (" + new File(dbc.getRelationPath(relationName)).length() + " -> "
+                    + new File(dbc.getColumnarPath(relationName)).length() + " bytes)");
+        }
+    }
+
+    /**
+     * Convert the text file of a relation into a compressed columnar file next to it.
+     * @param dbc the catalog providing the schema and the file paths.
+     * @param relationName the name of relation to be converted.
+     * @param rowGroupSize the maximum number of rows in a row group.
+     * @throws IOException if the text file cannot be read or the columnar file cannot be written.
+     */
+    public static void convert(DatabaseCatalog dbc, String relationName, int rowGroupSize) throws IOException {
+        convert(dbc, relationName, rowGroupSize, true);
+    }
+
+    /**
+     * Convert the text file of a relation into a columnar file next to it.
+     * @param dbc the catalog providing the schema and the file paths.
+     * @param relationName the name of relation to be converted.
+     * @param rowGroupSize the maximum number of rows in a row group.
+     * @param compress whether the compressed encodings may be used.
+     * @throws IOException if the text file cannot be read or the columnar file cannot be written.
+     */
+    public static void convert(DatabaseCatalog dbc, String relationName, int rowGroupSize, boolean compress)
+            throws IOException {
+        List<String> schema = dbc.getSchema(relationName);
+        ColumnarConverter converter = new ColumnarConverter(schema, rowGroupSize, compress);
+        RelationReader reader = new MappedRelationReader(dbc.getRelationPath(relationName), schema);
+        // write into a temporary file first, so that a half-written file is never picked up by the catalog
+        Path target = Paths.get(dbc.getColumnarPath(relationName));
+        Path temporary = Paths.get(target + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary.toFile()), 1 << 16))) {
+            out.writeInt(ColumnarFormat.MAGIC);
+            out.writeInt(schema.size());
+            for (String type : schema)
+                out.writeByte(type.equals("int") ? ColumnarFormat.TYPE_INT : ColumnarFormat.TYPE_STRING);
+
+            while (reader.nextRecord()) {
+                converter.append(reader);
+                if (converter.rowCount == converter.rowGroupSize)
+                    converter.flushRowGroup(out);
+            }
+            if (converter.rowCount > 0)
+                converter.flushRowGroup(out);
+        } finally {
+            reader.close();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void append(RelationReader reader) {
+        for (int i = 0; i < this.schema.size(); i++) {
+            if (this.intValues[i] != null)
+                this.intValues[i][this.rowCount] = reader.getInt(i);
+            else
+                this.stringValues[i][this.rowCount] = reader.getString(i);
+        }
+        this.rowCount++;
+    }
+
+    /**
+     * Write the buffered rows as a row group, each column chunk with the smallest encoding allowed.
+     */
+    private void flushRowGroup(DataOutputStream out) throws IOException {
+        ByteArrayOutputStream group = new ByteArrayOutputStream();
+        DataOutputStream groupOut = new DataOutputStream(group);
+        for (int i = 0; i < this.schema.size(); i++) {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            DataOutputStream chunkOut = new DataOutputStream(chunk);
+            if (this.intValues[i] != null) {
+                writeIntChunk(chunkOut, this.intValues[i], this.rowCount, this.compress);
+            } else {
+                writeStringChunk(chunkOut, this.stringValues[i], this.rowCount, this.compress);
+            }
+            groupOut.writeInt(chunk.size());
+            chunk.writeTo(groupOut);
+        }
+        out.writeInt(this.rowCount);
+        out.writeInt(group.size());
+        group.writeTo(out);
+        this.rowCount = 0;
+    }
+
+    /**
+     * Write an int column chunk. The size of every encoding is computed from the value statistics of the chunk,
+     * and the smallest one is written; bit widths are only used when the spread of the values fits into 32 bits.
+     */
+    private static void writeIntChunk(DataOutputStream out, int[] values, int rowCount, boolean compress)
+            throws IOException {
+        long plainSize = 4L * rowCount;
+        if (!compress || rowCount == 0) {
+            writePlainInts(out, values, rowCount);
+            return;
+        }
+        long min = values[0], max = values[0];
+        long minDelta = 0, maxDelta = 0;
+        int runs = 1;
+        for (int r = 1; r < rowCount; r++) {
+            min = Math.min(min, values[r]);
+            max = Math.max(max, values[r]);
+            long delta = (long) values[r] - values[r - 1];
+            if (r == 1 || delta < minDelta) minDelta = delta;
+            if (r == 1 || delta > maxDelta) maxDelta = delta;
+            if (values[r] != values[r - 1]) runs++;
+        }
+        int packedWidth = BitPacking.bitWidth(max - min);
+        long packedSize = 5 + BitPacking.packedBytes(rowCount, packedWidth);
+        int deltaWidth = BitPacking.bitWidth(maxDelta - minDelta);
+        long deltaSize = deltaWidth <= 32 ? 9 + BitPacking.packedBytes(rowCount - 1, deltaWidth) : Long.MAX_VALUE;
+        long rleSize = 4 + 8L * runs;
+
+        if (rleSize <= Math.min(plainSize, Math.min(packedSize, deltaSize))) {
+            out.writeByte(ColumnarFormat.ENCODING_RLE);
+            out.writeInt(runs);
+            int runStart = 0;
+            for (int r = 1; r <= rowCount; r++) {
+                if (r == rowCount || values[r] != values[runStart]) {
+                    out.writeInt(values[runStart]);
+                    out.writeInt(r - runStart);
+                    runStart = r;
+                }
+            }
+        } else if (deltaSize < Math.min(plainSize, packedSize)) {
+            int[] deltas = new int[rowCount];
+            for (int r = 1; r < rowCount; r++)
+                deltas[r] = values[r] - values[r - 1] - (int) minDelta;
+            out.writeByte(ColumnarFormat.ENCODING_DELTA);
+            out.writeInt(values[0]);
+            out.writeInt((int) minDelta);
+            out.writeByte(deltaWidth);
+            BitPacking.pack(out, deltas, 1, rowCount - 1, deltaWidth);
+        } else if (packedSize < plainSize) {
+            int[] offsets = new int[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                offsets[r] = values[r] - (int) min;
+            out.writeByte(ColumnarFormat.ENCODING_BIT_PACKED);
+            out.writeInt((int) min);
+            out.writeByte(packedWidth);
+            BitPacking.pack(out, offsets, 0, rowCount, packedWidth);
+        } else {
+            writePlainInts(out, values, rowCount);
+        }
+    }
+
+    private static void writePlainInts(DataOutputStream out, int[] values, int rowCount) throws IOException {
+        out.writeByte(ColumnarFormat.ENCODING_PLAIN);
+        for (int r = 0; r < rowCount; r++)
+            out.writeInt(values[r]);
+    }
+
+    /**
+     * Write a string column chunk, dictionary-coded when the column has at most one distinct value for two rows.
+     */
+    private static void writeStringChunk(DataOutputStream out, String[] values, int rowCount, boolean compress)
+            throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        int[] codes = new int[rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            Integer code = dictionary.get(values[r]);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(values[r], code);
+            }
+            codes[r] = code;
+        }
+        if (dictionary.size() * 2 <= rowCount) {
+            String[] entries = new String[dictionary.size()];
+            for (Map.Entry<String, Integer> entry : dictionary.entrySet())
+                entries[entry.getValue()] = entry.getKey();
+            out.writeByte(compress ? ColumnarFormat.ENCODING_DICTIONARY_PACKED : ColumnarFormat.ENCODING_DICTIONARY);
+            out.writeInt(entries.length);
+            for (String entry : entries)
+                writeString(out, entry);
+            if (compress) {
+                int width = BitPacking.bitWidth(entries.length - 1);
+                out.writeByte(width);
+                BitPacking.pack(out, codes, 0, rowCount, width);
+            } else {
+                for (int r = 0; r < rowCount; r++)
+                    out.writeInt(codes[r]);
+            }
+        } else {
+            out.writeByte(ColumnarFormat.ENCODING_PLAIN);
+            for (int r = 0; r < rowCount; r++)
+                writeString(out, values[r]);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
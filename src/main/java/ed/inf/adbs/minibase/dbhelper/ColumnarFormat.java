@@ -0,0 +1,47 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+/**
+ * Constants of the binary columnar file format of relations, shared by {@link ColumnarConverter} (writer)
+ * and {@link ColumnarRelationReader} (reader). All numbers are stored big-endian.
+ *
+ * File layout:
+ *      header:    int MAGIC, int columnCount, byte type * columnCount (TYPE_INT or TYPE_STRING)
+ *      row group: int rowCount, int groupLength (bytes of the chunks below),
+ *                 then for each column: int chunkLength, byte encoding, encoded values
+ *      ... row groups repeat until the end of file.
+ *
+ * Encodings of a column chunk:
+ *      ENCODING_PLAIN for int columns:        int value * rowCount
+ *      ENCODING_PLAIN for string columns:     (int byteLength, UTF-8 bytes) * rowCount
+ *      ENCODING_DICTIONARY for string columns: int dictionarySize, (int byteLength, UTF-8 bytes) * dictionarySize,
+ *                                             int code * rowCount
+ *
+ * Compressed encodings (written unless the converter is asked for plain chunks, see {@link ColumnarConverter}):
+ *      ENCODING_BIT_PACKED for int columns:   int base, byte width, (value - base) packed in width bits * rowCount
+ *      ENCODING_DELTA for int columns:        int first, int baseDelta, byte width,
+ *                                             (value[r] - value[r - 1] - baseDelta) packed in width bits * (rowCount - 1)
+ *      ENCODING_RLE for int columns:          int runCount, (int value, int runLength) * runCount
+ *      ENCODING_DICTIONARY_PACKED for string columns: as ENCODING_DICTIONARY, but the codes are packed:
+ *                                             int dictionarySize, (int byteLength, UTF-8 bytes) * dictionarySize,
+ *                                             byte width, code packed in width bits * rowCount
+ * Packed values are unsigned and stored back to back from the lowest bit of each byte (see {@link BitPacking}),
+ * the int arithmetic of the bases and deltas wraps around.
+ */
+public final class ColumnarFormat {
+
+    public static final int MAGIC = 0x4D424331; // "MBC1"
+    public static final String FILE_EXTENSION = ".col";
+    public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+
+    public static final byte TYPE_INT = 0;
+    public static final byte TYPE_STRING = 1;
+
+    public static final byte ENCODING_PLAIN = 0;
+    public static final byte ENCODING_DICTIONARY = 1;
+    public static final byte ENCODING_BIT_PACKED = 2;
+    public static final byte ENCODING_DELTA = 3;
+    public static final byte ENCODING_RLE = 4;
+    public static final byte ENCODING_DICTIONARY_PACKED = 5;
+
+    private ColumnarFormat() {}
+}
@@ -0,0 +1,243 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link RelationReader} over a relation stored in the binary columnar format (see {@link ColumnarFormat}).
+ * No text parsing is involved: the file is read one row group at a time,
+ * and a column chunk of the current row group is only decoded when one of its fields is first accessed.
+ * Dictionary-coded string columns are kept as (dictionary, codes), so reading them allocates no String.
+ * The compressed int encodings (bit-packed, delta and run-length) are decoded straight into the int array
+ * the scan reads from, the packed codes of a dictionary into the code array.
+ */
+public class ColumnarRelationReader extends RelationReader {
+
+    private final String relationPath;
+    private final FileChannel channel;
+    private final int columnCount;
+    private final boolean[] stringColumn;
+    private final long dataStart;
+
+    private ByteBuffer group = ByteBuffer.allocate(1 << 16);
+    private final ByteBuffer groupHeader = ByteBuffer.allocate(8);
+    private int groupRows = 0;
+    private int row = 0;
+
+    private final int[] chunkOffset;      // offset of the encoded values of each column chunk in the group buffer
+    private final boolean[] decoded;      // whether the column chunk has been decoded for the current group
+    private final int[][] intValues;
+    private final String[][] dictionaries; // the dictionary of a string column, or the plain values if codes are null
+    private final int[][] codes;
+
+    public ColumnarRelationReader(String relationPath) throws IOException {
+        this.relationPath = relationPath;
+        this.channel = FileChannel.open(Paths.get(relationPath), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        this.readFully(header);
+        if (header.getInt() != ColumnarFormat.MAGIC)
+            throw new IOException("Not a columnar relation file: " + relationPath);
+        this.columnCount = header.getInt();
+        ByteBuffer types = ByteBuffer.allocate(this.columnCount);
+        this.readFully(types);
+        this.stringColumn = new boolean[this.columnCount];
+        for (int i = 0; i < this.columnCount; i++)
+            this.stringColumn[i] = types.get(i) == ColumnarFormat.TYPE_STRING;
+        this.dataStart = this.channel.position();
+
+        this.chunkOffset = new int[this.columnCount];
+        this.decoded = new boolean[this.columnCount];
+        this.intValues = new int[this.columnCount][];
+        this.dictionaries = new String[this.columnCount][];
+        this.codes = new int[this.columnCount][];
+    }
+
+    /**
+     * Fill the remaining space of the buffer from the channel, then flip it for reading.
+     * @throws EOFException if the file ends before the buffer is filled.
+     */
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer) < 0)
+                throw new EOFException("Unexpected end of columnar relation file: " + this.relationPath);
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Read the next row group into the group buffer and locate its column chunks.
+     * @return {@code false} if there is no more row group in the file.
+     */
+    private boolean loadRowGroup() throws IOException {
+        if (this.channel.position() >= this.channel.size())
+            return false;
+        this.groupHeader.clear();
+        this.readFully(this.groupHeader);
+        int rows = this.groupHeader.getInt();
+        int length = this.groupHeader.getInt();
+        if (this.group.capacity() < length)
+            this.group = ByteBuffer.allocate(length);
+        this.group.clear();
+        this.group.limit(length);
+        this.readFully(this.group);
+
+        int offset = 0;
+        for (int i = 0; i < this.columnCount; i++) {
+            int chunkLength = this.group.getInt(offset);
+            this.chunkOffset[i] = offset + 4;
+            this.decoded[i] = false;
+            offset += 4 + chunkLength;
+        }
+        this.groupRows = rows;
+        this.row = -1;
+        return true;
+    }
+
+    /**
+     * Decode a column chunk of the current row group into the value arrays.
+     */
+    private void decode(int column) {
+        int offset = this.chunkOffset[column];
+        byte encoding = this.group.get(offset++);
+        if (!this.stringColumn[column]) {
+            if (this.intValues[column] == null || this.intValues[column].length < this.groupRows)
+                this.intValues[column] = new int[this.groupRows];
+            this.decodeInts(encoding, offset, this.intValues[column]);
+        } else if (encoding == ColumnarFormat.ENCODING_DICTIONARY
+                || encoding == ColumnarFormat.ENCODING_DICTIONARY_PACKED) {
+            int dictionarySize = this.group.getInt(offset);
+            offset += 4;
+            String[] dictionary = new String[dictionarySize];
+            for (int d = 0; d < dictionarySize; d++) {
+                int length = this.group.getInt(offset);
+                dictionary[d] = new String(this.group.array(), offset + 4, length, StandardCharsets.UTF_8);
+                offset += 4 + length;
+            }
+            if (this.codes[column] == null || this.codes[column].length < this.groupRows)
+                this.codes[column] = new int[this.groupRows];
+            int[] columnCodes = this.codes[column];
+            if (encoding == ColumnarFormat.ENCODING_DICTIONARY_PACKED) {
+                BitPacking.unpack(this.group, offset + 1, this.groupRows, this.group.get(offset), columnCodes);
+            } else {
+                for (int r = 0; r < this.groupRows; r++, offset += 4)
+                    columnCodes[r] = this.group.getInt(offset);
+            }
+            this.dictionaries[column] = dictionary;
+        } else {
+            String[] values = new String[this.groupRows];
+            for (int r = 0; r < this.groupRows; r++) {
+                int length = this.group.getInt(offset);
+                values[r] = new String(this.group.array(), offset + 4, length, StandardCharsets.UTF_8);
+                offset += 4 + length;
+            }
+            this.dictionaries[column] = values;
+            this.codes[column] = null;
+        }
+        this.decoded[column] = true;
+    }
+
+    /**
+     * Decode the values of an int column chunk of the current row group.
+     * @param encoding the encoding of the chunk.
+     * @param offset the offset of the encoded values in the group buffer.
+     * @param values the array receiving the values of the rows.
+     */
+    private void decodeInts(byte encoding, int offset, int[] values) {
+        switch (encoding) {
+            case ColumnarFormat.ENCODING_BIT_PACKED: {
+                int base = this.group.getInt(offset);
+                BitPacking.unpack(this.group, offset + 5, this.groupRows, this.group.get(offset + 4), values);
+                for (int r = 0; r < this.groupRows; r++)
+                    values[r] += base;
+                break;
+            }
+            case ColumnarFormat.ENCODING_DELTA: {
+                int value = this.group.getInt(offset);
+                int baseDelta = this.group.getInt(offset + 4);
+                // the deltas are unpacked after the first slot, then summed up in place
+                BitPacking.unpack(this.group, offset + 9, this.groupRows - 1, this.group.get(offset + 8), values);
+                for (int r = this.groupRows - 1; r > 0; r--)
+                    values[r] = values[r - 1];
+                values[0] = value;
+                for (int r = 1; r < this.groupRows; r++)
+                    values[r] += values[r - 1] + baseDelta;
+                break;
+            }
+            case ColumnarFormat.ENCODING_RLE: {
+                int runs = this.group.getInt(offset);
+                offset += 4;
+                int r = 0;
+                for (int run = 0; run < runs; run++, offset += 8) {
+                    int value = this.group.getInt(offset);
+                    int end = r + this.group.getInt(offset + 4);
+                    while (r < end) values[r++] = value;
+                }
+                break;
+            }
+            default:
+                for (int r = 0; r < this.groupRows; r++, offset += 4)
+                    values[r] = this.group.getInt(offset);
+        }
+    }
+
+    @Override
+    public boolean nextRecord() {
+        this.row++;
+        while (this.row >= this.groupRows) {
+            try {
+                if (!this.loadRowGroup()) return false;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            this.row = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return this.columnCount;
+    }
+
+    @Override
+    public int getInt(int column) {
+        if (!this.decoded[column]) this.decode(column);
+        return this.intValues[column][this.row];
+    }
+
+    @Override
+    public String getString(int column) {
+        if (!this.decoded[column]) this.decode(column);
+        int[] columnCodes = this.codes[column];
+        return columnCodes == null ? this.dictionaries[column][this.row] : this.dictionaries[column][columnCodes[this.row]];
+    }
+
+    /**
+     * Move the channel back to the first row group.
+     */
+    @Override
+    public void reset() {
+        try {
+            this.channel.position(this.dataStart);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.groupRows = 0;
+        this.row = 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hand-written tokenizer for the records of the relation text files, driven by the relation schema.
+ * The column types are resolved once when the tokenizer is built, then for every record:
+ *      int columns are parsed straight from the bytes into an int slot, no String is built for them;
+ *      string columns only have their boundaries recorded, a String is created when {@link #getString} is called.
+ * Fields are separated by ',', surrounding whitespace and single quotes are not part of the value.
+ * When the scan only needs some of the columns (see {@link #setRequiredColumns(boolean[])}),
+ * the other int columns are not parsed, and the tokenizer stops after the last required column.
+ *
+ * The tokenizer works on a {@link ByteBuffer} with absolute indexing,
+ * so it serves both the heap buffers of {@link BufferedRelationReader} and the mapped buffers of {@link MappedRelationReader}.
+ */
+public class CsvTokenizer {
+
+    private final boolean[] intColumn;
+
+    private boolean[] requiredColumn = null;
+    // the columns the caller will read, null if all of them may be read
+    private int lastRequiredColumn = Integer.MAX_VALUE;
+    // the tokenizer stops after this column, the remaining fields of the record are never looked at
+
+    private int[] intValues;
+    private int[] fieldStart;
+    private int[] fieldEnd;
+    private int fieldCount;
+    private byte[] stringBuffer = new byte[64];
+
+    /**
+     * @param schema the data types of the relation columns ('int' or 'string'), as provided by {@link DatabaseCatalog#getSchema}
+     */
+    public CsvTokenizer(List<String> schema) {
+        this.intColumn = new boolean[schema.size()];
+        for (int i = 0; i < schema.size(); i++)
+            this.intColumn[i] = schema.get(i).equals("int");
+        this.intValues = new int[Math.max(schema.size(), 1)];
+        this.fieldStart = new int[Math.max(schema.size(), 1)];
+        this.fieldEnd = new int[Math.max(schema.size(), 1)];
+    }
+
+    /**
+     * Restrict the decoding work to the columns that will be read.
+     * Int columns that are not required are not parsed, and the fields after the last required column are skipped.
+     * @param required a mask over the relation columns, {@code null} to decode all of them.
+     */
+    public void setRequiredColumns(boolean[] required) {
+        this.requiredColumn = required;
+        this.lastRequiredColumn = Integer.MAX_VALUE;
+        if (required != null) {
+            this.lastRequiredColumn = -1;
+            for (int i = 0; i < required.length; i++)
+                if (required[i]) this.lastRequiredColumn = i;
+        }
+    }
+
+    private boolean isParsedInt(int column) {
+        return column < this.intColumn.length && this.intColumn[column]
+                && (this.requiredColumn == null || this.requiredColumn[column]);
+    }
+
+    /**
+     * Tokenize the record in [start, end) of the buffer.
+     * @param buffer the buffer holding the record.
+     * @param start the index of the first byte of the record.
+     * @param end the index after the last byte of the record (the line break is not included).
+     */
+    public void tokenize(ByteBuffer buffer, int start, int end) {
+        this.fieldCount = 0;
+        int i = start;
+        while (this.fieldCount <= this.lastRequiredColumn) {
+            if (this.fieldCount == this.fieldStart.length) this.grow();
+            while (i < end && isPadding(buffer.get(i))) i++;
+            int from = i;
+            if (this.isParsedInt(this.fieldCount)) {
+                // parse the digits on the fly, the value is ready once the field is passed
+                boolean negative = false;
+                if (i < end && buffer.get(i) == '-') {
+                    negative = true;
+                    i++;
+                }
+                int value = 0;
+                byte b;
+                while (i < end && (b = buffer.get(i)) >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    i++;
+                }
+                this.intValues[this.fieldCount] = negative ? -value : value;
+                while (i < end && buffer.get(i) != ',') i++;
+            } else {
+                while (i < end && buffer.get(i) != ',') i++;
+            }
+            int to = i;
+            while (to > from && isPadding(buffer.get(to - 1))) to--;
+            this.fieldStart[this.fieldCount] = from;
+            this.fieldEnd[this.fieldCount] = to;
+            this.fieldCount++;
+            if (i >= end) return;
+            i++; // skip the separator
+        }
+    }
+
+    private void grow() {
+        int size = this.fieldStart.length * 2;
+        this.intValues = Arrays.copyOf(this.intValues, size);
+        this.fieldStart = Arrays.copyOf(this.fieldStart, size);
+        this.fieldEnd = Arrays.copyOf(this.fieldEnd, size);
+    }
+
+    static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private static boolean isPadding(byte b) {
+        return b == ' ' || b == '\t' || b == '\'';
+    }
+
+    /**
+     * @return the number of fields in the last tokenized record.
+     */
+    public int getFieldCount() {
+        return this.fieldCount;
+    }
+
+    /**
+     * @param buffer the buffer that was tokenized, it must not have been modified since.
+     * @param column the column index of an int field.
+     * @return the value parsed while tokenizing, or parsed now if the column was not required.
+     */
+    public int getInt(ByteBuffer buffer, int column) {
+        if (this.isParsedInt(column))
+            return this.intValues[column];
+        int i = this.fieldStart[column];
+        int end = this.fieldEnd[column];
+        boolean negative = i < end && buffer.get(i) == '-';
+        if (negative) i++;
+        int value = 0;
+        for (; i < end; i++)
+            value = value * 10 + (buffer.get(i) - '0');
+        return negative ? -value : value;
+    }
+
+    /**
+     * Compare a field of the last tokenized record with a string value, on the raw bytes (no String is built).
+     * The bytes are compared as unsigned values, which is the order of the code points of the UTF-8 strings.
+     * @param buffer the buffer that was tokenized, it must not have been modified since.
+     * @param column the column index of the field.
+     * @param value the UTF-8 bytes of the value to compare to.
+     * @return negative, zero or positive if the field is less than, equal to or greater than the value.
+     */
+    public int compareString(ByteBuffer buffer, int column, byte[] value) {
+        int start = this.fieldStart[column];
+        int length = this.fieldEnd[column] - start;
+        int common = Math.min(length, value.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(start + i) & 0xff) - (value[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return length - value.length;
+    }
+
+    /**
+     * Compare two fields of the last tokenized record, on the raw bytes (no String is built),
+     * in the order of {@link #compareString(ByteBuffer, int, byte[])}.
+     * @param buffer the buffer that was tokenized, it must not have been modified since.
+     * @param column1 the column index of the first field.
+     * @param column2 the column index of the second field.
+     * @return negative, zero or positive if the first field is less than, equal to or greater than the second one.
+     */
+    public int compareStrings(ByteBuffer buffer, int column1, int column2) {
+        int start1 = this.fieldStart[column1];
+        int start2 = this.fieldStart[column2];
+        int length1 = this.fieldEnd[column1] - start1;
+        int length2 = this.fieldEnd[column2] - start2;
+        int common = Math.min(length1, length2);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(start1 + i) & 0xff) - (buffer.get(start2 + i) & 0xff);
+            if (difference != 0) return difference;
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Encode a field of the last tokenized record with a dictionary, on the raw bytes (no String is built).
+     * @param buffer the buffer that was tokenized, it must not have been modified since.
+     * @param column the column index of the field.
+     * @param dictionary the dictionary.
+     * @return the code of the field.
+     */
+    public int getStringCode(ByteBuffer buffer, int column, StringDictionary dictionary) {
+        int start = this.fieldStart[column];
+        return dictionary.encode(buffer, start, this.fieldEnd[column] - start);
+    }
+
+    /**
+     * Build the String of a field of the last tokenized record.
+     * @param buffer the buffer that was tokenized, it must not have been modified since.
+     * @param column the column index of the field.
+     * @return the string value of the field.
+     */
+    public String getString(ByteBuffer buffer, int column) {
+        int start = this.fieldStart[column];
+        int length = this.fieldEnd[column] - start;
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        if (length > this.stringBuffer.length)
+            this.stringBuffer = new byte[Math.max(length, this.stringBuffer.length * 2)];
+        for (int i = 0; i < length; i++)
+            this.stringBuffer[i] = buffer.get(start + i);
+        return new String(this.stringBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -2,6 +2,7 @@ package ed.inf.adbs.minibase.dbhelper;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.*;
 import ed.inf.adbs.minibase.operators.ScanOperator;
 
@@ -20,6 +21,40 @@ public class DatabaseCatalog {
     // <relation name : ArrayList of data type>
     // e.g. <'R' : ['int', 'int', 'string']>
 
+    private ScanMode scanMode = ScanMode.BUFFERED;
+    // the way relation files are read by the scan operators of this catalog
+
+    private int scanThreads = Runtime.getRuntime().availableProcessors();
+    // the number of worker threads of a parallel scan
+
+    private int joinThreads = Runtime.getRuntime().availableProcessors();
+    // the number of worker threads of a parallel hash join
+
+    private int prefetchDepth = 0;
+    // the number of batches read ahead of each scan by a background thread, 0 to read on the scan thread
+
+    private boolean preferColumnar = true;
+    // whether a relation converted into the binary columnar format is read from that file instead of the text file
+
+    private final RelationCache relationCache = new RelationCache(0);
+    // parsed relations kept in memory, disabled while its byte budget is 0
+
+    private final Map<String, ZoneMap> zoneMaps = new HashMap<>();
+    // the zone maps loaded so far, <relation name : zone map>
+    private final Map<String, BPlusTreeIndex> indexes = new HashMap<>();
+    // the indexes loaded so far, <index file path : index>
+    private final ScanStatistics scanStatistics = new ScanStatistics();
+
+    private long operatorMemory = 64L << 20;
+    // the estimated bytes of tuples a materializing operator (sort, join) keeps in memory before spilling to disk
+    private final SpillStatistics spillStatistics = new SpillStatistics();
+
+    private boolean useDictionary = false;
+    // whether the string values are encoded with the global string dictionary
+    private StringDictionary stringDictionary = null;
+    private long dictionaryStamp = 0;
+    // a signature of the lengths and modification times of the data files the dictionary was built from
+
     private DatabaseCatalog() {}
 
     /**
@@ -40,6 +75,7 @@ public class DatabaseCatalog {
      */
     public void init(String dbDirectory) {
         this.dbDirectory = dbDirectory;
+        this.stringDictionary = null;
         String schema_path = this.dbDirectory + File.separator + "schema.txt";
         try {
             File f = new File(schema_path);
@@ -65,6 +101,42 @@ public class DatabaseCatalog {
         return (this.dbDirectory + File.separator + "files" + File.separator + relationName + ".csv");
     }
 
+    /**
+     * Return the relative path to the binary columnar file of required relation (see {@link ColumnarConverter})
+     * @param relationName the name of relation
+     * @return the relative path as a String
+     */
+    public String getColumnarPath(String relationName) {
+        return (this.dbDirectory + File.separator + "files" + File.separator + relationName + ColumnarFormat.FILE_EXTENSION);
+    }
+
+    /**
+     * Return the relative path to the zone map file of required relation (see {@link ZoneMapBuilder})
+     * @param relationName the name of relation
+     * @return the relative path as a String
+     */
+    public String getZoneMapPath(String relationName) {
+        return (this.dbDirectory + File.separator + "files" + File.separator + relationName + ZoneMap.FILE_EXTENSION);
+    }
+
+    /**
+     * Return the relative path to the B+tree index file of a column of required relation (see {@link BPlusTreeIndexBuilder})
+     * @param relationName the name of relation
+     * @param column the indexed column
+     * @return the relative path as a String
+     */
+    public String getIndexPath(String relationName, int column) {
+        return (this.dbDirectory + File.separator + "files" + File.separator + relationName + "." + column
+                + BPlusTreeIndex.FILE_EXTENSION);
+    }
+
+    /**
+     * @return the names of all the relations declared in the schema file
+     */
+    public Set<String> getRelationNames() {
+        return relationSchemaMap.keySet();
+    }
+
     /**
      * Return the schema of a relation as a List of data types ('int' or 'string')
      * @param relationName a String of the relation name
@@ -73,4 +145,283 @@ public class DatabaseCatalog {
     public List<String> getSchema(String relationName) {
         return relationSchemaMap.get(relationName);
     }
+
+    public ScanMode getScanMode() {
+        return scanMode;
+    }
+
+    /**
+     * Select how the relation files are read by the scan operators created after this call.
+     * @param scanMode the {@link ScanMode} to use
+     */
+    public void setScanMode(ScanMode scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    /**
+     * Set the number of worker threads used by each scan in {@link ScanMode#PARALLEL} mode.
+     * @param scanThreads the number of threads, at least 1
+     */
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = Math.max(1, scanThreads);
+    }
+
+    public int getJoinThreads() {
+        return joinThreads;
+    }
+
+    /**
+     * Set the number of worker threads used by each ParallelHashJoinOperator.
+     * @param joinThreads the number of threads, at least 1
+     */
+    public void setJoinThreads(int joinThreads) {
+        this.joinThreads = Math.max(1, joinThreads);
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Set the number of record batches read ahead of each scan by a background thread (see {@link PrefetchingRelationReader}),
+     * it is also the queue depth of the parallel scans.
+     * @param prefetchDepth the number of batches, 0 disables the read-ahead
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = Math.max(0, prefetchDepth);
+    }
+
+    public boolean isPreferColumnar() {
+        return preferColumnar;
+    }
+
+    /**
+     * Select whether relations that have a binary columnar file are read from it.
+     * @param preferColumnar {@code false} to always read the text files
+     */
+    public void setPreferColumnar(boolean preferColumnar) {
+        this.preferColumnar = preferColumnar;
+    }
+
+    /**
+     * @return the relation cache of this catalog, which also exposes the hit/miss counters
+     */
+    public RelationCache getRelationCache() {
+        return relationCache;
+    }
+
+    /**
+     * Set the memory budget of the relation cache, 0 disables the cache.
+     * @param bytes the maximum estimated size of the cached relations in bytes
+     */
+    public void setCacheBudget(long bytes) {
+        this.relationCache.setByteBudget(bytes);
+        if (bytes == 0) this.relationCache.clear();
+    }
+
+    /**
+     * @return the counters of the scans run through this catalog
+     */
+    public ScanStatistics getScanStatistics() {
+        return scanStatistics;
+    }
+
+    /**
+     * @return the memory budget of a materializing operator in bytes, above which its state is spilled to disk
+     */
+    public long getOperatorMemory() {
+        return operatorMemory;
+    }
+
+    /**
+     * Set the memory budget of the materializing operators.
+     * @param bytes the estimated bytes of tuples an operator keeps in memory, 0 to spill as soon as possible
+     */
+    public void setOperatorMemory(long bytes) {
+        this.operatorMemory = bytes;
+    }
+
+    /**
+     * @return the counters of the spill files written by the operators
+     */
+    public SpillStatistics getSpillStatistics() {
+        return spillStatistics;
+    }
+
+    public boolean isUseDictionary() {
+        return useDictionary;
+    }
+
+    /**
+     * Select whether the scans created after this call encode the string values with the global string dictionary.
+     * @param useDictionary {@code true} to encode the strings
+     */
+    public void setUseDictionary(boolean useDictionary) {
+        this.useDictionary = useDictionary;
+    }
+
+    /**
+     * Return the order-preserving dictionary of all the string values of the database, if it is enabled.
+     * The dictionary is built on the first call, with one pass over the string columns of every relation,
+     * and built again once a data file has been modified.
+     * A query plan must get the dictionary once and use the same instance in all its operators.
+     * @return the dictionary, or {@code null} if it is disabled or cannot be built
+     */
+    public synchronized StringDictionary getStringDictionary() {
+        if (!this.useDictionary) return null;
+        long stamp = 1;
+        for (String relationName : this.getRelationNames()) {
+            File dataFile = this.getStoredFile(relationName);
+            stamp = 31 * (31 * stamp + dataFile.length()) + dataFile.lastModified();
+        }
+        if (this.stringDictionary != null && stamp == this.dictionaryStamp)
+            return this.stringDictionary;
+        Set<String> strings = new HashSet<>();
+        for (String relationName : this.getRelationNames()) {
+            List<String> schema = this.getSchema(relationName);
+            boolean[] stringColumn = new boolean[schema.size()];
+            boolean hasString = false;
+            for (int i = 0; i < schema.size(); i++) {
+                stringColumn[i] = !schema.get(i).equals("int");
+                hasString |= stringColumn[i];
+            }
+            if (!hasString) continue;
+            RelationReader reader = null;
+            try {
+                reader = this.openStoredRelation(relationName);
+                reader.setRequiredColumns(stringColumn);
+                while (reader.nextRecord()) {
+                    for (int i = 0; i < stringColumn.length; i++)
+                        if (stringColumn[i]) strings.add(reader.getString(i));
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to read the strings of relation: " + relationName);
+                e.printStackTrace();
+                return null;
+            } finally {
+                if (reader != null) reader.close();
+            }
+        }
+        this.stringDictionary = StringDictionary.build(strings);
+        this.dictionaryStamp = stamp;
+        return this.stringDictionary;
+    }
+
+    /**
+     * Return the zone map of a relation, if the relation is read from its text file
+     * and the zone map was built from the current content of that file.
+     * @param relationName the name of relation
+     * @return the zone map, or {@code null} if there is no usable zone map
+     */
+    public synchronized ZoneMap getZoneMap(String relationName) {
+        File textFile = new File(this.getRelationPath(relationName));
+        File zoneMapFile = new File(this.getZoneMapPath(relationName));
+        if (!zoneMapFile.isFile() || !this.getStoredFile(relationName).equals(textFile))
+            return null;
+        ZoneMap zoneMap = this.zoneMaps.get(relationName);
+        if (zoneMap == null || !zoneMap.isCurrent(textFile)) {
+            try {
+                zoneMap = ZoneMap.read(zoneMapFile);
+            } catch (IOException e) {
+                System.out.println("Failed to read zone map file: " + zoneMapFile);
+                e.printStackTrace();
+                return null;
+            }
+            this.zoneMaps.put(relationName, zoneMap);
+        }
+        return zoneMap.isCurrent(textFile) ? zoneMap : null;
+    }
+
+    /**
+     * Return the B+tree index of a column of a relation, if it was built from the current content of its text file.
+     * The indexes are registered by their file: an index built by {@link BPlusTreeIndexBuilder} is found here.
+     * @param relationName the name of relation
+     * @param column the indexed column
+     * @return the index, or {@code null} if there is no usable index
+     */
+    public synchronized BPlusTreeIndex getIndex(String relationName, int column) {
+        File textFile = new File(this.getRelationPath(relationName));
+        String indexPath = this.getIndexPath(relationName, column);
+        File indexFile = new File(indexPath);
+        if (!indexFile.isFile())
+            return null;
+        BPlusTreeIndex index = this.indexes.get(indexPath);
+        if (index == null || !index.isCurrent(textFile)) {
+            try {
+                index = BPlusTreeIndex.read(indexFile);
+            } catch (IOException e) {
+                System.out.println("Failed to read index file: " + indexFile);
+                e.printStackTrace();
+                return null;
+            }
+            this.indexes.put(indexPath, index);
+        }
+        return index.isCurrent(textFile) ? index : null;
+    }
+
+    /**
+     * Open a {@link RelationReader} over the records of a relation.
+     * If the relation cache is enabled and the relation fits into it, the reader iterates the cached records,
+     * otherwise the data file is read (see {@link #openStoredRelation(String)}),
+     * ahead of the scan on a background thread if the prefetch depth is not 0.
+     * @param relationName the name of relation
+     * @return a reader positioned before the first record of the relation
+     * @throws IOException if the data file cannot be opened
+     */
+    public RelationReader openRelation(String relationName) throws IOException {
+        if (this.relationCache.getByteBudget() > 0) {
+            List<RowBatch> batches = this.relationCache.get(relationName, this);
+            if (batches != null)
+                return new BatchRelationReader(batches);
+        }
+        RelationReader reader = this.openStoredRelation(relationName);
+        if (this.prefetchDepth > 0 && !(reader instanceof QueuedRelationReader)) {
+            List<String> schema = this.getSchema(relationName);
+            boolean[] intColumn = new boolean[schema.size()];
+            for (int i = 0; i < schema.size(); i++)
+                intColumn[i] = schema.get(i).equals("int");
+            return new PrefetchingRelationReader(reader, intColumn, this.prefetchDepth, this.scanStatistics);
+        }
+        return reader;
+    }
+
+    /**
+     * Return the file that holds the data of a relation: the binary columnar file when it exists,
+     * is not older than the text file and is preferred by the catalog, otherwise the text file.
+     * @param relationName the name of relation
+     * @return the data file of the relation
+     */
+    public File getStoredFile(String relationName) {
+        File textFile = new File(this.getRelationPath(relationName));
+        File columnarFile = new File(this.getColumnarPath(relationName));
+        if (this.preferColumnar && columnarFile.isFile() && columnarFile.lastModified() >= textFile.lastModified())
+            return columnarFile;
+        return textFile;
+    }
+
+    /**
+     * Open a {@link RelationReader} over the data file of a relation (see {@link #getStoredFile(String)}).
+     * A text file is read according to the scan mode of the catalog.
+     * @param relationName the name of relation
+     * @return a reader positioned before the first record of the relation
+     * @throws IOException if the data file cannot be opened
+     */
+    public RelationReader openStoredRelation(String relationName) throws IOException {
+        File dataFile = this.getStoredFile(relationName);
+        if (dataFile.getName().endsWith(ColumnarFormat.FILE_EXTENSION))
+            return new ColumnarRelationReader(dataFile.getPath());
+        String relationPath = dataFile.getPath();
+        if (this.scanMode == ScanMode.PARALLEL)
+            return new ParallelRelationReader(relationPath, this.getSchema(relationName), this.scanThreads,
+                    this.prefetchDepth > 0 ? this.prefetchDepth : 2 * this.scanThreads, this.scanStatistics);
+        if (this.scanMode == ScanMode.MAPPED)
+            return new MappedRelationReader(relationPath, this.getSchema(relationName));
+        if (this.scanMode == ScanMode.BUFFERED)
+            return new BufferedRelationReader(relationPath, this.getSchema(relationName));
+        return new ScannerRelationReader(relationPath);
+    }
 }
@@ -0,0 +1,210 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An external merge sort of tuples by some key columns, under the operator memory budget of the {@link DatabaseCatalog}.
+ *
+ * The tuples are added one by one and buffered in memory. When the estimated size of the buffer
+ * ({@link Tuple#estimateBytes()}) exceeds the budget, the buffer is sorted and written to a {@link SpillFile} as a
+ * sorted run. {@link #sort()} then sorts the last buffer: if nothing was spilled, the tuples are returned straight
+ * from memory; otherwise the last buffer is spilled too, and the runs are merged with a priority queue holding the
+ * head tuple of every run. At most {@link #MAX_FAN_IN} runs are merged at once (one open file each), more runs are
+ * first merged in groups into longer runs.
+ *
+ * The sort is stable within a run ({@link java.util.List#sort} is a merge sort), the order of equal keys across runs
+ * follows the runs. The order of the keys is the one of {@link #compareKeys}.
+ */
+public class ExternalSorter {
+
+    public static final int MAX_FAN_IN = 64;
+    public static final int MIN_RUN_ROWS = 1024;
+    // a run holds at least this number of tuples, so that a tiny budget does not spill a file per tuple
+
+    private final String relationName;
+    private final int[] keyColumns;
+    private final long memoryBudget;
+    private final Comparator<Tuple> comparator;
+
+    private List<Tuple> buffer = new ArrayList<>();
+    private long bufferBytes = 0;
+    // the tuples added since the last spilled run, and their estimated size
+    private final List<SpillFile> runs = new ArrayList<>();
+    private int runCount = 0;
+    // the sorted runs to merge, and the number of runs spilled in total (including the intermediate merges)
+
+    private boolean sorted = false;
+    private int position = 0;
+    // the next tuple of the buffer, when the tuples are returned from memory
+    private PriorityQueue<RunHead> heads = null;
+    // the head tuple of every run, when the runs are merged
+
+    /**
+     * The next tuple of a sorted run, ordered by its key then by the index of the run.
+     */
+    private static class RunHead {
+        Tuple tuple;
+        final SpillFile run;
+        final int index;
+
+        RunHead(Tuple tuple, SpillFile run, int index) {
+            this.tuple = tuple;
+            this.run = run;
+            this.index = index;
+        }
+    }
+
+    /**
+     * @param relationName the name given to the tuples read back from the runs.
+     * @param keyColumns the columns the tuples are sorted by, the first one is the most significant.
+     * @param memoryBudget the estimated bytes of tuples kept in memory before a run is spilled.
+     */
+    public ExternalSorter(String relationName, int[] keyColumns, long memoryBudget) {
+        this.relationName = relationName;
+        this.keyColumns = keyColumns;
+        this.memoryBudget = memoryBudget;
+        this.comparator = (a, b) -> compareKeys(a, keyColumns, b, keyColumns);
+    }
+
+    /**
+     * Compare some columns of two tuples, in order.
+     * The ints come before the strings, values of the same type are compared with {@link Tuple#compareValue},
+     * so that two keys compare as 0 iff all their values are equal for {@link Tuple#valueEquals}.
+     * @return negative, zero or positive if the key of {@code a} is less than, equal to or greater than the one of {@code b}.
+     */
+    public static int compareKeys(Tuple a, int[] aColumns, Tuple b, int[] bColumns) {
+        for (int k = 0; k < aColumns.length; k++) {
+            boolean aString = a.isString(aColumns[k]);
+            if (aString != b.isString(bColumns[k])) return aString ? 1 : -1;
+            int comparison = a.compareValue(aColumns[k], b, bColumns[k]);
+            if (comparison != 0) return comparison;
+        }
+        return 0;
+    }
+
+    /**
+     * Add a tuple to sort, which must not be modified afterwards.
+     */
+    public void add(Tuple tuple) {
+        this.buffer.add(tuple);
+        this.bufferBytes += tuple.estimateBytes();
+        if (this.bufferBytes > this.memoryBudget && this.buffer.size() >= MIN_RUN_ROWS) this.spillBuffer();
+    }
+
+    /**
+     * Sort the added tuples, which are then returned by {@link #next()}.
+     */
+    public void sort() {
+        if (this.runs.isEmpty()) {
+            this.buffer.sort(this.comparator);
+        } else {
+            if (!this.buffer.isEmpty()) this.spillBuffer();
+            this.buffer = new ArrayList<>();
+            while (this.runs.size() > MAX_FAN_IN) {
+                List<SpillFile> merged = new ArrayList<>();
+                for (int i = 0; i < this.runs.size(); i += MAX_FAN_IN) {
+                    List<SpillFile> group = this.runs.subList(i, Math.min(i + MAX_FAN_IN, this.runs.size()));
+                    merged.add(group.size() == 1 ? group.get(0) : this.mergeRuns(group));
+                }
+                this.runs.clear();
+                this.runs.addAll(merged);
+            }
+            this.heads = this.openRuns(this.runs);
+        }
+        this.sorted = true;
+        this.position = 0;
+    }
+
+    /**
+     * @return the next tuple in the order of the keys, or {@code null} after the last one.
+     */
+    public Tuple next() {
+        if (!this.sorted) this.sort();
+        if (this.heads == null)
+            return this.position < this.buffer.size() ? this.buffer.get(this.position++) : null;
+        return nextHead(this.heads, this.relationName);
+    }
+
+    /**
+     * Return the tuples from the first one again.
+     */
+    public void rewind() {
+        if (!this.sorted) return;
+        this.position = 0;
+        if (this.heads != null) {
+            for (SpillFile run : this.runs) run.rewind();
+            this.heads = this.openRuns(this.runs);
+        }
+    }
+
+    /**
+     * @return the number of sorted runs spilled to disk, 0 if the tuples were sorted in memory.
+     */
+    public int getRunCount() {
+        return this.runCount;
+    }
+
+    /**
+     * Release the buffered tuples and delete the runs.
+     */
+    public void close() {
+        for (SpillFile run : this.runs) run.close();
+        this.runs.clear();
+        this.buffer = new ArrayList<>();
+        this.bufferBytes = 0;
+        this.heads = null;
+        this.sorted = false;
+    }
+
+    private void spillBuffer() {
+        this.buffer.sort(this.comparator);
+        SpillFile run = new SpillFile("minibase-sort");
+        for (Tuple tuple : this.buffer) run.write(tuple);
+        run.finishWriting();
+        this.runs.add(run);
+        this.runCount++;
+        this.buffer = new ArrayList<>();
+        this.bufferBytes = 0;
+    }
+
+    /**
+     * Merge some runs into a new run, and delete them.
+     */
+    private SpillFile mergeRuns(List<SpillFile> group) {
+        PriorityQueue<RunHead> groupHeads = this.openRuns(group);
+        SpillFile merged = new SpillFile("minibase-sort");
+        Tuple tuple;
+        while ((tuple = nextHead(groupHeads, this.relationName)) != null) merged.write(tuple);
+        merged.finishWriting();
+        for (SpillFile run : group) run.close();
+        this.runCount++;
+        return merged;
+    }
+
+    private PriorityQueue<RunHead> openRuns(List<SpillFile> runs) {
+        PriorityQueue<RunHead> queue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int comparison = this.comparator.compare(a.tuple, b.tuple);
+            return comparison != 0 ? comparison : Integer.compare(a.index, b.index);
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            Tuple tuple = runs.get(i).read(this.relationName);
+            if (tuple != null) queue.add(new RunHead(tuple, runs.get(i), i));
+        }
+        return queue;
+    }
+
+    /**
+     * Remove the smallest head tuple of a queue, replacing it with the next tuple of its run.
+     */
+    private static Tuple nextHead(PriorityQueue<RunHead> queue, String relationName) {
+        RunHead head = queue.poll();
+        if (head == null) return null;
+        Tuple tuple = head.tuple;
+        head.tuple = head.run.read(relationName);
+        if (head.tuple != null) queue.add(head);
+        return tuple;
+    }
+}
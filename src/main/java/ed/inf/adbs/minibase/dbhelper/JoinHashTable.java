@@ -0,0 +1,156 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory hash table over the tuples of the build input of a hash join, keyed by some of their columns.
+ * Tuples with equal keys are all kept (the table is a multimap), and a probe returns them one by one.
+ *
+ * The key is never built as an object: its hash is computed straight from the primitive slots of the tuples
+ * (an int or a dictionary code is hashed as itself, a string that is not encoded with {@link String#hashCode()},
+ * the columns of a composite key are combined with {@code h = 31 * h + hash}), and the key columns of a probe
+ * tuple are compared in place with {@link Tuple#valueEquals(int, Tuple, int)}.
+ * The rows of a hash slot are chained through an int array, and the hash of every row is stored,
+ * so that only the rows of the same hash are compared with the probe.
+ */
+public class JoinHashTable {
+
+    private final int[] keyColumns;
+    private Tuple[] rows = new Tuple[16];
+    private int[] hashes = new int[16];
+    private int[] next = new int[16];
+    // for every row: its key hash and the next row of the same slot, -1 at the end of the chain
+    private int[] heads;
+    // the first row of every slot, -1 for an empty slot
+    private int mask;
+    private int size = 0;
+
+    /**
+     * @param keyColumns the key columns of the stored tuples.
+     */
+    public JoinHashTable(int[] keyColumns) {
+        this.keyColumns = keyColumns;
+        this.heads = new int[16];
+        Arrays.fill(this.heads, -1);
+        this.mask = this.heads.length - 1;
+    }
+
+    /**
+     * @return the hash of some key columns of a tuple, equal for all the tuples whose key values are equal.
+     */
+    public static int hash(Tuple tuple, int[] columns) {
+        int hash = 0;
+        for (int column : columns) {
+            boolean plainString = tuple.isString(column) && tuple.getCode(column) == Tuple.NO_CODE;
+            hash = 31 * hash + (plainString ? tuple.getString(column).hashCode() : tuple.getInt(column));
+        }
+        return hash;
+    }
+
+    /**
+     * Add a tuple, which must not be modified afterwards.
+     */
+    public void add(Tuple tuple) {
+        if (this.size == this.rows.length) {
+            int capacity = this.size * 2;
+            this.rows = Arrays.copyOf(this.rows, capacity);
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+            this.next = Arrays.copyOf(this.next, capacity);
+        }
+        if (this.size >= this.heads.length) this.rehash(this.heads.length * 2);
+        int row = this.size++;
+        int hash = hash(tuple, this.keyColumns);
+        this.rows[row] = tuple;
+        this.hashes[row] = hash;
+        int slot = mix(hash) & this.mask;
+        this.next[row] = this.heads[slot];
+        this.heads[slot] = row;
+    }
+
+    /**
+     * @return the number of stored tuples.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the stored tuple of a row.
+     */
+    public Tuple getRow(int row) {
+        return this.rows[row];
+    }
+
+    /**
+     * Find the first stored tuple whose key equals some columns of a probe tuple.
+     * @param probe the probe tuple.
+     * @param probeColumns the columns of the probe tuple matched with the key columns, in the same order.
+     * @return the row of the stored tuple, or -1 if there is none.
+     */
+    public int first(Tuple probe, int[] probeColumns) {
+        int hash = hash(probe, probeColumns);
+        return this.matching(this.heads[mix(hash) & this.mask], hash, probe, probeColumns);
+    }
+
+    /**
+     * Find the next stored tuple matching a probe tuple, after a row returned by {@link #first} or {@link #next}.
+     * @return the row of the stored tuple, or -1 if there is none left.
+     */
+    public int next(int row, Tuple probe, int[] probeColumns) {
+        return this.matching(this.next[row], this.hashes[row], probe, probeColumns);
+    }
+
+    /**
+     * Release the stored tuples.
+     */
+    public void clear() {
+        this.rows = new Tuple[16];
+        this.hashes = new int[16];
+        this.next = new int[16];
+        this.heads = new int[16];
+        Arrays.fill(this.heads, -1);
+        this.mask = this.heads.length - 1;
+        this.size = 0;
+    }
+
+    /**
+     * @return the first row of a chain, from {@code row} on, whose key equals the probe key.
+     */
+    private int matching(int row, int hash, Tuple probe, int[] probeColumns) {
+        for (; row >= 0; row = this.next[row]) {
+            if (this.hashes[row] == hash && this.keyEquals(this.rows[row], probe, probeColumns)) return row;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(Tuple stored, Tuple probe, int[] probeColumns) {
+        for (int k = 0; k < this.keyColumns.length; k++) {
+            if (!stored.valueEquals(this.keyColumns[k], probe, probeColumns[k])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuild the chains for a new number of slots, the rows keep their relative order within a slot.
+     */
+    private void rehash(int slots) {
+        this.heads = new int[slots];
+        Arrays.fill(this.heads, -1);
+        this.mask = slots - 1;
+        for (int row = this.size - 1; row >= 0; row--) {
+            int slot = mix(this.hashes[row]) & this.mask;
+            this.next[row] = this.heads[slot];
+            this.heads[slot] = row;
+        }
+    }
+
+    /**
+     * Scramble a hash before its low bits choose a slot: the hashes built with {@code 31 * h + value} from small ints
+     * are close to each other, and would otherwise fill runs of neighbouring slots.
+     * The other hash tables of the tree ({@link RowArena}, the compiled join index) use it as well.
+     */
+    public static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,213 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A {@link RelationReader} that maps the relation file into memory with {@link FileChannel#map}
+ * and tokenizes the records directly on the mapped bytes. This is the {@link ScanMode#MAPPED} scan path.
+ *
+ * No String is built for a line: the records are tokenized in place by a {@link CsvTokenizer},
+ * which parses the integers from the bytes and only creates a String when {@link #getString(int)} is called.
+ *
+ * A single mapping is limited to 2GB, so large files are mapped as a sequence of windows.
+ * When a record crosses the end of the current window, the next window is mapped from the start of that record.
+ *
+ * A reader may also be restricted to byte ranges of the file whose bounds are at the start of a line,
+ * in which case it only returns the records inside those ranges: a single range is given to each worker
+ * of a {@link ParallelRelationReader}, and the blocks that survive a zone map are given by {@link #restrictToRanges}.
+ */
+public class MappedRelationReader extends RelationReader {
+
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final String relationPath;
+    private final FileChannel channel;
+    private final long fileSize;
+
+    private long[] rangeStarts;      // the byte ranges read by this reader, in file order
+    private long[] rangeEnds;
+    private int rangeIndex;          // the range holding the current record
+
+    private MappedByteBuffer buffer;
+    private long windowStart = -1;   // file offset of the first byte in the current window
+    private int position;            // offset of the next unread byte in the current window
+    private long recordStart;        // file offset of the current record
+
+    private final CsvTokenizer tokenizer;
+
+    public MappedRelationReader(String relationPath, List<String> schema) throws IOException {
+        this(relationPath, schema, 0, -1);
+    }
+
+    /**
+     * Open a reader over a byte range of the relation file.
+     * @param rangeStart the file offset of the first record of the range, 0 or the offset after a line break.
+     * @param rangeEnd the file offset after the last record of the range, -1 for the end of file.
+     */
+    public MappedRelationReader(String relationPath, List<String> schema, long rangeStart, long rangeEnd)
+            throws IOException {
+        this.relationPath = relationPath;
+        this.tokenizer = new CsvTokenizer(schema);
+        this.channel = FileChannel.open(Paths.get(relationPath), StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
+        this.rangeStarts = new long[]{rangeStart};
+        this.rangeEnds = new long[]{rangeEnd < 0 ? this.fileSize : rangeEnd};
+        this.reset();
+    }
+
+    /**
+     * Move to a file offset, the current window is kept if it contains the offset.
+     * @param offset the file offset of the next byte to read.
+     */
+    private void seek(long offset) {
+        if (this.buffer != null && offset >= this.windowStart && offset < this.windowStart + this.buffer.limit())
+            this.position = (int) (offset - this.windowStart);
+        else
+            this.mapWindow(offset);
+    }
+
+    /**
+     * Map the window of the file starting at the given offset, the position is moved to the start of the window.
+     * @param start the file offset where the new window starts.
+     */
+    private void mapWindow(long start) {
+        if (start != this.windowStart) {
+            try {
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(WINDOW_SIZE, this.fileSize - start));
+            } catch (IOException e) {
+                System.out.println("Failed to map relation data file: " + this.relationPath);
+                e.printStackTrace();
+            }
+            this.windowStart = start;
+        }
+        this.position = 0;
+    }
+
+    @Override
+    public boolean nextRecord() {
+        while (true) {
+            int limit = this.buffer.limit();
+            // skip the line breaks (and empty lines) before the record
+            while (this.position < limit && CsvTokenizer.isLineBreak(this.buffer.get(this.position)))
+                this.position++;
+            if (this.windowStart + this.position >= this.rangeEnds[this.rangeIndex]) {
+                // the current range is finished, continue with the next one
+                if (this.rangeIndex + 1 >= this.rangeStarts.length) return false;
+                this.rangeIndex++;
+                this.seek(this.rangeStarts[this.rangeIndex]);
+                continue;
+            }
+            if (this.position >= limit) {
+                this.mapWindow(this.windowStart + limit);
+                continue;
+            }
+
+            int lineEnd = this.position;
+            while (lineEnd < limit && !CsvTokenizer.isLineBreak(this.buffer.get(lineEnd)))
+                lineEnd++;
+            if (lineEnd == limit && this.windowStart + limit < this.fileSize) {
+                // the record crosses the window boundary, remap from the start of the record
+                if (this.position == 0)
+                    throw new IllegalStateException("Record longer than the mapping window in " + this.relationPath);
+                this.mapWindow(this.windowStart + this.position);
+                continue;
+            }
+
+            this.tokenizer.tokenize(this.buffer, this.position, lineEnd);
+            this.recordStart = this.windowStart + this.position;
+            this.position = lineEnd;
+            return true;
+        }
+    }
+
+    /**
+     * @return the file offset of the first byte of the current record.
+     */
+    public long getRecordOffset() {
+        return this.recordStart;
+    }
+
+    /**
+     * Read the record starting at a file offset, e.g. an offset found in a {@link BPlusTreeIndex}.
+     * The reader then continues with the records after it, until the end of file.
+     * @param offset the file offset of the first byte of the record.
+     * @return {@code false} if there is no record at the offset.
+     */
+    public boolean readRecordAt(long offset) {
+        this.rangeStarts = new long[]{offset};
+        this.rangeEnds = new long[]{this.fileSize};
+        this.rangeIndex = 0;
+        this.seek(offset);
+        return this.nextRecord();
+    }
+
+    /**
+     * Only read the records inside the given byte ranges from now on, starting from the first range.
+     */
+    @Override
+    public boolean restrictToRanges(long[] starts, long[] ends) {
+        this.rangeStarts = starts.length > 0 ? starts : new long[]{0};
+        this.rangeEnds = ends.length > 0 ? ends : new long[]{0};
+        this.reset();
+        return true;
+    }
+
+    @Override
+    public void setRequiredColumns(boolean[] required) {
+        this.tokenizer.setRequiredColumns(required);
+    }
+
+    @Override
+    public int getFieldCount() {
+        return this.tokenizer.getFieldCount();
+    }
+
+    @Override
+    public int getInt(int column) {
+        return this.tokenizer.getInt(this.buffer, column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return this.tokenizer.getString(this.buffer, column);
+    }
+
+    @Override
+    public int compareString(int column, byte[] value) {
+        return this.tokenizer.compareString(this.buffer, column, value);
+    }
+
+    @Override
+    public int compareStrings(int column1, int column2) {
+        return this.tokenizer.compareStrings(this.buffer, column1, column2);
+    }
+
+    @Override
+    public int getStringCode(int column, StringDictionary dictionary) {
+        return this.tokenizer.getStringCode(this.buffer, column, dictionary);
+    }
+
+    /**
+     * Move back to the beginning of the first range, the mapping of the current window is reused if it contains it.
+     */
+    @Override
+    public void reset() {
+        this.rangeIndex = 0;
+        this.seek(this.rangeStarts[0]);
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A {@link RelationReader} that parses the relation file on several threads. This is the {@link ScanMode#PARALLEL} scan path.
+ *
+ * The file is split into byte ranges whose bounds are moved forward to the start of a line, so every record
+ * belongs to exactly one range. The ranges are parsed concurrently by a pool of worker threads,
+ * each with its own {@link MappedRelationReader}; the records are copied into {@link RowBatch} chunks
+ * and handed to the consuming thread through the bounded queue of {@link QueuedRelationReader}.
+ *
+ * The records of different ranges are interleaved, the order of the file is not preserved.
+ */
+public class ParallelRelationReader extends QueuedRelationReader {
+
+    private static final int RANGES_PER_THREAD = 4;
+    // more ranges than threads, so that a slow range does not leave the other threads idle at the end of the scan
+    private static final long MIN_RANGE_SIZE = 1 << 20;
+    private static final int ALIGN_BUFFER_SIZE = 1 << 16;
+
+    private final String relationPath;
+    private final List<String> schema;
+    private final long[] bounds;       // range i is [bounds[i], bounds[i + 1])
+
+    /**
+     * @param relationPath the path of the text file of the relation.
+     * @param schema the column types of the relation.
+     * @param threads the number of worker threads.
+     * @param queueDepth the maximum number of batches waiting for the consumer.
+     * @param statistics the counters receiving the stall times.
+     * @throws IOException if the file cannot be read.
+     */
+    public ParallelRelationReader(String relationPath, List<String> schema, int threads, int queueDepth,
+                                  ScanStatistics statistics) throws IOException {
+        super(intColumns(schema), threads, queueDepth, statistics);
+        this.relationPath = relationPath;
+        this.schema = schema;
+        this.bounds = splitFile(relationPath, Math.max(1, threads) * RANGES_PER_THREAD);
+    }
+
+    private static boolean[] intColumns(List<String> schema) {
+        boolean[] intColumn = new boolean[schema.size()];
+        for (int i = 0; i < schema.size(); i++)
+            intColumn[i] = schema.get(i).equals("int");
+        return intColumn;
+    }
+
+    /**
+     * Split a text file into byte ranges of about the same size, each starting at the beginning of a line.
+     * @param relationPath the path of the file.
+     * @param maxRanges the maximum number of ranges, ranges are not made smaller than {@link #MIN_RANGE_SIZE}.
+     * @return the bounds of the ranges, from 0 to the size of the file.
+     */
+    static long[] splitFile(String relationPath, int maxRanges) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(relationPath), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            int ranges = (int) Math.max(1, Math.min(maxRanges, fileSize / MIN_RANGE_SIZE));
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            for (int i = 1; i < ranges; i++) {
+                long bound = alignToLine(channel, fileSize * i / ranges, fileSize);
+                if (bound > bounds.get(bounds.size() - 1) && bound < fileSize) bounds.add(bound);
+            }
+            bounds.add(fileSize);
+            long[] result = new long[bounds.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = bounds.get(i);
+            return result;
+        }
+    }
+
+    /**
+     * @return the offset of the first line that starts at or after the given offset, the file size if there is none.
+     */
+    private static long alignToLine(FileChannel channel, long offset, long fileSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ALIGN_BUFFER_SIZE);
+        // the offset is already the start of a line if the byte before it is a line break
+        long position = offset - 1;
+        while (position < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++)
+                if (CsvTokenizer.isLineBreak(buffer.get(i))) return position + i + 1;
+            position += read;
+        }
+        return fileSize;
+    }
+
+    /**
+     * @return the number of byte ranges the file is split into.
+     */
+    public int getRangeCount() {
+        return this.bounds.length - 1;
+    }
+
+    @Override
+    protected int getProducerCount() {
+        return this.getRangeCount();
+    }
+
+    /**
+     * Submit one task per range.
+     */
+    @Override
+    protected void submitProducers(ExecutorService workers) {
+        for (int i = 0; i < this.getRangeCount(); i++) {
+            long start = this.bounds[i];
+            long end = this.bounds[i + 1];
+            workers.execute(() -> this.scanRange(start, end));
+        }
+    }
+
+    /**
+     * Parse the records of one range into batches and put them into the queue, then signal the end of the range.
+     * Runs on a worker thread.
+     */
+    private void scanRange(long start, long end) {
+        try {
+            MappedRelationReader reader = new MappedRelationReader(this.relationPath, this.schema, start, end);
+            try {
+                reader.setRequiredColumns(this.requiredColumns);
+                this.produce(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read relation data file: " + this.relationPath);
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.signalEndOfProducer();
+        }
+    }
+}
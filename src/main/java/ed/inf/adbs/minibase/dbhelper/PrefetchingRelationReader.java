@@ -0,0 +1,70 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A {@link RelationReader} that reads another reader ahead of the consumer on a background thread.
+ * The records of the wrapped reader are copied into {@link RowBatch} chunks and queued, up to a configurable
+ * number of batches (the prefetch depth), so the blocking reads and the parsing of a relation file overlap
+ * with the evaluation of the operators. Enabled with the prefetch depth of the {@link DatabaseCatalog}.
+ *
+ * The byte ranges of a zone map are passed on to the wrapped reader, which then must not be used by anyone else.
+ */
+public class PrefetchingRelationReader extends QueuedRelationReader {
+
+    private final RelationReader source;
+
+    /**
+     * @param source the reader to be read ahead.
+     * @param intColumn the column types of the relation: true for 'int', false for 'string'.
+     * @param depth the maximum number of batches read ahead.
+     * @param statistics the counters receiving the stall times.
+     */
+    public PrefetchingRelationReader(RelationReader source, boolean[] intColumn, int depth, ScanStatistics statistics) {
+        super(intColumn, 1, depth, statistics);
+        this.source = source;
+    }
+
+    @Override
+    protected int getProducerCount() {
+        return 1;
+    }
+
+    @Override
+    protected void submitProducers(ExecutorService workers) {
+        workers.execute(() -> {
+            try {
+                this.produce(this.source);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                this.signalEndOfProducer();
+            }
+        });
+    }
+
+    /**
+     * Move the wrapped reader back to its first record, no producer is running at this point.
+     */
+    @Override
+    protected void restart() {
+        this.source.reset();
+    }
+
+    @Override
+    public void setRequiredColumns(boolean[] required) {
+        super.setRequiredColumns(required);
+        this.source.setRequiredColumns(required);
+    }
+
+    @Override
+    public boolean restrictToRanges(long[] starts, long[] ends) {
+        return this.source.restrictToRanges(starts, ends);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        this.source.close();
+    }
+}
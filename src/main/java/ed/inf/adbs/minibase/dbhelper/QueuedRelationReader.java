@@ -0,0 +1,241 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A {@link RelationReader} whose records are produced by background threads and handed over in {@link RowBatch}
+ * chunks through a bounded queue. The consuming thread only iterates the batches, so parsing (and I/O) overlaps
+ * with the evaluation of the operators above the scan.
+ *
+ * Subclasses define the producer tasks; each task fills batches from a reader with {@link #produce(RelationReader)}
+ * and ends with {@link #signalEndOfProducer()}. The required columns and the record filter offered by the scan
+ * are applied by the producers.
+ * The time producers spend waiting for room in the queue and the time the consumer spends waiting for a batch
+ * are added to the {@link ScanStatistics} of the catalog.
+ */
+public abstract class QueuedRelationReader extends RelationReader {
+
+    private static final RowBatch END_OF_PRODUCER = new RowBatch(new boolean[0], 0);
+    // put into the queue by a producer when it has finished
+
+    protected final boolean[] intColumn;
+    protected boolean[] requiredColumns = null;
+    protected Predicate<RelationReader> filter = null;
+    protected volatile boolean cancelled = false;
+
+    private final int threads;
+    private final BlockingQueue<RowBatch> queue;
+    private final ScanStatistics statistics;
+    private ExecutorService workers;
+
+    private boolean started = false;
+    private boolean eager = false;      // whether the producers are started again right after a reset
+    private int finishedProducers = 0;
+
+    private RowBatch current = null;
+    private int row = -1;
+
+    /**
+     * @param intColumn the column types of the relation: true for 'int', false for 'string'.
+     * @param threads the number of producer threads.
+     * @param queueDepth the maximum number of batches waiting in the queue.
+     * @param statistics the counters receiving the stall times.
+     */
+    protected QueuedRelationReader(boolean[] intColumn, int threads, int queueDepth, ScanStatistics statistics) {
+        this.intColumn = intColumn;
+        this.threads = Math.max(1, threads);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return the number of producer tasks submitted by {@link #submitProducers(ExecutorService)}.
+     */
+    protected abstract int getProducerCount();
+
+    /**
+     * Submit the producer tasks of a scan of the relation to the worker pool.
+     */
+    protected abstract void submitProducers(ExecutorService workers);
+
+    /**
+     * Called before the producers are started again after a reset, when no producer is running.
+     */
+    protected void restart() {
+    }
+
+    /**
+     * Start the producers, the worker pool is created on the first scan.
+     */
+    private void start() {
+        if (this.workers == null) {
+            // idle workers exit after a while, scans are not always closed by their operator
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(this.threads, this.threads,
+                    1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread thread = new Thread(task, "scan-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            this.workers = pool;
+        }
+        this.cancelled = false;
+        this.finishedProducers = 0;
+        this.started = true;
+        this.submitProducers(this.workers);
+    }
+
+    /**
+     * Start producing the records now instead of at the first call to {@link #nextRecord()},
+     * and again right after every reset.
+     */
+    @Override
+    public void startPrefetch() {
+        this.eager = true;
+        if (!this.started) this.start();
+    }
+
+    /**
+     * Copy the records of a reader that pass the filter into batches and put them into the queue,
+     * until the reader is exhausted or the scan is cancelled. Runs on a producer thread.
+     */
+    protected void produce(RelationReader reader) throws InterruptedException {
+        RowBatch batch = null;
+        while (!this.cancelled && reader.nextRecord()) {
+            if (this.filter != null && !this.filter.test(reader)) continue;
+            if (batch == null) batch = new RowBatch(this.intColumn, RowBatch.DEFAULT_CAPACITY);
+            batch.append(reader, this.requiredColumns);
+            if (batch.isFull()) {
+                this.put(batch);
+                batch = null;
+            }
+        }
+        if (batch != null && !this.cancelled) this.put(batch);
+    }
+
+    private void put(RowBatch batch) throws InterruptedException {
+        if (this.queue.offer(batch)) return;
+        long stallStart = System.nanoTime();
+        this.queue.put(batch);
+        this.statistics.addProducerStall(System.nanoTime() - stallStart);
+    }
+
+    /**
+     * Tell the consumer that a producer has finished, must be called once at the end of every producer task.
+     */
+    protected void signalEndOfProducer() {
+        while (true) {
+            try {
+                this.queue.put(END_OF_PRODUCER);
+                return;
+            } catch (InterruptedException e) {
+                // the consumer is waiting for this marker, it must be delivered
+            }
+        }
+    }
+
+    /**
+     * Take the next batch from the queue, counting the finished producers.
+     * @return the next non-empty batch, or {@code null} once all the producers are finished.
+     */
+    private RowBatch takeBatch() {
+        while (this.finishedProducers < this.getProducerCount()) {
+            RowBatch batch = this.queue.poll();
+            if (batch == null) {
+                long stallStart = System.nanoTime();
+                try {
+                    batch = this.queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                this.statistics.addConsumerStall(System.nanoTime() - stallStart);
+            }
+            if (batch == END_OF_PRODUCER)
+                this.finishedProducers++;
+            else
+                return batch;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean nextRecord() {
+        if (!this.started) this.start();
+        if (this.current != null && ++this.row < this.current.size()) return true;
+        this.current = this.takeBatch();
+        this.row = 0;
+        return this.current != null;
+    }
+
+    @Override
+    public void setRequiredColumns(boolean[] required) {
+        this.requiredColumns = required;
+    }
+
+    /**
+     * The filter is evaluated by the producer threads.
+     */
+    @Override
+    public boolean setRecordFilter(Predicate<RelationReader> filter) {
+        this.filter = filter;
+        return true;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return this.current.getColumnCount();
+    }
+
+    @Override
+    public int getInt(int column) {
+        return this.current.getInt(this.row, column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return this.current.getString(this.row, column);
+    }
+
+    @Override
+    public int getStringCode(int column, StringDictionary dictionary) {
+        return this.current.getStringCode(this.row, column, dictionary);
+    }
+
+    /**
+     * Stop the running producers: they are told to give up, and the queue is drained until every producer has ended.
+     */
+    private void cancel() {
+        if (!this.started) return;
+        this.cancelled = true;
+        this.current = null;
+        while (this.takeBatch() != null) {
+            // drop the remaining batches, the producers blocked on a full queue can then finish
+        }
+        this.started = false;
+    }
+
+    /**
+     * Stop the current scan, the records are produced again from the beginning.
+     */
+    @Override
+    public void reset() {
+        this.cancel();
+        this.current = null;
+        this.row = -1;
+        this.restart();
+        if (this.eager) this.start();
+    }
+
+    @Override
+    public void close() {
+        this.cancel();
+        if (this.workers != null) this.workers.shutdown();
+    }
+}
@@ -0,0 +1,194 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory cache of parsed relations, managed by the {@link DatabaseCatalog}.
+ * A cached relation is held as a list of {@link RowBatch}, so scanning it again (e.g. the right child of a
+ * nested loop join being reset for every left tuple) does not touch the data file.
+ *
+ * The total estimated size of the cached relations is kept under a byte budget,
+ * the least recently used relations are evicted first.
+ * An entry is dropped when the modification time or the length of its data file has changed since it was loaded.
+ * A relation that alone exceeds the budget is not cached.
+ */
+public class RelationCache {
+
+    private static class Entry {
+        List<RowBatch> batches;
+        long bytes;
+        long lastModified;
+        long length;
+    }
+
+    private long byteBudget;
+    private long usedBytes = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // access-ordered: iteration starts from the least recently used relation
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public RelationCache(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Return the cached records of a relation, loading them through the catalog if they are not cached or outdated.
+     * @param relationName the name of relation.
+     * @param dbc the catalog that locates and opens the data file.
+     * @return the records as a list of batches, or {@code null} if the relation does not fit into the budget.
+     * @throws IOException if the data file cannot be read.
+     */
+    public synchronized List<RowBatch> get(String relationName, DatabaseCatalog dbc) throws IOException {
+        File dataFile = dbc.getStoredFile(relationName);
+        Entry entry = this.entries.get(relationName);
+        if (entry != null) {
+            if (entry.lastModified == dataFile.lastModified() && entry.length == dataFile.length()) {
+                this.hits++;
+                encodeStrings(entry, dbc.getStringDictionary());
+                return entry.batches;
+            }
+            this.remove(relationName);
+        }
+        this.misses++;
+
+        entry = load(relationName, dbc, dataFile);
+        if (entry == null) return null;
+        encodeStrings(entry, dbc.getStringDictionary());
+        this.usedBytes += entry.bytes;
+        this.entries.put(relationName, entry);
+        this.evict();
+        return entry.batches;
+    }
+
+    /**
+     * Read a whole relation into batches, equal strings are shared between the records.
+     * @return the loaded entry, or {@code null} if the relation turns out to be larger than the budget.
+     */
+    private Entry load(String relationName, DatabaseCatalog dbc, File dataFile) throws IOException {
+        Entry entry = new Entry();
+        entry.lastModified = dataFile.lastModified();
+        entry.length = dataFile.length();
+        entry.batches = new ArrayList<>();
+
+        List<String> schema = dbc.getSchema(relationName);
+        boolean[] intColumn = new boolean[schema.size()];
+        for (int i = 0; i < schema.size(); i++)
+            intColumn[i] = schema.get(i).equals("int");
+
+        Map<String, String> strings = new HashMap<>();
+        RelationReader reader = dbc.openStoredRelation(relationName);
+        try {
+            RowBatch batch = null;
+            while (reader.nextRecord()) {
+                if (batch == null || batch.isFull()) {
+                    batch = new RowBatch(intColumn, RowBatch.DEFAULT_CAPACITY);
+                    entry.batches.add(batch);
+                    entry.bytes += batch.estimateBytes();
+                }
+                int row = batch.size();
+                batch.append(reader);
+                for (int i = 0; i < intColumn.length; i++) {
+                    if (intColumn[i]) continue;
+                    String value = batch.getString(row, i);
+                    String shared = strings.get(value);
+                    if (shared == null) {
+                        strings.put(value, value);
+                        // String object, its char array and the map slot
+                        entry.bytes += 64 + 2L * value.length();
+                    } else {
+                        batch.setString(row, i, shared);
+                    }
+                }
+                if (entry.bytes > this.byteBudget) return null;
+            }
+        } finally {
+            reader.close();
+        }
+        return entry;
+    }
+
+    /**
+     * Encode the strings of the cached records with the string dictionary of the catalog,
+     * if they are not encoded with that dictionary yet, so that the scans read their codes instead of looking them up.
+     * @param dictionary the dictionary, {@code null} if it is disabled.
+     */
+    private static void encodeStrings(Entry entry, StringDictionary dictionary) {
+        if (dictionary == null) return;
+        for (RowBatch batch : entry.batches) {
+            if (batch.getDictionary() != dictionary) batch.encodeStrings(dictionary);
+        }
+    }
+
+    /**
+     * Evict the least recently used relations until the cache is within its budget.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.usedBytes > this.byteBudget && iterator.hasNext()) {
+            this.usedBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+            this.evictions++;
+        }
+    }
+
+    private void remove(String relationName) {
+        Entry entry = this.entries.remove(relationName);
+        if (entry != null) this.usedBytes -= entry.bytes;
+    }
+
+    /**
+     * Drop the cached records of a relation, the next access will load it again.
+     */
+    public synchronized void invalidate(String relationName) {
+        this.remove(relationName);
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.usedBytes = 0;
+    }
+
+    public synchronized long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * Change the budget, relations are evicted if the cache no longer fits into it.
+     */
+    public synchronized void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        this.evict();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RelationCache{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", used=" + usedBytes + "/" + byteBudget + " bytes, relations=" + entries.keySet() + "}";
+    }
+}
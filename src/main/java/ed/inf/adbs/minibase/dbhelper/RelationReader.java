@@ -0,0 +1,145 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import ed.inf.adbs.minibase.operators.ScanOperator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/**
+ * A cursor over the records of a relation file, used by {@link ScanOperator} to read the stored data.
+ * The cursor is positioned on one record at a time, the fields of the current record can be accessed
+ * by their column index until {@link #nextRecord()} is called again.
+ *
+ * The concrete implementation is chosen by {@link DatabaseCatalog#openRelation(String)},
+ * depending on the {@link ScanMode} of the catalog.
+ */
+public abstract class RelationReader {
+
+    /**
+     * Move the cursor to the next record of the relation.
+     * @return {@code true} if a record is available, {@code false} if the end of file is reached.
+     */
+    public abstract boolean nextRecord();
+
+    /**
+     * Tell the reader which columns will be read, so that the other columns do not need to be decoded.
+     * Readers are free to ignore the hint, the default implementation does.
+     * @param required a mask over the relation columns, {@code null} if all of them may be read.
+     */
+    public void setRequiredColumns(boolean[] required) {
+    }
+
+    /**
+     * Offer the reader a filter over its records. A reader that accepts it only returns the records that satisfy
+     * the filter, e.g. to evaluate the select conditions of a scan on its worker threads.
+     * The default implementation declines, the caller then has to check the records itself.
+     * @param filter a test on the current record of a reader, it must be safe to run on other threads.
+     * @return {@code true} if the reader applies the filter, {@code false} otherwise.
+     */
+    public boolean setRecordFilter(Predicate<RelationReader> filter) {
+        return false;
+    }
+
+    /**
+     * Restrict the reader to some byte ranges of the relation file, e.g. the blocks of a {@link ZoneMap} that may
+     * hold matching records. Every range must start at the beginning of a line and end after a line break
+     * (or at the end of file), and the ranges must be in file order.
+     * The default implementation declines, the caller then reads the whole relation.
+     * @param starts the file offsets of the first byte of each range.
+     * @param ends the file offsets after the last byte of each range.
+     * @return {@code true} if the reader will only return the records inside the ranges, {@code false} otherwise.
+     */
+    public boolean restrictToRanges(long[] starts, long[] ends) {
+        return false;
+    }
+
+    /**
+     * Ask the reader to start reading the relation in the background, before the first record is requested.
+     * Called by the scan once the reader is configured, so that all the relations of a query plan are read concurrently.
+     * The default implementation does nothing.
+     */
+    public void startPrefetch() {
+    }
+
+    /**
+     * @return the number of fields in the current record (fields after the last required column may not be counted).
+     */
+    public abstract int getFieldCount();
+
+    /**
+     * Interpret a field of the current record as an integer.
+     * @param column the column index of the field.
+     * @return the integer value of the field.
+     */
+    public abstract int getInt(int column);
+
+    /**
+     * Interpret a field of the current record as a string (without the surrounding quotes).
+     * @param column the column index of the field.
+     * @return the string value of the field.
+     */
+    public abstract String getString(int column);
+
+    /**
+     * Compare a string field of the current record with a value, without building a String when the reader can avoid it.
+     * The bytes are compared as unsigned values, which is the order of the code points of the UTF-8 strings.
+     * The default implementation gets the field as a String and compares its characters while they are ASCII.
+     * @param column the column index of the field.
+     * @param value the UTF-8 bytes of the value to compare to.
+     * @return negative, zero or positive if the field is less than, equal to or greater than the value.
+     */
+    public int compareString(int column, byte[] value) {
+        String field = this.getString(column);
+        int common = Math.min(field.length(), value.length);
+        for (int i = 0; i < common; i++) {
+            char c = field.charAt(i);
+            if (c >= 0x80) {
+                // not ASCII any more, compare the encoded bytes
+                byte[] fieldBytes = field.getBytes(StandardCharsets.UTF_8);
+                int commonBytes = Math.min(fieldBytes.length, value.length);
+                for (int j = 0; j < commonBytes; j++) {
+                    int difference = (fieldBytes[j] & 0xff) - (value[j] & 0xff);
+                    if (difference != 0) return difference;
+                }
+                return fieldBytes.length - value.length;
+            }
+            int difference = c - (value[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return field.length() - value.length;
+    }
+
+    /**
+     * Compare two string fields of the current record, without building Strings when the reader can avoid it,
+     * in the order of {@link #compareString(int, byte[])}.
+     * The default implementation gets the fields as Strings and compares them with {@link Tuple#compareStrings}.
+     * @param column1 the column index of the first field.
+     * @param column2 the column index of the second field.
+     * @return negative, zero or positive if the first field is less than, equal to or greater than the second one.
+     */
+    public int compareStrings(int column1, int column2) {
+        return Tuple.compareStrings(this.getString(column1), this.getString(column2));
+    }
+
+    /**
+     * Encode a string field of the current record with a {@link StringDictionary},
+     * without building a String when the reader can avoid it.
+     * The default implementation gets the field as a String and looks it up.
+     * @param column the column index of the field.
+     * @param dictionary the dictionary.
+     * @return the code of the field.
+     */
+    public int getStringCode(int column, StringDictionary dictionary) {
+        return dictionary.encode(this.getString(column));
+    }
+
+    /**
+     * Move the cursor back to the beginning of the relation.
+     */
+    public abstract void reset();
+
+    /**
+     * Release the file resources held by this reader.
+     */
+    public abstract void close();
+}
@@ -0,0 +1,335 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An off-heap store of fixed-width rows with a hash index, used by the materializing operators
+ * (the groups of an aggregation, the reported tuples of a projection) instead of graphs of {@link Tuple} objects,
+ * so that a large intermediate result costs a few direct buffers to the garbage collector rather than millions of objects.
+ *
+ * The layout of a row is derived from the number of columns of the operator output:
+ * <pre>
+ *     [hash] [value, reference] * columnCount [extra] * extraCount      (4 bytes each)
+ * </pre>
+ * The value of a column is its int, or the dictionary code (or {@link Tuple#NO_CODE}) of a string.
+ * The reference tells the type of the column: {@link #INT_REFERENCE} for an int, {@link #DICTIONARY_REFERENCE}
+ * for a string held by the {@link StringDictionary} (decoded from the value), otherwise the position of the
+ * chars of the string in the string pages. The extra slots hold ints owned by the operator, e.g. a running sum.
+ *
+ * The rows are stored in pages of direct buffers and are addressed by their number, in insertion order.
+ * The index is an open addressing table of row numbers in a direct buffer.
+ * All the memory is released by {@link #clear()}, without waiting for the garbage collector;
+ * the operators call it when they are reset or closed.
+ * An arena is used by a single thread.
+ */
+public class RowArena {
+
+    public static final int INT_REFERENCE = -1;
+    public static final int DICTIONARY_REFERENCE = -2;
+
+    private static final int PAGE_SHIFT = 18;
+    private static final int PAGE_BYTES = 1 << PAGE_SHIFT;
+    // the size of the row pages and of the string pages, a longer string gets a page of its own
+
+    private static final AtomicLong reservedBytes = new AtomicLong();
+    private static final AtomicLong peakReservedBytes = new AtomicLong();
+    // the off-heap memory held by all the arenas, reported with the 'stats=on' option
+
+    private final int columnCount;
+    private final int extraOffset;
+    private final int rowWidth;
+    private final int rowShift;
+    // log2 of the number of rows per page
+    private final StringDictionary dictionary;
+
+    private final List<ByteBuffer> rowPages = new ArrayList<>();
+    private final List<ByteBuffer> stringPages = new ArrayList<>();
+    private int stringPosition = PAGE_BYTES;
+    // the next free byte of the last string page
+    private ByteBuffer index = null;
+    private int indexMask = -1;
+    private int rowCount = 0;
+
+    /**
+     * @param columnCount the number of values of a row.
+     * @param extraCount the number of extra int slots of a row.
+     * @param dictionary the dictionary of the string codes of the stored tuples, {@code null} if they are not encoded.
+     */
+    public RowArena(int columnCount, int extraCount, StringDictionary dictionary) {
+        this.columnCount = columnCount;
+        this.extraOffset = 4 + 8 * columnCount;
+        int width = this.extraOffset + 4 * extraCount;
+        this.rowShift = 31 - Integer.numberOfLeadingZeros(Math.max(1, PAGE_BYTES / width));
+        this.rowWidth = width;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public int size() {
+        return this.rowCount;
+    }
+
+    /**
+     * Look up a row holding the same values as a tuple, or append the tuple as a new row
+     * (with its extra slots set to 0).
+     * @param key a tuple of {@code columnCount} values, it is not referenced by the arena.
+     * @return the row equal to the key if there is one, otherwise {@code -(row + 1)} where row is the new row.
+     */
+    public int addIfAbsent(Tuple key) {
+        if (this.index == null) this.resizeIndex(1024);
+        int hash = key.hashCode();
+        int slot = JoinHashTable.mix(hash) & this.indexMask;
+        for (int entry; (entry = this.index.getInt(slot << 2)) != 0; slot = (slot + 1) & this.indexMask) {
+            int row = entry - 1;
+            ByteBuffer page = this.page(row);
+            int offset = this.offset(row);
+            if (page.getInt(offset) == hash && this.rowEquals(page, offset, key)) return row;
+        }
+        int row = this.append(key, hash);
+        this.index.putInt(slot << 2, row + 1);
+        if (this.rowCount * 2 > this.indexMask) this.resizeIndex((this.indexMask + 1) * 2);
+        return -(row + 1);
+    }
+
+    public int getExtra(int row, int extra) {
+        return this.page(row).getInt(this.offset(row) + this.extraOffset + 4 * extra);
+    }
+
+    public void setExtra(int row, int extra, int value) {
+        this.page(row).putInt(this.offset(row) + this.extraOffset + 4 * extra, value);
+    }
+
+    /**
+     * Build a tuple from the values of a row, the strings held by the dictionary are not copied.
+     * @param relationName the name of the tuple.
+     * @param row the row.
+     * @return a new tuple.
+     */
+    public Tuple getTuple(String relationName, int row) {
+        ByteBuffer page = this.page(row);
+        int offset = this.offset(row) + 4;
+        int[] ints = new int[this.columnCount];
+        String[] strings = null;
+        for (int i = 0; i < this.columnCount; i++, offset += 8) {
+            ints[i] = page.getInt(offset);
+            int reference = page.getInt(offset + 4);
+            if (reference == INT_REFERENCE) continue;
+            if (strings == null) strings = new String[this.columnCount];
+            strings[i] = reference == DICTIONARY_REFERENCE ? this.dictionary.decode(ints[i]) : this.readString(reference);
+        }
+        return new Tuple(relationName, ints, strings);
+    }
+
+    /**
+     * Remove all the rows and release the off-heap memory now. The arena can be filled again.
+     */
+    public void clear() {
+        for (ByteBuffer page : this.rowPages) free(page);
+        for (ByteBuffer page : this.stringPages) free(page);
+        this.rowPages.clear();
+        this.stringPages.clear();
+        this.stringPosition = PAGE_BYTES;
+        if (this.index != null) free(this.index);
+        this.index = null;
+        this.indexMask = -1;
+        this.rowCount = 0;
+    }
+
+    private ByteBuffer page(int row) {
+        return this.rowPages.get(row >>> this.rowShift);
+    }
+
+    private int offset(int row) {
+        return (row & ((1 << this.rowShift) - 1)) * this.rowWidth;
+    }
+
+    /**
+     * Write a tuple as a new row.
+     * @return the new row.
+     */
+    private int append(Tuple key, int hash) {
+        int row = this.rowCount;
+        if ((row >>> this.rowShift) == this.rowPages.size())
+            this.rowPages.add(allocate((1 << this.rowShift) * this.rowWidth));
+        ByteBuffer page = this.page(row);
+        int offset = this.offset(row);
+        page.putInt(offset, hash);
+        for (int i = 0; i < this.columnCount; i++) {
+            int columnOffset = offset + 4 + 8 * i;
+            page.putInt(columnOffset, key.getInt(i));
+            int reference = INT_REFERENCE;
+            if (key.isString(i)) {
+                int code = key.getCode(i);
+                reference = code != Tuple.NO_CODE && this.dictionary != null && this.dictionary.isStored(code)
+                        ? DICTIONARY_REFERENCE : this.writeString(key.getString(i));
+            }
+            page.putInt(columnOffset + 4, reference);
+        }
+        for (int i = offset + this.extraOffset; i < offset + this.rowWidth; i += 4)
+            page.putInt(i, 0);
+        this.rowCount++;
+        return row;
+    }
+
+    private boolean rowEquals(ByteBuffer page, int offset, Tuple key) {
+        for (int i = 0; i < this.columnCount; i++) {
+            int columnOffset = offset + 4 + 8 * i;
+            int value = page.getInt(columnOffset);
+            int reference = page.getInt(columnOffset + 4);
+            if (!key.isString(i)) {
+                if (reference != INT_REFERENCE || value != key.getInt(i)) return false;
+                continue;
+            }
+            if (reference == INT_REFERENCE) return false;
+            int code = key.getCode(i);
+            if (value != Tuple.NO_CODE && code != Tuple.NO_CODE) {
+                if (value != code) return false;
+            } else if (reference == DICTIONARY_REFERENCE) {
+                if (!this.dictionary.decode(value).equals(key.getString(i))) return false;
+            } else if (!this.stringEquals(reference, key.getString(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the chars of a string into the string pages, preceded by their number.
+     * @return the reference of the string: its page in the high bits, its offset in the page in the low bits.
+     */
+    private int writeString(String value) {
+        int bytes = 4 + 2 * value.length();
+        if (bytes > PAGE_BYTES) {
+            // a page of its own, the current page is kept for the next strings
+            this.stringPages.add(allocate(bytes));
+            this.writeChars(this.stringPages.get(this.stringPages.size() - 1), 0, value);
+            return (this.stringPages.size() - 1) << PAGE_SHIFT;
+        }
+        if (this.stringPosition + bytes > PAGE_BYTES) {
+            this.stringPages.add(allocate(PAGE_BYTES));
+            this.stringPosition = 0;
+        }
+        int page = this.stringPages.size() - 1;
+        if (page >= 1 << (31 - PAGE_SHIFT))
+            throw new IllegalStateException("RowArena: too many string pages");
+        int reference = (page << PAGE_SHIFT) | this.stringPosition;
+        this.writeChars(this.stringPages.get(page), this.stringPosition, value);
+        this.stringPosition += bytes;
+        return reference;
+    }
+
+    private void writeChars(ByteBuffer page, int offset, String value) {
+        page.putInt(offset, value.length());
+        for (int i = 0; i < value.length(); i++)
+            page.putChar(offset + 4 + 2 * i, value.charAt(i));
+    }
+
+    private String readString(int reference) {
+        ByteBuffer page = this.stringPages.get(reference >>> PAGE_SHIFT);
+        int offset = reference & (PAGE_BYTES - 1);
+        char[] chars = new char[page.getInt(offset)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = page.getChar(offset + 4 + 2 * i);
+        return new String(chars);
+    }
+
+    private boolean stringEquals(int reference, String value) {
+        ByteBuffer page = this.stringPages.get(reference >>> PAGE_SHIFT);
+        int offset = reference & (PAGE_BYTES - 1);
+        if (page.getInt(offset) != value.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (page.getChar(offset + 4 + 2 * i) != value.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replace the index with an empty one of some number of slots, and index all the rows again.
+     */
+    private void resizeIndex(int slots) {
+        ByteBuffer oldIndex = this.index;
+        this.index = allocate(slots * 4);
+        this.indexMask = slots - 1;
+        for (int row = 0; row < this.rowCount; row++) {
+            int slot = JoinHashTable.mix(this.page(row).getInt(this.offset(row))) & this.indexMask;
+            while (this.index.getInt(slot << 2) != 0) slot = (slot + 1) & this.indexMask;
+            this.index.putInt(slot << 2, row + 1);
+        }
+        if (oldIndex != null) free(oldIndex);
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        long reserved = reservedBytes.addAndGet(bytes);
+        peakReservedBytes.accumulateAndGet(reserved, Math::max);
+        return buffer;
+    }
+
+    /**
+     * Release the memory of a direct buffer now, the buffer must not be used afterwards.
+     * This relies on the cleaner of the JDK (sun.misc.Unsafe#invokeCleaner since Java 9, the buffer cleaner before),
+     * if neither is accessible the memory is released when the buffer is garbage collected.
+     */
+    private static void free(ByteBuffer buffer) {
+        reservedBytes.addAndGet(-buffer.capacity());
+        try {
+            if (invokeCleaner != null) {
+                invokeCleaner.invoke(unsafe, buffer);
+            } else if (legacyCleaner != null) {
+                Object cleaner = legacyCleaner.invoke(buffer);
+                if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // leave it to the garbage collector
+        }
+    }
+
+    private static Object unsafe = null;
+    private static Method invokeCleaner = null;
+    private static Method legacyCleaner = null;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            try {
+                Method method = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+                method.setAccessible(true);
+                legacyCleaner = method;
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // no deterministic release on this JVM
+            }
+        }
+    }
+
+    /**
+     * @return the number of off-heap bytes currently held by all the arenas.
+     */
+    public static long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return the largest number of off-heap bytes held by all the arenas at the same time.
+     */
+    public static long getPeakReservedBytes() {
+        return peakReservedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RowArena{rows=" + this.rowCount + ", rowWidth=" + this.rowWidth + "}";
+    }
+}
@@ -0,0 +1,136 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+/**
+ * A chunk of consecutive records of a relation held in memory, stored column by column:
+ * int columns as {@code int[]}, string columns as {@code String[]}.
+ * Batches are filled from a {@link RelationReader} and read back through a {@link BatchRelationReader}.
+ * The strings of a batch can be encoded once with a {@link StringDictionary}, their codes are then kept
+ * next to them and the strings are replaced by the instances held by the dictionary.
+ */
+public class RowBatch {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final boolean[] intColumn;
+    private final int[][] intValues;
+    private final String[][] stringValues;
+    private final int capacity;
+    private int size = 0;
+    private StringDictionary dictionary = null;
+    private int[][] codes = null;      // the codes of the string columns, once encoded with the dictionary
+
+    /**
+     * @param intColumn the column types of the relation: true for 'int', false for 'string'.
+     * @param capacity the maximum number of records in this batch.
+     */
+    public RowBatch(boolean[] intColumn, int capacity) {
+        this.intColumn = intColumn;
+        this.capacity = capacity;
+        this.intValues = new int[intColumn.length][];
+        this.stringValues = new String[intColumn.length][];
+        for (int i = 0; i < intColumn.length; i++) {
+            if (intColumn[i])
+                this.intValues[i] = new int[capacity];
+            else
+                this.stringValues[i] = new String[capacity];
+        }
+    }
+
+    /**
+     * Copy the current record of a reader to the end of this batch.
+     * @param reader a reader positioned on a record.
+     */
+    public void append(RelationReader reader) {
+        this.append(reader, null);
+    }
+
+    /**
+     * Copy some columns of the current record of a reader to the end of this batch, the other slots are left empty.
+     * @param reader a reader positioned on a record.
+     * @param required a mask over the columns to be copied, {@code null} to copy all of them.
+     */
+    public void append(RelationReader reader, boolean[] required) {
+        for (int i = 0; i < this.intColumn.length; i++) {
+            if (required != null && !required[i]) continue;
+            if (this.intColumn[i])
+                this.intValues[i][this.size] = reader.getInt(i);
+            else
+                this.stringValues[i][this.size] = reader.getString(i);
+        }
+        this.size++;
+    }
+
+    /**
+     * Replace the string in a slot of this batch, used to share equal strings between records.
+     */
+    void setString(int row, int column, String value) {
+        this.stringValues[column][row] = value;
+    }
+
+    /**
+     * Encode the strings of this batch with a dictionary, replacing the codes of a previous dictionary.
+     */
+    void encodeStrings(StringDictionary dictionary) {
+        int[][] codes = new int[this.intColumn.length][];
+        for (int i = 0; i < this.intColumn.length; i++) {
+            if (this.intColumn[i]) continue;
+            codes[i] = new int[this.capacity];
+            for (int row = 0; row < this.size; row++) {
+                String value = this.stringValues[i][row];
+                if (value == null) continue;
+                codes[i][row] = dictionary.encode(value);
+                if (dictionary.isStored(codes[i][row]))
+                    this.stringValues[i][row] = dictionary.decode(codes[i][row]);
+            }
+        }
+        this.codes = codes;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the dictionary the strings are encoded with, {@code null} if they are not.
+     */
+    StringDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    public boolean isFull() {
+        return this.size == this.capacity;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getColumnCount() {
+        return this.intColumn.length;
+    }
+
+    public int getInt(int row, int column) {
+        return this.intValues[column][row];
+    }
+
+    public String getString(int row, int column) {
+        return this.stringValues[column][row];
+    }
+
+    /**
+     * @return the code of a string with a dictionary, looked up only if the batch is not encoded with it.
+     */
+    public int getStringCode(int row, int column, StringDictionary dictionary) {
+        if (dictionary == this.dictionary)
+            return this.codes[column][row];
+        return dictionary.encode(this.stringValues[column][row]);
+    }
+
+    /**
+     * @return an estimate of the heap bytes held by the value arrays of this batch (not counting the strings themselves).
+     */
+    public long estimateBytes() {
+        // 4 bytes per int slot, 8 bytes per reference slot and 4 bytes for its code, plus the array headers
+        long bytes = 0;
+        for (boolean isInt : this.intColumn)
+            bytes += isInt ? 16 + 4L * this.capacity : 32 + 12L * this.capacity;
+        return bytes;
+    }
+}
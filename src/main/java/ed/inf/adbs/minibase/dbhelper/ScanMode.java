@@ -0,0 +1,19 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+/**
+ * The ways in which a relation file can be read by the scan operators.
+ *      SCANNER:  read the file line by line with a {@link java.util.Scanner} and split each line with a regex;
+ *      BUFFERED: read the file in large blocks into a heap buffer and tokenize the fields with a {@link CsvTokenizer};
+ *      MAPPED:   map the file into memory and tokenize the fields directly on the mapped bytes;
+ *      PARALLEL: split the file into line-aligned byte ranges that are mapped and tokenized by several threads.
+ */
+public enum ScanMode {
+    SCANNER,
+    BUFFERED,
+    MAPPED,
+    PARALLEL;
+
+    public static ScanMode fromString(String s) {
+        return ScanMode.valueOf(s.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,68 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters about the work done by the scans of a query, kept by the {@link DatabaseCatalog}
+ * and printed with the 'stats=on' option of {@link ed.inf.adbs.minibase.Minibase}.
+ *
+ * Block counters: each scan that is restricted by a {@link ZoneMap} adds the number of blocks of the relation
+ * and the number of blocks that were skipped, once when it is opened (not at every reset).
+ * Stall times: the time the background producers of a {@link QueuedRelationReader} waited for room in the queue,
+ * and the time the consuming operators waited for a batch.
+ */
+public class ScanStatistics {
+
+    private final AtomicLong zoneMapBlocks = new AtomicLong();
+    private final AtomicLong skippedBlocks = new AtomicLong();
+    private final AtomicLong producerStallNanos = new AtomicLong();
+    private final AtomicLong consumerStallNanos = new AtomicLong();
+
+    /**
+     * Record the pruning done by a scan.
+     * @param blocks the number of blocks of the relation.
+     * @param skipped the number of blocks that will not be read.
+     */
+    public void addBlocks(int blocks, int skipped) {
+        this.zoneMapBlocks.addAndGet(blocks);
+        this.skippedBlocks.addAndGet(skipped);
+    }
+
+    public void addProducerStall(long nanos) {
+        this.producerStallNanos.addAndGet(nanos);
+    }
+
+    public void addConsumerStall(long nanos) {
+        this.consumerStallNanos.addAndGet(nanos);
+    }
+
+    public long getProducerStallNanos() {
+        return producerStallNanos.get();
+    }
+
+    public long getConsumerStallNanos() {
+        return consumerStallNanos.get();
+    }
+
+    public long getZoneMapBlocks() {
+        return zoneMapBlocks.get();
+    }
+
+    public long getSkippedBlocks() {
+        return skippedBlocks.get();
+    }
+
+    public void clear() {
+        this.zoneMapBlocks.set(0);
+        this.skippedBlocks.set(0);
+        this.producerStallNanos.set(0);
+        this.consumerStallNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "ScanStatistics{skippedBlocks=" + skippedBlocks + "/" + zoneMapBlocks
+                + ", producerStall=" + producerStallNanos.get() / 1000000 + " ms"
+                + ", consumerStall=" + consumerStallNanos.get() / 1000000 + " ms}";
+    }
+}
@@ -0,0 +1,63 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Scanner;
+
+/**
+ * A {@link RelationReader} that reads the relation file line by line with a {@link Scanner},
+ * splitting every line into fields with a regex. This is the {@link ScanMode#SCANNER} scan path.
+ */
+public class ScannerRelationReader extends RelationReader {
+
+    private final File relationFile;
+    private Scanner relationScanner;
+    private String[] rawData;
+
+    public ScannerRelationReader(String relationPath) throws FileNotFoundException {
+        this.relationFile = new File(relationPath);
+        this.relationScanner = new Scanner(this.relationFile);
+    }
+
+    @Override
+    public boolean nextRecord() {
+        if (!this.relationScanner.hasNextLine())
+            return false;
+        this.rawData = this.relationScanner.nextLine().split("[^a-zA-Z0-9]+");
+        return true;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return this.rawData.length;
+    }
+
+    @Override
+    public int getInt(int column) {
+        return Integer.parseInt(this.rawData[column]);
+    }
+
+    @Override
+    public String getString(int column) {
+        return this.rawData[column];
+    }
+
+    /**
+     * A new Scanner instance will be built, so that the following reads will start from the beginning of file.
+     */
+    @Override
+    public void reset() {
+        this.relationScanner.close();
+        try {
+            this.relationScanner = new Scanner(this.relationFile);
+        } catch (FileNotFoundException e) {
+            System.out.println("Relation data file not found: " + this.relationFile.getPath());
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.relationScanner.close();
+    }
+}
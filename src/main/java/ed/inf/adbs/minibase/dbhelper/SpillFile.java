@@ -0,0 +1,164 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A temporary file of tuples, written by the operators whose state does not fit in the operator memory budget
+ * (the sorted runs of an {@link ExternalSorter}, the partitions of a spilling join).
+ * The tuples are written once, in order, then read back any number of times from the beginning.
+ *
+ * A tuple is stored as its number of values, then every value: a flag telling whether it is a string,
+ * the int slot (the int, or the dictionary code of the string), then the UTF-8 bytes of the string.
+ * The file is deleted by {@link #close()}, or when the JVM exits.
+ * The I/O errors are rethrown as {@link UncheckedIOException}, since the tuples of a spill file cannot be recovered.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private DataOutputStream output;
+    private DataInputStream input = null;
+    private long rowCount = 0;
+    private long rowsRead = 0;
+    private long bytes = 0;
+
+    /**
+     * Create an empty spill file, open for writing.
+     * @param prefix the prefix of the name of the file in the temporary directory.
+     */
+    public SpillFile(String prefix) {
+        try {
+            this.file = File.createTempFile(prefix, ".spill");
+            this.file.deleteOnExit();
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create a spill file", e);
+        }
+    }
+
+    /**
+     * Append a tuple.
+     */
+    public void write(Tuple tuple) {
+        try {
+            this.output.writeShort(tuple.size());
+            for (int i = 0; i < tuple.size(); i++) {
+                boolean isString = tuple.isString(i);
+                this.output.writeBoolean(isString);
+                this.output.writeInt(tuple.getInt(i));
+                if (isString) {
+                    byte[] value = tuple.getString(i).getBytes(StandardCharsets.UTF_8);
+                    this.output.writeInt(value.length);
+                    this.output.write(value);
+                }
+            }
+            this.rowCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the spill file " + this.file, e);
+        }
+    }
+
+    /**
+     * Finish writing: flush the file and record it in the spill statistics of the catalog.
+     */
+    public void finishWriting() {
+        if (this.output == null) return;
+        try {
+            this.output.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the spill file " + this.file, e);
+        }
+        this.output = null;
+        this.bytes = this.file.length();
+        DatabaseCatalog.getInstance().getSpillStatistics().addFile(this.bytes);
+    }
+
+    /**
+     * Read the next tuple, from the first one after {@link #finishWriting()} or {@link #rewind()}.
+     * @param relationName the name given to the tuple.
+     * @return the tuple, or {@code null} after the last one.
+     */
+    public Tuple read(String relationName) {
+        this.finishWriting();
+        if (this.rowsRead == this.rowCount) return null;
+        try {
+            if (this.input == null) {
+                this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), BUFFER_SIZE));
+                DatabaseCatalog.getInstance().getSpillStatistics().addBytesRead(this.bytes);
+            }
+            int size = this.input.readShort();
+            int[] ints = new int[size];
+            String[] strings = null;
+            for (int i = 0; i < size; i++) {
+                boolean isString = this.input.readBoolean();
+                ints[i] = this.input.readInt();
+                if (isString) {
+                    byte[] value = new byte[this.input.readInt()];
+                    this.input.readFully(value);
+                    if (strings == null) strings = new String[size];
+                    strings[i] = new String(value, StandardCharsets.UTF_8);
+                }
+            }
+            this.rowsRead++;
+            return new Tuple(relationName, ints, strings);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the spill file " + this.file, e);
+        }
+    }
+
+    /**
+     * Move back to the first tuple.
+     */
+    public void rewind() {
+        this.closeInput();
+        this.rowsRead = 0;
+    }
+
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * @return the size of the file, 0 while it is being written.
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Close the file and delete it.
+     */
+    public void close() {
+        this.closeInput();
+        if (this.output != null) {
+            try {
+                this.output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.output = null;
+        }
+        if (!this.file.delete())
+            System.out.println("Failed to delete the spill file " + this.file);
+    }
+
+    private void closeInput() {
+        if (this.input == null) return;
+        try {
+            this.input.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.input = null;
+    }
+}
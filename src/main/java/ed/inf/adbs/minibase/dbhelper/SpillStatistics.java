@@ -0,0 +1,75 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters about the temporary files written by the operators that spill their state to disk
+ * when it exceeds the operator memory budget of the {@link DatabaseCatalog} (see {@link SpillFile}),
+ * printed with the 'stats=on' option of {@link ed.inf.adbs.minibase.Minibase}.
+ */
+public class SpillStatistics {
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong partitionings = new AtomicLong();
+    private final AtomicLong maxPartitionDepth = new AtomicLong();
+    // the partitionings of a join input into partition files, and the deepest one (1 for the first level)
+
+    /**
+     * Record a spill file that was written.
+     * @param bytes the size of the file.
+     */
+    public void addFile(long bytes) {
+        this.files.incrementAndGet();
+        this.bytesWritten.addAndGet(bytes);
+    }
+
+    public void addBytesRead(long bytes) {
+        this.bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Record that the inputs of a join were partitioned.
+     * @param depth the level of the partitioning, 1 for the first one, more for a skewed partition partitioned again.
+     */
+    public void addPartitioning(int depth) {
+        this.partitionings.incrementAndGet();
+        this.maxPartitionDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getPartitionings() {
+        return partitionings.get();
+    }
+
+    public long getMaxPartitionDepth() {
+        return maxPartitionDepth.get();
+    }
+
+    public void clear() {
+        this.files.set(0);
+        this.bytesWritten.set(0);
+        this.bytesRead.set(0);
+        this.partitionings.set(0);
+        this.maxPartitionDepth.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SpillStatistics{files=" + this.getFiles() + ", bytesWritten=" + this.getBytesWritten()
+                + ", bytesRead=" + this.getBytesRead() + ", partitionings=" + this.getPartitionings()
+                + ", maxPartitionDepth=" + this.getMaxPartitionDepth() + "}";
+    }
+}
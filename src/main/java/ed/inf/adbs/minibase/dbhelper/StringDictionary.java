@@ -0,0 +1,164 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An order-preserving dictionary of all the string values of a database, shared by all the string columns
+ * and maintained by the {@link DatabaseCatalog}.
+ *
+ * The values are sorted as their UTF-8 bytes (unsigned), which is the order the scan conditions and the zone maps
+ * use, and the code point order of {@link Tuple#compareStrings} used for the strings that are not encoded.
+ * The value of rank {@code r} gets the code {@code 2 * r}. A string that is not in the dictionary, e.g. a constant
+ * of a query, is given the odd code between the codes of its neighbours.
+ * Comparing two codes therefore gives the same result as comparing the two strings, whether or not they are stored,
+ * and two codes are equal iff the strings are.
+ *
+ * The dictionary is immutable once built, so it can be read from the worker threads of the scans.
+ */
+public class StringDictionary {
+
+    private final String[] values;     // the values in UTF-8 byte order, values[r] has the code 2 * r
+    private final byte[][] bytes;      // the UTF-8 bytes of each value
+    private final Map<String, Integer> ranks = new HashMap<>();
+    private final int[] table;         // open addressing over the bytes: rank + 1 of the value in each slot, 0 if empty
+    private final int mask;
+
+    private StringDictionary(String[] values) {
+        this.values = values;
+        this.bytes = new byte[values.length][];
+        for (int r = 0; r < values.length; r++) {
+            this.bytes[r] = values[r].getBytes(StandardCharsets.UTF_8);
+            this.ranks.put(values[r], r);
+        }
+        // at most half of the slots are used
+        this.table = new int[Integer.highestOneBit(Math.max(1, values.length)) * 4];
+        this.mask = this.table.length - 1;
+        for (int r = 0; r < values.length; r++) {
+            int slot = hash(this.bytes[r]) & this.mask;
+            while (this.table[slot] != 0) slot = (slot + 1) & this.mask;
+            this.table[slot] = r + 1;
+        }
+    }
+
+    /**
+     * Build a dictionary of some strings.
+     * @param strings the values, duplicates are allowed.
+     * @return the dictionary.
+     */
+    public static StringDictionary build(Collection<String> strings) {
+        byte[][] encoded = new byte[strings.size()][];
+        int count = 0;
+        for (String value : strings)
+            encoded[count++] = value.getBytes(StandardCharsets.UTF_8);
+        Arrays.sort(encoded, ZoneMap::compareBytes);
+        String[] values = new String[count];
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct > 0 && Arrays.equals(encoded[i], encoded[i - 1])) continue;
+            values[distinct++] = new String(encoded[i], StandardCharsets.UTF_8);
+        }
+        return new StringDictionary(Arrays.copyOf(values, distinct));
+    }
+
+    /**
+     * @return the number of distinct values.
+     */
+    public int size() {
+        return this.values.length;
+    }
+
+    /**
+     * @param code a code returned by this dictionary.
+     * @return {@code true} if the code is the one of a value stored in the dictionary.
+     */
+    public boolean isStored(int code) {
+        return (code & 1) == 0 && code >= 0 && (code >> 1) < this.values.length;
+    }
+
+    /**
+     * @param code the code of a value stored in the dictionary.
+     * @return the value, the same String instance for every call.
+     */
+    public String decode(int code) {
+        return this.values[code >> 1];
+    }
+
+    /**
+     * @param value a string.
+     * @return the code of the value; an odd code ordered between its neighbours if it is not stored.
+     */
+    public int encode(String value) {
+        Integer rank = this.ranks.get(value);
+        if (rank != null) return rank << 1;
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = this.values.length;
+        // the number of stored values less than the value
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ZoneMap.compareBytes(this.bytes[middle], key) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return (low << 1) - 1;
+    }
+
+    /**
+     * Encode a string given as UTF-8 bytes in a buffer, without building a String if it is stored.
+     * @param buffer the buffer holding the bytes.
+     * @param start the offset of the first byte in the buffer.
+     * @param length the number of bytes.
+     * @return the code of the value, as by {@link #encode(String)}.
+     */
+    public int encode(ByteBuffer buffer, int start, int length) {
+        if (buffer.hasArray())
+            return this.encode(buffer.array(), buffer.arrayOffset() + start, length);
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++)
+            key[i] = buffer.get(start + i);
+        return this.encode(key, 0, length);
+    }
+
+    /**
+     * Encode a string given as UTF-8 bytes in an array, without building a String if it is stored.
+     * @param array the array holding the bytes.
+     * @param start the offset of the first byte in the array.
+     * @param length the number of bytes.
+     * @return the code of the value, as by {@link #encode(String)}.
+     */
+    public int encode(byte[] array, int start, int length) {
+        int slot = hash(array, start, length) & this.mask;
+        for (int entry; (entry = this.table[slot]) != 0; slot = (slot + 1) & this.mask) {
+            if (equalBytes(this.bytes[entry - 1], array, start, length))
+                return (entry - 1) << 1;
+        }
+        return this.encode(new String(array, start, length, StandardCharsets.UTF_8));
+    }
+
+    private static boolean equalBytes(byte[] value, byte[] array, int start, int length) {
+        if (value.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (value[i] != array[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static int hash(byte[] value) {
+        return hash(value, 0, value.length);
+    }
+
+    private static int hash(byte[] array, int start, int length) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < start + length; i++)
+            h = (h ^ (array[i] & 0xff)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "StringDictionary{values=" + this.values.length + "}";
+    }
+}
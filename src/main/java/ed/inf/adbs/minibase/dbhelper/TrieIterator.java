@@ -0,0 +1,169 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A trie view of the tuples of a relation, for the leapfrog triejoin: the tuples are sorted by some of their columns
+ * (the levels of the trie, in the variable order of the join), and a cursor walks down the trie, one level per
+ * join variable of the relation.
+ *
+ * The trie is never built: a node is the range of the sorted tuples sharing the keys of the levels above it,
+ * and a key of a level is the first tuple of its run of equal values in that range. Moving to the next key or seeking
+ * a key is a galloping search from the current position, so that a sequence of seeks costs about the logarithm
+ * of the distance between the keys instead of the size of the range.
+ * The values are ordered like the keys of {@link ExternalSorter#compareKeys}: the ints before the strings.
+ */
+public class TrieIterator {
+
+    private final Tuple[] rows;
+    private final int[] columns;
+    // the sorted tuples, and the column of every level
+    private int depth = -1;
+    // the current level, -1 at the root
+    private final int[] position;
+    private final int[] end;
+    // for every opened level: the first tuple of the current key, and the end of the range of the level
+
+    /**
+     * Sort the tuples by the columns of the levels.
+     * @param tuples the tuples of the relation, which must not be modified afterwards.
+     * @param columns the column of every level of the trie.
+     */
+    public TrieIterator(List<Tuple> tuples, int[] columns) {
+        this.rows = tuples.toArray(new Tuple[0]);
+        this.columns = columns;
+        this.position = new int[columns.length];
+        this.end = new int[columns.length];
+        Arrays.sort(this.rows, (a, b) -> ExternalSorter.compareKeys(a, columns, b, columns));
+    }
+
+    /**
+     * Compare two values in the order of the trie.
+     * @return negative, zero or positive if the value of {@code a} is less than, equal to or greater than the one of {@code b}.
+     */
+    public static int compareValues(Tuple a, int aColumn, Tuple b, int bColumn) {
+        boolean aString = a.isString(aColumn);
+        if (aString != b.isString(bColumn)) return aString ? 1 : -1;
+        return a.compareValue(aColumn, b, bColumn);
+    }
+
+    /**
+     * @return the number of tuples.
+     */
+    public int size() {
+        return this.rows.length;
+    }
+
+    public Tuple getRow(int row) {
+        return this.rows[row];
+    }
+
+    /**
+     * Move back to the root.
+     */
+    public void rewind() {
+        this.depth = -1;
+    }
+
+    /**
+     * Move down to the first key of the next level, among the tuples of the current key
+     * (all the tuples at the root).
+     */
+    public void open() {
+        int start = this.depth < 0 ? 0 : this.position[this.depth];
+        int stop = this.depth < 0 ? this.rows.length : this.keyEnd();
+        this.depth++;
+        this.position[this.depth] = start;
+        this.end[this.depth] = stop;
+    }
+
+    /**
+     * Move back up to the key of the level above.
+     */
+    public void up() {
+        this.depth--;
+    }
+
+    /**
+     * @return {@code true} if the keys of the current level are all visited.
+     */
+    public boolean atEnd() {
+        return this.position[this.depth] >= this.end[this.depth];
+    }
+
+    /**
+     * @return the tuple holding the current key, in the column {@link #keyColumn()}.
+     */
+    public Tuple keyTuple() {
+        return this.rows[this.position[this.depth]];
+    }
+
+    public int keyColumn() {
+        return this.columns[this.depth];
+    }
+
+    /**
+     * Move to the next key of the current level.
+     */
+    public void next() {
+        this.position[this.depth] = this.keyEnd();
+    }
+
+    /**
+     * Move to the first key of the current level that is not less than a value, or to the end.
+     * @param target the tuple holding the value.
+     * @param targetColumn the column of the value.
+     */
+    public void seek(Tuple target, int targetColumn) {
+        this.position[this.depth] = this.search(this.position[this.depth], target, targetColumn, false);
+    }
+
+    /**
+     * @return the first tuple of the current key at the deepest opened level (0 at the root):
+     *         the tuples from there to {@link #keyEnd()} share the keys of all the opened levels.
+     */
+    public int keyStart() {
+        return this.depth < 0 ? 0 : this.position[this.depth];
+    }
+
+    /**
+     * @return the end of the run of the current key at the deepest opened level (the number of tuples at the root).
+     */
+    public int keyEnd() {
+        if (this.depth < 0) return this.rows.length;
+        int current = this.position[this.depth];
+        return this.search(current, this.rows[current], this.columns[this.depth], true);
+    }
+
+    /**
+     * Galloping search in the range of the current level, from a position on.
+     * @return the first tuple whose value is not less than the target (greater than it if {@code strict}),
+     *         or the end of the range.
+     */
+    private int search(int from, Tuple target, int targetColumn, boolean strict) {
+        int stop = this.end[this.depth];
+        int column = this.columns[this.depth];
+        int low = from;
+        int step = 1;
+        // double the step until a tuple past the target, the answer is then in [low, high]
+        int high = from;
+        while (high < stop && this.before(this.rows[high], column, target, targetColumn, strict)) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        if (high > stop) high = stop;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.before(this.rows[middle], column, target, targetColumn, strict)) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private boolean before(Tuple row, int column, Tuple target, int targetColumn, boolean strict) {
+        int comparison = compareValues(row, column, target, targetColumn);
+        return strict ? comparison <= 0 : comparison < 0;
+    }
+}
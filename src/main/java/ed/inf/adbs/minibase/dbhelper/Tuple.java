@@ -1,36 +1,326 @@
 package ed.inf.adbs.minibase.dbhelper;
 
-import ed.inf.adbs.minibase.Utils;
+import ed.inf.adbs.minibase.base.IntegerConstant;
+import ed.inf.adbs.minibase.base.StringConstant;
 import ed.inf.adbs.minibase.base.Term;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * A class for storing a row/record from a relation in database.
+ *
+ * The values are held in primitive slots: the int values inline in an {@code int[]},
+ * the string values as references in a parallel {@code String[]} (which is {@code null} when the tuple has no string).
+ * A slot holds a string iff its reference is not null, otherwise it holds the int of the same index.
+ * A tuple therefore costs two or three heap objects whatever its number of columns,
+ * and comparing two values never boxes them.
+ *
+ * The int slot of a string holds its code in the {@link StringDictionary} of the catalog, or {@link #NO_CODE}.
+ * Two strings that both have a code are compared on their codes, which is equivalent to comparing them;
+ * the string reference is then the instance held by the dictionary, so it is only read to print the tuple.
+ *
+ * A tuple built with {@link #Tuple(String, int)} is a mutable row buffer, whose values are overwritten by
+ * {@link #setInt}, {@link #setString}, {@link #setValues} and {@link #setConcat}: it is reused for every row
+ * by the buffer-reusing execution path ({@code Operator#getNextTuple(Tuple)}).
+ *
+ * The {@link Term} view ({@link #getTerms()}, {@link #getTerm(int)}) is only meant for the edges of the engine,
+ * e.g. for building a tuple from parsed constants or for printing.
+ * Two tuples are equal if they hold the same values, whatever their relation names.
  */
 public class Tuple {
+
+    public static final int NO_CODE = Integer.MIN_VALUE;
+    // the int slot of a string that is not encoded with a dictionary
     private String relationName;
-    private List<Term> terms;
+    private final int[] ints;
+    private final String[] strings;
+
+    /**
+     * @param relationName the name of the relation (or operator) the tuple comes from.
+     * @param ints the int values, the dictionary code (or {@link #NO_CODE}) at the string slots.
+     * @param strings the string values, {@code null} at the int slots; {@code null} if there is no string slot.
+     */
+    public Tuple(String relationName, int[] ints, String[] strings) {
+        this.relationName = relationName;
+        this.ints = ints;
+        this.strings = strings;
+    }
 
+    /**
+     * Build a mutable tuple, to be filled by the setters. All its values are 0 ints.
+     * @param relationName the name of the relation (or operator) owning the tuple.
+     * @param size the number of values.
+     */
+    public Tuple(String relationName, int size) {
+        this(relationName, new int[size], new String[size]);
+    }
+
+    /**
+     * Build a tuple from a list of constants.
+     * @param relationName the name of the relation.
+     * @param terms {@link IntegerConstant} and {@link StringConstant} instances.
+     */
     public Tuple(String relationName, List<Term> terms) {
         this.relationName = relationName;
-        this.terms = terms;
+        this.ints = new int[terms.size()];
+        String[] strings = null;
+        for (int i = 0; i < terms.size(); i++) {
+            Term term = terms.get(i);
+            if (term instanceof StringConstant) {
+                if (strings == null) strings = new String[terms.size()];
+                strings[i] = ((StringConstant) term).getValue();
+                this.ints[i] = NO_CODE;
+            } else {
+                this.ints[i] = ((IntegerConstant) term).getValue();
+            }
+        }
+        this.strings = strings;
     }
 
     public String getName() {
         return relationName;
     }
 
+    /**
+     * @return the number of values.
+     */
+    public int size() {
+        return this.ints.length;
+    }
+
+    public boolean isString(int index) {
+        return this.strings != null && this.strings[index] != null;
+    }
+
+    public int getInt(int index) {
+        return this.ints[index];
+    }
+
+    public String getString(int index) {
+        return this.strings[index];
+    }
+
+    /**
+     * @return the dictionary code of a string value, {@link #NO_CODE} if it is not encoded.
+     */
+    public int getCode(int index) {
+        return this.ints[index];
+    }
+
+    /**
+     * Set an int value, only on a tuple built by {@link #Tuple(String, int)}.
+     */
+    public void setInt(int index, int value) {
+        this.ints[index] = value;
+        this.strings[index] = null;
+    }
+
+    /**
+     * Set a string value and its dictionary code ({@link #NO_CODE} if it is not encoded),
+     * only on a tuple built by {@link #Tuple(String, int)}.
+     */
+    public void setString(int index, String value, int code) {
+        this.ints[index] = code;
+        this.strings[index] = value;
+    }
+
+    /**
+     * Overwrite the values with some values of another tuple, like {@link #project(String, int[])} without
+     * building a tuple. Only on a tuple built by {@link #Tuple(String, int)} with {@code indices.length} values.
+     * @param source the tuple the values are read from.
+     * @param indices the index in {@code source} of every value of this tuple.
+     */
+    public void setValues(Tuple source, int[] indices) {
+        for (int i = 0; i < indices.length; i++) {
+            this.ints[i] = source.ints[indices[i]];
+            this.strings[i] = source.isString(indices[i]) ? source.strings[indices[i]] : null;
+        }
+    }
+
+    /**
+     * Overwrite the values with the concatenation of two tuples, like {@link #concat(String, Tuple, Tuple, int[])}
+     * without building a tuple. Only on a tuple built by {@link #Tuple(String, int)} of the concatenated size.
+     * @param left the tuple whose values come first, all of them are kept.
+     * @param right the tuple whose values come next.
+     * @param rightIndices the indices of the values of the right tuple that are kept, in order.
+     */
+    public void setConcat(Tuple left, Tuple right, int[] rightIndices) {
+        int leftSize = left.ints.length;
+        System.arraycopy(left.ints, 0, this.ints, 0, leftSize);
+        if (left.strings != null)
+            System.arraycopy(left.strings, 0, this.strings, 0, leftSize);
+        else
+            Arrays.fill(this.strings, 0, leftSize, null);
+        for (int i = 0; i < rightIndices.length; i++) {
+            this.ints[leftSize + i] = right.ints[rightIndices[i]];
+            this.strings[leftSize + i] = right.isString(rightIndices[i]) ? right.strings[rightIndices[i]] : null;
+        }
+    }
+
+    /**
+     * @return the value at an index as a {@link Term}, a new object is created for every call.
+     */
+    public Term getTerm(int index) {
+        return this.isString(index) ? new StringConstant(this.strings[index]) : new IntegerConstant(this.ints[index]);
+    }
+
+    /**
+     * @return the values as a new list of {@link Term}.
+     */
     public List<Term> getTerms() {
+        List<Term> terms = new ArrayList<>(this.ints.length);
+        for (int i = 0; i < this.ints.length; i++)
+            terms.add(this.getTerm(i));
         return terms;
     }
 
+    /**
+     * Check whether a value of this tuple equals a value of another tuple.
+     * An int never equals a string, two encoded strings are equal iff their codes are.
+     */
+    public boolean valueEquals(int index, Tuple other, int otherIndex) {
+        boolean isString = this.isString(index);
+        if (isString != other.isString(otherIndex)) return false;
+        if (!isString || (this.ints[index] != NO_CODE && other.ints[otherIndex] != NO_CODE))
+            return this.ints[index] == other.ints[otherIndex];
+        return this.strings[index].equals(other.strings[otherIndex]);
+    }
+
+    /**
+     * Compare a value of this tuple with a value of another tuple of the same type:
+     * ints by value, strings by their dictionary codes if both are encoded, otherwise with {@link #compareStrings}.
+     * @return negative, zero or positive if this value is less than, equal to or greater than the other one.
+     */
+    public int compareValue(int index, Tuple other, int otherIndex) {
+        if (this.isString(index) && (this.ints[index] == NO_CODE || other.ints[otherIndex] == NO_CODE))
+            return compareStrings(this.strings[index], other.strings[otherIndex]);
+        return Integer.compare(this.ints[index], other.ints[otherIndex]);
+    }
+
+    /**
+     * The order of the string values, used by every comparison of strings: the order of their code points,
+     * which is the order of their UTF-8 bytes, so that it agrees with the comparisons on the raw fields of the files,
+     * the zone maps, the B+tree indexes and the codes of the string dictionary.
+     * {@link String#compareTo(String)} compares UTF-16 chars instead, and puts the characters above U+FFFF
+     * (encoded with surrogates) before the ones from U+E000 to U+FFFF.
+     * @return negative, zero or positive if the first string is less than, equal to or greater than the second one.
+     */
+    public static int compareStrings(String a, String b) {
+        int common = Math.min(a.length(), b.length());
+        for (int i = 0; i < common; i++) {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 == c2) continue;
+            if (c1 >= Character.MIN_SURROGATE && c2 >= Character.MIN_SURROGATE) {
+                // move the surrogates above U+FFFF, and U+E000..U+FFFF down into their range
+                c1 += c1 >= 0xE000 ? -0x800 : 0x2000;
+                c2 += c2 >= 0xE000 ? -0x800 : 0x2000;
+            }
+            return c1 - c2;
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Build a tuple from some values of this tuple.
+     * @param relationName the name of the new tuple.
+     * @param indices the index in this tuple of every value of the new tuple.
+     * @return the new tuple.
+     */
+    public Tuple project(String relationName, int[] indices) {
+        int[] ints = new int[indices.length];
+        String[] strings = null;
+        for (int i = 0; i < indices.length; i++) {
+            ints[i] = this.ints[indices[i]];
+            if (this.isString(indices[i])) {
+                if (strings == null) strings = new String[indices.length];
+                strings[i] = this.strings[indices[i]];
+            }
+        }
+        return new Tuple(relationName, ints, strings);
+    }
+
+    /**
+     * Build the concatenation of two tuples.
+     * @param relationName the name of the new tuple.
+     * @param left the tuple whose values come first, all of them are kept.
+     * @param right the tuple whose values come next.
+     * @param rightIndices the indices of the values of the right tuple that are kept, in order.
+     * @return the new tuple.
+     */
+    public static Tuple concat(String relationName, Tuple left, Tuple right, int[] rightIndices) {
+        int leftSize = left.ints.length;
+        int[] ints = Arrays.copyOf(left.ints, leftSize + rightIndices.length);
+        String[] strings = left.strings == null ? null : Arrays.copyOf(left.strings, ints.length);
+        for (int i = 0; i < rightIndices.length; i++) {
+            ints[leftSize + i] = right.ints[rightIndices[i]];
+            if (right.isString(rightIndices[i])) {
+                if (strings == null) strings = new String[ints.length];
+                strings[leftSize + i] = right.strings[rightIndices[i]];
+            }
+        }
+        return new Tuple(relationName, ints, strings);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof Tuple)) return false;
+        Tuple other = (Tuple) object;
+        if (this.ints.length != other.ints.length) return false;
+        for (int i = 0; i < this.ints.length; i++) {
+            if (!this.valueEquals(i, other, i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < this.ints.length; i++)
+            hash = 31 * hash + (this.isString(i) ? this.strings[i].hashCode() : this.ints[i]);
+        return hash;
+    }
+
+    /**
+     * @return an estimate of the heap bytes held by the tuple, used by the operators that keep tuples
+     *         under a memory budget (e.g. to decide when to spill them to disk).
+     *         The strings are counted as if they were not shared with other tuples.
+     */
+    public long estimateBytes() {
+        // the object and its int array, then the string array and the strings (header, array and Latin-1 chars)
+        long bytes = 24 + 16 + 4L * this.ints.length;
+        if (this.strings != null) {
+            bytes += 16 + 8L * this.strings.length;
+            for (String string : this.strings)
+                if (string != null) bytes += 40 + string.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the tuple in the print style of {@link #toString()}.
+     */
+    public void appendTo(StringBuilder builder) {
+        for (int i = 0; i < this.ints.length; i++) {
+            if (i > 0) builder.append(", ");
+            if (this.isString(i))
+                builder.append('\'').append(this.strings[i]).append('\'');
+            else
+                builder.append(this.ints[i]);
+        }
+    }
+
     /**
      * Convert the tuple instance into print style
-     * @return a String represent this tuple, columns split by ', '
+     * @return a String represent this tuple, columns split by ', ', strings in single quotes
      */
     @Override
     public String toString() {
-        return Utils.join(terms, ", ");
+        StringBuilder builder = new StringBuilder();
+        this.appendTo(builder);
+        return builder.toString();
     }
 }
@@ -0,0 +1,280 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+/**
+ * A batch of up to {@link #CAPACITY} rows exchanged by the operators in the vectorized execution path
+ * ({@code Operator#getNextBatch()}), stored column by column with a selection vector.
+ *
+ * Like in a {@link Tuple}, every column is a pair of vectors: the int values inline in an {@code int[]},
+ * and the string values in a parallel {@code String[]} that is only allocated once the column receives a string.
+ * A value is a string iff its string reference is not null, its int slot then holds its dictionary code
+ * or {@link Tuple#NO_CODE}, and two encoded strings are compared on their codes.
+ *
+ * Only the rows listed in the selection vector are part of the batch, in the order of the vector.
+ * A filter removes rows by compacting the selection vector, the column vectors are never moved.
+ * The column vectors may be shared with the batch of a child operator (see {@link #viewColumns}),
+ * so a batch is only valid until the next call to {@code getNextBatch()} of the operator that returned it.
+ */
+public class TupleBatch {
+
+    public static final int CAPACITY = 1024;
+
+    private int[][] ints;
+    private String[][] strings;
+    private int rowCount = 0;          // the number of rows written into the column vectors
+    private int[] selection = new int[CAPACITY];
+    private int selectedCount = 0;
+    private boolean viewing = true;    // whether the column vectors are not owned by this batch (or not allocated yet)
+
+    /**
+     * @param columnCount the number of columns of the rows.
+     */
+    public TupleBatch(int columnCount) {
+        this.ints = new int[columnCount][];
+        this.strings = new String[columnCount][];
+    }
+
+    public int getColumnCount() {
+        return this.ints.length;
+    }
+
+    /**
+     * @return the number of selected rows.
+     */
+    public int size() {
+        return this.selectedCount;
+    }
+
+    /**
+     * @return the row (index in the column vectors) of a position of the selection vector.
+     */
+    public int getRow(int position) {
+        return this.selection[position];
+    }
+
+    /**
+     * @return the selection vector, the selected rows are in the first {@link #size()} entries.
+     *         It may be compacted in place followed by a call to {@link #setSize(int)}.
+     */
+    public int[] getSelection() {
+        return this.selection;
+    }
+
+    /**
+     * Keep the first {@code count} entries of the selection vector.
+     */
+    public void setSize(int count) {
+        this.selectedCount = count;
+    }
+
+    public boolean isFull() {
+        return this.rowCount == CAPACITY;
+    }
+
+    public boolean isString(int column, int row) {
+        String[] vector = this.strings[column];
+        return vector != null && vector[row] != null;
+    }
+
+    public int getInt(int column, int row) {
+        return this.ints[column][row];
+    }
+
+    public String getString(int column, int row) {
+        return this.strings[column][row];
+    }
+
+    /**
+     * Remove all the rows. The column vectors owned by the batch are reused by the next rows.
+     */
+    public void clear() {
+        this.rowCount = 0;
+        this.selectedCount = 0;
+    }
+
+    /**
+     * Make this batch show some columns of another batch, with the same selected rows.
+     * Nothing is copied, the column vectors of the other batch are referenced.
+     * @param source the batch whose columns are shown.
+     * @param columns the column of {@code source} shown as each column of this batch.
+     */
+    public void viewColumns(TupleBatch source, int[] columns) {
+        for (int i = 0; i < columns.length; i++) {
+            this.ints[i] = source.ints[columns[i]];
+            this.strings[i] = source.strings[columns[i]];
+        }
+        this.rowCount = source.rowCount;
+        this.viewing = true;
+        // the selection vector is copied, so that this batch can be filtered on its own
+        System.arraycopy(source.selection, 0, this.selection, 0, source.selectedCount);
+        this.selectedCount = source.selectedCount;
+    }
+
+    /**
+     * Add an empty row and select it.
+     * @return the index of the new row in the column vectors.
+     */
+    private int addRow() {
+        if (this.viewing) {
+            // the vectors are allocated once, unless they are the ones of a batch that was viewed
+            for (int i = 0; i < this.ints.length; i++) {
+                this.ints[i] = new int[CAPACITY];
+                this.strings[i] = null;
+            }
+            this.viewing = false;
+        }
+        int row = this.rowCount++;
+        this.selection[this.selectedCount++] = row;
+        return row;
+    }
+
+    /**
+     * Write a value into a column of a row, copied from a column of a row of another batch.
+     */
+    private void copyValue(int column, int row, TupleBatch source, int sourceColumn, int sourceRow) {
+        this.ints[column][row] = source.ints[sourceColumn][sourceRow];
+        String[] sourceStrings = source.strings[sourceColumn];
+        if (sourceStrings != null && sourceStrings[sourceRow] != null) {
+            this.stringVector(column)[row] = sourceStrings[sourceRow];
+        } else if (this.strings[column] != null) {
+            this.strings[column][row] = null;
+        }
+    }
+
+    private String[] stringVector(int column) {
+        if (this.strings[column] == null) this.strings[column] = new String[CAPACITY];
+        return this.strings[column];
+    }
+
+    /**
+     * Append a row, concatenating a row of a batch with some columns of a row of another batch.
+     * @param left the batch whose columns come first, all of them are kept.
+     * @param leftRow the row of {@code left}.
+     * @param right the batch whose columns come next.
+     * @param rightRow the row of {@code right}.
+     * @param rightColumns the columns of {@code right} that are kept, in order.
+     */
+    public void appendConcat(TupleBatch left, int leftRow, TupleBatch right, int rightRow, int[] rightColumns) {
+        int row = this.addRow();
+        int leftColumns = left.getColumnCount();
+        for (int i = 0; i < leftColumns; i++)
+            this.copyValue(i, row, left, i, leftRow);
+        for (int i = 0; i < rightColumns.length; i++)
+            this.copyValue(leftColumns + i, row, right, rightColumns[i], rightRow);
+    }
+
+    /**
+     * Append a row holding the values of a tuple, the tuple must have as many values as the batch has columns.
+     */
+    public void appendTuple(Tuple tuple) {
+        int row = this.addRow();
+        for (int i = 0; i < this.ints.length; i++) {
+            this.ints[i][row] = tuple.getInt(i);
+            if (tuple.isString(i))
+                this.stringVector(i)[row] = tuple.getString(i);
+            else if (this.strings[i] != null)
+                this.strings[i][row] = null;
+        }
+    }
+
+    /**
+     * Set an int value in a column of the row being written by {@link #appendRow()}.
+     */
+    public void setInt(int column, int row, int value) {
+        this.ints[column][row] = value;
+        if (this.strings[column] != null) this.strings[column][row] = null;
+    }
+
+    /**
+     * Set a string value that is not encoded in a column of the row being written by {@link #appendRow()}.
+     */
+    public void setString(int column, int row, String value) {
+        this.setString(column, row, value, Tuple.NO_CODE);
+    }
+
+    /**
+     * Set a string value and its dictionary code in a column of the row being written by {@link #appendRow()}.
+     */
+    public void setString(int column, int row, String value, int code) {
+        this.ints[column][row] = code;
+        this.stringVector(column)[row] = value;
+    }
+
+    /**
+     * Append an empty row, its values are then set with {@link #setInt} and {@link #setString}.
+     * @return the row.
+     */
+    public int appendRow() {
+        return this.addRow();
+    }
+
+    /**
+     * Check whether a value of this batch equals a value of another batch, an int never equals a string.
+     */
+    public boolean valueEquals(int column, int row, TupleBatch other, int otherColumn, int otherRow) {
+        boolean isString = this.isString(column, row);
+        if (isString != other.isString(otherColumn, otherRow)) return false;
+        int value = this.ints[column][row];
+        int otherValue = other.ints[otherColumn][otherRow];
+        if (!isString || (value != Tuple.NO_CODE && otherValue != Tuple.NO_CODE))
+            return value == otherValue;
+        return this.strings[column][row].equals(other.strings[otherColumn][otherRow]);
+    }
+
+    /**
+     * Compare a value of this batch with a value of another batch of the same type,
+     * ints by value and strings like {@link Tuple#compareValue(int, Tuple, int)}.
+     */
+    public int compareValue(int column, int row, TupleBatch other, int otherColumn, int otherRow) {
+        int value = this.ints[column][row];
+        int otherValue = other.ints[otherColumn][otherRow];
+        if (this.isString(column, row) && (value == Tuple.NO_CODE || otherValue == Tuple.NO_CODE))
+            return Tuple.compareStrings(this.strings[column][row], other.strings[otherColumn][otherRow]);
+        return Integer.compare(value, otherValue);
+    }
+
+    /**
+     * Copy some values of a row into arrays, e.g. to probe a hash table with a reused {@link Tuple}.
+     * @param row the row.
+     * @param columns the column of each copied value.
+     * @param ints receives the int values.
+     * @param strings receives the string values, {@code null} for the int values.
+     */
+    public void copyRow(int row, int[] columns, int[] ints, String[] strings) {
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = this.ints[columns[i]][row];
+            strings[i] = this.isString(columns[i], row) ? this.strings[columns[i]][row] : null;
+        }
+    }
+
+    /**
+     * Build a {@link Tuple} from a row, this is the adapter from the vectorized path to the tuple-at-a-time path.
+     * @param relationName the name of the tuple.
+     * @param row the row.
+     * @return a new tuple holding the values of the row.
+     */
+    public Tuple getTuple(String relationName, int row) {
+        int[] ints = new int[this.ints.length];
+        String[] strings = null;
+        for (int i = 0; i < this.ints.length; i++) {
+            ints[i] = this.ints[i][row];
+            if (this.isString(i, row)) {
+                if (strings == null) strings = new String[this.ints.length];
+                strings[i] = this.strings[i][row];
+            }
+        }
+        return new Tuple(relationName, ints, strings);
+    }
+
+    /**
+     * Write a row in the print style of {@link Tuple#toString()}.
+     */
+    public void appendRowString(StringBuilder builder, int row) {
+        for (int i = 0; i < this.ints.length; i++) {
+            if (i > 0) builder.append(", ");
+            if (this.isString(i, row))
+                builder.append('\'').append(this.strings[i][row]).append('\'');
+            else
+                builder.append(this.ints[i][row]);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Per-block statistics of a relation text file, stored as a sidecar file next to it (db/files/R.zm)
+ * and built by {@link ZoneMapBuilder}. The text file is divided into blocks of consecutive records;
+ * for each block and each column the zone map holds the minimum and the maximum value,
+ * and optionally a Bloom filter of the values. A scan with select conditions uses them to skip
+ * the blocks that cannot hold a matching record (see {@link RelationReader#restrictToRanges}).
+ *
+ * Strings are compared as their UTF-8 bytes (unsigned), like the scan conditions compare them.
+ * A zone map is only used while the length and the modification time of the text file are the ones it was built from.
+ *
+ * File layout (big-endian):
+ *      header: int MAGIC, long sourceLength, long sourceLastModified, int columnCount,
+ *              byte type * columnCount (ColumnarFormat.TYPE_INT or TYPE_STRING), int blockCount
+ *      block:  long startOffset, long endOffset, then for each column:
+ *              int min, int max                                  (int column)
+ *              int length, bytes min, int length, bytes max      (string column)
+ *              int filterWords, long word * filterWords          (0 words when there is no Bloom filter)
+ */
+public class ZoneMap {
+
+    public static final int MAGIC = 0x4D425A31; // "MBZ1"
+    public static final String FILE_EXTENSION = ".zm";
+    public static final int DEFAULT_BLOCK_ROWS = 4096;
+
+    static final int BLOOM_HASHES = 7;
+    static final int BLOOM_BITS_PER_VALUE = 10;
+    // about 1% false positives
+
+    private final long sourceLength;
+    private final long sourceLastModified;
+    private final boolean[] intColumn;
+    private final long[] blockStart;
+    private final long[] blockEnd;
+    private final int[][] intMin;         // [column][block]
+    private final int[][] intMax;
+    private final byte[][][] stringMin;   // [column][block]
+    private final byte[][][] stringMax;
+    private final long[][][] filters;     // [column][block], null if the block has no Bloom filter
+
+    private ZoneMap(long sourceLength, long sourceLastModified, boolean[] intColumn, int blockCount) {
+        this.sourceLength = sourceLength;
+        this.sourceLastModified = sourceLastModified;
+        this.intColumn = intColumn;
+        this.blockStart = new long[blockCount];
+        this.blockEnd = new long[blockCount];
+        this.intMin = new int[intColumn.length][];
+        this.intMax = new int[intColumn.length][];
+        this.stringMin = new byte[intColumn.length][][];
+        this.stringMax = new byte[intColumn.length][][];
+        this.filters = new long[intColumn.length][blockCount][];
+        for (int i = 0; i < intColumn.length; i++) {
+            if (intColumn[i]) {
+                this.intMin[i] = new int[blockCount];
+                this.intMax[i] = new int[blockCount];
+            } else {
+                this.stringMin[i] = new byte[blockCount][];
+                this.stringMax[i] = new byte[blockCount][];
+            }
+        }
+    }
+
+    /**
+     * Read a zone map file.
+     * @param file the zone map file.
+     * @return the zone map.
+     * @throws IOException if the file cannot be read or is not a zone map.
+     */
+    public static ZoneMap read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a zone map file: " + file);
+            long sourceLength = in.readLong();
+            long sourceLastModified = in.readLong();
+            boolean[] intColumn = new boolean[in.readInt()];
+            for (int i = 0; i < intColumn.length; i++)
+                intColumn[i] = in.readByte() == ColumnarFormat.TYPE_INT;
+            ZoneMap zoneMap = new ZoneMap(sourceLength, sourceLastModified, intColumn, in.readInt());
+            for (int b = 0; b < zoneMap.getBlockCount(); b++) {
+                zoneMap.blockStart[b] = in.readLong();
+                zoneMap.blockEnd[b] = in.readLong();
+                for (int i = 0; i < intColumn.length; i++) {
+                    if (intColumn[i]) {
+                        zoneMap.intMin[i][b] = in.readInt();
+                        zoneMap.intMax[i][b] = in.readInt();
+                    } else {
+                        zoneMap.stringMin[i][b] = readBytes(in);
+                        zoneMap.stringMax[i][b] = readBytes(in);
+                    }
+                    int words = in.readInt();
+                    if (words > 0) {
+                        long[] filter = new long[words];
+                        for (int w = 0; w < words; w++)
+                            filter[w] = in.readLong();
+                        zoneMap.filters[i][b] = filter;
+                    }
+                }
+            }
+            return zoneMap;
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param source the text file of the relation.
+     * @return {@code true} if the zone map was built from the current content of the file.
+     */
+    public boolean isCurrent(File source) {
+        return source.length() == this.sourceLength && source.lastModified() == this.sourceLastModified;
+    }
+
+    public int getBlockCount() {
+        return this.blockStart.length;
+    }
+
+    /**
+     * @return the file offset of the first record of the block.
+     */
+    public long getBlockStart(int block) {
+        return this.blockStart[block];
+    }
+
+    /**
+     * @return the file offset after the last record of the block, the start of the next block.
+     */
+    public long getBlockEnd(int block) {
+        return this.blockEnd[block];
+    }
+
+    public int getIntMin(int column, int block) {
+        return this.intMin[column][block];
+    }
+
+    public int getIntMax(int column, int block) {
+        return this.intMax[column][block];
+    }
+
+    /**
+     * @return negative, zero or positive if the smallest string of the column in the block is less than,
+     *         equal to or greater than the value.
+     */
+    public int compareStringMin(int column, int block, byte[] value) {
+        return compareBytes(this.stringMin[column][block], value);
+    }
+
+    /**
+     * @return negative, zero or positive if the largest string of the column in the block is less than,
+     *         equal to or greater than the value.
+     */
+    public int compareStringMax(int column, int block, byte[] value) {
+        return compareBytes(this.stringMax[column][block], value);
+    }
+
+    /**
+     * @return {@code false} if the Bloom filter of the block proves that the int column never holds the value.
+     */
+    public boolean mightContain(int column, int block, int value) {
+        long[] filter = this.filters[column][block];
+        return filter == null || testFilter(filter, hash(value));
+    }
+
+    /**
+     * @return {@code false} if the Bloom filter of the block proves that the string column never holds the value.
+     */
+    public boolean mightContain(int column, int block, byte[] value) {
+        long[] filter = this.filters[column][block];
+        return filter == null || testFilter(filter, hash(value));
+    }
+
+    /**
+     * Compare two byte strings as unsigned bytes, for UTF-8 strings the order of {@link Tuple#compareStrings}.
+     */
+    public static int compareBytes(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return a.length - b.length;
+    }
+
+    static long hash(int value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    static long hash(byte[] value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value)
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        return hash((int) h ^ (int) (h >>> 32));
+    }
+
+    /**
+     * Set the bits of a hash in a Bloom filter, the number of words of the filter must be a power of two.
+     */
+    static void addToFilter(long[] filter, long hash) {
+        int mask = filter.length * 64 - 1;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            filter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    static boolean testFilter(long[] filter, long hash) {
+        int mask = filter.length * 64 - 1;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+}
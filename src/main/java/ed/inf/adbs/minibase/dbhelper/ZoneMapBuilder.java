@@ -0,0 +1,180 @@
+package ed.inf.adbs.minibase.dbhelper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the {@link ZoneMap} sidecar files (db/files/*.zm) of the relation text files.
+ * Every block of {@code block_rows} consecutive records gets the min/max of each column,
+ * and a Bloom filter of the distinct values of each column unless 'nobloom' is given.
+ * The zone map of a relation is ignored by the scans once its text file is modified, it has to be built again.
+ *
+ * Usage: ZoneMapBuilder database_dir [block_rows] [bloom|nobloom]
+ */
+public class ZoneMapBuilder {
+
+    private final boolean[] intColumn;
+    private final boolean bloom;
+
+    // statistics of the current block
+    private int rows = 0;
+    private long blockStart;
+    private final int[] intMin;
+    private final int[] intMax;
+    private final byte[][] stringMin;
+    private final byte[][] stringMax;
+    private final List<Set<Long>> hashes = new ArrayList<>();
+    // the hashes of the distinct values of each column, sized into a Bloom filter when the block is written
+
+    private final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+    private final DataOutputStream blocksOut = new DataOutputStream(this.blocks);
+    private int blockCount = 0;
+
+    private ZoneMapBuilder(List<String> schema, boolean bloom) {
+        this.intColumn = new boolean[schema.size()];
+        for (int i = 0; i < schema.size(); i++) {
+            this.intColumn[i] = schema.get(i).equals("int");
+            this.hashes.add(new HashSet<>());
+        }
+        this.bloom = bloom;
+        this.intMin = new int[schema.size()];
+        this.intMax = new int[schema.size()];
+        this.stringMin = new byte[schema.size()][];
+        this.stringMax = new byte[schema.size()][];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ZoneMapBuilder database_dir [block_rows] [bloom|nobloom]");
+            return;
+        }
+        int blockRows = args.length > 1 ? Integer.parseInt(args[1]) : ZoneMap.DEFAULT_BLOCK_ROWS;
+        boolean bloom = args.length <= 2 || !args[2].equals("nobloom");
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init(args[0]);
+        for (String relationName : dbc.getRelationNames()) {
+            int blocks = build(dbc, relationName, blockRows, bloom);
+            System.out.println("Built " + dbc.getZoneMapPath(relationName) + " (" + blocks + " blocks)");
+        }
+    }
+
+    /**
+     * Build the zone map of a relation text file.
+     * @param dbc the catalog providing the schema and the file paths.
+     * @param relationName the name of relation.
+     * @param blockRows the number of records in a block.
+     * @param bloom whether Bloom filters are built.
+     * @return the number of blocks.
+     * @throws IOException if the text file cannot be read or the zone map file cannot be written.
+     */
+    public static int build(DatabaseCatalog dbc, String relationName, int blockRows, boolean bloom) throws IOException {
+        List<String> schema = dbc.getSchema(relationName);
+        File source = new File(dbc.getRelationPath(relationName));
+        long sourceLength = source.length();
+        long sourceLastModified = source.lastModified();
+
+        ZoneMapBuilder builder = new ZoneMapBuilder(schema, bloom);
+        MappedRelationReader reader = new MappedRelationReader(source.getPath(), schema);
+        try {
+            while (reader.nextRecord()) {
+                if (builder.rows == blockRows)
+                    builder.writeBlock(reader.getRecordOffset());
+                builder.add(reader);
+            }
+            if (builder.rows > 0)
+                builder.writeBlock(sourceLength);
+        } finally {
+            reader.close();
+        }
+
+        // write into a temporary file first, so that a half-written file is never picked up by the catalog
+        Path target = Paths.get(dbc.getZoneMapPath(relationName));
+        Path temporary = Paths.get(target + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary.toFile()), 1 << 16))) {
+            out.writeInt(ZoneMap.MAGIC);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceLastModified);
+            out.writeInt(schema.size());
+            for (boolean isInt : builder.intColumn)
+                out.writeByte(isInt ? ColumnarFormat.TYPE_INT : ColumnarFormat.TYPE_STRING);
+            out.writeInt(builder.blockCount);
+            builder.blocks.writeTo(out);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        return builder.blockCount;
+    }
+
+    /**
+     * Add the current record of the reader to the statistics of the current block.
+     */
+    private void add(MappedRelationReader reader) {
+        if (this.rows == 0) this.blockStart = reader.getRecordOffset();
+        for (int i = 0; i < this.intColumn.length; i++) {
+            long hash;
+            if (this.intColumn[i]) {
+                int value = reader.getInt(i);
+                if (this.rows == 0 || value < this.intMin[i]) this.intMin[i] = value;
+                if (this.rows == 0 || value > this.intMax[i]) this.intMax[i] = value;
+                hash = ZoneMap.hash(value);
+            } else {
+                byte[] value = reader.getString(i).getBytes(StandardCharsets.UTF_8);
+                if (this.rows == 0 || ZoneMap.compareBytes(value, this.stringMin[i]) < 0) this.stringMin[i] = value;
+                if (this.rows == 0 || ZoneMap.compareBytes(value, this.stringMax[i]) > 0) this.stringMax[i] = value;
+                hash = ZoneMap.hash(value);
+            }
+            if (this.bloom) this.hashes.get(i).add(hash);
+        }
+        this.rows++;
+    }
+
+    /**
+     * Write the statistics of the current block and start a new one.
+     * @param blockEnd the file offset after the last record of the block.
+     */
+    private void writeBlock(long blockEnd) throws IOException {
+        this.blocksOut.writeLong(this.blockStart);
+        this.blocksOut.writeLong(blockEnd);
+        for (int i = 0; i < this.intColumn.length; i++) {
+            if (this.intColumn[i]) {
+                this.blocksOut.writeInt(this.intMin[i]);
+                this.blocksOut.writeInt(this.intMax[i]);
+            } else {
+                this.blocksOut.writeInt(this.stringMin[i].length);
+                this.blocksOut.write(this.stringMin[i]);
+                this.blocksOut.writeInt(this.stringMax[i].length);
+                this.blocksOut.write(this.stringMax[i]);
+            }
+            Set<Long> columnHashes = this.hashes.get(i);
+            if (columnHashes.isEmpty()) {
+                this.blocksOut.writeInt(0);
+                continue;
+            }
+            // a power of two number of words, with at least BLOOM_BITS_PER_VALUE bits per distinct value
+            int words = Integer.highestOneBit(Math.max(1, columnHashes.size() * ZoneMap.BLOOM_BITS_PER_VALUE / 64));
+            if (words * 64 < columnHashes.size() * ZoneMap.BLOOM_BITS_PER_VALUE) words *= 2;
+            long[] filter = new long[words];
+            for (long hash : columnHashes)
+                ZoneMap.addToFilter(filter, hash);
+            this.blocksOut.writeInt(words);
+            for (long word : filter)
+                this.blocksOut.writeLong(word);
+            columnHashes.clear();
+        }
+        this.blockCount++;
+        this.rows = 0;
+    }
+}
@@ -1,56 +1,83 @@
 package ed.inf.adbs.minibase.operators;
 
-import ed.inf.adbs.minibase.base.IntegerConstant;
-import ed.inf.adbs.minibase.base.Term;
 import ed.inf.adbs.minibase.dbhelper.*;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * This class is used in {@link AggregateOperator} to support the aggregation operation for SUM.
+ * The groups are stored as the rows of a {@link RowArena}, an instance of this class is a cursor on one of them.
  * The output tuple of aggregation operation is split into two parts:
  *      (1) the name aggregation term are stored in {@code aggVarName}.
  *          they need to be updated when new tuples are grouped to existing tuples:
  *          for every new tuple that grouped to existing one:
- *          the aggregation value will be added to {@code aggSum},
- *          and the {@code aggCount} will be incremented by 1 for preparing for the AVG calculation
- *      (2) the other terms are stored in {@code termList}.
+ *          the aggregation value will be added to the sum slot of the row,
+ *          and the count slot will be incremented by 1 for preparing for the AVG calculation
+ *      (2) the other terms are the values of the row, i.e. the group tuple.
  *  After the aggregation process is completed,
- *  each instance of this class will be converted into an output tuple of {@link AggregateOperator}
+ *  each row will be converted into an output tuple of {@link AggregateOperator}
  */
 public class AggregateBuffer {
 
-    private List<Term> termList;
+    public static final int SUM_SLOT = 0; // the extra slot of a row holding the accumulated sum for SUM and AVG
+    public static final int COUNT_SLOT = 1; // the extra slot of a row holding the number of rows in the group, for AVG
+    public static final int SLOT_COUNT = 2;
+
+    private RowArena groups;
+    private int row = -1;
     private int aggIndex;
     private String aggVarName;
-    private int aggSum = 0; // the accumulated sum for SUM and AVG
-    private int aggCount = 0; // the number of rows in this group, for AVG
 
-    public AggregateBuffer(List<Term> termList, int aggIndex, String aggVarName) {
-        this.termList = new ArrayList<>(termList);
+    /**
+     * @param groups the arena holding the group tuples, with {@link #SLOT_COUNT} extra slots per row.
+     * @param aggIndex the position of the aggregation term in the output tuples.
+     * @param aggVarName the name of the aggregation term.
+     */
+    public AggregateBuffer(RowArena groups, int aggIndex, String aggVarName) {
+        this.groups = groups;
         this.aggIndex = aggIndex;
         this.aggVarName = aggVarName;
     }
 
     /**
-     * Support a GROUP operation, accumulate the value by adding the aggregation term in new tuple to {@code aggSum}.
-     * The {@code aggCount} is incremented to track the number of aggregation terms.
+     * Move the cursor to a group.
+     * @param row the row of the group in the arena.
+     */
+    public void moveTo(int row) {
+        this.row = row;
+    }
+
+    /**
+     * Support a GROUP operation, accumulate the value by adding the aggregation term in new tuple to the sum.
+     * The count is incremented to track the number of aggregation terms.
      * @param val the value to be accumulated.
      */
     public void addSum(int val) {
-        this.aggSum += val;
-        this.aggCount += 1;
+        this.groups.setExtra(this.row, SUM_SLOT, this.groups.getExtra(this.row, SUM_SLOT) + val);
+        this.groups.setExtra(this.row, COUNT_SLOT, this.groups.getExtra(this.row, COUNT_SLOT) + 1);
     }
 
     /**
      * This method is used by {@link SumOperator}
-     * It converts the aggregation sum value into a IntegerConstant and add it to the tail of term list,
+     * It inserts the aggregation sum value into the values of the group tuple at the aggregation index,
      * then construct an output tuple and return.
      * @return the output tuple after aggregation.
      */
     public Tuple getSumTuple() {
-        List<Term> termList = new ArrayList<>(this.termList);
-        termList.add(this.aggIndex, new IntegerConstant(this.aggSum));
-        return new Tuple("SUM("+this.aggVarName+")", termList);
+        Tuple groupTuple = this.groups.getTuple(null, this.row);
+        int size = groupTuple.size() + 1;
+        int[] ints = new int[size];
+        String[] strings = null;
+        for (int i = 0, from = 0; i < size; i++) {
+            if (i == this.aggIndex) {
+                ints[i] = this.groups.getExtra(this.row, SUM_SLOT);
+                continue;
+            }
+            ints[i] = groupTuple.getInt(from);
+            if (groupTuple.isString(from)) {
+                if (strings == null) strings = new String[size];
+                strings[i] = groupTuple.getString(from);
+            }
+            from++;
+        }
+        return new Tuple("SUM("+this.aggVarName+")", ints, strings);
     }
 }
@@ -3,7 +3,6 @@ package ed.inf.adbs.minibase.operators;
 import ed.inf.adbs.minibase.base.*;
 import ed.inf.adbs.minibase.dbhelper.*;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -17,23 +16,27 @@ public abstract class AggregateOperator extends Operator {
     protected int aggregateIndex;
     protected Operator child;
     protected String aggregateVariable;
+    protected Integer aggregateConstant = null;
+    // the summed value when the aggregation term is an integer constant, e.g. SUM(1)
 
     // This is for indicating where to find the projection column in the child tuple.
     protected List<Integer> projectIndices = new ArrayList<>();
+    protected final int[] groupIndices;
+    // the projection columns without the aggregation term, i.e. the GROUP BY key of a child tuple
+    protected int aggregateColumn = -1;
+    // the column of the aggregation term in the child tuple, -1 for a constant term
 
-    protected List<AggregateBuffer> outputBuffer = new ArrayList<>();
-    /* A list of AggregateBuffers to store the AggregateBuffer instances,
-       Each of these aggregate buffers represent an output tuple of this operator.
-       In these AggregateBuffers, the accumulation of aggregation term will be processed. */
-
-    protected HashMap<String, Integer> tuple2BufferIndex = new HashMap<>();
-    // This is a mapping from a tuple in string format to its index in outputBuffer.
-
-    /*
-      This is used to check whether a tuple without aggregation term has been encountered,
-      If yes then aggregation term will be accumulated to existing record in outputBuffer
-      Else a new record in outputBuffer will be inserted into outputBuffer. */
-
+    protected final RowArena groups;
+    /* The group tuples (the tuples without the aggregation term) stored off-heap, in the order they were encountered.
+       Each row represents an output tuple of this operator, and its extra slots hold the accumulation
+       of the aggregation term (see AggregateBuffer).
+       The arena also indexes its rows by value: it is used to check whether a tuple without aggregation term
+       has been encountered, if yes then aggregation term will be accumulated to the existing row,
+       else a new row will be inserted. */
+    protected final AggregateBuffer aggregateBuffer;
+    // the cursor used to update and read the rows of groups
+    protected int outputPosition = 0;
+    // the next row of groups to be output
 
     /**
      * Constructor to initialise the Aggregate operator.
@@ -50,6 +53,7 @@ public abstract class AggregateOperator extends Operator {
             int idx = childvarList.indexOf(varName);
             this.projectIndices.add(idx);
             this.varList.add(varName); // this.varList will record the variable positions after projection
+            this.intColumns.add(childOperator.getIntColumns().get(idx));
         }
         // process the last aggregation term:
         this.aggregateIndex = queryHead.getTerms().size()-1;
@@ -57,73 +61,126 @@ public abstract class AggregateOperator extends Operator {
         this.aggregateVariable = avgTerm.getVariable();
         String aggVar = avgTerm.getVariable();
         int idx = childvarList.indexOf(aggVar);
-        this.projectIndices.add(idx);
+        if (idx == -1 && aggVar.matches("-?[0-9]+")) {
+            // a constant term is not read from the child tuples, the same value is accumulated for every tuple
+            this.aggregateConstant = Integer.parseInt(aggVar);
+        } else {
+            this.projectIndices.add(idx);
+            this.aggregateColumn = idx;
+        }
         this.varList.add(avgTerm.toString());
+        this.intColumns.add(true);
         // this.varList will record the variable positions after projection.
-        if(projectIndices.size() == 1 && projectIndices.get(0) == -1) {
-            projectIndices.set(0,0);
-        }
-
+        this.groupIndices = new int[this.aggregateIndex];
+        for (int i = 0; i < this.aggregateIndex; i++)
+            this.groupIndices[i] = this.projectIndices.get(i);
+        this.groups = new RowArena(this.groupIndices.length, AggregateBuffer.SLOT_COUNT,
+                DatabaseCatalog.getInstance().getStringDictionary());
+        this.aggregateBuffer = new AggregateBuffer(this.groups, this.aggregateIndex, this.aggregateVariable);
     }
 
     /**
-     * Reset child operator, buffer states and the map to buffer.
+     * Reset child operator and the output position, the off-heap memory of the groups is released.
      */
     @Override
     public void reset() {
         this.child.reset();
-        this.tuple2BufferIndex = new HashMap<>();
-        this.outputBuffer = new ArrayList<>();
+        this.groups.clear();
+        this.outputPosition = 0;
+    }
+
+    /**
+     * Close the child operator, and release the off-heap memory of the groups.
+     */
+    @Override
+    public void close() {
+        this.child.close();
+        this.groups.clear();
     }
 
     /**
      * The child class needs to override this method and do following things:
      * First call {@link #aggregate()} to iterate over all child operator tuples and do aggregation.
      * After the blocking operation travel through all the child output tuples,
-     * each call of this method will remove and return the first output tuple from the buffer.
+     * each call of this method will return the next group as an output tuple.
      * Notice: the aggregation operation and output tuple construction is implemented in {@link AggregateBuffer}.
      * @return a tuple after projection and aggregation.
      */
     @Override
     abstract public Tuple getNextTuple();
 
+    /**
+     * The vectorized version of {@link #aggregate()}, iterate over all the output batches from child operator.
+     * The group key of every row is copied into the slots of a reused probe tuple to look up its group,
+     * no tuple is built for the rows.
+     */
+    protected void aggregateBatches() {
+        int[] probeInts = new int[this.groupIndices.length];
+        String[] probeStrings = new String[this.groupIndices.length];
+        Tuple probe = new Tuple(this.projectionName, probeInts, probeStrings);
+        TupleBatch childBatch = this.child.getNextBatch();
+        while (childBatch != null) {
+            for (int i = 0; i < childBatch.size(); i++) {
+                int row = childBatch.getRow(i);
+                childBatch.copyRow(row, this.groupIndices, probeInts, probeStrings);
+                int aggValue = this.aggregateConstant != null ? this.aggregateConstant
+                        : childBatch.getInt(this.aggregateColumn, row);
+                this.accumulate(probe, aggValue);
+            }
+            childBatch = this.child.getNextBatch();
+        }
+    }
+
+    /**
+     * The buffer-reusing version of {@link #aggregate()}: the child writes its tuples into a row buffer,
+     * and the group key of every tuple is copied into a reused probe tuple to look up its group.
+     * Only the new groups are copied, into the arena (copy-on-retain).
+     */
+    protected void aggregateReusing() {
+        Tuple childBuffer = new Tuple(this.projectionName, this.child.getVarList().size());
+        Tuple probe = new Tuple(this.projectionName, this.groupIndices.length);
+        Tuple childOutput = this.child.getNextTuple(childBuffer);
+        while (childOutput != null) {
+            probe.setValues(childOutput, this.groupIndices);
+            int aggValue = this.aggregateConstant != null ? this.aggregateConstant
+                    : childOutput.getInt(this.aggregateColumn);
+            this.accumulate(probe, aggValue);
+            childOutput = this.child.getNextTuple(childBuffer);
+        }
+    }
+
     /**
      * Iterate over all the output tuples from child operator, do aggregation operation over them.
      * For each child operator tuple:
-     * 1. extract the term list and remove the aggregation term.
-     * 2. The rest of term list will be converted to a string as a key in {@code tuple2BufferIndex}.
+     * 1. project the tuple on the columns other than the aggregation term.
+     * 2. The projected tuple is looked up in {@code groups}, tuples are compared by their values.
      * 3. Check key duplication to see if it needs a GROUP operation:
      *  If a tuple without aggregation term has already been recorded, a GROUP operation is required,
      *  and the new tuple will be merged into the existing record, i.e. the new aggregation term will be
      *  accumulated on the existing record.
-     *  Otherwise, a new buffer record will be created for the new tuple.
+     *  Otherwise, a new row will be created for the new tuple.
      */
     protected void aggregate() {
         Tuple childOutput = this.child.getNextTuple();
         while (childOutput != null) {
-            // extract the term list and remove the aggregation term
-            List<Term> termList = new ArrayList<>();
-           // System.out.println("projectIndices: "+projectIndices);
-            for (int pi : this.projectIndices) {
-                termList.add(childOutput.getTerms().get(pi));
-            }
-            Tuple newTuple = new Tuple(this.projectionName, termList);
-            IntegerConstant aggTerm = (IntegerConstant) newTuple.getTerms().remove(this.aggregateIndex);
-
-            // convert the term list (without aggregation term) into string, acting as a key for hashmap
-            String bufferKey = newTuple.getTerms().toString();
-            if (this.tuple2BufferIndex.containsKey(bufferKey)) {
-                // GROUP operation, accumulate the aggregation term
-                int bufferIndex = this.tuple2BufferIndex.get(bufferKey);
-                this.outputBuffer.get(bufferIndex).addSum(aggTerm.getValue());
-            } else {
-                // new tuple, create a new buffer record for it
-                AggregateBuffer aggrBfr = new AggregateBuffer(newTuple.getTerms(), this.aggregateIndex, this.aggregateVariable);
-                aggrBfr.addSum(aggTerm.getValue());
-                this.outputBuffer.add(aggrBfr);
-                this.tuple2BufferIndex.put(bufferKey, this.outputBuffer.size()-1);
-            }
+            // extract the group key and the aggregation term
+            Tuple groupTuple = childOutput.project(this.projectionName, this.groupIndices);
+            int aggValue = this.aggregateConstant != null ? this.aggregateConstant
+                    : childOutput.getInt(this.aggregateColumn);
+            this.accumulate(groupTuple, aggValue);
             childOutput = this.child.getNextTuple();
         }
     }
+
+    /**
+     * Accumulate a value to the group of a tuple, the group is created if the tuple is a new one.
+     * @param groupTuple the tuple without the aggregation term, it is copied into the arena.
+     * @param aggValue the value of the aggregation term.
+     */
+    private void accumulate(Tuple groupTuple, int aggValue) {
+        int row = this.groups.addIfAbsent(groupTuple);
+        // a negative row is a new group, its sum and count start from 0
+        this.aggregateBuffer.moveTo(row >= 0 ? row : -(row + 1));
+        this.aggregateBuffer.addSum(aggValue);
+    }
 }
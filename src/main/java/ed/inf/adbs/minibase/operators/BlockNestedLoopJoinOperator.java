@@ -0,0 +1,239 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A block nested loop join, for the joins without an equality between the left and the right tuples
+ * (e.g. only an 'x &lt; y' condition), which the equi-join operators cannot evaluate.
+ *
+ * The tuple nested loop {@link JoinOperator} resets its right child once per left tuple, reading the right relation
+ * from its file again every time. Instead, the first call materializes the right child once: in memory while its
+ * tuples fit in half of the operator memory budget of the {@link DatabaseCatalog}, otherwise in a {@link SpillFile}.
+ * The left tuples are then read in blocks filling the other half of the budget (at least {@link #MIN_BLOCK_ROWS}),
+ * and the materialized right tuples are iterated once per block, every right tuple being checked against all the
+ * tuples of the block. The right input is thus read |L| / block times instead of |L| times, and never re-read
+ * from the relation file.
+ *
+ * The output is the same set of tuples as the one of {@link JoinOperator} (the left columns followed by the kept
+ * right columns); within a block, the tuples come out in the order of the right tuples.
+ * The materialized right tuples are kept across {@link #reset()}, and released by {@link #close()}.
+ */
+public class BlockNestedLoopJoinOperator extends JoinOperator {
+
+    public static final int MIN_BLOCK_ROWS = 1024;
+
+    private List<Tuple> inner = null;
+    private SpillFile innerFile = null;
+    // the materialized right tuples: in memory, or in a spill file once they exceed their budget (inner is then null)
+    private boolean materialized = false;
+    private long innerScans = 0;
+    // the number of passes over the materialized right tuples
+
+    private final List<Tuple> block = new ArrayList<>();
+    private int blockPosition = 0;
+    // the current block of left tuples, and the next one to check against the current right tuple
+    private Tuple innerTuple = null;
+    private int innerPosition = 0;
+    // the current right tuple, and the position of the next one when they are in memory
+
+    /**
+     * @param leftChild the left child operator, read in blocks.
+     * @param rightChild the right child operator, materialized once.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     */
+    public BlockNestedLoopJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms) {
+        super(leftChild, rightChild, comparisonAtoms);
+    }
+
+    /**
+     * Read all the right tuples, in memory until they exceed half of the operator memory, then into a spill file.
+     */
+    private void materialize() {
+        long budget = DatabaseCatalog.getInstance().getOperatorMemory() / 2;
+        this.inner = new ArrayList<>();
+        long bytes = 0;
+        Tuple rightTuple;
+        while ((rightTuple = this.getRightChild().getNextTuple()) != null) {
+            if (this.innerFile != null) {
+                this.innerFile.write(rightTuple);
+                continue;
+            }
+            this.inner.add(rightTuple);
+            bytes += rightTuple.estimateBytes();
+            if (bytes > budget && this.inner.size() >= MIN_BLOCK_ROWS) {
+                this.innerFile = new SpillFile("minibase-join");
+                for (Tuple tuple : this.inner) this.innerFile.write(tuple);
+                this.inner = null;
+            }
+        }
+        if (this.innerFile != null) this.innerFile.finishWriting();
+        this.materialized = true;
+    }
+
+    /**
+     * Read the next block of left tuples, until they exceed half of the operator memory.
+     * @return {@code false} if there is no left tuple left.
+     */
+    private boolean nextBlock() {
+        long budget = DatabaseCatalog.getInstance().getOperatorMemory() / 2;
+        this.block.clear();
+        long bytes = 0;
+        Tuple leftTuple;
+        while ((bytes <= budget || this.block.size() < MIN_BLOCK_ROWS)
+                && (leftTuple = this.getLeftChild().getNextTuple()) != null) {
+            this.block.add(leftTuple);
+            bytes += leftTuple.estimateBytes();
+        }
+        if (this.block.isEmpty()) return false;
+        this.rewindInner();
+        return true;
+    }
+
+    private void rewindInner() {
+        this.innerScans++;
+        this.innerPosition = 0;
+        if (this.innerFile != null) this.innerFile.rewind();
+        this.innerTuple = null;
+    }
+
+    private Tuple nextInner() {
+        if (this.innerFile != null) return this.innerFile.read("Join");
+        return this.innerPosition < this.inner.size() ? this.inner.get(this.innerPosition++) : null;
+    }
+
+    /**
+     * Check the tuples of the current block against the current right tuple, moving to the next right tuple once
+     * the block is done, and to the next block once all the right tuples are done.
+     * @return the left tuple of the next pair that satisfies the join conditions, paired with {@link #innerTuple};
+     *         {@code null} if there is no pair left.
+     */
+    private Tuple nextPair() {
+        if (!this.materialized) {
+            this.materialize();
+            this.innerScans = 0;
+            this.nextBlock();
+        }
+        // the block is only empty once all the left tuples are read
+        while (!this.block.isEmpty()) {
+            if (this.innerTuple != null) {
+                while (this.blockPosition < this.block.size()) {
+                    Tuple leftTuple = this.block.get(this.blockPosition++);
+                    if (this.matches(leftTuple, this.innerTuple)) return leftTuple;
+                }
+            }
+            this.innerTuple = this.nextInner();
+            this.blockPosition = 0;
+            if (this.innerTuple == null) this.nextBlock();
+        }
+        return null;
+    }
+
+    /**
+     * @return the next joined tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        Tuple leftTuple = this.nextPair();
+        if (leftTuple == null) return null;
+        return Tuple.concat("Join", leftTuple, this.innerTuple, this.getRightKeptColumns());
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the join result is written into the row buffer of the
+     * caller. The blocks and the materialized tuples are kept, so the children are read with
+     * {@link Operator#getNextTuple()} (copy-on-retain).
+     * @param reuse the row buffer of the caller, overwritten with the next joined tuple.
+     * @return {@code reuse}, or {@code null} if there is no joined tuple left.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        Tuple leftTuple = this.nextPair();
+        if (leftTuple == null) return null;
+        reuse.setConcat(leftTuple, this.innerTuple, this.getRightKeptColumns());
+        return reuse;
+    }
+
+    /**
+     * The batches are filled from {@link #getNextTuple()}, the nested loop over batches of {@link JoinOperator}
+     * is not used.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.fillBatchFromTuples();
+    }
+
+    /**
+     * @return the number of passes over the materialized right tuples so far, one per block of left tuples.
+     */
+    public long getInnerScans() {
+        return this.innerScans;
+    }
+
+    /**
+     * Restart the join from the first block, the materialized right tuples are kept
+     * (the right child is only reset if it is not materialized yet).
+     */
+    @Override
+    public void reset() {
+        this.getLeftChild().reset();
+        if (!this.materialized) this.getRightChild().reset();
+        this.block.clear();
+        this.blockPosition = 0;
+        this.innerTuple = null;
+        if (this.materialized) {
+            this.innerScans = 0;
+            this.nextBlock();
+        }
+    }
+
+    /**
+     * Close both children, and release the materialized right tuples.
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (this.innerFile != null) this.innerFile.close();
+        this.innerFile = null;
+        this.inner = null;
+        this.materialized = false;
+        this.block.clear();
+        this.innerTuple = null;
+    }
+
+    /**
+     * Unit test of BlockNestedLoopJoinOperator, output is printed to the console.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+
+        // Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x < u
+        System.out.println("Testing query: Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x < u");
+        List<Term> queryAtomTerms1 = new ArrayList<>();
+        queryAtomTerms1.add(new Variable("x"));
+        queryAtomTerms1.add(new Variable("y"));
+        queryAtomTerms1.add(new Variable("z"));
+        RelationalAtom queryBodyAtomR = new RelationalAtom("R", queryAtomTerms1);
+        List<Term> queryAtomTerms2 = new ArrayList<>();
+        queryAtomTerms2.add(new Variable("u"));
+        queryAtomTerms2.add(new Variable("w"));
+        queryAtomTerms2.add(new Variable("t"));
+        RelationalAtom queryBodyAtomS = new RelationalAtom("S", queryAtomTerms2);
+        List<ComparisonAtom> compAtomList = new ArrayList<>();
+        compAtomList.add(new ComparisonAtom(new Variable("x"), new Variable("u"), ComparisonOperator.fromString("<")));
+
+        BlockNestedLoopJoinOperator joinOp = new BlockNestedLoopJoinOperator(
+                new ScanOperator(queryBodyAtomR), new ScanOperator(queryBodyAtomS), compAtomList);
+        joinOp.dump(null);
+        System.out.println("inner scans: " + joinOp.getInnerScans());
+        System.out.println("-----------------------------------");
+        joinOp.reset();
+        System.out.println(joinOp.getNextTuple());
+        joinOp.close();
+    }
+}
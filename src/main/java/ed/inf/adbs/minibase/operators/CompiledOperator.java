@@ -0,0 +1,132 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.dbhelper.RelationReader;
+import ed.inf.adbs.minibase.dbhelper.RowArena;
+import ed.inf.adbs.minibase.dbhelper.StringDictionary;
+import ed.inf.adbs.minibase.dbhelper.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The root of a query plan compiled by {@link PlanCompiler}.
+ * The first call to {@link #getNextTuple()} evaluates the whole plan with the generated {@link CompiledPipeline}
+ * into an off-heap {@link RowArena}, then each call returns the next result row.
+ * The interpreted plan the pipeline was compiled from is kept: it provides the relation readers of its scans
+ * and the tuples of its reduced leaves, and is reset and closed with this operator.
+ */
+public class CompiledOperator extends Operator {
+
+    private final Operator plan;
+    private final List<ScanOperator> scans;
+    private final List<ReducedRelationOperator> leaves;
+    private final CompiledPipeline pipeline;
+    private final StringDictionary dictionary;
+    private final String projectionName;
+    private final RowArena output;
+    private final AggregateBuffer aggregateBuffer;
+    // the cursor over the groups of a SUM plan, null for a projection
+    private final long compileNanos;
+    private long executeNanos = 0;
+    private boolean executed = false;
+    private int outputPosition = 0;
+
+    /**
+     * @param plan the interpreted plan, whose root is a {@link ProjectOperator} or a {@link SumOperator}.
+     * @param scans the scans of the plan, in the order of the readers of the pipeline.
+     * @param leaves the reduced leaves of the plan, in the order of the relations of the pipeline.
+     * @param pipeline the compiled pipeline.
+     * @param dictionary the dictionary of the string codes, {@code null} if the strings are not encoded.
+     * @param compileNanos the time spent generating, compiling and loading the pipeline.
+     */
+    CompiledOperator(Operator plan, List<ScanOperator> scans, List<ReducedRelationOperator> leaves,
+                     CompiledPipeline pipeline, StringDictionary dictionary, long compileNanos) {
+        this.plan = plan;
+        this.scans = scans;
+        this.leaves = leaves;
+        this.pipeline = pipeline;
+        this.dictionary = dictionary;
+        this.varList = plan.getVarList();
+        this.intColumns = plan.getIntColumns();
+        this.compileNanos = compileNanos;
+        if (plan instanceof SumOperator) {
+            SumOperator sum = (SumOperator) plan;
+            this.projectionName = sum.projectionName;
+            this.output = new RowArena(sum.groupIndices.length, AggregateBuffer.SLOT_COUNT, dictionary);
+            this.aggregateBuffer = new AggregateBuffer(this.output, sum.aggregateIndex, sum.aggregateVariable);
+        } else {
+            ProjectOperator project = (ProjectOperator) plan;
+            this.projectionName = project.getProjectionName();
+            this.output = new RowArena(project.getProjectIndices().length, 0, dictionary);
+            this.aggregateBuffer = null;
+        }
+    }
+
+    /**
+     * Run the pipeline over the readers of the scans and the tuples of the reduced leaves (the reduction runs here),
+     * the time is added to the execution time.
+     */
+    private void execute() {
+        this.executed = true;
+        RelationReader[] readers = new RelationReader[this.scans.size()];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = this.scans.get(i).getRelationReader();
+            // a relation that could not be opened has no record
+            if (readers[i] == null) return;
+        }
+        long start = System.nanoTime();
+        List<List<Tuple>> relations = new ArrayList<>();
+        for (ReducedRelationOperator leaf : this.leaves)
+            relations.add(leaf.getTuples());
+        this.pipeline.bind(readers, relations, this.dictionary, this.output, this.aggregateBuffer);
+        this.pipeline.run();
+        this.executeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return the next result row, the whole plan is evaluated by the first call.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (!this.executed) this.execute();
+        if (this.outputPosition >= this.output.size()) return null;
+        int row = this.outputPosition++;
+        if (this.aggregateBuffer == null) return this.output.getTuple(this.projectionName, row);
+        this.aggregateBuffer.moveTo(row);
+        return this.aggregateBuffer.getSumTuple();
+    }
+
+    /**
+     * Reset the interpreted plan (and so the readers of its scans), and drop the result rows.
+     */
+    @Override
+    public void reset() {
+        this.plan.reset();
+        this.output.clear();
+        this.executed = false;
+        this.outputPosition = 0;
+    }
+
+    @Override
+    public void close() {
+        this.plan.close();
+        this.output.clear();
+    }
+
+    public long getCompileNanos() {
+        return this.compileNanos;
+    }
+
+    /**
+     * @return the time spent in the pipeline, for all the evaluations since the plan was compiled.
+     */
+    public long getExecuteNanos() {
+        return this.executeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledOperator{compileTime=" + this.compileNanos / 1000000 + " ms, pipelineTime="
+                + this.executeNanos / 1000000 + " ms}";
+    }
+}
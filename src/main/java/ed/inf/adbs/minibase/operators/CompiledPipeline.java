@@ -0,0 +1,135 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.dbhelper.JoinHashTable;
+import ed.inf.adbs.minibase.dbhelper.RelationReader;
+import ed.inf.adbs.minibase.dbhelper.RowArena;
+import ed.inf.adbs.minibase.dbhelper.StringDictionary;
+import ed.inf.adbs.minibase.dbhelper.Tuple;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The superclass of the classes generated by {@link PlanCompiler}, and the runtime support they use.
+ * A generated class evaluates a whole query plan in {@link #run()}: it reads the relations from the readers
+ * of the scans of the plan, and writes the result rows into {@link #output} (the distinct rows of a projection,
+ * or the groups of a SUM, whose sums are updated through {@link #aggregateBuffer}).
+ *
+ * The members used by the generated code are public or protected, since it is loaded by another class loader.
+ */
+public abstract class CompiledPipeline {
+
+    protected RelationReader[] readers;
+    // the readers of the scans of the plan, in the order the compiler visited them
+    protected List<List<Tuple>> relations;
+    // the tuples of the reduced leaves of the plan (see ReducedRelationOperator), in the order the compiler visited them
+    protected StringDictionary dictionary;
+    // the dictionary the string codes come from, null if the strings are not encoded
+    protected RowArena output;
+    protected AggregateBuffer aggregateBuffer;
+    // the cursor over the groups in output, null for a projection
+
+    void bind(RelationReader[] readers, List<List<Tuple>> relations, StringDictionary dictionary, RowArena output,
+              AggregateBuffer aggregateBuffer) {
+        this.readers = readers;
+        this.relations = relations;
+        this.dictionary = dictionary;
+        this.output = output;
+        this.aggregateBuffer = aggregateBuffer;
+    }
+
+    /**
+     * Evaluate the plan from the current position of the readers, into the output arena.
+     */
+    public abstract void run();
+
+    /**
+     * @return the value of a string field of the current record of a reader, given its code:
+     *         the instance held by the dictionary if the code is stored.
+     */
+    protected final String decode(RelationReader reader, int column, int code) {
+        return this.dictionary.isStored(code) ? this.dictionary.decode(code) : reader.getString(column);
+    }
+
+    /**
+     * The materialized rows of the build side of a join, column by column, with a hash index on the join keys.
+     * The generated code appends a row with {@link #add()} and writes its values straight into the column arrays,
+     * then probes the index with the same hash of its key values ({@code h = 31 * h + value} for every key,
+     * where the value of a string is its code, or its {@code hashCode()} if it is not encoded).
+     */
+    public static final class Table {
+
+        public int[][] ints;
+        public String[][] strings;
+        // the string vectors are null for the int columns
+        public int size = 0;
+        private int capacity = 16;
+
+        private int[] heads = {-1};
+        private int[] next = new int[0];
+        private int mask = 0;
+
+        /**
+         * @param isString for every column, whether it holds strings.
+         */
+        public Table(boolean[] isString) {
+            this.ints = new int[isString.length][16];
+            this.strings = new String[isString.length][];
+            for (int i = 0; i < isString.length; i++)
+                if (isString[i]) this.strings[i] = new String[16];
+        }
+
+        /**
+         * Append an empty row.
+         * @return the new row.
+         */
+        public int add() {
+            if (this.size == this.capacity) {
+                // a table without columns (a join that keeps none of the right columns) only counts its rows
+                this.capacity *= 2;
+                for (int i = 0; i < this.ints.length; i++) {
+                    this.ints[i] = Arrays.copyOf(this.ints[i], this.capacity);
+                    if (this.strings[i] != null) this.strings[i] = Arrays.copyOf(this.strings[i], this.capacity);
+                }
+            }
+            return this.size++;
+        }
+
+        /**
+         * Index all the rows on some key columns, the rows of the same hash slot are chained.
+         * @param keyColumns the key columns.
+         * @param hashStrings for every key column, whether it is hashed on its strings rather than its ints.
+         */
+        public void index(int[] keyColumns, boolean[] hashStrings) {
+            int slots = Integer.highestOneBit(Math.max(1, this.size) * 2);
+            this.heads = new int[slots];
+            Arrays.fill(this.heads, -1);
+            this.mask = slots - 1;
+            this.next = new int[this.size];
+            for (int row = 0; row < this.size; row++) {
+                int hash = 0;
+                for (int k = 0; k < keyColumns.length; k++) {
+                    hash = 31 * hash + (hashStrings[k] ? this.strings[keyColumns[k]][row].hashCode()
+                            : this.ints[keyColumns[k]][row]);
+                }
+                int slot = JoinHashTable.mix(hash) & this.mask;
+                this.next[row] = this.heads[slot];
+                this.heads[slot] = row;
+            }
+        }
+
+        /**
+         * @return the first row of the chain of a hash, -1 if there is none. The rows of a chain may have other keys.
+         */
+        public int first(int hash) {
+            return this.heads[JoinHashTable.mix(hash) & this.mask];
+        }
+
+        /**
+         * @return the next row of the chain of a row, -1 at the end.
+         */
+        public int next(int row) {
+            return this.next[row];
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ed.inf.adbs.minibase.operators;
+
+import java.util.Arrays;
+
+/**
+ * The evaluation order of the conditions of a conjunction, adapted to their measured selectivity.
+ * The operators checking a conjunction (the scan, select and join conditions) evaluate its conditions
+ * in the order returned by {@link #next()} and stop at the first one that fails, reporting every evaluation
+ * with {@link #record(int, boolean)}. Every {@link #REORDER_INTERVAL} rows, the conditions are sorted by the
+ * fraction of the rows that passed them, so that the condition rejecting the most rows is evaluated first
+ * and the others are evaluated on fewer rows. The counts are then halved, so that the order follows the data.
+ *
+ * The conditions are specialized evaluators of similar cost, so the order only takes the pass rates into account.
+ *
+ * A ConjunctionOrder is not thread-safe: its counts are updated without synchronization, so every thread that
+ * checks a conjunction uses its own (the worker threads of the relation reader of a scan, the tasks of a parallel
+ * hash join), and adapts its order to the rows it sees.
+ */
+public class ConjunctionOrder {
+
+    public static final int REORDER_INTERVAL = 1024;
+
+    private int[] order;
+    private final long[] tested;
+    private final long[] passed;
+    // the number of rows every condition was evaluated on, and passed, since the counts were last halved
+    private int rowsUntilReorder = REORDER_INTERVAL;
+
+    /**
+     * @param size the number of conditions of the conjunction, evaluated in their initial order first.
+     */
+    public ConjunctionOrder(int size) {
+        this.order = new int[size];
+        for (int i = 0; i < size; i++) this.order[i] = i;
+        this.tested = new long[size];
+        this.passed = new long[size];
+    }
+
+    /**
+     * @return the order in which the conditions are evaluated on the next row, as the indices of the conditions.
+     */
+    public int[] next() {
+        int[] current = this.order;
+        if (current.length > 1 && --this.rowsUntilReorder <= 0) {
+            this.rowsUntilReorder = REORDER_INTERVAL;
+            current = this.reorder();
+        }
+        return current;
+    }
+
+    /**
+     * Record the evaluation of a condition on one row.
+     * @param condition the index of the condition.
+     * @param passed whether the row passed it.
+     */
+    public void record(int condition, boolean passed) {
+        this.tested[condition]++;
+        if (passed) this.passed[condition]++;
+    }
+
+    /**
+     * Record the evaluation of a condition on several rows, e.g. on a batch.
+     * @param condition the index of the condition.
+     * @param tested the number of rows it was evaluated on.
+     * @param passed the number of these rows that passed it.
+     */
+    public void record(int condition, int tested, int passed) {
+        this.tested[condition] += tested;
+        this.passed[condition] += passed;
+    }
+
+    /**
+     * @return the fraction of the rows that passed a condition, 1 if it was not evaluated yet.
+     */
+    public double getPassRate(int condition) {
+        return this.tested[condition] == 0 ? 1.0 : this.passed[condition] / (double) this.tested[condition];
+    }
+
+    /**
+     * Sort the conditions by increasing pass rate (stable, so that conditions of equal rates keep their order),
+     * publish the new order, and halve the counts.
+     */
+    private int[] reorder() {
+        int[] sorted = this.order.clone();
+        double[] rates = new double[sorted.length];
+        for (int i = 0; i < rates.length; i++) rates[i] = this.getPassRate(i);
+        for (int i = 1; i < sorted.length; i++) {
+            int condition = sorted[i];
+            int j = i - 1;
+            while (j >= 0 && rates[sorted[j]] > rates[condition]) {
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = condition;
+        }
+        for (int i = 0; i < sorted.length; i++) {
+            this.tested[i] /= 2;
+            this.passed[i] /= 2;
+        }
+        this.order = sorted;
+        return sorted;
+    }
+
+    @Override
+    public String toString() {
+        double[] rates = new double[this.tested.length];
+        for (int i = 0; i < rates.length; i++) rates[i] = Math.round(this.getPassRate(i) * 1000) / 1000.0;
+        return "ConjunctionOrder{order=" + Arrays.toString(this.order) + ", passRates=" + Arrays.toString(rates) + "}";
+    }
+}
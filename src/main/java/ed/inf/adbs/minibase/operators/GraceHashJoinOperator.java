@@ -0,0 +1,494 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A hybrid Grace hash join, for the equi-joins whose right input may not fit in memory
+ * (see {@link JoinOperator#hasEquality}).
+ *
+ * The first call reads the right child into a {@link JoinHashTable}, like the {@link HashJoinOperator}. While its
+ * tuples fit in the operator memory budget of the {@link DatabaseCatalog}, the left tuples are then streamed and
+ * probe the table. Once they exceed it, both inputs are partitioned by the hash of their join columns into
+ * {@link #FAN_OUT} partitions: the tuples of the right partitions are written to {@link SpillFile}s, except the ones
+ * of the first partition which stay in the table as long as they fit (the resident partition). The left tuples of the
+ * resident partition probe the table straight away, the other ones are written to the left file of their partition
+ * (or dropped if the right partition is empty). Every pair of partition files is then joined in memory in turn.
+ *
+ * A right partition that still does not fit (a skewed partition) is partitioned again, with the hash of the next
+ * level, up to {@link #MAX_DEPTH} levels. If that does not split it (its tuples all share a key), or at the last level,
+ * its right tuples are read in chunks that fit in memory, and the left partition is read once per chunk.
+ * The bytes written to the spill files are recorded in the spill statistics of the catalog.
+ *
+ * The output is the same set of tuples as the one of {@link JoinOperator} (the left columns followed by the kept
+ * right columns); the left tuples come out in the same order as long as nothing is spilled.
+ */
+public class GraceHashJoinOperator extends JoinOperator {
+
+    public static final int PARTITION_BITS = 4;
+    public static final int FAN_OUT = 1 << PARTITION_BITS;
+    public static final int MAX_DEPTH = 4;
+    public static final int MIN_TABLE_ROWS = 1024;
+    // the number of tuples always accepted in memory, so that a tiny memory budget still makes progress
+    private static final int RESIDENT = 0;
+
+    /**
+     * The files of the partitions of one input at one level, created when their first tuple is written.
+     */
+    private static final class Partitions {
+        final SpillFile[] files = new SpillFile[FAN_OUT];
+        final long[] bytes = new long[FAN_OUT];
+        // the estimated in-memory bytes of the tuples of every partition
+
+        void write(int partition, Tuple tuple) {
+            if (this.files[partition] == null) this.files[partition] = new SpillFile("minibase-join");
+            this.files[partition].write(tuple);
+            this.bytes[partition] += tuple.estimateBytes();
+        }
+    }
+
+    /**
+     * A pair of partition files left to join.
+     */
+    private static final class Partition {
+        final SpillFile left;
+        final SpillFile right;
+        final long rightBytes;
+        final int depth;
+
+        Partition(SpillFile left, SpillFile right, long rightBytes, int depth) {
+            this.left = left;
+            this.right = right;
+            this.rightBytes = rightBytes;
+            this.depth = depth;
+        }
+    }
+
+    private final ConjunctionOrder residualOrder;
+    // the order the join conditions other than the equalities are checked in
+
+    private boolean built = false;
+    private boolean partitioned = false;
+    private JoinHashTable table = null;
+    // the right tuples in memory: all of them, the resident partition (null once it is spilled),
+    // or the partition (or the chunk of a partition) being joined
+    private long residentBytes = 0;
+    private Partitions rightPartitions = null;
+    private Partitions leftPartitions = null;
+    // the first level partitions, while the children are partitioned
+    private boolean leftDone = false;
+    // whether all the left tuples are read from the left child
+
+    private final Deque<Partition> pending = new ArrayDeque<>();
+    private Partition current = null;
+    private boolean chunked = false;
+    // the partitions left to join, the one being joined, and whether its right tuples are read in chunks
+
+    private Tuple leftTuple = null;
+    private int match = -1;
+    // the current left tuple, and the row of the last right tuple returned for it (-1 before the first one)
+
+    private long spilledBytes = 0;
+    private int spilledPartitions = 0;
+    private int maxDepth = 0;
+
+    /**
+     * @param leftChild the left child operator, streamed or partitioned.
+     * @param rightChild the right child operator, read into the hash table or partitioned.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     */
+    public GraceHashJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms) {
+        super(leftChild, rightChild, comparisonAtoms);
+        this.residualOrder = new ConjunctionOrder(this.getResidualConditions().size());
+    }
+
+    /**
+     * @return the partition of a join key hash at a partitioning level, from the high bits of a different mix
+     *         of the hash at every level (the low bits choose the slots of the {@link JoinHashTable}).
+     */
+    static int partition(int hash, int depth) {
+        int h = hash ^ (depth * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h >>> (32 - PARTITION_BITS);
+    }
+
+    /**
+     * Build phase: read the right tuples into the hash table, and switch to partitioning once they exceed
+     * the operator memory.
+     */
+    private void build() {
+        long budget = DatabaseCatalog.getInstance().getOperatorMemory();
+        this.table = new JoinHashTable(this.getRightKeys());
+        long bytes = 0;
+        Tuple rightTuple;
+        while ((rightTuple = this.getRightChild().getNextTuple()) != null) {
+            if (this.partitioned) {
+                this.addRight(rightTuple, budget);
+                continue;
+            }
+            this.table.add(rightTuple);
+            bytes += rightTuple.estimateBytes();
+            if (bytes > budget && this.table.size() >= MIN_TABLE_ROWS) {
+                this.partitioned = true;
+                this.rightPartitions = new Partitions();
+                this.leftPartitions = new Partitions();
+                JoinHashTable all = this.table;
+                this.table = new JoinHashTable(this.getRightKeys());
+                for (int row = 0; row < all.size(); row++)
+                    this.addRight(all.getRow(row), budget);
+            }
+        }
+        if (this.partitioned) {
+            this.maxDepth = 1;
+            DatabaseCatalog.getInstance().getSpillStatistics().addPartitioning(1);
+            for (SpillFile file : this.rightPartitions.files)
+                if (file != null) this.finish(file);
+        }
+        this.built = true;
+    }
+
+    /**
+     * Add a right tuple to its first level partition: into the table if it belongs to the resident partition
+     * and the partition still fits, otherwise into its file.
+     */
+    private void addRight(Tuple rightTuple, long budget) {
+        int partition = partition(JoinHashTable.hash(rightTuple, this.getRightKeys()), 0);
+        if (partition != RESIDENT || this.table == null) {
+            this.rightPartitions.write(partition, rightTuple);
+            return;
+        }
+        this.table.add(rightTuple);
+        this.residentBytes += rightTuple.estimateBytes();
+        if (this.residentBytes > budget && this.table.size() >= MIN_TABLE_ROWS) {
+            // the resident partition does not fit either, it is spilled like the other ones
+            for (int row = 0; row < this.table.size(); row++)
+                this.rightPartitions.write(RESIDENT, this.table.getRow(row));
+            this.table = null;
+        }
+    }
+
+    private void finish(SpillFile file) {
+        file.finishWriting();
+        this.spilledBytes += file.getBytes();
+    }
+
+    /**
+     * @return the next left tuple probing the table: from the left child (the ones of the resident partition once
+     *         partitioned, the other ones being written to their partition), then from the left partition file
+     *         being joined; {@code null} when the current source is exhausted.
+     */
+    private Tuple nextProbe() {
+        if (this.current != null) return this.current.left.read("Join");
+        if (this.leftDone) return null;
+        Tuple left;
+        while ((left = this.getLeftChild().getNextTuple()) != null) {
+            if (!this.partitioned) return left;
+            int partition = partition(JoinHashTable.hash(left, this.getLeftKeys()), 0);
+            if (partition == RESIDENT && this.table != null) return left;
+            // the left tuples of an empty right partition have no match
+            if (this.rightPartitions.files[partition] != null) this.leftPartitions.write(partition, left);
+        }
+        this.leftDone = true;
+        if (this.partitioned) {
+            for (int partition = 0; partition < FAN_OUT; partition++) {
+                SpillFile right = this.rightPartitions.files[partition];
+                SpillFile leftFile = this.leftPartitions.files[partition];
+                if (leftFile == null) {
+                    if (right != null) right.close();
+                    continue;
+                }
+                this.finish(leftFile);
+                this.pending.push(new Partition(leftFile, right, this.rightPartitions.bytes[partition], 1));
+            }
+            this.rightPartitions = null;
+            this.leftPartitions = null;
+        }
+        return null;
+    }
+
+    /**
+     * Move to the next table to probe: the next chunk of the partition being joined, or the next partition,
+     * which is loaded into the table if its right tuples fit in memory, and partitioned again otherwise.
+     * @return {@code false} if there is no partition left.
+     */
+    private boolean nextTable() {
+        // the table of a join that fits in memory is kept for a reset
+        if (!this.partitioned) return false;
+        long budget = DatabaseCatalog.getInstance().getOperatorMemory();
+        if (this.current != null && this.chunked && this.loadRight(this.current.right, budget)) {
+            this.current.left.rewind();
+            return true;
+        }
+        this.releaseCurrent();
+        while (!this.pending.isEmpty()) {
+            Partition partition = this.pending.pop();
+            if (partition.rightBytes <= budget || partition.right.getRowCount() < MIN_TABLE_ROWS) {
+                this.current = partition;
+                this.loadRight(partition.right, Long.MAX_VALUE);
+                this.spilledPartitions++;
+                return true;
+            }
+            if (partition.depth < MAX_DEPTH && this.repartition(partition)) continue;
+            // a key whose tuples do not fit in memory: the left partition is read once per chunk of right tuples
+            this.current = partition;
+            this.chunked = true;
+            this.loadRight(partition.right, budget);
+            this.spilledPartitions++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the next right tuples of a partition file into a new table, until they exceed a budget.
+     * @return {@code false} if there was no right tuple left.
+     */
+    private boolean loadRight(SpillFile right, long budget) {
+        this.table = new JoinHashTable(this.getRightKeys());
+        long bytes = 0;
+        Tuple rightTuple;
+        while ((bytes <= budget || this.table.size() < MIN_TABLE_ROWS) && (rightTuple = right.read("Join")) != null) {
+            this.table.add(rightTuple);
+            bytes += rightTuple.estimateBytes();
+        }
+        return this.table.size() > 0;
+    }
+
+    /**
+     * Partition both files of a skewed partition with the hash of the next level.
+     * @return {@code false} if all the right tuples fall in the same partition again, the partition is then kept.
+     */
+    private boolean repartition(Partition partition) {
+        int depth = partition.depth + 1;
+        Partitions right = new Partitions();
+        Tuple tuple;
+        while ((tuple = partition.right.read("Join")) != null)
+            right.write(partition(JoinHashTable.hash(tuple, this.getRightKeys()), depth), tuple);
+        for (int p = 0; p < FAN_OUT; p++) {
+            if (right.files[p] != null && right.files[p].getRowCount() == partition.right.getRowCount()) {
+                right.files[p].close();
+                partition.right.rewind();
+                return false;
+            }
+        }
+        Partitions left = new Partitions();
+        while ((tuple = partition.left.read("Join")) != null) {
+            int p = partition(JoinHashTable.hash(tuple, this.getLeftKeys()), depth);
+            if (right.files[p] != null) left.write(p, tuple);
+        }
+        for (int p = 0; p < FAN_OUT; p++) {
+            if (right.files[p] == null) continue;
+            this.finish(right.files[p]);
+            if (left.files[p] == null) {
+                right.files[p].close();
+                continue;
+            }
+            this.finish(left.files[p]);
+            this.pending.push(new Partition(left.files[p], right.files[p], right.bytes[p], depth));
+        }
+        partition.left.close();
+        partition.right.close();
+        this.maxDepth = Math.max(this.maxDepth, depth);
+        DatabaseCatalog.getInstance().getSpillStatistics().addPartitioning(depth);
+        return true;
+    }
+
+    private void releaseCurrent() {
+        if (this.current != null) {
+            this.current.left.close();
+            this.current.right.close();
+        }
+        this.current = null;
+        this.chunked = false;
+        this.table = null;
+    }
+
+    /**
+     * @return the row of the next right tuple that has the key of the left tuple and satisfies the other join
+     *         conditions, after the row {@code match} (-1 to start from the first one); -1 if there is none left.
+     */
+    private int nextMatch(Tuple left, int match) {
+        int row = match < 0 ? this.table.first(left, this.getLeftKeys()) : this.table.next(match, left, this.getLeftKeys());
+        while (row >= 0 && !this.residualHolds(left, this.table.getRow(row)))
+            row = this.table.next(row, left, this.getLeftKeys());
+        return row;
+    }
+
+    private boolean residualHolds(Tuple left, Tuple right) {
+        for (int condition : this.residualOrder.next()) {
+            boolean passed = this.getResidualConditions().get(condition).check(left, right);
+            this.residualOrder.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Probe phase: pair the current left tuple with its next matching right tuple, moving to the next left tuple
+     * once all its matches are returned, and to the next partition once the current one is done.
+     * @return the right tuple paired with {@link #leftTuple}, or {@code null} if there is no pair left.
+     */
+    private Tuple nextPair() {
+        if (!this.built) this.build();
+        while (true) {
+            if (this.leftTuple != null) {
+                this.match = this.nextMatch(this.leftTuple, this.match);
+                if (this.match >= 0) return this.table.getRow(this.match);
+                this.leftTuple = null;
+            }
+            this.match = -1;
+            this.leftTuple = this.nextProbe();
+            if (this.leftTuple == null && !this.nextTable()) return null;
+        }
+    }
+
+    /**
+     * @return the next joined tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        Tuple rightTuple = this.nextPair();
+        if (rightTuple == null) return null;
+        return Tuple.concat("Join", this.leftTuple, rightTuple, this.getRightKeptColumns());
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the join result is written into the row buffer of the
+     * caller. The left tuples may be written to the partition files, so the children are read with
+     * {@link Operator#getNextTuple()} (copy-on-retain).
+     * @param reuse the row buffer of the caller, overwritten with the next joined tuple.
+     * @return {@code reuse}, or {@code null} if there is no joined tuple left.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        Tuple rightTuple = this.nextPair();
+        if (rightTuple == null) return null;
+        reuse.setConcat(this.leftTuple, rightTuple, this.getRightKeptColumns());
+        return reuse;
+    }
+
+    /**
+     * The batches are filled from {@link #getNextTuple()}, the nested loop over batches of {@link JoinOperator}
+     * is not used.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.fillBatchFromTuples();
+    }
+
+    /**
+     * @return {@code true} if the inputs were partitioned, the right input not fitting in memory.
+     */
+    public boolean isPartitioned() {
+        return this.partitioned;
+    }
+
+    /**
+     * @return the bytes written to the partition files so far.
+     */
+    public long getSpilledBytes() {
+        return this.spilledBytes;
+    }
+
+    /**
+     * @return the number of partitions joined from their files so far.
+     */
+    public int getSpilledPartitions() {
+        return this.spilledPartitions;
+    }
+
+    /**
+     * @return the deepest partitioning level so far, 0 if nothing is partitioned.
+     */
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Restart the join. The hash table of a join that fits in memory is kept (the right child is only reset if it is
+     * not built yet); a partitioned join has consumed its partitions and is run again from both children.
+     */
+    @Override
+    public void reset() {
+        this.getLeftChild().reset();
+        this.leftTuple = null;
+        this.match = -1;
+        this.leftDone = false;
+        if (this.built && !this.partitioned) return;
+        this.getRightChild().reset();
+        this.release();
+    }
+
+    /**
+     * Close both children, and delete the partition files.
+     */
+    @Override
+    public void close() {
+        super.close();
+        this.release();
+        this.leftTuple = null;
+        this.match = -1;
+    }
+
+    private void release() {
+        this.releaseCurrent();
+        while (!this.pending.isEmpty()) {
+            Partition partition = this.pending.pop();
+            partition.left.close();
+            partition.right.close();
+        }
+        for (Partitions partitions : new Partitions[]{this.rightPartitions, this.leftPartitions}) {
+            if (partitions == null) continue;
+            for (SpillFile file : partitions.files)
+                if (file != null) file.close();
+        }
+        this.rightPartitions = null;
+        this.leftPartitions = null;
+        this.built = false;
+        this.partitioned = false;
+        this.residentBytes = 0;
+        this.leftDone = false;
+    }
+
+    /**
+     * Unit test of GraceHashJoinOperator, output is printed to the console.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+
+        // Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u
+        System.out.println("Testing query: Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u");
+        List<Term> queryAtomTerms1 = new ArrayList<>();
+        queryAtomTerms1.add(new Variable("x"));
+        queryAtomTerms1.add(new Variable("y"));
+        queryAtomTerms1.add(new Variable("z"));
+        RelationalAtom queryBodyAtomR = new RelationalAtom("R", queryAtomTerms1);
+        List<Term> queryAtomTerms2 = new ArrayList<>();
+        queryAtomTerms2.add(new Variable("u"));
+        queryAtomTerms2.add(new Variable("w"));
+        queryAtomTerms2.add(new Variable("t"));
+        RelationalAtom queryBodyAtomS = new RelationalAtom("S", queryAtomTerms2);
+        List<ComparisonAtom> compAtomList = new ArrayList<>();
+        compAtomList.add(new ComparisonAtom(new Variable("x"), new Variable("u"), ComparisonOperator.fromString("=")));
+
+        GraceHashJoinOperator joinOp = new GraceHashJoinOperator(
+                new ScanOperator(queryBodyAtomR), new ScanOperator(queryBodyAtomS), compAtomList);
+        joinOp.dump(null);
+        System.out.println("partitioned: " + joinOp.isPartitioned() + ", spilled bytes: " + joinOp.getSpilledBytes());
+        System.out.println("-----------------------------------");
+        joinOp.reset();
+        System.out.println(joinOp.getNextTuple());
+        joinOp.close();
+        System.out.println(dbc.getSpillStatistics());
+    }
+}
@@ -0,0 +1,183 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hash join, for the joins with at least one equality between the left and the right tuples:
+ * a variable shared by the two children, or an '=' {@link ComparisonAtom} between their variables.
+ *
+ * The first call reads the whole right child into a {@link JoinHashTable} keyed by the columns of all these
+ * equalities (build phase), then the left tuples are streamed and each one looks up the right tuples of the same key
+ * (probe phase); the other join conditions are checked on these pairs only. The right child is read once,
+ * instead of once per left tuple by the nested loop {@link JoinOperator}.
+ * The right child is built rather than the left one so that the left-deep plans keep pipelining their left side;
+ * the table is kept across {@link #reset()}, and released by {@link #close()}.
+ *
+ * The output is the same as the one of {@link JoinOperator} (the left columns followed by the kept right columns),
+ * the left tuples come out in the same order.
+ */
+public class HashJoinOperator extends JoinOperator {
+
+    private final ConjunctionOrder residualOrder;
+    // the order the join conditions other than the equalities are checked in
+
+    private JoinHashTable table = null;
+    // the right tuples, null until the first call
+    private Tuple leftTuple = null;
+    private int match = -1;
+    // the current left tuple, and the row of the last right tuple returned for it (-1 before the first one)
+    private Tuple leftBuffer = null;
+    // the row buffer passed to the left child by the buffer-reusing join
+
+    /**
+     * @param leftChild the left child operator, streamed.
+     * @param rightChild the right child operator, read into the hash table.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     */
+    public HashJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms) {
+        super(leftChild, rightChild, comparisonAtoms);
+        this.residualOrder = new ConjunctionOrder(this.getResidualConditions().size());
+    }
+
+    /**
+     * Build phase: read all the right tuples into the hash table.
+     */
+    private void build() {
+        this.table = new JoinHashTable(this.getRightKeys());
+        Tuple rightTuple;
+        while ((rightTuple = this.getRightChild().getNextTuple()) != null)
+            this.table.add(rightTuple);
+    }
+
+    /**
+     * @return the row of the next right tuple that has the key of the left tuple and satisfies the other join
+     *         conditions, after the row {@code match} (-1 to start from the first one); -1 if there is none left.
+     */
+    private int nextMatch(Tuple left, int match) {
+        int row = match < 0 ? this.table.first(left, this.getLeftKeys()) : this.table.next(match, left, this.getLeftKeys());
+        while (row >= 0 && !this.residualHolds(left, this.table.getRow(row)))
+            row = this.table.next(row, left, this.getLeftKeys());
+        return row;
+    }
+
+    private boolean residualHolds(Tuple left, Tuple right) {
+        for (int condition : this.residualOrder.next()) {
+            boolean passed = this.getResidualConditions().get(condition).check(left, right);
+            this.residualOrder.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Probe phase: return the next pair of the current left tuple and a matching right tuple,
+     * moving to the next left tuple once all its matches are returned.
+     * @return the next joined tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (this.table == null) this.build();
+        while (true) {
+            if (this.leftTuple == null) {
+                this.leftTuple = this.getLeftChild().getNextTuple();
+                if (this.leftTuple == null) return null;
+            }
+            this.match = this.nextMatch(this.leftTuple, this.match);
+            if (this.match >= 0)
+                return Tuple.concat("Join", this.leftTuple, this.table.getRow(this.match), this.getRightKeptColumns());
+            this.leftTuple = null;
+        }
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the left child writes into a row buffer of this operator,
+     * and the join result is written into the row buffer of the caller. The right tuples are kept in the table,
+     * so the build phase reads them with {@link Operator#getNextTuple()} (copy-on-retain).
+     * @param reuse the row buffer of the caller, overwritten with the next joined tuple.
+     * @return {@code reuse}, or {@code null} if there is no joined tuple left.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        if (this.table == null) this.build();
+        if (this.leftBuffer == null) this.leftBuffer = new Tuple("Join", this.getLeftChild().getVarList().size());
+        while (true) {
+            if (this.leftTuple == null) {
+                this.leftTuple = this.getLeftChild().getNextTuple(this.leftBuffer);
+                if (this.leftTuple == null) return null;
+            }
+            this.match = this.nextMatch(this.leftTuple, this.match);
+            if (this.match >= 0) {
+                reuse.setConcat(this.leftTuple, this.table.getRow(this.match), this.getRightKeptColumns());
+                return reuse;
+            }
+            this.leftTuple = null;
+        }
+    }
+
+    /**
+     * The batches are filled from {@link #getNextTuple()}, the nested loop over batches of {@link JoinOperator}
+     * is not used.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.fillBatchFromTuples();
+    }
+
+    /**
+     * Reset the probe phase, the hash table is kept (the right child is only reset if it is not built yet).
+     */
+    @Override
+    public void reset() {
+        this.getLeftChild().reset();
+        if (this.table == null) this.getRightChild().reset();
+        this.leftTuple = null;
+        this.match = -1;
+    }
+
+    /**
+     * Close both children, and release the hash table.
+     */
+    @Override
+    public void close() {
+        super.close();
+        this.table = null;
+        this.leftTuple = null;
+        this.match = -1;
+    }
+
+    /**
+     * Unit test of HashJoinOperator, output is printed to the console.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+
+        // Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u
+        System.out.println("Testing query: Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u");
+        List<Term> queryAtomTerms1 = new ArrayList<>();
+        queryAtomTerms1.add(new Variable("x"));
+        queryAtomTerms1.add(new Variable("y"));
+        queryAtomTerms1.add(new Variable("z"));
+        RelationalAtom queryBodyAtomR = new RelationalAtom("R", queryAtomTerms1);
+        List<Term> queryAtomTerms2 = new ArrayList<>();
+        queryAtomTerms2.add(new Variable("u"));
+        queryAtomTerms2.add(new Variable("w"));
+        queryAtomTerms2.add(new Variable("t"));
+        RelationalAtom queryBodyAtomS = new RelationalAtom("S", queryAtomTerms2);
+        List<ComparisonAtom> compAtomList = new ArrayList<>();
+        compAtomList.add(new ComparisonAtom(new Variable("x"), new Variable("u"), ComparisonOperator.fromString("=")));
+
+        HashJoinOperator joinOp = new HashJoinOperator(
+                new ScanOperator(queryBodyAtomR), new ScanOperator(queryBodyAtomS), compAtomList);
+        joinOp.dump(null);
+        System.out.println("-----------------------------------");
+        joinOp.reset();
+        System.out.println(joinOp.getNextTuple());
+        joinOp.close();
+    }
+}
@@ -0,0 +1,238 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An index nested loop join, for a small left input joined on an equality with a relation that has a
+ * {@link BPlusTreeIndex} on the column of the equality (see {@link #findIndex}).
+ *
+ * Instead of reading the whole right relation, every left tuple probes the index with its key,
+ * and only the records found at the returned file offsets are read, through {@link ScanOperator#fetchRecord(long)}
+ * which also checks the scan conditions of the right atom. The other join conditions (the other equalities and the
+ * comparisons) are checked on these pairs. The sequential reader of the right scan is never used and is closed
+ * as soon as the join is built.
+ *
+ * The output is the same as the one of {@link JoinOperator} (the left columns followed by the kept right columns),
+ * the left tuples come out in the same order, and the right tuples of a left tuple in file order.
+ */
+public class IndexNestedLoopJoinOperator extends JoinOperator {
+
+    private final ScanOperator rightScan;
+    private final BPlusTreeIndex index;
+    private final int leftKey;
+    // the column of the left tuples probing the index
+
+    private Tuple leftTuple = null;
+    private long[] matches = null;
+    private int matchPosition = 0;
+    // the current left tuple, the offsets of the records of its key, and the next one to read
+    private Tuple leftBuffer = null;
+    // the row buffer passed to the left child by the buffer-reusing join
+    private long probes = 0;
+    private long fetchedRecords = 0;
+
+    /**
+     * @param leftChild the left child operator, streamed.
+     * @param rightChild the scan of the indexed relation.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     * @param index an index on the relation of the right scan, on the column of one of the equalities of the join.
+     */
+    public IndexNestedLoopJoinOperator(Operator leftChild, ScanOperator rightChild, List<ComparisonAtom> comparisonAtoms,
+                                       BPlusTreeIndex index) {
+        super(leftChild, rightChild, comparisonAtoms);
+        this.rightScan = rightChild;
+        this.index = index;
+        int leftKey = -1;
+        for (int k = 0; k < this.getRightKeys().length && leftKey < 0; k++) {
+            if (rightChild.getOutputColumns()[this.getRightKeys()[k]] == index.getColumn())
+                leftKey = this.getLeftKeys()[k];
+        }
+        if (leftKey < 0)
+            throw new IllegalArgumentException("The index column is not joined on an equality: " + index);
+        this.leftKey = leftKey;
+        rightChild.close();
+    }
+
+    /**
+     * Find an index on the relation of a scan for a join of the scan with a left input, on the column of one of
+     * the equalities of the join: a variable of the scan shared with the left input, or an '=' join condition.
+     * @param left the left input of the join.
+     * @param right the scan of the right relation.
+     * @param comparisonAtoms the explicit join conditions.
+     * @return a usable index (see {@link DatabaseCatalog#getIndex}), or {@code null} if there is none.
+     */
+    public static BPlusTreeIndex findIndex(Operator left, ScanOperator right, List<ComparisonAtom> comparisonAtoms) {
+        List<String> leftVariables = left.getVarList();
+        List<String> rightVariables = right.getVarList();
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        for (int i = 0; i < rightVariables.size(); i++) {
+            String variable = rightVariables.get(i);
+            if (variable == null) continue;
+            boolean joined = leftVariables.contains(variable);
+            for (ComparisonAtom comparisonAtom : comparisonAtoms) {
+                if (joined || comparisonAtom.getOp() != ComparisonOperator.EQ
+                        || !(comparisonAtom.getTerm1() instanceof Variable)
+                        || !(comparisonAtom.getTerm2() instanceof Variable)) continue;
+                String name1 = ((Variable) comparisonAtom.getTerm1()).getName();
+                String name2 = ((Variable) comparisonAtom.getTerm2()).getName();
+                joined = (name1.equals(variable) && leftVariables.contains(name2))
+                        || (name2.equals(variable) && leftVariables.contains(name1));
+            }
+            if (!joined) continue;
+            BPlusTreeIndex index = dbc.getIndex(right.getRelationName(), right.getOutputColumns()[i]);
+            if (index != null) return index;
+        }
+        return null;
+    }
+
+    /**
+     * Probe the index with the key of a left tuple.
+     * @return the file offsets of the right records of the same key.
+     */
+    private long[] probe(Tuple left) {
+        this.probes++;
+        if (left.isString(this.leftKey)) return this.index.lookup(left.getString(this.leftKey));
+        return this.index.lookup(left.getInt(this.leftKey));
+    }
+
+    /**
+     * @return the next right tuple of the current left tuple that satisfies the scan conditions of the right atom and
+     *         all the join conditions, {@code null} once its records are all read.
+     */
+    private Tuple nextMatch() {
+        while (this.matchPosition < this.matches.length) {
+            Tuple rightTuple = this.rightScan.fetchRecord(this.matches[this.matchPosition++]);
+            this.fetchedRecords++;
+            if (rightTuple != null && this.matches(this.leftTuple, rightTuple)) return rightTuple;
+        }
+        return null;
+    }
+
+    /**
+     * @return the next joined tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        while (true) {
+            if (this.leftTuple == null) {
+                this.leftTuple = this.getLeftChild().getNextTuple();
+                if (this.leftTuple == null) return null;
+                this.matches = this.probe(this.leftTuple);
+                this.matchPosition = 0;
+            }
+            Tuple rightTuple = this.nextMatch();
+            if (rightTuple != null)
+                return Tuple.concat("Join", this.leftTuple, rightTuple, this.getRightKeptColumns());
+            this.leftTuple = null;
+        }
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the left child writes into a row buffer of this operator,
+     * and the join result is written into the row buffer of the caller.
+     * @param reuse the row buffer of the caller, overwritten with the next joined tuple.
+     * @return {@code reuse}, or {@code null} if there is no joined tuple left.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        if (this.leftBuffer == null) this.leftBuffer = new Tuple("Join", this.getLeftChild().getVarList().size());
+        while (true) {
+            if (this.leftTuple == null) {
+                this.leftTuple = this.getLeftChild().getNextTuple(this.leftBuffer);
+                if (this.leftTuple == null) return null;
+                this.matches = this.probe(this.leftTuple);
+                this.matchPosition = 0;
+            }
+            Tuple rightTuple = this.nextMatch();
+            if (rightTuple != null) {
+                reuse.setConcat(this.leftTuple, rightTuple, this.getRightKeptColumns());
+                return reuse;
+            }
+            this.leftTuple = null;
+        }
+    }
+
+    /**
+     * The batches are filled from {@link #getNextTuple()}, the nested loop over batches of {@link JoinOperator}
+     * is not used.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.fillBatchFromTuples();
+    }
+
+    /**
+     * @return the number of index probes so far, one per left tuple.
+     */
+    public long getProbes() {
+        return this.probes;
+    }
+
+    /**
+     * @return the number of right records read so far.
+     */
+    public long getFetchedRecords() {
+        return this.fetchedRecords;
+    }
+
+    /**
+     * Reset the left child, the right relation is only read through the index.
+     */
+    @Override
+    public void reset() {
+        this.getLeftChild().reset();
+        this.leftTuple = null;
+        this.matches = null;
+    }
+
+    /**
+     * Unit test of IndexNestedLoopJoinOperator, output is printed to the console.
+     * The index on the first column of S is built first.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+        BPlusTreeIndex index;
+        try {
+            index = BPlusTreeIndexBuilder.build(dbc, "S", 0);
+        } catch (IOException e) {
+            System.out.println("Failed to build the index of S");
+            e.printStackTrace();
+            return;
+        }
+        System.out.println(index);
+
+        // Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u
+        System.out.println("Testing query: Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u");
+        List<Term> queryAtomTerms1 = new ArrayList<>();
+        queryAtomTerms1.add(new Variable("x"));
+        queryAtomTerms1.add(new Variable("y"));
+        queryAtomTerms1.add(new Variable("z"));
+        RelationalAtom queryBodyAtomR = new RelationalAtom("R", queryAtomTerms1);
+        List<Term> queryAtomTerms2 = new ArrayList<>();
+        queryAtomTerms2.add(new Variable("u"));
+        queryAtomTerms2.add(new Variable("w"));
+        queryAtomTerms2.add(new Variable("t"));
+        RelationalAtom queryBodyAtomS = new RelationalAtom("S", queryAtomTerms2);
+        List<ComparisonAtom> compAtomList = new ArrayList<>();
+        compAtomList.add(new ComparisonAtom(new Variable("x"), new Variable("u"), ComparisonOperator.fromString("=")));
+
+        IndexNestedLoopJoinOperator joinOp = new IndexNestedLoopJoinOperator(
+                new ScanOperator(queryBodyAtomR), new ScanOperator(queryBodyAtomS), compAtomList, index);
+        joinOp.dump(null);
+        System.out.println("probes: " + joinOp.getProbes() + ", fetched records: " + joinOp.getFetchedRecords());
+        System.out.println("-----------------------------------");
+        joinOp.reset();
+        System.out.println(joinOp.getNextTuple());
+        joinOp.close();
+        if (!new File(dbc.getIndexPath("S", 0)).delete())
+            System.out.println("Failed to delete the index of S");
+    }
+}
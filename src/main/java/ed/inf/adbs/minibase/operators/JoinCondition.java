@@ -1,9 +1,12 @@
 package ed.inf.adbs.minibase.operators;
 
 import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
 import ed.inf.adbs.minibase.dbhelper.Tuple;
+import ed.inf.adbs.minibase.dbhelper.TupleBatch;
 
 import java.util.List;
+import java.util.function.BiPredicate;
 
 /**
  * This class contains the implementation for converting a ComparisonAtom into a condition instance
@@ -11,9 +14,11 @@ import java.util.List;
  * The two operands of input ComparisonAtom to this class can be both Variable instances.
  * Note: If a comparison atom only contain one variable, then instead of JoinOperator it must be a select condition that should be
  * processed in SelectOperator.
+ * The condition is compiled when the plan is built into an evaluator specialized for the types of its operands,
+ * see {@link #check(Tuple, Tuple)}.
  */
 public class JoinCondition {
-    private String op; //operator
+    private ComparisonOperator op; //operator
     private boolean reverseOrder = false;
     /* Suppose ComparisonAtom represents a predicate: term1 op term2
        reverseOrder is false if (term1 in leftTuple) && (term2 in rightTuple) i.e the tuple order matches operand order
@@ -21,17 +26,22 @@ public class JoinCondition {
     */
     private int index1; // index of operand1 in corresponding tuple (either left or right tuple depends on reverseOrder)
     private int index2; // index of operand2 in corresponding tuple
+    private final BiPredicate<Tuple, Tuple> evaluator;
 
     /**
      * Constructor to initialise JoinCondition.
      * This extracts the indices of two variable operands from the corresponding tuple.
      * reverseOrder flag will be set if Order between operands and between the tuples they appeared are opposite.
+     * Then the condition is compiled into its evaluator, given the types of the operand columns.
      * @param compAtom the comparison atom
      * @param leftVarList
      * @param rightVarList
+     * @param leftIntColumns the column types of the left tuples: true for 'int', false for 'string'
+     * @param rightIntColumns the column types of the right tuples
      */
-    public JoinCondition(ComparisonAtom compAtom, List<String> leftVarList, List<String> rightVarList) {
-        this.op = compAtom.getOp().toString();
+    public JoinCondition(ComparisonAtom compAtom, List<String> leftVarList, List<String> rightVarList,
+                         List<Boolean> leftIntColumns, List<Boolean> rightIntColumns) {
+        this.op = compAtom.getOp();
         if (leftVarList.contains(((Variable) compAtom.getTerm1()).getName()) ) {
             // if the left relation contains the first operand, the order remain the same
             this.index1 = leftVarList.indexOf(((Variable) compAtom.getTerm1()).getName());
@@ -42,54 +52,104 @@ public class JoinCondition {
             this.index1 = rightVarList.indexOf(((Variable) compAtom.getTerm1()).getName());
             this.index2 = leftVarList.indexOf(((Variable) compAtom.getTerm2()).getName());
         }
+        this.evaluator = this.compileEvaluator(leftIntColumns, rightIntColumns,
+                DatabaseCatalog.getInstance().getStringDictionary() != null);
+    }
+
+    /**
+     * @return {@code true} if the condition is an equality, which a hash join can use as a key.
+     */
+    boolean isEquality() {
+        return this.op == ComparisonOperator.EQ;
+    }
+
+    /**
+     * @return the index of the operand in the left tuples.
+     */
+    int getLeftIndex() {
+        return this.reverseOrder ? this.index2 : this.index1;
+    }
+
+    /**
+     * @return the index of the operand in the right tuples.
+     */
+    int getRightIndex() {
+        return this.reverseOrder ? this.index1 : this.index2;
+    }
+
+    /**
+     * Build the evaluator of the condition, specialized for the types of its operands.
+     * The reverseOrder flag is resolved here: the condition is turned into "left operand op' right operand".
+     * Ints and strings encoded with the dictionary are compared on the int slots of the tuples, the other strings
+     * with {@link Tuple#compareStrings}, in the order of the codes.
+     * @param encoded whether the strings of the tuples are encoded.
+     */
+    private BiPredicate<Tuple, Tuple> compileEvaluator(List<Boolean> leftIntColumns, List<Boolean> rightIntColumns,
+                                                       boolean encoded) {
+        int leftIndex = this.getLeftIndex();
+        int rightIndex = this.getRightIndex();
+        ComparisonOperator op = this.reverseOrder ? this.op.reverse() : this.op;
+        boolean isInt = leftIntColumns.get(leftIndex);
+        if (isInt != rightIntColumns.get(rightIndex)) {
+            boolean result = op == ComparisonOperator.NEQ;
+            return (leftTuple, rightTuple) -> result;
+        }
+        if (isInt || encoded) {
+            if (op == ComparisonOperator.EQ)
+                return (leftTuple, rightTuple) -> leftTuple.getInt(leftIndex) == rightTuple.getInt(rightIndex);
+            return (leftTuple, rightTuple) -> op.holds(leftTuple.getInt(leftIndex), rightTuple.getInt(rightIndex));
+        }
+        if (op == ComparisonOperator.EQ)
+            return (leftTuple, rightTuple) -> leftTuple.getString(leftIndex).equals(rightTuple.getString(rightIndex));
+        return (leftTuple, rightTuple) ->
+                op.holds(Tuple.compareStrings(leftTuple.getString(leftIndex), rightTuple.getString(rightIndex)));
     }
 
     /**
      * Method to check whether two input tuples satisfy the join condition.
      * Operands from the input tuples are extracted and then
      * depending on the state of reverseOrder flag, the order of these two operand may be reversed.
-     * Then join conditions are checked on these extracted operands.
+     * Then join conditions are checked on these extracted operands, straight on the primitive slots of the tuples,
+     * by the evaluator compiled for the condition (which resolves the order when it is built).
+     * An int operand never equals a string operand, and is neither less nor greater than it.
      * @param leftTuple tuple from the left child operator of Join Operator.
      * @param rightTuple tuple from the right child operator of Join Operator.
      * @return {@code true} if join condition is satisfied on these two tuples; {@code false} otherwise
      */
     public boolean check(Tuple leftTuple, Tuple rightTuple) {
-        Term operand1;
-        Term operand2;
-        // Extract operand from input tuples, order of operands depends on the reverseOrder flag
-        if (!reverseOrder) {
-            operand1 = leftTuple.getTerms().get(this.index1);
-            operand2 = rightTuple.getTerms().get(this.index2);
-        } else {
-            operand1 = rightTuple.getTerms().get(this.index1);
-            operand2 = leftTuple.getTerms().get(this.index2);
-        }
+        return this.evaluator.test(leftTuple, rightTuple);
+    }
+
+    /**
+     * Method to check whether a row of a left batch and a row of a right batch satisfy the join condition,
+     * the batch version of {@link #check(Tuple, Tuple)}.
+     * @param leftBatch batch from the left child operator of Join Operator.
+     * @param leftRow the row in the left batch.
+     * @param rightBatch batch from the right child operator of Join Operator.
+     * @param rightRow the row in the right batch.
+     * @return {@code true} if join condition is satisfied on these two rows; {@code false} otherwise
+     */
+    public boolean check(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+        TupleBatch batch1 = this.reverseOrder ? rightBatch : leftBatch;
+        int row1 = this.reverseOrder ? rightRow : leftRow;
+        TupleBatch batch2 = this.reverseOrder ? leftBatch : rightBatch;
+        int row2 = this.reverseOrder ? leftRow : rightRow;
 
-        // Check the join condition on extracted operands
+        if (batch1.isString(this.index1, row1) != batch2.isString(this.index2, row2))
+            return this.op == ComparisonOperator.NEQ;
+        return this.op.holds(batch1.compareValue(this.index1, row1, batch2, this.index2, row2));
+    }
 
-        if (this.op.equals("=")) {
-            return operand1.equals(operand2);
-        } else if (this.op.equals("!=")) {
-            return (!operand1.equals(operand2));
-        } else if (this.op.equals(">")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() > ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) > 0;
-        } else if (this.op.equals(">=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() >= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) >= 0;
-        } else if (this.op.equals("<")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() < ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) < 0;
-        } else if (this.op.equals("<=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() <= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) <= 0;
-        } else {
-            System.out.println("None of the if branches were evoked in the Selection Operator!");
-            return false;
-        }
+    /**
+     * Generate the Java expression of the join condition on a left and a right row of a compiled pipeline,
+     * for {@link PlanCompiler}.
+     * @param leftColumns the expressions of the values of the left row.
+     * @param rightColumns the expressions of the values of the right row.
+     * @return a boolean expression.
+     */
+    String compile(List<PlanCompiler.Column> leftColumns, List<PlanCompiler.Column> rightColumns) {
+        List<PlanCompiler.Column> columns1 = this.reverseOrder ? rightColumns : leftColumns;
+        List<PlanCompiler.Column> columns2 = this.reverseOrder ? leftColumns : rightColumns;
+        return PlanCompiler.comparison(this.op, columns1.get(this.index1), columns2.get(this.index2));
     }
 }
@@ -6,6 +6,7 @@ import ed.inf.adbs.minibase.dbhelper.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * This class contains the implementation for applying tuple nested loop JOIN operation on the output tuple sets
@@ -24,6 +25,8 @@ public class JoinOperator extends Operator {
     private Operator rightChild;
 
     private List<JoinCondition> conditions = new ArrayList<>();
+    private final ConjunctionOrder conditionOrder;
+    // the order the explicit join conditions are checked in, the most selective first
 
     private HashMap<Integer, Integer> joinConditionIndices = new HashMap<>();
     // a map from variable index in left tuples to index in right tuples that represents the same variable
@@ -32,9 +35,31 @@ public class JoinOperator extends Operator {
     private List<Integer> rightDuplicateColumns = new ArrayList<>();
     // the columns in right child to be removed (due to inner join / duplicates with columns in left child)
 
+    private final int[] leftJoinIndices;
+    private final int[] rightJoinIndices;
+    // the pairs of joinConditionIndices as arrays, checked for every combination of tuples
+    private final int[] rightKeptColumns;
+    // the columns in right child appended to the left tuple in the join result
+    private final int[] leftKeys;
+    private final int[] rightKeys;
+    private final List<JoinCondition> residualConditions = new ArrayList<>();
+    // the join conditions split for the equi-joins: the columns of all the equalities (the shared variables, then the
+    // '=' join conditions) and the other join conditions, checked on the pairs of tuples with equal keys
+
     private Tuple leftTuple = null;
     // the current being checked output tuple of left child
 
+    private Tuple leftBuffer = null;
+    private Tuple rightBuffer = null;
+    // the row buffers passed to the child operators by the buffer-reusing join
+
+    private TupleBatch leftBatch = null;
+    private TupleBatch rightBatch = null;
+    private int leftPosition = 0;
+    private int rightPosition = 0;
+    // the state of the vectorized join: the current pair of child batches, and the next pair of rows to be checked
+    private TupleBatch outputBatch = null;
+
     /**
      * Constructor to initialise the JoinOperator:
      *
@@ -58,7 +83,9 @@ public class JoinOperator extends Operator {
         List<String> rightvarList = rightChild.getVarList();
 
         for (ComparisonAtom compAtom : comparisonAtoms)
-            this.conditions.add(new JoinCondition(compAtom, leftvarList, rightvarList));
+            this.conditions.add(new JoinCondition(compAtom, leftvarList, rightvarList,
+                    leftChild.getIntColumns(), rightChild.getIntColumns()));
+        this.conditionOrder = new ConjunctionOrder(this.conditions.size());
 
         // Find if the right relation contains some variables that also appear in left relation.
         // These identical variable pairs indicate some inner join conditions.
@@ -78,6 +105,54 @@ public class JoinOperator extends Operator {
                     this.varList.add(rightVar);
             }
         }
+
+        this.leftJoinIndices = new int[this.joinConditionIndices.size()];
+        this.rightJoinIndices = new int[this.joinConditionIndices.size()];
+        int pair = 0;
+        for (Integer leftIndex : this.joinConditionIndices.keySet()) {
+            this.leftJoinIndices[pair] = leftIndex;
+            this.rightJoinIndices[pair] = this.joinConditionIndices.get(leftIndex);
+            pair++;
+        }
+        this.rightKeptColumns = IntStream.range(0, rightvarList.size())
+                .filter(i -> !this.rightDuplicateColumns.contains(i)).toArray();
+        this.intColumns.addAll(leftChild.getIntColumns());
+        for (int column : this.rightKeptColumns)
+            this.intColumns.add(rightChild.getIntColumns().get(column));
+
+        List<Integer> leftKeys = new ArrayList<>();
+        List<Integer> rightKeys = new ArrayList<>();
+        for (int i = 0; i < this.leftJoinIndices.length; i++) {
+            leftKeys.add(this.leftJoinIndices[i]);
+            rightKeys.add(this.rightJoinIndices[i]);
+        }
+        for (JoinCondition condition : this.conditions) {
+            if (condition.isEquality()) {
+                leftKeys.add(condition.getLeftIndex());
+                rightKeys.add(condition.getRightIndex());
+            } else {
+                this.residualConditions.add(condition);
+            }
+        }
+        this.leftKeys = leftKeys.stream().mapToInt(Integer::intValue).toArray();
+        this.rightKeys = rightKeys.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Check whether a list of join conditions holds an equality, with which an equi-join operator
+     * ({@link HashJoinOperator}, {@link SortMergeJoinOperator}) can be used.
+     * @param leftVariables the variables of the left child.
+     * @param rightVariables the variables of the right child.
+     * @param comparisonAtoms the explicit join conditions.
+     * @return {@code true} if the children share a variable, or a join condition is an '='.
+     */
+    public static boolean hasEquality(List<String> leftVariables, List<String> rightVariables,
+                                      List<ComparisonAtom> comparisonAtoms) {
+        for (String variable : rightVariables)
+            if (variable != null && leftVariables.contains(variable)) return true;
+        for (ComparisonAtom comparisonAtom : comparisonAtoms)
+            if (comparisonAtom.getOp() == ComparisonOperator.EQ) return true;
+        return false;
     }
 
     /**
@@ -88,6 +163,66 @@ public class JoinOperator extends Operator {
         this.leftChild.reset();
         this.rightChild.reset();
         this.leftTuple = null;
+        this.leftBatch = null;
+        this.rightBatch = null;
+    }
+
+    @Override
+    public void close() {
+        this.leftChild.close();
+        this.rightChild.close();
+    }
+
+    // accessors used by the PlanCompiler
+
+    Operator getLeftChild() {
+        return this.leftChild;
+    }
+
+    Operator getRightChild() {
+        return this.rightChild;
+    }
+
+    int[] getLeftJoinIndices() {
+        return this.leftJoinIndices;
+    }
+
+    int[] getRightJoinIndices() {
+        return this.rightJoinIndices;
+    }
+
+    int[] getRightKeptColumns() {
+        return this.rightKeptColumns;
+    }
+
+    /**
+     * @return the join conditions other than the equalities of {@link #getLeftJoinIndices()}.
+     */
+    List<JoinCondition> getConditions() {
+        return this.conditions;
+    }
+
+    // accessors used by the equi-join operators
+
+    /**
+     * @return the left columns of all the equalities: the shared variables, then the '=' join conditions.
+     */
+    int[] getLeftKeys() {
+        return this.leftKeys;
+    }
+
+    /**
+     * @return the right columns matching {@link #getLeftKeys()}, in the same order.
+     */
+    int[] getRightKeys() {
+        return this.rightKeys;
+    }
+
+    /**
+     * @return the join conditions other than the equalities of {@link #getLeftKeys()}.
+     */
+    List<JoinCondition> getResidualConditions() {
+        return this.residualConditions;
     }
 
     /**
@@ -105,38 +240,10 @@ public class JoinOperator extends Operator {
             // For a tuple in outer loop, iterate over the tuples in the inner loop
             Tuple rightTuple = this.rightChild.getNextTuple();
             while (rightTuple != null) {
-
-                boolean pass = true;
-                // check the inner join conditions provided by same variable names in two query atoms
-                for (Integer leftIndex : this.joinConditionIndices.keySet()) {
-                    int rightIndex = this.joinConditionIndices.get(leftIndex);
-                    if (!this.leftTuple.getTerms().get(leftIndex).equals(rightTuple.getTerms().get(rightIndex))) {
-                        pass = false;
-                        break;
-                    }
-                }
-                // check the join conditions provided by extra ComparisonAtom, and involves different variables
-                if (pass) {
-                    for (JoinCondition condition : this.conditions) {
-                        if (!condition.check(this.leftTuple, rightTuple)) {
-                            pass = false;
-                            break;
-                        }
-                    }
-                }
-
                 // If all join conditions are satisfied, construct a new Tuple instance as join result
-                if (pass) {
-                    List<Term> joinTermList = new ArrayList<>();
+                if (this.matches(this.leftTuple, rightTuple)) {
                     // the join result contains all columns in left tuple, and the non-duplicate columns in right tuple
-                    for (Term leftTerm : this.leftTuple.getTerms())
-                        joinTermList.add(leftTerm);
-                    for (int i = 0; i < rightTuple.getTerms().size(); i++) {
-                        if (!this.rightDuplicateColumns.contains(i)) {
-                            joinTermList.add(rightTuple.getTerms().get(i));
-                        }
-                    }
-                    return new Tuple("Join", joinTermList);
+                    return Tuple.concat("Join", this.leftTuple, rightTuple, this.rightKeptColumns);
                 }
 
                 // Otherwise, check the next right tuple
@@ -150,6 +257,117 @@ public class JoinOperator extends Operator {
         return null;
     }
 
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the children write their tuples into two row buffers
+     * owned by this operator, and the join result is written into the row buffer of the caller.
+     * The left tuple is kept across calls without a copy, since only this operator writes into its buffer.
+     * @param reuse the row buffer of the caller, overwritten with the next joined tuple.
+     * @return {@code reuse}, or {@code null} if there is no joined tuple left.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        if (this.leftBuffer == null) {
+            this.leftBuffer = new Tuple("Join", this.leftChild.getVarList().size());
+            this.rightBuffer = new Tuple("Join", this.rightChild.getVarList().size());
+        }
+        if (this.leftTuple == null) { this.leftTuple = this.leftChild.getNextTuple(this.leftBuffer); }
+        while (this.leftTuple != null) {
+            Tuple rightTuple = this.rightChild.getNextTuple(this.rightBuffer);
+            while (rightTuple != null) {
+                if (this.matches(this.leftTuple, rightTuple)) {
+                    reuse.setConcat(this.leftTuple, rightTuple, this.rightKeptColumns);
+                    return reuse;
+                }
+                rightTuple = this.rightChild.getNextTuple(this.rightBuffer);
+            }
+            this.rightChild.reset();
+            this.leftTuple = this.leftChild.getNextTuple(this.leftBuffer);
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a left tuple and a right tuple satisfy all the join conditions.
+     */
+    boolean matches(Tuple leftTuple, Tuple rightTuple) {
+        // check the inner join conditions provided by same variable names in two query atoms
+        for (int i = 0; i < this.leftJoinIndices.length; i++) {
+            if (!leftTuple.valueEquals(this.leftJoinIndices[i], rightTuple, this.rightJoinIndices[i]))
+                return false;
+        }
+        // check the join conditions provided by extra ComparisonAtom, and involves different variables
+        for (int condition : this.conditionOrder.next()) {
+            boolean passed = this.conditions.get(condition).check(leftTuple, rightTuple);
+            this.conditionOrder.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * This method is the vectorized version of {@link #getNextTuple()}, a nested loop over batches:
+     * - The outer loop is on the batches of the left child, the right child is reset once per left batch
+     *   instead of once per left tuple.
+     * - For a pair of left and right batches, every selected left row is checked against every selected right row,
+     *   the rows that satisfy all the join conditions are appended to the output batch.
+     * When the output batch is full, the position in the pair of batches is kept for the next call.
+     * @return the next batch of joined rows, or {@code null} if there is none left.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.outputBatch == null)
+            this.outputBatch = new TupleBatch(this.leftChild.getVarList().size() + this.rightKeptColumns.length);
+        this.outputBatch.clear();
+        if (this.leftBatch == null) {
+            this.leftBatch = this.leftChild.getNextBatch();
+            this.rightBatch = null;
+        }
+        while (this.leftBatch != null) {
+            if (this.rightBatch == null) {
+                this.rightBatch = this.rightChild.getNextBatch();
+                this.leftPosition = 0;
+                this.rightPosition = 0;
+            }
+            while (this.rightBatch != null) {
+                for (; this.leftPosition < this.leftBatch.size(); this.leftPosition++) {
+                    int leftRow = this.leftBatch.getRow(this.leftPosition);
+                    for (; this.rightPosition < this.rightBatch.size(); this.rightPosition++) {
+                        if (this.outputBatch.isFull()) return this.outputBatch;
+                        int rightRow = this.rightBatch.getRow(this.rightPosition);
+                        if (this.matches(leftRow, rightRow))
+                            this.outputBatch.appendConcat(this.leftBatch, leftRow, this.rightBatch, rightRow,
+                                    this.rightKeptColumns);
+                    }
+                    this.rightPosition = 0;
+                }
+                this.rightBatch = this.rightChild.getNextBatch();
+                this.leftPosition = 0;
+            }
+            // restart the inner loop from the beginning for the next left batch
+            this.rightChild.reset();
+            this.leftBatch = this.leftChild.getNextBatch();
+        }
+        return this.outputBatch.size() > 0 ? this.outputBatch : null;
+    }
+
+    /**
+     * Check the inner join conditions and the explicit join conditions on a row of the current left batch
+     * and a row of the current right batch.
+     */
+    private boolean matches(int leftRow, int rightRow) {
+        for (int i = 0; i < this.leftJoinIndices.length; i++) {
+            if (!this.leftBatch.valueEquals(this.leftJoinIndices[i], leftRow,
+                    this.rightBatch, this.rightJoinIndices[i], rightRow))
+                return false;
+        }
+        for (int condition : this.conditionOrder.next()) {
+            boolean passed = this.conditions.get(condition).check(this.leftBatch, leftRow, this.rightBatch, rightRow);
+            this.conditionOrder.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
+    }
+
     /**
      * Unit test of JoinOperator, output is printed to the console.
      * @param args Command line inputs, can be empty.
@@ -0,0 +1,390 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A worst-case optimal multi-way join (leapfrog triejoin), for the cyclic queries such as the triangle
+ * R(x, y), S(y, z), T(z, x), on which every left-deep plan of binary joins builds intermediate results much larger
+ * than the output.
+ *
+ * All the children are joined at once, one join variable (a variable shared by several children) at a time,
+ * in a global variable order. The first call reads every child into a {@link TrieIterator}, sorted by its join
+ * variables in that order. The values of a variable are then found by a leapfrog search over the tries of the
+ * children containing it: the trie with the smallest key seeks the largest key of the others, until they all agree
+ * on a value; for each value the next variable is searched among the tuples matching the values bound so far.
+ * Once all the join variables are bound, the tuples of every child matching these values are combined (their other
+ * columns are the variables of that child only).
+ *
+ * The output tuples hold the join variables in the variable order, then the other columns of every child in order.
+ * The conditions between the variables of several children are not checked here, but by a {@link SelectOperator}
+ * above the join. The children are materialized in memory; the tries are kept across {@link #reset()},
+ * and released by {@link #close()}.
+ */
+public class LeapfrogTriejoinOperator extends Operator {
+
+    private final List<Operator> children;
+    private final int variableCount;
+    // the number of join variables
+    private final int[][] levelColumns;
+    // for every child, the column of each of its join variables, in the variable order
+    private final int[][] participants;
+    // for every join variable, the children containing it
+    private final int[][] otherColumns;
+    // for every child, its columns that are not join variables
+    private final int[] sourceChild;
+    private final int[] sourceColumn;
+    // for every join variable, the child and the column its value is read from
+
+    private TrieIterator[] tries = null;
+    // the children, null until the first call
+    private TrieIterator[][] iterators;
+    private int[] leader;
+    // for every join variable, the tries of the children containing it (sorted by key by the leapfrog search),
+    // and the one the search is at
+    private int depth = 0;
+    private boolean started = false;
+    private boolean finished = false;
+    // the join variable being searched, and the state of the search
+    private boolean combining = false;
+    private int[] start;
+    private int[] end;
+    private int[] current;
+    // for every child, the tuples matching the bound values, and the one of the current combination
+    private long bindings = 0;
+
+    /**
+     * @param children the children to join, none of them may hold a variable twice.
+     */
+    public LeapfrogTriejoinOperator(List<Operator> children) {
+        this.children = children;
+
+        // the join variables, the ones shared by the most children first
+        List<String> variables = new ArrayList<>();
+        List<Integer> occurrences = new ArrayList<>();
+        for (Operator child : children) {
+            for (String variable : child.getVarList()) {
+                int index = variables.indexOf(variable);
+                if (index < 0) {
+                    variables.add(variable);
+                    occurrences.add(1);
+                } else {
+                    occurrences.set(index, occurrences.get(index) + 1);
+                }
+            }
+        }
+        List<String> joinVariables = new ArrayList<>();
+        for (int i = 0; i < variables.size(); i++)
+            if (occurrences.get(i) > 1) joinVariables.add(variables.get(i));
+        joinVariables.sort((a, b) -> occurrences.get(variables.indexOf(b)) - occurrences.get(variables.indexOf(a)));
+        this.variableCount = joinVariables.size();
+
+        this.levelColumns = new int[children.size()][];
+        this.otherColumns = new int[children.size()][];
+        this.participants = new int[this.variableCount][];
+        this.sourceChild = new int[this.variableCount];
+        this.sourceColumn = new int[this.variableCount];
+        List<List<Integer>> participantLists = new ArrayList<>();
+        for (int v = 0; v < this.variableCount; v++) participantLists.add(new ArrayList<>());
+        for (int c = 0; c < children.size(); c++) {
+            List<String> childVariables = children.get(c).getVarList();
+            List<Integer> levels = new ArrayList<>();
+            for (int v = 0; v < this.variableCount; v++) {
+                int column = childVariables.indexOf(joinVariables.get(v));
+                if (column < 0) continue;
+                if (participantLists.get(v).isEmpty()) {
+                    this.sourceChild[v] = c;
+                    this.sourceColumn[v] = column;
+                }
+                participantLists.get(v).add(c);
+                levels.add(column);
+            }
+            this.levelColumns[c] = levels.stream().mapToInt(Integer::intValue).toArray();
+            List<Integer> others = new ArrayList<>();
+            for (int column = 0; column < childVariables.size(); column++)
+                if (!joinVariables.contains(childVariables.get(column))) others.add(column);
+            this.otherColumns[c] = others.stream().mapToInt(Integer::intValue).toArray();
+        }
+        for (int v = 0; v < this.variableCount; v++)
+            this.participants[v] = participantLists.get(v).stream().mapToInt(Integer::intValue).toArray();
+
+        for (int v = 0; v < this.variableCount; v++) {
+            this.varList.add(joinVariables.get(v));
+            this.intColumns.add(children.get(this.sourceChild[v]).getIntColumns().get(this.sourceColumn[v]));
+        }
+        for (int c = 0; c < children.size(); c++) {
+            for (int column : this.otherColumns[c]) {
+                this.varList.add(children.get(c).getVarList().get(column));
+                this.intColumns.add(children.get(c).getIntColumns().get(column));
+            }
+        }
+    }
+
+    /**
+     * Read every child into its trie.
+     */
+    private void buildTries() {
+        this.tries = new TrieIterator[this.children.size()];
+        for (int c = 0; c < this.children.size(); c++) {
+            List<Tuple> tuples = new ArrayList<>();
+            Tuple tuple;
+            while ((tuple = this.children.get(c).getNextTuple()) != null)
+                tuples.add(tuple);
+            this.tries[c] = new TrieIterator(tuples, this.levelColumns[c]);
+        }
+        this.iterators = new TrieIterator[this.variableCount][];
+        this.leader = new int[this.variableCount];
+        for (int v = 0; v < this.variableCount; v++) {
+            this.iterators[v] = new TrieIterator[this.participants[v].length];
+            for (int i = 0; i < this.participants[v].length; i++)
+                this.iterators[v][i] = this.tries[this.participants[v][i]];
+        }
+        this.start = new int[this.children.size()];
+        this.end = new int[this.children.size()];
+        this.current = new int[this.children.size()];
+    }
+
+    /**
+     * Move to the next binding of all the join variables, in the variable order.
+     * @return {@code false} if there is none left.
+     */
+    private boolean nextBinding() {
+        if (this.finished) return false;
+        boolean descending;
+        if (!this.started) {
+            this.started = true;
+            for (TrieIterator trie : this.tries)
+                if (trie.size() == 0) return this.finish();
+            this.depth = 0;
+            descending = true;
+        } else {
+            // the last binding was found at the deepest variable
+            if (this.variableCount == 0) return this.finish();
+            this.depth = this.variableCount - 1;
+            descending = false;
+        }
+        while (true) {
+            boolean found;
+            if (descending) {
+                if (this.depth == this.variableCount) {
+                    this.bindings++;
+                    return true;
+                }
+                for (TrieIterator iterator : this.iterators[this.depth]) iterator.open();
+                found = this.leapfrogInit(this.depth);
+            } else {
+                found = this.leapfrogNext(this.depth);
+            }
+            if (found) {
+                this.depth++;
+                descending = true;
+            } else {
+                for (TrieIterator iterator : this.iterators[this.depth]) iterator.up();
+                if (this.depth == 0) return this.finish();
+                this.depth--;
+                descending = false;
+            }
+        }
+    }
+
+    private boolean finish() {
+        this.finished = true;
+        return false;
+    }
+
+    /**
+     * Start the search of a variable: sort its tries by their first key, and search the first common key.
+     */
+    private boolean leapfrogInit(int variable) {
+        TrieIterator[] tries = this.iterators[variable];
+        for (TrieIterator trie : tries)
+            if (trie.atEnd()) return false;
+        Arrays.sort(tries, (a, b) -> TrieIterator.compareValues(a.keyTuple(), a.keyColumn(), b.keyTuple(), b.keyColumn()));
+        this.leader[variable] = 0;
+        return this.leapfrogSearch(variable);
+    }
+
+    /**
+     * Move the tries of a variable past the current common key, and search the next one.
+     */
+    private boolean leapfrogNext(int variable) {
+        TrieIterator[] tries = this.iterators[variable];
+        tries[this.leader[variable]].next();
+        if (tries[this.leader[variable]].atEnd()) return false;
+        this.leader[variable] = (this.leader[variable] + 1) % tries.length;
+        return this.leapfrogSearch(variable);
+    }
+
+    /**
+     * The tries are in the order of their keys, starting from the leader: the leader, with the smallest key, seeks
+     * the largest key (the one of the previous trie), until all the tries are at the same key.
+     * @return {@code false} if a trie reaches its end, there is no common key left.
+     */
+    private boolean leapfrogSearch(int variable) {
+        TrieIterator[] tries = this.iterators[variable];
+        int leader = this.leader[variable];
+        TrieIterator largest = tries[(leader + tries.length - 1) % tries.length];
+        while (true) {
+            TrieIterator trie = tries[leader];
+            if (TrieIterator.compareValues(trie.keyTuple(), trie.keyColumn(),
+                    largest.keyTuple(), largest.keyColumn()) == 0) {
+                this.leader[variable] = leader;
+                return true;
+            }
+            trie.seek(largest.keyTuple(), largest.keyColumn());
+            if (trie.atEnd()) {
+                this.leader[variable] = leader;
+                return false;
+            }
+            largest = trie;
+            leader = (leader + 1) % tries.length;
+        }
+    }
+
+    /**
+     * Move to the next combination of the tuples of every child matching the bound values,
+     * moving to the next binding once they are all returned.
+     * @return {@code false} if there is none left.
+     */
+    private boolean nextCombination() {
+        if (this.tries == null) this.buildTries();
+        if (this.combining) {
+            for (int c = this.current.length - 1; c >= 0; c--) {
+                if (++this.current[c] < this.end[c]) return true;
+                this.current[c] = this.start[c];
+            }
+            this.combining = false;
+        }
+        if (!this.nextBinding()) return false;
+        for (int c = 0; c < this.tries.length; c++) {
+            this.start[c] = this.tries[c].keyStart();
+            this.end[c] = this.tries[c].keyEnd();
+            this.current[c] = this.start[c];
+        }
+        this.combining = true;
+        return true;
+    }
+
+    /**
+     * Write the current combination into a tuple: the bound values, then the other columns of every child.
+     */
+    private void fill(Tuple output) {
+        int index = 0;
+        for (int v = 0; v < this.variableCount; v++) {
+            int child = this.sourceChild[v];
+            copy(this.tries[child].getRow(this.current[child]), this.sourceColumn[v], output, index++);
+        }
+        for (int c = 0; c < this.tries.length; c++) {
+            Tuple row = this.tries[c].getRow(this.current[c]);
+            for (int column : this.otherColumns[c])
+                copy(row, column, output, index++);
+        }
+    }
+
+    private static void copy(Tuple source, int column, Tuple target, int index) {
+        if (source.isString(column))
+            target.setString(index, source.getString(column), source.getCode(column));
+        else
+            target.setInt(index, source.getInt(column));
+    }
+
+    /**
+     * @return the next joined tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (!this.nextCombination()) return null;
+        Tuple output = new Tuple("Join", this.varList.size());
+        this.fill(output);
+        return output;
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the joined tuple is written into the row buffer of the
+     * caller. The tries keep the tuples of the children, so these are read with {@link Operator#getNextTuple()}.
+     * @param reuse the row buffer of the caller, overwritten with the next joined tuple.
+     * @return {@code reuse}, or {@code null} if there is no joined tuple left.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        if (!this.nextCombination()) return null;
+        this.fill(reuse);
+        return reuse;
+    }
+
+    /**
+     * @return the children, in the order of their columns in the output.
+     */
+    public List<Operator> getChildren() {
+        return Collections.unmodifiableList(this.children);
+    }
+
+    /**
+     * @return the number of bindings of all the join variables found so far.
+     */
+    public long getBindings() {
+        return this.bindings;
+    }
+
+    /**
+     * Restart the join, the tries are kept (the children are only reset if they are not read yet).
+     */
+    @Override
+    public void reset() {
+        if (this.tries == null) {
+            for (Operator child : this.children) child.reset();
+        } else {
+            for (TrieIterator trie : this.tries) trie.rewind();
+        }
+        this.started = false;
+        this.finished = false;
+        this.combining = false;
+        this.bindings = 0;
+    }
+
+    /**
+     * Close the children, and release the tries.
+     */
+    @Override
+    public void close() {
+        for (Operator child : this.children) child.close();
+        this.tries = null;
+        this.iterators = null;
+        this.started = false;
+        this.finished = false;
+        this.combining = false;
+    }
+
+    /**
+     * Unit test of LeapfrogTriejoinOperator, output is printed to the console.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+
+        // Q(x, y, z, w, t) :- T(x, y), T(y, z), T(z, x), R(x, w, t), a triangle over T
+        System.out.println("Testing query: Q(x, y, z, w, t) :- T(x, y), T(y, z), T(z, x), R(x, w, t)");
+        String[][] atoms = {{"T", "x", "y"}, {"T", "y", "z"}, {"T", "z", "x"}, {"R", "x", "w", "t"}};
+        List<Operator> children = new ArrayList<>();
+        for (String[] atom : atoms) {
+            List<Term> queryAtomTerms = new ArrayList<>();
+            for (int i = 1; i < atom.length; i++)
+                queryAtomTerms.add(new Variable(atom[i]));
+            children.add(new ScanOperator(new RelationalAtom(atom[0], queryAtomTerms)));
+        }
+        LeapfrogTriejoinOperator joinOp = new LeapfrogTriejoinOperator(children);
+        System.out.println(joinOp.getVarList());
+        joinOp.dump(null);
+        System.out.println("bindings: " + joinOp.getBindings());
+        System.out.println("-----------------------------------");
+        joinOp.reset();
+        System.out.println(joinOp.getNextTuple());
+        joinOp.close();
+    }
+}
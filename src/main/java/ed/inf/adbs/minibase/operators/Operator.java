@@ -1,6 +1,7 @@
 package ed.inf.adbs.minibase.operators;
 
 import ed.inf.adbs.minibase.dbhelper.Tuple;
+import ed.inf.adbs.minibase.dbhelper.TupleBatch;
 import ed.inf.adbs.minibase.fileWriter.*;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -11,6 +12,21 @@ import java.util.List;
 /**
  * This class is the superclass for the implementation of all the operators in the query evaluation.
  * The query planner will build a tree of instances of classes extended from this class.
+ *
+ * An operator can be evaluated tuple-at-a-time with {@link #getNextTuple()},
+ * or a batch of rows at a time with {@link #getNextBatch()} (vectorized execution).
+ * The default {@link #getNextBatch()} is an adapter that fills the batch from {@link #getNextTuple()},
+ * the operators with a vectorized implementation override it; {@link TupleBatch#getTuple(String, int)} adapts
+ * the other way round.
+ *
+ * An operator can also be evaluated tuple-at-a-time without allocating a tuple per row, with
+ * {@link #getNextTuple(Tuple)}: the consumer owns a mutable row buffer (see {@link Tuple#Tuple(String, int)})
+ * and passes it to its child, which overwrites it with the next row. The returned tuple is only valid until the
+ * next call, so an operator that keeps rows (e.g. the duplicate check of a projection, the groups of an aggregation)
+ * copies them; this is the copy-on-retain rule. The default implementation returns a new tuple from
+ * {@link #getNextTuple()}, the operators of the hot path (scan, select, join, project, SUM) override it.
+ *
+ * The three methods must not be mixed on the same operator between two calls to {@link #reset()}.
  */
 public abstract class Operator {
 
@@ -19,6 +35,14 @@ public abstract class Operator {
      */
     protected List<String> varList = new ArrayList<>();
 
+    /**
+     * records the type of every column, in the order of varList: true for 'int', false for 'string'
+     */
+    protected List<Boolean> intColumns = new ArrayList<>();
+
+    private TupleBatch adapterBatch = null;
+    // the batch filled by the default getNextBatch() implementation
+
     /**
      * Dump the tuples of the current query plan.
      * This method will iteratively call the {@link Operator#getNextTuple()} until reach the end.
@@ -43,12 +67,86 @@ public abstract class Operator {
         catch (IOException e) { e.printStackTrace(); }
     }
 
+    /**
+     * Dump the tuples of the current query plan, evaluated with the vectorized path.
+     * This method will iteratively call the {@link Operator#getNextBatch()} until reach the end,
+     * the rows are printed like by {@link #dump(String)}.
+     * @param outputFile the path to output file; if provided as {@code null}, this method will output to the default console.
+     */
+    public void dumpBatches(String outputFile) {
+        FileWriter opWriter = null;
+        TupleBatch batch;
+
+        if (OutputFileWriter.outputWriterInitialised()) {
+            opWriter = OutputFileWriter.getFileWriter();
+        }
+        try {
+            StringBuilder builder = new StringBuilder();
+            while ((batch = getNextBatch()) != null) {
+                builder.setLength(0);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.appendRowString(builder, batch.getRow(i));
+                    builder.append('\n');
+                }
+                if (opWriter != null) {
+                    opWriter.write(builder.toString());
+                } else { System.out.print(builder); }
+            }
+            if (opWriter != null)  opWriter.flush();
+        }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Dump the tuples of the current query plan, evaluated with the buffer-reusing path.
+     * This method will iteratively call the {@link Operator#getNextTuple(Tuple)} with the same row buffer
+     * until reach the end, the tuples are printed like by {@link #dump(String)}.
+     * @param outputFile the path to output file; if provided as {@code null}, this method will output to the default console.
+     */
+    public void dumpReusing(String outputFile) {
+        FileWriter opWriter = null;
+        Tuple buffer = new Tuple("Output", this.varList.size());
+        Tuple nextTuple;
+
+        if (OutputFileWriter.outputWriterInitialised()) {
+            opWriter = OutputFileWriter.getFileWriter();
+        }
+        try {
+            StringBuilder builder = new StringBuilder();
+            while ((nextTuple = getNextTuple(buffer)) != null) {
+                nextTuple.appendTo(builder);
+                builder.append('\n');
+                if (builder.length() >= 8192) {
+                    this.write(opWriter, builder);
+                    builder.setLength(0);
+                }
+            }
+            this.write(opWriter, builder);
+            if (opWriter != null)  opWriter.flush();
+        }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+
+    private void write(FileWriter opWriter, StringBuilder builder) throws IOException {
+        if (opWriter != null) {
+            opWriter.write(builder.toString());
+        } else { System.out.print(builder); }
+    }
+
     /**
      * Reset the states of operator, the next {@code getNextTuple} call will return from the starting point of the output tuples.
      * This method will be overridden by all subclasses.
      */
     public abstract void reset();
 
+    /**
+     * Release the resources held by the operator and its children, e.g. the open relation readers
+     * and the off-heap memory of the materialized results. The operator must not be used afterwards.
+     * The operators holding resources override this method.
+     */
+    public void close() {
+    }
+
     /**
      * Call this method to get the next tuple of the operator output.
      * This method will be overridden by all subclasses.
@@ -56,6 +154,43 @@ public abstract class Operator {
      */
     public abstract Tuple getNextTuple();
 
+    /**
+     * Call this method to get the next tuple of the operator output, reusing a row buffer of the caller.
+     * The result is either {@code reuse} overwritten with the next tuple, or another tuple;
+     * in both cases it may be overwritten by the next call, so the caller must copy it to keep it longer.
+     * This default implementation returns {@link #getNextTuple()}.
+     * @param reuse a mutable tuple built by {@link Tuple#Tuple(String, int)}, with one value per variable of {@link #getVarList()}.
+     * @return the next tuple, or {@code null} if the operator reaches the end.
+     */
+    public Tuple getNextTuple(Tuple reuse) {
+        return this.getNextTuple();
+    }
+
+    /**
+     * Call this method to get the next batch of rows of the operator output.
+     * The returned batch holds at least one selected row, and is only valid until the next call of this method.
+     * This default implementation fills a batch of up to {@link TupleBatch#CAPACITY} rows from {@link #getNextTuple()},
+     * the vectorized operators override it.
+     * @return the next batch, or {@code null} if the operator reaches the end.
+     */
+    public TupleBatch getNextBatch() {
+        return this.fillBatchFromTuples();
+    }
+
+    /**
+     * The adapter behind the default {@link #getNextBatch()}, for the subclasses of a vectorized operator
+     * that only implement {@link #getNextTuple()}.
+     * @return the next batch, or {@code null} if the operator reaches the end.
+     */
+    protected final TupleBatch fillBatchFromTuples() {
+        if (this.adapterBatch == null) this.adapterBatch = new TupleBatch(this.varList.size());
+        this.adapterBatch.clear();
+        Tuple tuple;
+        while (!this.adapterBatch.isFull() && (tuple = this.getNextTuple()) != null)
+            this.adapterBatch.appendTuple(tuple);
+        return this.adapterBatch.size() > 0 ? this.adapterBatch : null;
+    }
+
     /**
      * Get the variable mask of current query plan node.
      * The variable mask helps the alignment of variables in new operator with the variables in output tuples of current operator.
@@ -65,4 +200,12 @@ public abstract class Operator {
         return this.varList;
     }
 
+    /**
+     * Get the column types of the output tuples of current query plan node, known when the plan is built.
+     * @return for every column of the output tuples, {@code true} if it holds ints, {@code false} if it holds strings.
+     */
+    public List<Boolean> getIntColumns() {
+        return this.intColumns;
+    }
+
 }
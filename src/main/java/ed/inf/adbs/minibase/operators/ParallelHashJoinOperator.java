@@ -0,0 +1,357 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A parallel hash join, for the joins with at least one equality between the left and the right tuples,
+ * on the worker threads of a {@link ForkJoinPool}.
+ *
+ * The first call reads both children on the calling thread (the operators below are not thread-safe), then the
+ * workers radix-partition both inputs by the high bits of a mix of the hash of their join key: every worker counts
+ * the tuples of a chunk of the input per partition, and after a prefix sum over these counts it copies them to
+ * their place in a single array, so that the tuples of a partition are contiguous and keep their order.
+ * There are enough partitions for the right tuples of one of them to fit in {@link #PARTITION_BYTES}, about the size
+ * of a CPU cache, and at least one per thread. Every partition is then joined by an independent task, which builds
+ * a {@link JoinHashTable} over its right tuples and probes it with its left tuples; the results are returned
+ * partition after partition, while the next {@link #WINDOW_PER_THREAD} partitions per thread are joined ahead,
+ * which bounds the memory held by the results.
+ *
+ * Unlike {@link HashJoinOperator}, the left child is read into memory as well, without any check against the
+ * operator memory of the catalog (the planner only chooses this join when both inputs are estimated to fit in it),
+ * and the joined tuples come out in the order of the partitions.
+ * The partitioned inputs are kept across {@link #reset()}, and released by {@link #close()}.
+ */
+public class ParallelHashJoinOperator extends JoinOperator {
+
+    public static final int PARTITION_BYTES = 256 << 10;
+    // the target size of the right tuples of a partition
+    public static final int MAX_PARTITION_BITS = 12;
+    private static final int WINDOW_PER_THREAD = 4;
+    // the number of partitions per thread joined ahead of the one being returned
+    private static final int MIN_CHUNK_ROWS = 4096;
+    // the smallest number of tuples partitioned by a task
+
+    private final int threads;
+    private ForkJoinPool pool = null;
+
+    private Tuple[] left = null;
+    private Tuple[] right = null;
+    // the partitioned inputs, null until the first call
+    private int[] leftStarts;
+    private int[] rightStarts;
+    // the first tuple of every partition in the partitioned inputs, followed by their size
+    private int partitionBits = 0;
+
+    private List<ForkJoinTask<List<Tuple>>> results = null;
+    // the join of every partition, submitted up to a window ahead of the current one and released once returned
+    private int submitted = 0;
+    private int partition = 0;
+    // the number of partitions submitted, and the next partition to return
+    private List<Tuple> output = null;
+    private int position = 0;
+    // the joined tuples of the current partition, and the next one to return
+
+    /**
+     * Join on the number of threads of the catalog, see {@link DatabaseCatalog#getJoinThreads()}.
+     * @param leftChild the left child operator, read into the left partitions.
+     * @param rightChild the right child operator, read into the right partitions.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     */
+    public ParallelHashJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms) {
+        this(leftChild, rightChild, comparisonAtoms, DatabaseCatalog.getInstance().getJoinThreads());
+    }
+
+    /**
+     * @param leftChild the left child operator, read into the left partitions.
+     * @param rightChild the right child operator, read into the right partitions.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     * @param threads the number of worker threads, at least 1.
+     */
+    public ParallelHashJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms,
+                                    int threads) {
+        super(leftChild, rightChild, comparisonAtoms);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return the partition of a join key hash, from the high bits of a mix of the hash
+     *         (the low bits choose the slots of the {@link JoinHashTable}).
+     */
+    static int radix(int hash, int bits) {
+        if (bits == 0) return 0;
+        int h = hash * 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h >>> (32 - bits);
+    }
+
+    /**
+     * Read both children, and partition them on the worker threads.
+     */
+    private void build() {
+        List<Tuple> leftTuples = new ArrayList<>();
+        List<Tuple> rightTuples = new ArrayList<>();
+        long rightBytes = 0;
+        Tuple tuple;
+        while ((tuple = this.getRightChild().getNextTuple()) != null) {
+            rightTuples.add(tuple);
+            rightBytes += tuple.estimateBytes();
+        }
+        while ((tuple = this.getLeftChild().getNextTuple()) != null)
+            leftTuples.add(tuple);
+
+        this.partitionBits = 0;
+        while (this.partitionBits < MAX_PARTITION_BITS && ((long) PARTITION_BYTES << this.partitionBits < rightBytes
+                || 1 << this.partitionBits < this.threads))
+            this.partitionBits++;
+        int partitions = 1 << this.partitionBits;
+        if (this.pool == null) this.pool = new ForkJoinPool(this.threads);
+        this.rightStarts = new int[partitions + 1];
+        this.right = this.partition(rightTuples, this.getRightKeys(), this.rightStarts);
+        this.leftStarts = new int[partitions + 1];
+        this.left = this.partition(leftTuples, this.getLeftKeys(), this.leftStarts);
+        this.results = new ArrayList<>();
+        for (int p = 0; p < partitions; p++)
+            this.results.add(null);
+    }
+
+    /**
+     * Radix-partition tuples in two parallel passes over chunks of the input: count the tuples of every partition,
+     * then copy them to the offsets given by the prefix sum of the counts (partition after partition, chunk after chunk).
+     * @param tuples the tuples to partition.
+     * @param keys the columns of their join key.
+     * @param starts filled with the first tuple of every partition in the result, followed by the number of tuples.
+     * @return the partitioned tuples.
+     */
+    private Tuple[] partition(List<Tuple> tuples, int[] keys, int[] starts) {
+        int partitions = starts.length - 1;
+        int chunks = Math.max(1, Math.min(this.threads, tuples.size() / MIN_CHUNK_ROWS));
+        int[] ids = new int[tuples.size()];
+        int[][] offsets = new int[chunks][partitions];
+        List<Runnable> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            final int[] counts = offsets[c];
+            final int from = (int) ((long) tuples.size() * c / chunks);
+            final int to = (int) ((long) tuples.size() * (c + 1) / chunks);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    ids[i] = radix(JoinHashTable.hash(tuples.get(i), keys), this.partitionBits);
+                    counts[ids[i]]++;
+                }
+            });
+        }
+        this.runAll(tasks);
+
+        int offset = 0;
+        for (int p = 0; p < partitions; p++) {
+            starts[p] = offset;
+            for (int c = 0; c < chunks; c++) {
+                int count = offsets[c][p];
+                offsets[c][p] = offset;
+                offset += count;
+            }
+        }
+        starts[partitions] = offset;
+
+        Tuple[] partitioned = new Tuple[tuples.size()];
+        tasks.clear();
+        for (int c = 0; c < chunks; c++) {
+            final int[] next = offsets[c];
+            final int from = (int) ((long) tuples.size() * c / chunks);
+            final int to = (int) ((long) tuples.size() * (c + 1) / chunks);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++)
+                    partitioned[next[ids[i]]++] = tuples.get(i);
+            });
+        }
+        this.runAll(tasks);
+        return partitioned;
+    }
+
+    /**
+     * Run tasks on the worker threads and wait for all of them, a single task runs on the calling thread.
+     */
+    private void runAll(List<Runnable> tasks) {
+        if (tasks.size() == 1) {
+            tasks.get(0).run();
+            return;
+        }
+        List<ForkJoinTask<?>> running = new ArrayList<>();
+        for (Runnable task : tasks)
+            running.add(this.pool.submit(task));
+        for (ForkJoinTask<?> task : running)
+            task.join();
+    }
+
+    /**
+     * Join the left and the right tuples of a partition, on a worker thread.
+     * @return the joined tuples, the left tuples in their order.
+     */
+    private List<Tuple> joinPartition(int p) {
+        List<Tuple> joined = new ArrayList<>();
+        if (this.leftStarts[p] == this.leftStarts[p + 1] || this.rightStarts[p] == this.rightStarts[p + 1])
+            return joined;
+        JoinHashTable table = new JoinHashTable(this.getRightKeys());
+        for (int i = this.rightStarts[p]; i < this.rightStarts[p + 1]; i++)
+            table.add(this.right[i]);
+        // the statistics of the residual conditions are gathered by every task on its own
+        ConjunctionOrder residualOrder = new ConjunctionOrder(this.getResidualConditions().size());
+        int[] leftKeys = this.getLeftKeys();
+        for (int i = this.leftStarts[p]; i < this.leftStarts[p + 1]; i++) {
+            Tuple leftTuple = this.left[i];
+            for (int row = table.first(leftTuple, leftKeys); row >= 0; row = table.next(row, leftTuple, leftKeys)) {
+                if (this.residualHolds(residualOrder, leftTuple, table.getRow(row)))
+                    joined.add(Tuple.concat("Join", leftTuple, table.getRow(row), this.getRightKeptColumns()));
+            }
+        }
+        return joined;
+    }
+
+    private boolean residualHolds(ConjunctionOrder residualOrder, Tuple left, Tuple right) {
+        for (int condition : residualOrder.next()) {
+            boolean passed = this.getResidualConditions().get(condition).check(left, right);
+            residualOrder.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Submit the joins of the partitions up to (excluded) a limit.
+     */
+    private void submitUpTo(int limit) {
+        while (this.submitted < Math.min(limit, this.results.size())) {
+            final int p = this.submitted++;
+            this.results.set(p, this.pool.submit((Callable<List<Tuple>>) () -> this.joinPartition(p)));
+        }
+    }
+
+    /**
+     * Return the joined tuples of the partitions in order, waiting for the join of the next partition
+     * once the current one is returned.
+     * @return the next joined tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (this.left == null) this.build();
+        while (this.output == null || this.position >= this.output.size()) {
+            if (this.partition == this.results.size()) {
+                this.output = null;
+                return null;
+            }
+            this.submitUpTo(this.partition + 1 + this.threads * WINDOW_PER_THREAD);
+            this.output = this.results.get(this.partition).join();
+            this.results.set(this.partition++, null);
+            this.position = 0;
+        }
+        return this.output.get(this.position++);
+    }
+
+    /**
+     * The batches are filled from {@link #getNextTuple()}, the nested loop over batches of {@link JoinOperator}
+     * is not used.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.fillBatchFromTuples();
+    }
+
+    /**
+     * The joined tuples are built by the workers, the row buffer of the caller is not used.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        return this.getNextTuple();
+    }
+
+    /**
+     * @return the number of partitions of the inputs, 0 before the first call.
+     */
+    public int getPartitionCount() {
+        return this.results == null ? 0 : this.results.size();
+    }
+
+    /**
+     * @return the number of worker threads.
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Restart from the first partition, the partitioned inputs are kept (the children are only reset if they are
+     * not read yet); the partitions joined ahead are joined again.
+     */
+    @Override
+    public void reset() {
+        if (this.left == null) {
+            this.getLeftChild().reset();
+            this.getRightChild().reset();
+            return;
+        }
+        for (int p = 0; p < this.results.size(); p++) {
+            if (this.results.get(p) != null) this.results.get(p).cancel(false);
+            this.results.set(p, null);
+        }
+        this.submitted = 0;
+        this.partition = 0;
+        this.output = null;
+    }
+
+    /**
+     * Close both children, release the partitions and stop the worker threads.
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (this.pool != null) this.pool.shutdownNow();
+        this.pool = null;
+        this.left = null;
+        this.right = null;
+        this.results = null;
+        this.submitted = 0;
+        this.partition = 0;
+        this.output = null;
+    }
+
+    /**
+     * Unit test of ParallelHashJoinOperator, output is printed to the console.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+
+        // Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u
+        System.out.println("Testing query: Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u");
+        List<Term> queryAtomTerms1 = new ArrayList<>();
+        queryAtomTerms1.add(new Variable("x"));
+        queryAtomTerms1.add(new Variable("y"));
+        queryAtomTerms1.add(new Variable("z"));
+        RelationalAtom queryBodyAtomR = new RelationalAtom("R", queryAtomTerms1);
+        List<Term> queryAtomTerms2 = new ArrayList<>();
+        queryAtomTerms2.add(new Variable("u"));
+        queryAtomTerms2.add(new Variable("w"));
+        queryAtomTerms2.add(new Variable("t"));
+        RelationalAtom queryBodyAtomS = new RelationalAtom("S", queryAtomTerms2);
+        List<ComparisonAtom> compAtomList = new ArrayList<>();
+        compAtomList.add(new ComparisonAtom(new Variable("x"), new Variable("u"), ComparisonOperator.fromString("=")));
+
+        ParallelHashJoinOperator joinOp = new ParallelHashJoinOperator(
+                new ScanOperator(queryBodyAtomR), new ScanOperator(queryBodyAtomS), compAtomList, 4);
+        joinOp.dump(null);
+        System.out.println("Partitions: " + joinOp.getPartitionCount() + ", threads: " + joinOp.getThreads());
+        System.out.println("-----------------------------------");
+        joinOp.reset();
+        System.out.println(joinOp.getNextTuple());
+        joinOp.close();
+    }
+}
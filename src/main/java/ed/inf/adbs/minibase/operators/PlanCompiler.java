@@ -0,0 +1,550 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.ComparisonOperator;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
+import ed.inf.adbs.minibase.dbhelper.StringDictionary;
+import ed.inf.adbs.minibase.dbhelper.Tuple;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A query compiler, which turns a query plan into one Java class generated at runtime.
+ *
+ * The supported plans are built of {@link ScanOperator}, {@link ReducedRelationOperator}, {@link SelectOperator}
+ * and {@link JoinOperator} instances,
+ * under a {@link ProjectOperator} or a {@link SumOperator} root, as built by the planner of
+ * {@link ed.inf.adbs.minibase.Minibase}. The operators are fused with the produce/consume scheme: a scan produces
+ * a loop over the records of its relation, and every operator above it generates the code that consumes a row
+ * inside that loop, so a row flows through the whole pipeline in local variables, without any {@link Tuple}:
+ * <ul>
+ *     <li>a reduced leaf produces a loop over its tuples, which are already materialized by its reducer;</li>
+ *     <li>the conditions of the scans and of the selections become nested {@code if} statements, specialised
+ *     for the types of their operands (ints, dictionary codes or strings) and with the constants inlined;</li>
+ *     <li>the right child of a join is a pipeline of its own, which materializes its rows into a
+ *     {@link CompiledPipeline.Table} with a hash index on the equality join keys; the left rows probe the index
+ *     (or loop over all the rows when there is no equality), and the other join conditions are inlined;</li>
+ *     <li>the projection writes the distinct rows into a {@link ed.inf.adbs.minibase.dbhelper.RowArena},
+ *     the aggregation looks up the group of every row in the arena and adds to its sum.</li>
+ * </ul>
+ * The generated source is compiled in memory with the system Java compiler and loaded by its own class loader.
+ * The classes are cached by source code, so a plan compiled again costs no compilation.
+ *
+ * When the plan is not supported or the runtime has no Java compiler (e.g. a JRE), {@link #compile(Operator)}
+ * returns {@code null} and the interpreted plan is used.
+ */
+public class PlanCompiler {
+
+    private static final String CLASS_NAME = "GeneratedPipeline";
+    private static final Map<String, Class<?>> compiledClasses = new HashMap<>();
+    // the loaded classes by their source code
+
+    /**
+     * A value of the current row in the generated code, as Java expressions.
+     */
+    static final class Column {
+        final boolean isInt;
+        final String value;     // the int, or the dictionary code of a string; null for a string that is not encoded
+        final String string;    // the string value, null for an int
+
+        Column(boolean isInt, String value, String string) {
+            this.isInt = isInt;
+            this.value = value;
+            this.string = string;
+        }
+    }
+
+    private final StringDictionary dictionary;
+    private final List<ScanOperator> scans = new ArrayList<>();
+    private final List<ReducedRelationOperator> leaves = new ArrayList<>();
+    private final StringBuilder fields = new StringBuilder();
+    private final StringBuilder methods = new StringBuilder();
+    private final StringBuilder prologue = new StringBuilder();
+    // the statements run before the main pipeline: the build pipelines of the joins
+    private StringBuilder code;
+    private int depth;
+    private int names = 0;
+
+    private PlanCompiler(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Compile a query plan into a {@link CompiledOperator}.
+     * @param plan the root of an interpreted query plan, freshly built; it is used by the compiled operator.
+     * @return the compiled operator, or {@code null} if the plan cannot be compiled (the reason is printed).
+     */
+    public static CompiledOperator compile(Operator plan) {
+        long start = System.nanoTime();
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            System.err.println("Query compilation skipped: no Java compiler in this runtime, the plan is interpreted");
+            return null;
+        }
+        StringDictionary dictionary = DatabaseCatalog.getInstance().getStringDictionary();
+        PlanCompiler compiler = new PlanCompiler(dictionary);
+        try {
+            String source = compiler.generate(plan);
+            CompiledPipeline pipeline = (CompiledPipeline) loadClass(javac, source).getDeclaredConstructor()
+                    .newInstance();
+            return new CompiledOperator(plan, compiler.scans, compiler.leaves, pipeline, dictionary, System.nanoTime() - start);
+        } catch (UnsupportedOperationException e) {
+            System.err.println("Query compilation skipped: " + e.getMessage() + ", the plan is interpreted");
+        } catch (InvocationTargetException e) {
+            // thrown by the constructor of the generated class
+            System.err.println("Query compilation failed, the plan is interpreted");
+            e.getCause().printStackTrace();
+        } catch (ReflectiveOperationException | IllegalStateException e) {
+            System.err.println("Query compilation failed, the plan is interpreted");
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Generate the source code of the pipeline class of a plan.
+     * @throws UnsupportedOperationException if the plan has an operator or a shape that is not supported.
+     */
+    String generate(Operator plan) {
+        this.code = new StringBuilder();
+        this.depth = 2;
+        if (plan instanceof SumOperator) {
+            SumOperator sum = (SumOperator) plan;
+            String key = this.field("Tuple", "new Tuple(\"Group\", " + sum.groupIndices.length + ")");
+            this.produce(sum.child, columns -> {
+                for (int i = 0; i < sum.groupIndices.length; i++)
+                    this.line(setValue(key, i, columns.get(sum.groupIndices[i])));
+                String aggregate;
+                if (sum.aggregateConstant != null) {
+                    aggregate = String.valueOf(sum.aggregateConstant);
+                } else {
+                    Column column = columns.get(sum.aggregateColumn);
+                    if (!column.isInt) throw new UnsupportedOperationException("SUM of a string column");
+                    aggregate = column.value;
+                }
+                String group = this.name("group");
+                this.line("int " + group + " = this.output.addIfAbsent(" + key + ");");
+                this.line("this.aggregateBuffer.moveTo(" + group + " >= 0 ? " + group + " : -(" + group + " + 1));");
+                this.line("this.aggregateBuffer.addSum(" + aggregate + ");");
+            });
+        } else if (plan instanceof ProjectOperator) {
+            ProjectOperator project = (ProjectOperator) plan;
+            int[] indices = project.getProjectIndices();
+            String out = this.field("Tuple", "new Tuple(\"" + CLASS_NAME + "\", " + indices.length + ")");
+            this.produce(project.getChild(), columns -> {
+                for (int i = 0; i < indices.length; i++)
+                    this.line(setValue(out, i, columns.get(indices[i])));
+                this.line("this.output.addIfAbsent(" + out + ");");
+            });
+        } else {
+            throw new UnsupportedOperationException("the root " + plan.getClass().getSimpleName() + " is not supported");
+        }
+        return "import ed.inf.adbs.minibase.dbhelper.*;\n"
+                + "import ed.inf.adbs.minibase.operators.*;\n\n"
+                + "public final class " + CLASS_NAME + " extends CompiledPipeline {\n\n"
+                + this.fields + "\n"
+                + "    @Override\n"
+                + "    public void run() {\n"
+                + this.prologue + this.code
+                + "    }\n\n"
+                + this.methods
+                + "}\n";
+    }
+
+    /**
+     * Generate the loop producing the rows of an operator, and the code consuming them inside the loop.
+     * @param operator the operator whose rows are produced.
+     * @param consumer generates the code consuming a row, given the expressions of its values.
+     */
+    private void produce(Operator operator, Consumer<List<Column>> consumer) {
+        if (operator instanceof ScanOperator) {
+            this.produceScan((ScanOperator) operator, consumer);
+        } else if (operator instanceof ReducedRelationOperator) {
+            this.produceReduced((ReducedRelationOperator) operator, consumer);
+        } else if (operator instanceof SelectOperator) {
+            SelectOperator select = (SelectOperator) operator;
+            this.produce(select.getChild(), columns -> {
+                int opened = 0;
+                for (SelectCondition condition : select.getConditions()) {
+                    this.open("if (" + condition.compile(columns, this) + ") {");
+                    opened++;
+                }
+                consumer.accept(columns);
+                this.close(opened);
+            });
+        } else if (operator instanceof IndexNestedLoopJoinOperator) {
+            // the right relation is only read through its index, its sequential reader is closed
+            throw new UnsupportedOperationException("the index nested loop join is not supported");
+        } else if (operator instanceof GraceHashJoinOperator) {
+            // the compiled join keeps the whole right input in memory, which this join is chosen to avoid
+            throw new UnsupportedOperationException("the Grace hash join is not supported");
+        } else if (operator instanceof ParallelHashJoinOperator) {
+            // the compiled join runs on the calling thread only
+            throw new UnsupportedOperationException("the parallel hash join is not supported");
+        } else if (operator instanceof JoinOperator) {
+            this.produceJoin((JoinOperator) operator, consumer);
+        } else {
+            throw new UnsupportedOperationException("the operator " + operator.getClass().getSimpleName()
+                    + " is not supported");
+        }
+    }
+
+    /**
+     * A loop over the records of the relation reader of the scan, the scan conditions are checked on the fields
+     * before the output columns are read.
+     */
+    private void produceScan(ScanOperator scan, Consumer<List<Column>> consumer) {
+        String reader = "r" + this.scans.size();
+        this.line("RelationReader " + reader + " = this.readers[" + this.scans.size() + "];");
+        this.scans.add(scan);
+        this.open("while (" + reader + ".nextRecord()) {");
+        int opened = 1;
+        for (ScanCondition condition : scan.getConditions()) {
+            this.open("if (" + condition.compile(reader, this) + ") {");
+            opened++;
+        }
+        List<Column> columns = new ArrayList<>();
+        for (int column : scan.getOutputColumns()) {
+            if (scan.getIntColumn()[column]) {
+                String value = this.name("v");
+                this.line("int " + value + " = " + reader + ".getInt(" + column + ");");
+                columns.add(new Column(true, value, null));
+            } else if (this.dictionary != null) {
+                String value = this.name("v");
+                String string = this.name("s");
+                this.line("int " + value + " = " + reader + ".getStringCode(" + column + ", this.dictionary);");
+                this.line("String " + string + " = this.decode(" + reader + ", " + column + ", " + value + ");");
+                columns.add(new Column(false, value, string));
+            } else {
+                String string = this.name("s");
+                this.line("String " + string + " = " + reader + ".getString(" + column + ");");
+                columns.add(new Column(false, null, string));
+            }
+        }
+        consumer.accept(columns);
+        this.close(opened);
+    }
+
+    /**
+     * A loop over the tuples of a reduced leaf, their conditions were checked by the scan of the reducer.
+     */
+    private void produceReduced(ReducedRelationOperator leaf, Consumer<List<Column>> consumer) {
+        String relation = "t" + this.leaves.size();
+        this.line("java.util.List<Tuple> " + relation + " = this.relations.get(" + this.leaves.size() + ");");
+        this.leaves.add(leaf);
+        String index = this.name("i");
+        String tuple = this.name("x");
+        this.open("for (int " + index + " = 0; " + index + " < " + relation + ".size(); " + index + "++) {");
+        this.line("Tuple " + tuple + " = " + relation + ".get(" + index + ");");
+        List<Column> columns = new ArrayList<>();
+        for (int column = 0; column < leaf.getIntColumns().size(); column++) {
+            if (leaf.getIntColumns().get(column)) {
+                String value = this.name("v");
+                this.line("int " + value + " = " + tuple + ".getInt(" + column + ");");
+                columns.add(new Column(true, value, null));
+                continue;
+            }
+            // the scans encode every string with the dictionary when there is one
+            String value = this.dictionary != null ? this.name("v") : null;
+            String string = this.name("s");
+            if (value != null) this.line("int " + value + " = " + tuple + ".getCode(" + column + ");");
+            this.line("String " + string + " = " + tuple + ".getString(" + column + ");");
+            columns.add(new Column(false, value, string));
+        }
+        consumer.accept(columns);
+        this.close(1);
+    }
+
+    /**
+     * The right child is materialized into a table by a build method run before the main pipeline,
+     * the rows of the left child probe its hash index on the equality join keys.
+     */
+    private void produceJoin(JoinOperator join, Consumer<List<Column>> consumer) {
+        String table = this.field("CompiledPipeline.Table", null);
+        String build = this.name("build");
+
+        // the build pipeline, generated into a method of its own
+        StringBuilder savedCode = this.code;
+        int savedDepth = this.depth;
+        this.code = new StringBuilder();
+        this.depth = 2;
+        List<Column> rightColumns = new ArrayList<>();
+        this.produce(join.getRightChild(), columns -> {
+            rightColumns.addAll(columns);
+            String row = this.name("row");
+            this.line("int " + row + " = " + table + ".add();");
+            for (int i = 0; i < columns.size(); i++) {
+                Column column = columns.get(i);
+                this.line(table + ".ints[" + i + "][" + row + "] = "
+                        + (column.value != null ? column.value : "Tuple.NO_CODE") + ";");
+                if (!column.isInt)
+                    this.line(table + ".strings[" + i + "][" + row + "] = " + column.string + ";");
+            }
+        });
+        this.methods.append("    private void ").append(build).append("() {\n")
+                .append(this.code).append("    }\n\n");
+        this.code = savedCode;
+        this.depth = savedDepth;
+
+        int[] leftKeys = join.getLeftJoinIndices();
+        int[] rightKeys = join.getRightJoinIndices();
+        boolean[] isString = new boolean[rightColumns.size()];
+        for (int i = 0; i < isString.length; i++)
+            isString[i] = !rightColumns.get(i).isInt;
+        boolean[] hashStrings = new boolean[rightKeys.length];
+        for (int k = 0; k < rightKeys.length; k++)
+            hashStrings[k] = rightColumns.get(rightKeys[k]).value == null;
+        this.prologue.append("        this.").append(table).append(" = new CompiledPipeline.Table(")
+                .append(arrayLiteral(isString)).append(");\n")
+                .append("        this.").append(build).append("();\n")
+                .append("        this.").append(table).append(".index(").append(arrayLiteral(rightKeys)).append(", ")
+                .append(arrayLiteral(hashStrings)).append(");\n");
+
+        this.produce(join.getLeftChild(), left -> {
+            for (int k = 0; k < leftKeys.length; k++) {
+                Column leftKey = left.get(leftKeys[k]);
+                if (leftKey.isInt != rightColumns.get(rightKeys[k]).isInt)
+                    throw new UnsupportedOperationException("a join of an int column with a string column");
+                if (hashStrings[k] != (leftKey.value == null))
+                    throw new UnsupportedOperationException("a join of an encoded and a plain string column");
+            }
+            String row = this.name("row");
+            int opened = 1;
+            if (leftKeys.length > 0) {
+                String hash = this.name("h");
+                this.line("int " + hash + " = 0;");
+                for (int k = 0; k < leftKeys.length; k++) {
+                    Column leftKey = left.get(leftKeys[k]);
+                    this.line(hash + " = 31 * " + hash + " + "
+                            + (hashStrings[k] ? leftKey.string + ".hashCode()" : leftKey.value) + ";");
+                }
+                this.open("for (int " + row + " = " + table + ".first(" + hash + "); " + row + " >= 0; "
+                        + row + " = " + table + ".next(" + row + ")) {");
+            } else {
+                this.open("for (int " + row + " = 0; " + row + " < " + table + ".size; " + row + "++) {");
+            }
+            List<Column> right = new ArrayList<>();
+            for (int i = 0; i < rightColumns.size(); i++) {
+                Column column = rightColumns.get(i);
+                right.add(new Column(column.isInt,
+                        column.value != null ? table + ".ints[" + i + "][" + row + "]" : null,
+                        column.isInt ? null : table + ".strings[" + i + "][" + row + "]"));
+            }
+            for (int k = 0; k < leftKeys.length; k++) {
+                this.open("if (" + comparison(ComparisonOperator.EQ, left.get(leftKeys[k]), right.get(rightKeys[k])) + ") {");
+                opened++;
+            }
+            for (JoinCondition condition : join.getConditions()) {
+                this.open("if (" + condition.compile(left, right) + ") {");
+                opened++;
+            }
+            List<Column> joined = new ArrayList<>(left);
+            for (int i : join.getRightKeptColumns()) {
+                // the values of the right row are read once into locals
+                Column column = right.get(i);
+                String value = column.value == null ? null : this.name("v");
+                String string = column.isInt ? null : this.name("s");
+                if (value != null) this.line("int " + value + " = " + column.value + ";");
+                if (string != null) this.line("String " + string + " = " + column.string + ";");
+                joined.add(new Column(column.isInt, value, string));
+            }
+            consumer.accept(joined);
+            this.close(opened);
+        });
+    }
+
+    /**
+     * The Java boolean expression of a comparison of two values.
+     * Values of different types are never equal, and cannot be ordered: only '!=' holds.
+     * Ints and encoded strings are compared as ints, the other strings with {@link Tuple#compareStrings}.
+     */
+    static String comparison(ComparisonOperator op, Column operand1, Column operand2) {
+        if (operand1.isInt != operand2.isInt)
+            return op == ComparisonOperator.NEQ ? "true" : "false";
+        if (operand1.value != null && operand2.value != null)
+            return "(" + operand1.value + " " + javaOperator(op) + " " + operand2.value + ")";
+        if (op == ComparisonOperator.EQ)
+            return operand1.string + ".equals(" + operand2.string + ")";
+        if (op == ComparisonOperator.NEQ)
+            return "!" + operand1.string + ".equals(" + operand2.string + ")";
+        return "(Tuple.compareStrings(" + operand1.string + ", " + operand2.string + ") " + javaOperator(op) + " 0)";
+    }
+
+    static String javaOperator(ComparisonOperator op) {
+        return op == ComparisonOperator.EQ ? "==" : op.toString();
+    }
+
+    /**
+     * @return the column of a constant held by a one-value tuple: an int, or a string with its code if it has one.
+     */
+    Column constant(Tuple constant) {
+        if (!constant.isString(0))
+            return new Column(true, String.valueOf(constant.getInt(0)), null);
+        String code = constant.getCode(0) == Tuple.NO_CODE ? null : String.valueOf(constant.getCode(0));
+        return new Column(false, code, this.stringConstant(constant.getString(0)));
+    }
+
+    /**
+     * Declare a constant field holding a string.
+     * @return the name of the field.
+     */
+    String stringConstant(String value) {
+        String name = this.name("C");
+        this.fields.append("    private static final String ").append(name).append(" = ")
+                .append(stringLiteral(value)).append(";\n");
+        return name;
+    }
+
+    /**
+     * Declare a constant field holding the UTF-8 bytes of a string.
+     * @return the name of the field.
+     */
+    String bytesConstant(byte[] value) {
+        String name = this.name("B");
+        this.fields.append("    private static final byte[] ").append(name).append(" = ")
+                .append(stringLiteral(new String(value, StandardCharsets.UTF_8)))
+                .append(".getBytes(java.nio.charset.StandardCharsets.UTF_8);\n");
+        return name;
+    }
+
+    /**
+     * @return the dictionary code of a string constant, {@code null} if the strings are not encoded.
+     */
+    String codeConstant(String value) {
+        return this.dictionary == null ? null : String.valueOf(this.dictionary.encode(value));
+    }
+
+    private String field(String type, String initializer) {
+        String name = this.name("f");
+        this.fields.append("    private ").append(initializer != null ? "final " : "").append(type).append(' ')
+                .append(name).append(initializer != null ? " = " + initializer : "").append(";\n");
+        return name;
+    }
+
+    private String name(String prefix) {
+        return prefix + (this.names++);
+    }
+
+    private void line(String statement) {
+        for (int i = 0; i < this.depth; i++) this.code.append("    ");
+        this.code.append(statement).append('\n');
+    }
+
+    private void open(String statement) {
+        this.line(statement);
+        this.depth++;
+    }
+
+    private void close(int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            this.depth--;
+            this.line("}");
+        }
+    }
+
+    private static String setValue(String tuple, int index, Column column) {
+        if (column.isInt) return tuple + ".setInt(" + index + ", " + column.value + ");";
+        return tuple + ".setString(" + index + ", " + column.string + ", "
+                + (column.value != null ? column.value : "Tuple.NO_CODE") + ");";
+    }
+
+    private static String stringLiteral(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') literal.append('\\').append(c);
+            else if (c < 0x20) literal.append(String.format("\\%03o", (int) c));
+            else if (c > 0x7e) literal.append(String.format("\\u%04x", (int) c));
+            else literal.append(c);
+        }
+        return literal.append('"').toString();
+    }
+
+    private static String arrayLiteral(int[] values) {
+        StringBuilder literal = new StringBuilder("new int[]{");
+        for (int i = 0; i < values.length; i++) literal.append(i > 0 ? ", " : "").append(values[i]);
+        return literal.append('}').toString();
+    }
+
+    private static String arrayLiteral(boolean[] values) {
+        StringBuilder literal = new StringBuilder("new boolean[]{");
+        for (int i = 0; i < values.length; i++) literal.append(i > 0 ? ", " : "").append(values[i]);
+        return literal.append('}').toString();
+    }
+
+    /**
+     * Compile a source file in memory and load its class, or return the class already loaded for the same source.
+     */
+    private static Class<?> loadClass(JavaCompiler javac, String source) throws ClassNotFoundException {
+        synchronized (compiledClasses) {
+            Class<?> cached = compiledClasses.get(source);
+            if (cached != null) return cached;
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardManager = javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        Map<String, ByteArrayOutputStream> classBytes = new HashMap<>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classBytes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none", "-nowarn");
+        boolean compiled = javac.getTask(null, fileManager, diagnostics, options, null,
+                Collections.singletonList(sourceFile)).call();
+        if (!compiled) {
+            StringBuilder message = new StringBuilder("The generated pipeline does not compile:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                message.append('\n').append(diagnostic);
+            throw new IllegalStateException(message + "\n" + source);
+        }
+        ClassLoader loader = new ClassLoader(PlanCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classBytes.get(name);
+                if (bytes == null) return super.findClass(name);
+                return this.defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            }
+        };
+        Class<?> pipelineClass = loader.loadClass(CLASS_NAME);
+        synchronized (compiledClasses) {
+            compiledClasses.put(source, pipelineClass);
+        }
+        return pipelineClass;
+    }
+}
@@ -16,12 +16,20 @@ public class ProjectOperator extends Operator {
     private Operator child;
     private String projectionName;
 
-    private List<Integer> projectIndices = new ArrayList<>();
+    private final int[] projectIndices;
     // a map from fields in new relation to child relation, indicates where to find the projection column in child tuple
     // e.g. projectIndices[0] = 2 means the first column after projection is the third column in original relation
 
-    private List<String> reportBuffer = new ArrayList<>();
-    // a buffer of all the reported tuples, used for duplication check
+    private final RowArena reportBuffer;
+    // a buffer of all the reported tuples stored off-heap, used for duplication check
+
+    private TupleBatch outputBatch = null;
+    private int[] probeInts;
+    private String[] probeStrings;
+    private Tuple probe;
+    // a tuple whose slots are overwritten with each projected row of a batch, to look it up in reportBuffer
+    private Tuple childBuffer = null;
+    // the row buffer passed to the child operator by the buffer-reusing projection
 
     /**
      * This is the constructor to Initialise the project operator.
@@ -34,24 +42,50 @@ public class ProjectOperator extends Operator {
         this.child = childOperator;
         List<String> childVariableMask = childOperator.getVarList(); // the variableMask before projection
         this.projectionName = queryHead.getName();
+        this.projectIndices = new int[queryHead.getTerms().size()];
         // For each variable in the relational atom of query head, find the corresponding position in child relation,
         // and build a mapping relation from the target index (after projection) to original index
         for (int i = 0; i < queryHead.getTerms().size(); i++) {
             String varName = ((Variable)queryHead.getTerms().get(i)).getName();
             int idx = childVariableMask.indexOf(varName);
-            this.projectIndices.add(idx);
+            this.projectIndices[i] = idx;
             this.varList.add(varName);
+            this.intColumns.add(childOperator.getIntColumns().get(idx));
             // this.variableMask will record the variable positions after projection
         }
+        this.reportBuffer = new RowArena(this.projectIndices.length, 0, DatabaseCatalog.getInstance().getStringDictionary());
     }
 
     /**
-     * Reset the child operator, and also clean the report buffer.
+     * Reset the child operator, and also clean the report buffer (its off-heap memory is released).
      */
     @Override
     public void reset() {
         this.child.reset();
-        this.reportBuffer = new ArrayList<>();
+        this.reportBuffer.clear();
+    }
+
+    /**
+     * Close the child operator, and release the off-heap memory of the report buffer.
+     */
+    @Override
+    public void close() {
+        this.child.close();
+        this.reportBuffer.clear();
+    }
+
+    // accessors used by the PlanCompiler
+
+    Operator getChild() {
+        return this.child;
+    }
+
+    int[] getProjectIndices() {
+        return this.projectIndices;
+    }
+
+    String getProjectionName() {
+        return this.projectionName;
     }
 
     /**
@@ -65,14 +99,9 @@ public class ProjectOperator extends Operator {
         Tuple childOutput = this.child.getNextTuple();
         while (childOutput != null) {
             // Use the map to construct projected tuple from original tuple by aligning indices
-            List<Term> termList = new ArrayList<>();
-            for (int pi : this.projectIndices) {
-                termList.add(childOutput.getTerms().get(pi));
-            }
-            // Construct a new tuple and also check duplication
-            Tuple newTuple = new Tuple(this.projectionName, termList);
-            if (!this.reportBuffer.contains(newTuple.toString())) {
-                this.reportBuffer.add(newTuple.toString());
+            Tuple newTuple = childOutput.project(this.projectionName, this.projectIndices);
+            // Check duplication, the tuples are compared by their values
+            if (this.reportBuffer.addIfAbsent(newTuple) < 0) {
                 return newTuple;
             }
             // If this new tuple duplicates with some previous reported tuple, iterate to the next child output tuple
@@ -81,6 +110,62 @@ public class ProjectOperator extends Operator {
         return null;
     }
 
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the child writes its tuples into a row buffer
+     * owned by this operator, and the projected tuple is written into the row buffer of the caller.
+     * A tuple reported for the first time is copied into reportBuffer (copy-on-retain).
+     * @param reuse the row buffer of the caller, overwritten with the next projected tuple.
+     * @return {@code reuse}, or {@code null} at the end.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        if (this.childBuffer == null)
+            this.childBuffer = new Tuple(this.projectionName, this.child.getVarList().size());
+        Tuple childOutput = this.child.getNextTuple(this.childBuffer);
+        while (childOutput != null) {
+            reuse.setValues(childOutput, this.projectIndices);
+            if (this.reportBuffer.addIfAbsent(reuse) < 0)
+                return reuse;
+            childOutput = this.child.getNextTuple(this.childBuffer);
+        }
+        return null;
+    }
+
+    /**
+     * The vectorized version of {@link #getNextTuple()}.
+     * The output batch shows the projected columns of the child batch without copying them,
+     * and the rows that duplicate some previously reported row are removed from its selection vector.
+     * The rows reported for the first time are copied into reportBuffer, no tuple is built.
+     * @return the next batch of projected rows (without duplication), or {@code null} at the end.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.outputBatch == null) {
+            this.outputBatch = new TupleBatch(this.projectIndices.length);
+            this.probeInts = new int[this.projectIndices.length];
+            this.probeStrings = new String[this.projectIndices.length];
+            this.probe = new Tuple(this.projectionName, this.probeInts, this.probeStrings);
+        }
+        TupleBatch childBatch = this.child.getNextBatch();
+        while (childBatch != null) {
+            int[] selection = childBatch.getSelection();
+            int kept = 0;
+            for (int i = 0; i < childBatch.size(); i++) {
+                int row = selection[i];
+                childBatch.copyRow(row, this.projectIndices, this.probeInts, this.probeStrings);
+                if (this.reportBuffer.addIfAbsent(this.probe) < 0)
+                    selection[kept++] = row;
+            }
+            childBatch.setSize(kept);
+            if (kept > 0) {
+                this.outputBatch.viewColumns(childBatch, this.projectIndices);
+                return this.outputBatch;
+            }
+            childBatch = this.child.getNextBatch();
+        }
+        return null;
+    }
+
     /**
      * Testing ProjectOperator, output is printed to console.
      * @param args Command line inputs, can be empty.
@@ -120,6 +205,7 @@ public class ProjectOperator extends Operator {
 
         ProjectOperator projOp = new ProjectOperator(seleOp, queryHeadAtom);
         projOp.dump(null);
+        projOp.close();
 
     }
 }
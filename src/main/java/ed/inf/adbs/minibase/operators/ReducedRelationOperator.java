@@ -0,0 +1,100 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The leaf of a plan whose atoms are reduced by a {@link YannakakisReducer}: it returns the tuples of the scan
+ * of an atom that are left after the semi-joins, with the same columns as the scan.
+ */
+public class ReducedRelationOperator extends Operator {
+
+    private final YannakakisReducer reducer;
+    private final int atom;
+    private List<Tuple> tuples = null;
+    private int position = 0;
+
+    /**
+     * @param reducer the reducer of the query body.
+     * @param atom the position of the atom in the query body.
+     * @param scan the scan of the atom, registered to the reducer.
+     */
+    ReducedRelationOperator(YannakakisReducer reducer, int atom, ScanOperator scan) {
+        this.reducer = reducer;
+        this.atom = atom;
+        this.varList = scan.getVarList();
+        this.intColumns = scan.getIntColumns();
+    }
+
+    /**
+     * @return the next reduced tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (this.tuples == null) this.tuples = this.getTuples();
+        return this.position < this.tuples.size() ? this.tuples.get(this.position++) : null;
+    }
+
+    /**
+     * @return all the reduced tuples of the atom, for the {@link PlanCompiler}; the reduction runs on the first call.
+     */
+    List<Tuple> getTuples() {
+        return this.reducer.getRelation(this.atom);
+    }
+
+    /**
+     * @return the reducer of the query body.
+     */
+    public YannakakisReducer getReducer() {
+        return this.reducer;
+    }
+
+    /**
+     * Restart from the first reduced tuple, the reduction is not run again.
+     */
+    @Override
+    public void reset() {
+        this.position = 0;
+    }
+
+    /**
+     * Close the scan of the atom, and release its reduced tuples.
+     */
+    @Override
+    public void close() {
+        this.reducer.close(this.atom);
+        this.tuples = null;
+    }
+
+    /**
+     * Unit test of ReducedRelationOperator, output is printed to the console.
+     * The acyclic query R(x, y, z), S(x, w, t), T(x, v) is reduced along the join tree with R at the root.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+
+        String[][] atoms = {{"R", "x", "y", "z"}, {"S", "x", "w", "t"}, {"T", "x", "v"}};
+        YannakakisReducer reducer = new YannakakisReducer(new int[]{-1, 0, 0}, new int[]{0, 1, 2});
+        List<ReducedRelationOperator> leaves = new ArrayList<>();
+        for (String[] atom : atoms) {
+            List<Term> queryAtomTerms = new ArrayList<>();
+            for (int i = 1; i < atom.length; i++)
+                queryAtomTerms.add(new Variable(atom[i]));
+            leaves.add(reducer.leaf(new ScanOperator(new RelationalAtom(atom[0], queryAtomTerms))));
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            System.out.println("Reduced " + atoms[i][0] + ":");
+            leaves.get(i).dump(null);
+        }
+        System.out.println(reducer);
+        System.out.println("-----------------------------------");
+        leaves.get(0).reset();
+        System.out.println(leaves.get(0).getNextTuple());
+        for (ReducedRelationOperator leaf : leaves) leaf.close();
+    }
+}
@@ -0,0 +1,217 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.RelationReader;
+import ed.inf.adbs.minibase.dbhelper.StringDictionary;
+import ed.inf.adbs.minibase.dbhelper.ZoneMap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * This class is used in {@link ScanOperator} to evaluate a select condition on the current record of a
+ * {@link RelationReader}, before any {@link ed.inf.adbs.minibase.dbhelper.Tuple} is built for it (predicate pushdown).
+ * All the variables of the condition must appear in the scanned {@link RelationalAtom}.
+ *
+ * Int fields are compared as parsed ints, string fields are compared with string constants on the raw bytes
+ * of the record (see {@link RelationReader#compareString(int, byte[])}), or on their codes when a
+ * {@link StringDictionary} is given (see {@link RelationReader#getStringCode(int, StringDictionary)}).
+ * Operands of different types are never equal, and cannot be ordered: '=' and the order comparisons fail, '!=' holds.
+ *
+ * The types and the kind of the operands (column or constant) are known when the plan is built, so the condition
+ * is compiled then into an evaluator specialized for them (int-int, code-code or string-string comparison,
+ * of a column with a constant or of two columns), which checks every record without testing any of them again.
+ */
+public class ScanCondition {
+
+    private final ComparisonOperator op;
+    private final int column1;          // relation column of the first operand, -1 if it is a constant
+    private final int column2;          // relation column of the second operand, -1 if it is a constant
+    private final boolean isInt1;
+    private final boolean isInt2;
+    private final int intConstant1;
+    private final int intConstant2;
+    private final byte[] stringConstant1;
+    private final byte[] stringConstant2;
+    private final StringDictionary dictionary;
+    private final int codeConstant1;
+    private final int codeConstant2;
+    private final Predicate<RelationReader> evaluator;
+
+    /**
+     * Initialise an instance based on an input {@link ComparisonAtom}.
+     * The {@link Variable} operands are resolved to their column in the scanned relation,
+     * the constant operands are stored as an int or as the UTF-8 bytes of the string.
+     * @param compAtom a comparison atom that represents a select condition.
+     * @param atomTerms the terms of the scanned relational atom, indicates the column of the variable operands.
+     * @param intColumn the column types of the relation: true for 'int', false for 'string'.
+     * @param dictionary the dictionary the string operands are encoded with, {@code null} to compare the strings.
+     */
+    public ScanCondition(ComparisonAtom compAtom, List<Term> atomTerms, boolean[] intColumn, StringDictionary dictionary) {
+        this.op = compAtom.getOp();
+        this.column1 = columnOf(compAtom.getTerm1(), atomTerms);
+        this.column2 = columnOf(compAtom.getTerm2(), atomTerms);
+        this.isInt1 = this.column1 >= 0 ? intColumn[this.column1] : compAtom.getTerm1() instanceof IntegerConstant;
+        this.isInt2 = this.column2 >= 0 ? intColumn[this.column2] : compAtom.getTerm2() instanceof IntegerConstant;
+        this.intConstant1 = intValue(compAtom.getTerm1());
+        this.intConstant2 = intValue(compAtom.getTerm2());
+        this.stringConstant1 = stringBytes(compAtom.getTerm1());
+        this.stringConstant2 = stringBytes(compAtom.getTerm2());
+        this.dictionary = dictionary;
+        this.codeConstant1 = stringCode(compAtom.getTerm1(), dictionary);
+        this.codeConstant2 = stringCode(compAtom.getTerm2(), dictionary);
+        this.evaluator = this.compileEvaluator();
+    }
+
+    private static int columnOf(Term term, List<Term> atomTerms) {
+        if (!(term instanceof Variable)) return -1;
+        int column = atomTerms.indexOf(term);
+        if (column < 0)
+            throw new IllegalArgumentException("Variable " + term + " does not appear in the scanned atom");
+        return column;
+    }
+
+    private static int intValue(Term term) {
+        return term instanceof IntegerConstant ? ((IntegerConstant) term).getValue() : 0;
+    }
+
+    private static byte[] stringBytes(Term term) {
+        return term instanceof StringConstant ? ((StringConstant) term).getValue().getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int stringCode(Term term, StringDictionary dictionary) {
+        if (dictionary == null || !(term instanceof StringConstant)) return 0;
+        return dictionary.encode(((StringConstant) term).getValue());
+    }
+
+    /**
+     * @param column a relation column.
+     * @return {@code true} if the condition reads that column.
+     */
+    public boolean readsColumn(int column) {
+        return this.column1 == column || this.column2 == column;
+    }
+
+    /**
+     * Check whether some record of a block of the relation may satisfy the condition, using the zone map of the relation.
+     * Only the conditions between a column and a constant can rule a block out:
+     * its min/max bound the order comparisons, and its Bloom filter (if any) the equalities.
+     * @param zoneMap the zone map of the scanned relation.
+     * @param block a block of the zone map.
+     * @return {@code false} if no record of the block satisfies the condition.
+     */
+    public boolean mayMatch(ZoneMap zoneMap, int block) {
+        if (this.isInt1 != this.isInt2)
+            return this.op == ComparisonOperator.NEQ;
+        if ((this.column1 >= 0) == (this.column2 >= 0))
+            return true;
+        // normalise to "column op constant"
+        int column = this.column1 >= 0 ? this.column1 : this.column2;
+        ComparisonOperator columnOp = this.column1 >= 0 ? this.op : this.op.reverse();
+        int minComparison, maxComparison;
+        boolean inFilter;
+        if (this.isInt1) {
+            int constant = this.column1 >= 0 ? this.intConstant2 : this.intConstant1;
+            minComparison = Integer.compare(zoneMap.getIntMin(column, block), constant);
+            maxComparison = Integer.compare(zoneMap.getIntMax(column, block), constant);
+            inFilter = columnOp != ComparisonOperator.EQ || zoneMap.mightContain(column, block, constant);
+        } else {
+            byte[] constant = this.column1 >= 0 ? this.stringConstant2 : this.stringConstant1;
+            minComparison = zoneMap.compareStringMin(column, block, constant);
+            maxComparison = zoneMap.compareStringMax(column, block, constant);
+            inFilter = columnOp != ComparisonOperator.EQ || zoneMap.mightContain(column, block, constant);
+        }
+        switch (columnOp) {
+            case EQ: return minComparison <= 0 && maxComparison >= 0 && inFilter;
+            case NEQ: return minComparison != 0 || maxComparison != 0;
+            case GT: return maxComparison > 0;
+            case GEQ: return maxComparison >= 0;
+            case LT: return minComparison < 0;
+            default: return minComparison <= 0;
+        }
+    }
+
+    /**
+     * Check whether the current record of the reader satisfies the condition.
+     * @param reader a reader positioned on a record.
+     * @return {@code true} if it satisfies the condition; {@code false} otherwise.
+     */
+    public boolean check(RelationReader reader) {
+        return this.evaluator.test(reader);
+    }
+
+    /**
+     * Build the evaluator of the condition, specialized for the types and the kind of its operands.
+     * A comparison of a constant with a column is turned around, so that the column always comes first.
+     */
+    private Predicate<RelationReader> compileEvaluator() {
+        ComparisonOperator op = this.op;
+        if (this.isInt1 != this.isInt2 || (this.column1 < 0 && this.column2 < 0)) {
+            // the result does not depend on the record
+            boolean result = this.isInt1 != this.isInt2 ? op == ComparisonOperator.NEQ
+                    : op.holds(this.isInt1 ? Integer.compare(this.intConstant1, this.intConstant2)
+                    : ZoneMap.compareBytes(this.stringConstant1, this.stringConstant2));
+            return reader -> result;
+        }
+        int column = this.column1 >= 0 ? this.column1 : this.column2;
+        ComparisonOperator columnOp = this.column1 >= 0 ? op : op.reverse();
+        StringDictionary dictionary = this.dictionary;
+        if (this.column1 >= 0 && this.column2 >= 0) {
+            int column2 = this.column2;
+            if (this.isInt1)
+                return reader -> op.holds(reader.getInt(column), reader.getInt(column2));
+            if (dictionary != null)
+                return reader -> op.holds(reader.getStringCode(column, dictionary), reader.getStringCode(column2, dictionary));
+            return reader -> op.holds(reader.compareStrings(column, column2));
+        }
+        if (this.isInt1) {
+            int constant = this.column1 >= 0 ? this.intConstant2 : this.intConstant1;
+            if (columnOp == ComparisonOperator.EQ) return reader -> reader.getInt(column) == constant;
+            return reader -> columnOp.holds(reader.getInt(column), constant);
+        }
+        if (dictionary != null) {
+            int code = this.column1 >= 0 ? this.codeConstant2 : this.codeConstant1;
+            if (columnOp == ComparisonOperator.EQ) return reader -> reader.getStringCode(column, dictionary) == code;
+            return reader -> columnOp.holds(reader.getStringCode(column, dictionary), code);
+        }
+        byte[] constant = this.column1 >= 0 ? this.stringConstant2 : this.stringConstant1;
+        if (columnOp == ComparisonOperator.EQ) return reader -> reader.compareString(column, constant) == 0;
+        return reader -> columnOp.holds(reader.compareString(column, constant));
+    }
+
+    /**
+     * Generate the Java expression of the condition on the current record of a reader, for {@link PlanCompiler}.
+     * The comparison is resolved like in {@link #check(RelationReader)} at compile time, the constants are inlined.
+     * @param reader the name of the reader variable in the generated code.
+     * @param compiler the compiler of the pipeline, declares the string constants.
+     * @return a boolean expression.
+     */
+    String compile(String reader, PlanCompiler compiler) {
+        if (this.isInt1 != this.isInt2)
+            return this.op == ComparisonOperator.NEQ ? "true" : "false";
+        String operand1, operand2;
+        if (this.isInt1) {
+            operand1 = this.column1 >= 0 ? reader + ".getInt(" + this.column1 + ")" : String.valueOf(this.intConstant1);
+            operand2 = this.column2 >= 0 ? reader + ".getInt(" + this.column2 + ")" : String.valueOf(this.intConstant2);
+        } else if (this.dictionary != null) {
+            operand1 = this.column1 >= 0 ? reader + ".getStringCode(" + this.column1 + ", this.dictionary)"
+                    : String.valueOf(this.codeConstant1);
+            operand2 = this.column2 >= 0 ? reader + ".getStringCode(" + this.column2 + ", this.dictionary)"
+                    : String.valueOf(this.codeConstant2);
+        } else if (this.column1 >= 0 && this.column2 < 0) {
+            operand1 = reader + ".compareString(" + this.column1 + ", " + compiler.bytesConstant(this.stringConstant2) + ")";
+            operand2 = "0";
+        } else if (this.column1 < 0 && this.column2 >= 0) {
+            operand1 = "0";
+            operand2 = reader + ".compareString(" + this.column2 + ", " + compiler.bytesConstant(this.stringConstant1) + ")";
+        } else if (this.column1 >= 0) {
+            operand1 = reader + ".compareStrings(" + this.column1 + ", " + this.column2 + ")";
+            operand2 = "0";
+        } else {
+            // the result does not depend on the record
+            return String.valueOf(this.check(null));
+        }
+        return "(" + operand1 + " " + PlanCompiler.javaOperator(this.op) + " " + operand2 + ")";
+    }
+}
@@ -3,89 +3,362 @@ package ed.inf.adbs.minibase.operators;
 import ed.inf.adbs.minibase.base.*;
 import ed.inf.adbs.minibase.dbhelper.*;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * This class implements the SCAN operation, reading data from data file and return them as {@link Tuple} instances.
  * Each {@link RelationalAtom} will be interpreted as a {@link ScanOperator} in query plan.
  * This operator will always be the leaf node of the query plan,
  * the selection and join conditions will be implemented in the parent nodes of this operator.
+ *
+ * The planner may push a projection into the scan by passing the live columns of the atom:
+ * the dead columns are then left out of the output tuples (and of the variable list),
+ * and the relation reader is told that it does not need to decode them.
+ *
+ * The planner may also push the select conditions that only involve the variables of the atom into the scan.
+ * They are checked as {@link ScanCondition} instances on the current record of the relation reader,
+ * so a {@link Tuple} is only built for the records that satisfy all of them.
+ * If the relation has a {@link ZoneMap}, the blocks of the file that cannot hold a matching record are not read at all.
+ *
+ * When the catalog has a {@link StringDictionary}, the string fields are emitted as their codes,
+ * along with the value held by the dictionary, and the scan conditions compare the codes.
  */
 public class ScanOperator extends Operator {
 
     private final String relationName;
-    private Scanner relationScanner;
-    private final List<String> relationSchema;
+    private RelationReader relationReader;
+    private final boolean[] intColumn;
+    // the column types of the relation, resolved once from the schema: true for 'int', false for 'string'
+    private final int[] outputColumns;
+    // a map from fields in output tuples to relation columns
+    private final List<ScanCondition> conditions = new ArrayList<>();
+    private final ConjunctionOrder conditionOrder;
+    // the order the conditions are checked in, the most selective first
+    private final ThreadLocal<ConjunctionOrder> readerConditionOrders;
+    // the orders of the conditions checked by the relation reader: its worker threads gather their statistics
+    // on their own, a ConjunctionOrder is not thread-safe
+    private final boolean[] requiredColumns;
+    // the relation columns read by the scan: the live columns and the columns of the conditions
+    private boolean filteredByReader = false;
+    // whether the relation reader checks the conditions itself (e.g. on the worker threads of a parallel scan)
+    private final StringDictionary dictionary;
+    // the string dictionary of the catalog, null if the strings are not encoded
+    private TupleBatch batch = null;
+    // the batch returned by getNextBatch(), reused for every call
+    private MappedRelationReader recordReader = null;
+    // the reader of the records fetched by their file offset (see fetchRecord), opened on the first fetch
+
+    /**
+     * Build a scan that outputs all the columns of the relation.
+     * @param baseQueryAtom relational atom in query body, providing relation name and variable mask.
+     */
+    public ScanOperator(RelationalAtom baseQueryAtom) {
+        this(baseQueryAtom, null, new ArrayList<>());
+    }
 
     /**
      * This constructor initializes the file reader, makes connection to Database catalog.
      * It utilises the relation name to retrieve the corresponding schema.
-     * The terms in the relational atom are used to build the variable mask.
+     * The terms in the relational atom at the live columns are used to build the variable mask.
      * @param baseQueryAtom relational atom in query body, providing relation name and variable mask.
+     * @param liveColumns a mask over the terms of the atom, the columns to be output; {@code null} to output all columns.
+     * @param compAtomList the select conditions to be checked by the scan, their variables must all appear in the atom.
      */
-    public ScanOperator(RelationalAtom baseQueryAtom) {
-        for (Term term : baseQueryAtom.getTerms()) {
-            if (term instanceof Variable)
-                this.varList.add(((Variable) term).getName());
+    public ScanOperator(RelationalAtom baseQueryAtom, boolean[] liveColumns, List<ComparisonAtom> compAtomList) {
+        List<Term> terms = baseQueryAtom.getTerms();
+        List<Integer> outputColumns = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            if (liveColumns != null && !liveColumns[i]) continue;
+            outputColumns.add(i);
+            if (terms.get(i) instanceof Variable)
+                this.varList.add(((Variable) terms.get(i)).getName());
             else
                 this.varList.add(null);
         }
+        this.outputColumns = new int[outputColumns.size()];
+        for (int i = 0; i < this.outputColumns.length; i++)
+            this.outputColumns[i] = outputColumns.get(i);
 
         this.relationName = baseQueryAtom.getName();
         DatabaseCatalog dbc = DatabaseCatalog.getInstance();
-        this.relationSchema = dbc.getSchema(relationName);
+        List<String> relationSchema = dbc.getSchema(relationName);
+        this.intColumn = new boolean[relationSchema.size()];
+        for (int i = 0; i < relationSchema.size(); i++)
+            this.intColumn[i] = relationSchema.get(i).equals("int");
+        for (int i = 0; i < this.outputColumns.length; i++)
+            this.intColumns.add(this.intColumn[this.outputColumns[i]]);
+
+        this.dictionary = dbc.getStringDictionary();
+        for (ComparisonAtom comparisonAtom : compAtomList)
+            this.conditions.add(new ScanCondition(comparisonAtom, terms, this.intColumn, this.dictionary));
+        int conditionCount = this.conditions.size();
+        this.conditionOrder = new ConjunctionOrder(conditionCount);
+        this.readerConditionOrders = ThreadLocal.withInitial(() -> new ConjunctionOrder(conditionCount));
+        if (liveColumns == null) {
+            this.requiredColumns = null;
+        } else {
+            this.requiredColumns = liveColumns.clone();
+            for (int i = 0; i < this.requiredColumns.length; i++)
+                for (ScanCondition condition : this.conditions)
+                    if (condition.readsColumn(i)) this.requiredColumns[i] = true;
+        }
         this.reset();
     }
 
-//    @Override
-//    public void dump(String outputFile) {
-//        while (this.relationScanner.hasNextLine()) {
-//            System.out.println(this.getNextTuple());
-//        }
-//    }
-
     /**
-     * Reset the operator state. A new Scanner instance will be built,
-     * so that the following read operations will back to the beginning of file.
+     * Reset the operator state. The relation reader is opened through the {@link DatabaseCatalog} on the first call,
+     * later calls move the reader back to the beginning of file.
      */
     @Override
     public void reset() {
+        if (this.relationReader != null) {
+            this.relationReader.reset();
+            return;
+        }
         DatabaseCatalog dbc = DatabaseCatalog.getInstance();
         try {
-            this.relationScanner = new Scanner(new File(dbc.getRelationPath(relationName)));
-        } catch (FileNotFoundException e) {
+            this.relationReader = dbc.openRelation(relationName);
+            this.relationReader.setRequiredColumns(this.requiredColumns);
+            if (!this.conditions.isEmpty()) {
+                this.filteredByReader = this.relationReader.setRecordFilter(
+                        reader -> this.satisfiesConditions(reader, this.readerConditionOrders.get()));
+                this.skipBlocks(dbc);
+            }
+            // a background reader starts as soon as the plan is built, all the scans of the plan run concurrently
+            this.relationReader.startPrefetch();
+        } catch (IOException e) {
             System.out.println("Relation data file not found: " + dbc.getRelationPath(relationName));
             e.printStackTrace();
         }
     }
 
     /**
-     * Read the next line of relation file, return it as a {@link Tuple} instance.
+     * Close the relation reader, a later call to {@link #reset()} opens it again.
+     */
+    @Override
+    public void close() {
+        if (this.relationReader != null) {
+            this.relationReader.close();
+            this.relationReader = null;
+        }
+        if (this.recordReader != null) {
+            this.recordReader.close();
+            this.recordReader = null;
+        }
+    }
+
+    // accessors used by the PlanCompiler, the compiled pipeline reads the relation through the reader of the scan
+
+    RelationReader getRelationReader() {
+        return this.relationReader;
+    }
+
+    boolean[] getIntColumn() {
+        return this.intColumn;
+    }
+
+    int[] getOutputColumns() {
+        return this.outputColumns;
+    }
+
+    List<ScanCondition> getConditions() {
+        return this.conditions;
+    }
+
+    String getRelationName() {
+        return this.relationName;
+    }
+
+    /**
+     * Read the record of the relation text file starting at a file offset, found in a {@link BPlusTreeIndex}
+     * by an {@link IndexNestedLoopJoinOperator}. The records are read by a reader of their own, the sequential
+     * scan is not moved.
+     * @param offset the file offset of the record.
+     * @return the live columns of the record as a {@link Tuple}, or {@code null} if it does not satisfy
+     *         the scan conditions.
+     */
+    Tuple fetchRecord(long offset) {
+        if (this.recordReader == null) {
+            DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+            try {
+                this.recordReader = new MappedRelationReader(dbc.getRelationPath(this.relationName),
+                        dbc.getSchema(this.relationName));
+                this.recordReader.setRequiredColumns(this.requiredColumns);
+            } catch (IOException e) {
+                System.out.println("Relation data file not found: " + dbc.getRelationPath(this.relationName));
+                e.printStackTrace();
+                return null;
+            }
+        }
+        if (!this.recordReader.readRecordAt(offset)
+                || !this.satisfiesConditions(this.recordReader, this.conditionOrder)) return null;
+        return this.buildTuple(this.recordReader);
+    }
+
+    /**
+     * Restrict the relation reader to the blocks of the zone map of the relation that may hold a record
+     * satisfying all the scan conditions, adjacent blocks are merged into one byte range.
+     * Nothing is done if the relation has no usable zone map.
+     * @param dbc the catalog providing the zone map and the scan statistics.
+     */
+    private void skipBlocks(DatabaseCatalog dbc) {
+        ZoneMap zoneMap = dbc.getZoneMap(this.relationName);
+        if (zoneMap == null) return;
+        int blocks = zoneMap.getBlockCount();
+        long[] starts = new long[blocks];
+        long[] ends = new long[blocks];
+        int ranges = 0;
+        int skipped = 0;
+        for (int block = 0; block < blocks; block++) {
+            boolean mayMatch = true;
+            for (ScanCondition condition : this.conditions) {
+                if (!condition.mayMatch(zoneMap, block)) {
+                    mayMatch = false;
+                    break;
+                }
+            }
+            if (!mayMatch) {
+                skipped++;
+            } else if (ranges > 0 && ends[ranges - 1] == zoneMap.getBlockStart(block)) {
+                ends[ranges - 1] = zoneMap.getBlockEnd(block);
+            } else {
+                starts[ranges] = zoneMap.getBlockStart(block);
+                ends[ranges] = zoneMap.getBlockEnd(block);
+                ranges++;
+            }
+        }
+        if (skipped > 0 && this.relationReader.restrictToRanges(Arrays.copyOf(starts, ranges), Arrays.copyOf(ends, ranges)))
+            dbc.getScanStatistics().addBlocks(blocks, skipped);
+        else
+            dbc.getScanStatistics().addBlocks(blocks, 0);
+    }
+
+    /**
+     * Read the next line of relation file that satisfies all the scan conditions,
+     * return its live columns as a {@link Tuple} instance.
      * The schema information stored in {@link DatabaseCatalog} indicates
      * whether a column of relation database should be interpreted as Integer or String.
      * @return a {@link Tuple} instance that represents the data in next line of the data file.
      */
     @Override
     public Tuple getNextTuple() {
-        if (this.relationScanner.hasNextLine()) {
-            String line = this.relationScanner.nextLine();
-            String[] raw_data = line.split("[^a-zA-Z0-9]+");
-            ArrayList<Term> terms = new ArrayList<>();
-            for (int i = 0; i < raw_data.length; i++) {
-                if (this.relationSchema.get(i).equals("int")) {
-                    terms.add(new IntegerConstant(Integer.parseInt(raw_data[i])));
+        if (this.relationReader != null && this.nextMatchingRecord()) {
+            return this.buildTuple(this.relationReader);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the live columns of the current record of a reader as a {@link Tuple} instance.
+     */
+    private Tuple buildTuple(RelationReader reader) {
+        int[] ints = new int[this.outputColumns.length];
+        String[] strings = null;
+        for (int i = 0; i < this.outputColumns.length; i++) {
+            int column = this.outputColumns[i];
+            if (this.intColumn[column]) {
+                ints[i] = reader.getInt(column);
+            } else {
+                if (strings == null) strings = new String[this.outputColumns.length];
+                ints[i] = this.readStringCode(reader, column);
+                strings[i] = this.readString(reader, column, ints[i]);
+            }
+        }
+        return new Tuple(this.relationName, ints, strings);
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}:
+     * the live columns of the next matching record are written into the row buffer of the caller.
+     * @param reuse the row buffer, overwritten with the next record.
+     * @return {@code reuse}, or {@code null} at the end of file.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        if (this.relationReader == null || !this.nextMatchingRecord()) return null;
+        for (int i = 0; i < this.outputColumns.length; i++) {
+            int column = this.outputColumns[i];
+            if (this.intColumn[column]) {
+                reuse.setInt(i, this.relationReader.getInt(column));
+            } else {
+                int code = this.readStringCode(this.relationReader, column);
+                reuse.setString(i, this.readString(this.relationReader, column, code), code);
+            }
+        }
+        return reuse;
+    }
+
+    /**
+     * Read the next records of relation file that satisfy all the scan conditions into a batch,
+     * the live columns are written straight from the relation reader into the column vectors.
+     * @return a batch of up to {@link TupleBatch#CAPACITY} records, or {@code null} at the end of file.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.relationReader == null) return null;
+        if (this.batch == null) this.batch = new TupleBatch(this.outputColumns.length);
+        this.batch.clear();
+        while (!this.batch.isFull() && this.nextMatchingRecord()) {
+            int row = this.batch.appendRow();
+            for (int i = 0; i < this.outputColumns.length; i++) {
+                int column = this.outputColumns[i];
+                if (this.intColumn[column]) {
+                    this.batch.setInt(i, row, this.relationReader.getInt(column));
                 } else {
-                    terms.add(new StringConstant(raw_data[i]));
+                    int code = this.readStringCode(this.relationReader, column);
+                    this.batch.setString(i, row, this.readString(this.relationReader, column, code), code);
                 }
             }
-            return new Tuple(this.relationName, terms);
-        } else {
-            return null;
         }
+        return this.batch.size() > 0 ? this.batch : null;
+    }
+
+    /**
+     * @return the dictionary code of a string field of the current record, {@link Tuple#NO_CODE} without dictionary.
+     */
+    private int readStringCode(RelationReader reader, int column) {
+        return this.dictionary == null ? Tuple.NO_CODE : reader.getStringCode(column, this.dictionary);
+    }
+
+    /**
+     * @return the value of a string field of the current record: the instance held by the dictionary
+     *         if the field is encoded, so that no String is built for it.
+     */
+    private String readString(RelationReader reader, int column, int code) {
+        if (this.dictionary != null && this.dictionary.isStored(code))
+            return this.dictionary.decode(code);
+        return reader.getString(column);
+    }
+
+    /**
+     * Move the relation reader to the next record that satisfies all the scan conditions.
+     * @return {@code false} if the end of file is reached.
+     */
+    private boolean nextMatchingRecord() {
+        if (this.filteredByReader) return this.relationReader.nextRecord();
+        while (this.relationReader.nextRecord()) {
+            if (this.satisfiesConditions(this.relationReader, this.conditionOrder)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The conditions are checked in the order of their measured selectivity, see {@link ConjunctionOrder}.
+     * @param reader a reader positioned on a record of the relation.
+     * @param order the order of the conditions of the calling thread.
+     * @return {@code true} if the record satisfies all the scan conditions.
+     */
+    private boolean satisfiesConditions(RelationReader reader, ConjunctionOrder order) {
+        for (int condition : order.next()) {
+            boolean passed = this.conditions.get(condition).check(reader);
+            order.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
     }
 
     /**
@@ -1,82 +1,164 @@
 package ed.inf.adbs.minibase.operators;
 
 import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.DatabaseCatalog;
+import ed.inf.adbs.minibase.dbhelper.StringDictionary;
 import ed.inf.adbs.minibase.dbhelper.Tuple;
+import ed.inf.adbs.minibase.dbhelper.TupleBatch;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * This class is used in {@link SelectOperator},
  * providing methods for checking whether a given tuple satisfies a select condition.
+ * The condition is compiled when the plan is built into an evaluator specialized for the types of its operands
+ * and for their kind (a column compared with a constant, or two columns), see {@link #check(Tuple)}.
  */
 public class SelectCondition {
-    private String op;
-    private Term term1 = null;
+    private ComparisonOperator op;
+    private Tuple term1 = null;
     private int term1Idx;
-    private Term term2 = null;
+    private Tuple term2 = null;
     private int term2Idx;
+    private final Predicate<Tuple> evaluator;
 
     /**
      * Initialise an instance based on an input {@link ComparisonAtom}.
-     * Store the comparison operation (e.g. '=', '>') as a string,
-     * Store the {@link IntegerConstant} and {@link StringConstant} operands as a copy of term,
+     * Store the comparison operation (e.g. '=', '>') as a {@link ComparisonOperator},
+     * Store the {@link IntegerConstant} and {@link StringConstant} operands as a one-value tuple,
      * The {@link Variable} operand will be stored as its index in the target tuple (represented by a variable mask).
+     * Then the condition is compiled into its evaluator.
      * @param compAtom a comparison atom that represents a select condition
      * @param variableMask the variable mask of tuples to be checked, indicates the index of variable operand
+     * @param intColumns the column types of tuples to be checked: true for 'int', false for 'string'
      */
-    public SelectCondition(ComparisonAtom compAtom, List<String> variableMask) {
-        this.op = compAtom.getOp().toString();
+    public SelectCondition(ComparisonAtom compAtom, List<String> variableMask, List<Boolean> intColumns) {
+        this.op = compAtom.getOp();
+        StringDictionary dictionary = DatabaseCatalog.getInstance().getStringDictionary();
         // check the class of each operand, store in different formats
         if (compAtom.getTerm1() instanceof Variable) {
             this.term1Idx = variableMask.indexOf(((Variable) compAtom.getTerm1()).getName());
-//            System.out.println("Term 1 is Variable, at relation index: " + this.term1Idx);
         } else {
-            this.term1 = compAtom.getTerm1();
-//            System.out.println("Term 1 is Constant: " + this.term1);
+            this.term1 = constantTuple(compAtom.getTerm1(), dictionary);
         }
         if (compAtom.getTerm2() instanceof Variable) {
             this.term2Idx = variableMask.indexOf(((Variable) compAtom.getTerm2()).getName());
-//            System.out.println("Term 2 is Variable, at relation index: " + this.term2Idx);
         } else {
-            this.term2 = compAtom.getTerm2();
-//            System.out.println("Term 2 is Constant: " + this.term2);
+            this.term2 = constantTuple(compAtom.getTerm2(), dictionary);
         }
+        boolean isInt1 = this.term1 == null ? intColumns.get(this.term1Idx) : !this.term1.isString(0);
+        boolean isInt2 = this.term2 == null ? intColumns.get(this.term2Idx) : !this.term2.isString(0);
+        this.evaluator = this.compileEvaluator(isInt1, isInt2, dictionary != null);
     }
 
     /**
-     * Check whether an input tuple satisfies the select condition.
+     * Build the evaluator of the condition, specialized for the types and the kind of its operands.
+     * Ints and strings encoded with the dictionary are compared on the int slots of the tuples,
+     * a comparison of a constant with a column is turned around so that the column always comes first.
+     * @param isInt1 the type of the first operand.
+     * @param isInt2 the type of the second operand.
+     * @param encoded whether the strings of the checked tuples and of the constants are encoded.
+     */
+    private Predicate<Tuple> compileEvaluator(boolean isInt1, boolean isInt2, boolean encoded) {
+        ComparisonOperator op = this.op;
+        if (isInt1 != isInt2) {
+            boolean result = op == ComparisonOperator.NEQ;
+            return tuple -> result;
+        }
+        if (this.term1 != null && this.term2 != null) {
+            boolean result = op.holds(this.term1.compareValue(0, this.term2, 0));
+            return tuple -> result;
+        }
+        boolean compareInts = isInt1 || encoded;
+        if (this.term1 == null && this.term2 == null) {
+            int index1 = this.term1Idx;
+            int index2 = this.term2Idx;
+            if (compareInts) return tuple -> op.holds(tuple.getInt(index1), tuple.getInt(index2));
+            return tuple -> op.holds(Tuple.compareStrings(tuple.getString(index1), tuple.getString(index2)));
+        }
+        int index = this.term1 == null ? this.term1Idx : this.term2Idx;
+        Tuple constant = this.term1 == null ? this.term2 : this.term1;
+        ComparisonOperator columnOp = this.term1 == null ? op : op.reverse();
+        if (compareInts) {
+            int value = constant.getInt(0);
+            if (columnOp == ComparisonOperator.EQ) return tuple -> tuple.getInt(index) == value;
+            return tuple -> columnOp.holds(tuple.getInt(index), value);
+        }
+        String value = constant.getString(0);
+        if (columnOp == ComparisonOperator.EQ) return tuple -> value.equals(tuple.getString(index));
+        if (columnOp == ComparisonOperator.NEQ) return tuple -> !value.equals(tuple.getString(index));
+        return tuple -> columnOp.holds(Tuple.compareStrings(tuple.getString(index), value));
+    }
+
+    /**
+     * Build the one-value tuple of a constant operand, a string constant is encoded with the string dictionary
+     * of the catalog (if enabled) so that it is compared with the codes of the scanned strings.
+     */
+    private static Tuple constantTuple(Term constant, StringDictionary dictionary) {
+        if (dictionary != null && constant instanceof StringConstant) {
+            String value = ((StringConstant) constant).getValue();
+            return new Tuple(null, new int[]{dictionary.encode(value)}, new String[]{value});
+        }
+        return new Tuple(null, Collections.singletonList(constant));
+    }
+
+    /**
+     * Check whether an input tuple satisfies the select condition, with the evaluator compiled for it.
+     * The operands are compared on the primitive slots of the tuples, an int operand never equals a string operand,
+     * and is neither less nor greater than it.
      * @param tuple tuple to be checked.
      * @return {@code true} if it satisfies the condition; {@code false} otherwise.
      */
     public boolean check(Tuple tuple) {
-        // get the variable operand from input tuple, get the Constant operand from stored Term instances
-        Term operand1 = this.term1 == null ? tuple.getTerms().get(term1Idx) : this.term1;
-        Term operand2 = this.term2 == null ? tuple.getTerms().get(term2Idx) : this.term2;
+        return this.evaluator.test(tuple);
+    }
 
-        // interpret the string comparison operator and inspect the input tuple
-        if (this.op.equals("=")) {
-            return operand1.equals(operand2);
-        } else if (this.op.equals("!=")) {
-            return (!operand1.equals(operand2));
-        } else if (this.op.equals(">")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() > ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) > 0;
-        } else if (this.op.equals(">=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() >= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) >= 0;
-        } else if (this.op.equals("<")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() < ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) < 0;
-        } else if (this.op.equals("<=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() <= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) <= 0;
+    /**
+     * Keep the selected rows of a batch that satisfy the select condition, by compacting its selection vector.
+     * The type of the operands and the comparison are resolved per row, in one loop over the batch
+     * for the whole condition.
+     * @param batch the batch to be filtered.
+     */
+    public void filter(TupleBatch batch) {
+        int[] selection = batch.getSelection();
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int row = selection[i];
+            if (this.check(batch, row)) selection[kept++] = row;
+        }
+        batch.setSize(kept);
+    }
+
+    private boolean check(TupleBatch batch, int row) {
+        boolean isString1 = this.term1 == null ? batch.isString(this.term1Idx, row) : this.term1.isString(0);
+        boolean isString2 = this.term2 == null ? batch.isString(this.term2Idx, row) : this.term2.isString(0);
+        if (isString1 != isString2)
+            return this.op == ComparisonOperator.NEQ;
+        int value1 = this.term1 == null ? batch.getInt(this.term1Idx, row) : this.term1.getInt(0);
+        int value2 = this.term2 == null ? batch.getInt(this.term2Idx, row) : this.term2.getInt(0);
+        int comparison;
+        if (isString1 && (value1 == Tuple.NO_CODE || value2 == Tuple.NO_CODE)) {
+            String string1 = this.term1 == null ? batch.getString(this.term1Idx, row) : this.term1.getString(0);
+            String string2 = this.term2 == null ? batch.getString(this.term2Idx, row) : this.term2.getString(0);
+            comparison = Tuple.compareStrings(string1, string2);
         } else {
-            System.out.println("!!!! None of the if-branches is evoked in the Selection Operator !!!!");
-            return false;
+            // ints, or strings encoded with the dictionary
+            comparison = Integer.compare(value1, value2);
         }
+        return this.op.holds(comparison);
+    }
+
+    /**
+     * Generate the Java expression of the condition on a row of a compiled pipeline, for {@link PlanCompiler}.
+     * @param columns the expressions of the values of the row.
+     * @param compiler the compiler of the pipeline, declares the string constants.
+     * @return a boolean expression.
+     */
+    String compile(List<PlanCompiler.Column> columns, PlanCompiler compiler) {
+        PlanCompiler.Column operand1 = this.term1 == null ? columns.get(this.term1Idx) : compiler.constant(this.term1);
+        PlanCompiler.Column operand2 = this.term2 == null ? columns.get(this.term2Idx) : compiler.constant(this.term2);
+        return PlanCompiler.comparison(this.op, operand1, operand2);
     }
-}
\ No newline at end of file
+}
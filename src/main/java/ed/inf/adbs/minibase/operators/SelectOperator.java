@@ -15,12 +15,14 @@ import java.util.List;
  * The check of conditions are implemented in a separate class: {@link SelectCondition}, which provides a
  * {@link SelectCondition#check(Tuple)} method to check whether a tuple satisfies a given condition.
  * The input {@code ComparisonAtom} list will be converted into a {@code SelectCondition} list,
- * then the select conditions are checked by travelling through this list and calling the {@code check()} method.
+ * then the select conditions are checked by travelling through this list and calling the {@code check()} method,
+ * in the order of their measured selectivity (see {@link ConjunctionOrder}).
  */
 public class SelectOperator extends Operator {
 
     private Operator child;
     private List<SelectCondition> conditions = new ArrayList<>();
+    private final ConjunctionOrder conditionOrder;
 
     /**
      * Constructor to initialise SelectOperator.
@@ -32,10 +34,12 @@ public class SelectOperator extends Operator {
     public SelectOperator(Operator child, List<ComparisonAtom> compAtomList) {
         this.child = child;
         this.varList = this.child.getVarList();
+        this.intColumns = this.child.getIntColumns();
 
         for (ComparisonAtom comparisonAtom : compAtomList) {
-            this.conditions.add(new SelectCondition(comparisonAtom, this.varList));
+            this.conditions.add(new SelectCondition(comparisonAtom, this.varList, this.intColumns));
         }
+        this.conditionOrder = new ConjunctionOrder(this.conditions.size());
     }
 
     /**
@@ -47,6 +51,19 @@ public class SelectOperator extends Operator {
         this.child.reset();
     }
 
+    @Override
+    public void close() {
+        this.child.close();
+    }
+
+    Operator getChild() {
+        return this.child;
+    }
+
+    List<SelectCondition> getConditions() {
+        return this.conditions;
+    }
+
     /**
      * This method returns the next tuple that satisfies the SELECT conditions.
      * It iteratively fetches the next tuple from its child operator until a fetched tuple satisfies
@@ -58,14 +75,7 @@ public class SelectOperator extends Operator {
     public Tuple getNextTuple() {
         Tuple nextTuple = this.child.getNextTuple();
         while (nextTuple != null) {
-            boolean pass = true;
-            for (SelectCondition condition : this.conditions) {
-                if (!condition.check(nextTuple)) {
-                    pass = false;
-                    break;
-                }
-            }
-            if (pass)
+            if (this.satisfiesConditions(nextTuple))
                 return nextTuple;
             else
                 nextTuple = this.child.getNextTuple();
@@ -73,6 +83,56 @@ public class SelectOperator extends Operator {
         return null;
     }
 
+    /**
+     * @return {@code true} if a tuple satisfies ALL the SELECT conditions.
+     */
+    private boolean satisfiesConditions(Tuple tuple) {
+        for (int condition : this.conditionOrder.next()) {
+            boolean passed = this.conditions.get(condition).check(tuple);
+            this.conditionOrder.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}, the row buffer is passed down to the child operator.
+     * @param reuse the row buffer of the caller.
+     * @return the next Tuple or `null` if the child operator reaches the end
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        Tuple nextTuple = this.child.getNextTuple(reuse);
+        while (nextTuple != null) {
+            if (this.satisfiesConditions(nextTuple)) return nextTuple;
+            nextTuple = this.child.getNextTuple(reuse);
+        }
+        return null;
+    }
+
+    /**
+     * This method returns the next batch of the child operator, with the rows that do not satisfy all the SELECT
+     * conditions removed from its selection vector. Each condition is applied to the whole batch in turn,
+     * on the rows left by the previous ones. Batches left empty are skipped.
+     * @return the next non-empty batch, or `null` if the child operator reaches the end
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        TupleBatch batch = this.child.getNextBatch();
+        while (batch != null) {
+            for (int condition : this.conditionOrder.next()) {
+                int tested = batch.size();
+                this.conditions.get(condition).filter(batch);
+                this.conditionOrder.record(condition, tested, batch.size());
+                if (batch.size() == 0) break;
+            }
+            if (batch.size() > 0)
+                return batch;
+            batch = this.child.getNextBatch();
+        }
+        return null;
+    }
+
     /**
      * Unit testing SelectOperator
      * @param args These are command line arguments.
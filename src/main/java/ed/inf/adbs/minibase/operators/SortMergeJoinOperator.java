@@ -0,0 +1,221 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sort-merge join, for the joins with at least one equality between the left and the right tuples
+ * (see {@link JoinOperator#hasEquality}), whose inputs do not have to fit in memory.
+ *
+ * The first call reads both children into an {@link ExternalSorter} each, sorted by the columns of the equalities;
+ * the sorters spill sorted runs to temporary files when their tuples exceed half of the operator memory budget of the
+ * {@link DatabaseCatalog} each. The two sorted inputs are then merged: the side with the smaller key is advanced,
+ * and on equal keys the group of right tuples with that key is buffered, so that every left tuple of the key
+ * is paired with the whole group (the duplicate keys of both sides). The other join conditions are checked on these
+ * pairs only. Only one group of right tuples is kept in memory besides the sorters.
+ *
+ * The output is the same set of tuples as the one of {@link JoinOperator} (the left columns followed by the kept
+ * right columns), in the order of the join keys. The sorted inputs are kept across {@link #reset()},
+ * and deleted by {@link #close()}.
+ */
+public class SortMergeJoinOperator extends JoinOperator {
+
+    private final ConjunctionOrder residualOrder;
+    // the order the join conditions other than the equalities are checked in
+
+    private ExternalSorter leftSorter = null;
+    private ExternalSorter rightSorter = null;
+    // the sorted children, null until the first call
+    private Tuple rightNext = null;
+    // the first right tuple after the current group
+    private final List<Tuple> group = new ArrayList<>();
+    // the right tuples whose key equals the one of the current left tuple
+    private Tuple leftTuple = null;
+    private int groupPosition = 0;
+    // the current left tuple, and the next tuple of the group to pair it with
+
+    /**
+     * @param leftChild the left child operator.
+     * @param rightChild the right child operator.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     */
+    public SortMergeJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms) {
+        super(leftChild, rightChild, comparisonAtoms);
+        this.residualOrder = new ConjunctionOrder(this.getResidualConditions().size());
+    }
+
+    /**
+     * Read both children into their sorter, and sort them by the join keys.
+     */
+    private void sortInputs() {
+        long memoryBudget = DatabaseCatalog.getInstance().getOperatorMemory() / 2;
+        this.leftSorter = sort(this.getLeftChild(), this.getLeftKeys(), memoryBudget);
+        this.rightSorter = sort(this.getRightChild(), this.getRightKeys(), memoryBudget);
+        this.rightNext = this.rightSorter.next();
+    }
+
+    private static ExternalSorter sort(Operator child, int[] keys, long memoryBudget) {
+        ExternalSorter sorter = new ExternalSorter("Join", keys, memoryBudget);
+        Tuple tuple;
+        while ((tuple = child.getNextTuple()) != null)
+            sorter.add(tuple);
+        sorter.sort();
+        return sorter;
+    }
+
+    /**
+     * Merge step: pair the current left tuple with the next tuple of its group of right tuples that satisfies the
+     * other join conditions, moving to the next left tuple (and to its group, if its key is greater) once the group
+     * is exhausted.
+     * @return the right tuple paired with {@link #leftTuple}, or {@code null} if there is no pair left.
+     */
+    private Tuple nextPair() {
+        if (this.leftSorter == null) this.sortInputs();
+        while (true) {
+            if (this.leftTuple != null) {
+                while (this.groupPosition < this.group.size()) {
+                    Tuple rightTuple = this.group.get(this.groupPosition++);
+                    if (this.residualHolds(this.leftTuple, rightTuple)) return rightTuple;
+                }
+                this.leftTuple = null;
+            }
+            Tuple left = this.leftSorter.next();
+            if (left == null) return null;
+            this.groupPosition = 0;
+            if (!this.group.isEmpty() && this.compareWithGroup(left) == 0) {
+                // a duplicate key on the left side, paired with the same group
+                this.leftTuple = left;
+                continue;
+            }
+            this.group.clear();
+            while (this.rightNext != null
+                    && ExternalSorter.compareKeys(this.rightNext, this.getRightKeys(), left, this.getLeftKeys()) < 0)
+                this.rightNext = this.rightSorter.next();
+            if (this.rightNext == null) return null;
+            while (this.rightNext != null
+                    && ExternalSorter.compareKeys(this.rightNext, this.getRightKeys(), left, this.getLeftKeys()) == 0) {
+                this.group.add(this.rightNext);
+                this.rightNext = this.rightSorter.next();
+            }
+            if (!this.group.isEmpty()) this.leftTuple = left;
+        }
+    }
+
+    private int compareWithGroup(Tuple left) {
+        return ExternalSorter.compareKeys(left, this.getLeftKeys(), this.group.get(0), this.getRightKeys());
+    }
+
+    private boolean residualHolds(Tuple left, Tuple right) {
+        for (int condition : this.residualOrder.next()) {
+            boolean passed = this.getResidualConditions().get(condition).check(left, right);
+            this.residualOrder.record(condition, passed);
+            if (!passed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the next joined tuple, or {@code null} if there is none left.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        Tuple rightTuple = this.nextPair();
+        if (rightTuple == null) return null;
+        return Tuple.concat("Join", this.leftTuple, rightTuple, this.getRightKeptColumns());
+    }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the join result is written into the row buffer of the
+     * caller. The sorters keep the tuples of the children, so these are read with {@link Operator#getNextTuple()}.
+     * @param reuse the row buffer of the caller, overwritten with the next joined tuple.
+     * @return {@code reuse}, or {@code null} if there is no joined tuple left.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        Tuple rightTuple = this.nextPair();
+        if (rightTuple == null) return null;
+        reuse.setConcat(this.leftTuple, rightTuple, this.getRightKeptColumns());
+        return reuse;
+    }
+
+    /**
+     * The batches are filled from {@link #getNextTuple()}, the nested loop over batches of {@link JoinOperator}
+     * is not used.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.fillBatchFromTuples();
+    }
+
+    /**
+     * Restart the merge, the sorted inputs are kept (the children are only reset if they are not sorted yet).
+     */
+    @Override
+    public void reset() {
+        if (this.leftSorter == null) {
+            this.getLeftChild().reset();
+            this.getRightChild().reset();
+        } else {
+            this.leftSorter.rewind();
+            this.rightSorter.rewind();
+            this.rightNext = this.rightSorter.next();
+        }
+        this.group.clear();
+        this.leftTuple = null;
+        this.groupPosition = 0;
+    }
+
+    /**
+     * Close both children, and delete the sorted inputs.
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (this.leftSorter != null) {
+            this.leftSorter.close();
+            this.rightSorter.close();
+        }
+        this.leftSorter = null;
+        this.rightSorter = null;
+        this.rightNext = null;
+        this.group.clear();
+        this.leftTuple = null;
+    }
+
+    /**
+     * Unit test of SortMergeJoinOperator, output is printed to the console.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        DatabaseCatalog dbc = DatabaseCatalog.getInstance();
+        dbc.init("data/evaluation/db");
+
+        // Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u, y > t
+        System.out.println("Testing query: Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u, y > t");
+        List<Term> queryAtomTerms1 = new ArrayList<>();
+        queryAtomTerms1.add(new Variable("x"));
+        queryAtomTerms1.add(new Variable("y"));
+        queryAtomTerms1.add(new Variable("z"));
+        RelationalAtom queryBodyAtomR = new RelationalAtom("R", queryAtomTerms1);
+        List<Term> queryAtomTerms2 = new ArrayList<>();
+        queryAtomTerms2.add(new Variable("u"));
+        queryAtomTerms2.add(new Variable("w"));
+        queryAtomTerms2.add(new Variable("t"));
+        RelationalAtom queryBodyAtomS = new RelationalAtom("S", queryAtomTerms2);
+        List<ComparisonAtom> compAtomList = new ArrayList<>();
+        compAtomList.add(new ComparisonAtom(new Variable("x"), new Variable("u"), ComparisonOperator.fromString("=")));
+        compAtomList.add(new ComparisonAtom(new Variable("y"), new Variable("t"), ComparisonOperator.fromString(">")));
+
+        SortMergeJoinOperator joinOp = new SortMergeJoinOperator(
+                new ScanOperator(queryBodyAtomR), new ScanOperator(queryBodyAtomS), compAtomList);
+        joinOp.dump(null);
+        System.out.println("-----------------------------------");
+        joinOp.reset();
+        System.out.println(joinOp.getNextTuple());
+        joinOp.close();
+        System.out.println(dbc.getSpillStatistics());
+    }
+}
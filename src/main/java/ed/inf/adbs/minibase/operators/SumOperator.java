@@ -2,6 +2,7 @@ package ed.inf.adbs.minibase.operators;
 
 import ed.inf.adbs.minibase.base.RelationalAtom;
 import ed.inf.adbs.minibase.dbhelper.Tuple;
+import ed.inf.adbs.minibase.dbhelper.TupleBatch;
 
 /**
  * This class contains the main logic for implementation of `SUM` operator.
@@ -10,6 +11,10 @@ import ed.inf.adbs.minibase.dbhelper.Tuple;
  */
 public class SumOperator extends AggregateOperator {
 
+    private TupleBatch outputBatch = null;
+    private boolean aggregated = false;
+    // whether the child tuples have been aggregated by getNextTuple(Tuple)
+
     /**
      * Call super class constructor to initialise the operator.
      * @param childOperator the child operator.
@@ -22,7 +27,7 @@ public class SumOperator extends AggregateOperator {
     /**
      * This method first calls {@link #aggregate()} to iterate over all child operator tuples and do aggregation.
      * After the blocking operation travels through all the child output tuples,
-     * each call of this method will remove and return the first output tuple from the buffer.
+     * each call of this method will return the next group as an output tuple.
      * Note: the aggregation operation and output tuple construction is implemented in {@link AggregateBuffer}.
      * @return a tuple after projection and aggregation.
      */
@@ -31,12 +36,61 @@ public class SumOperator extends AggregateOperator {
         // do aggregation, after the first call of this function, this will do no updates
         this.aggregate();
         // after all the output tuples from child operator are processed,
-        // return the top tuple in buffer for each call of this method.
-        if (this.outputBuffer.size() > 0) {
+        // return the next group for each call of this method.
+        if (this.outputPosition < this.groups.size()) {
             // add the aggregation term into term list, return the generated Tuple
-            return this.outputBuffer.remove(0).getSumTuple();
+            this.aggregateBuffer.moveTo(this.outputPosition++);
+            return this.aggregateBuffer.getSumTuple();
         } else {
             return null;
         }
     }
+
+    /**
+     * The buffer-reusing version of {@link #getNextTuple()}: the first call aggregates the child tuples
+     * with {@link #aggregateReusing()}, so no tuple is built per child tuple; a tuple is then built per group.
+     * @param reuse the row buffer of the caller, unused.
+     * @return a tuple after projection and aggregation.
+     */
+    @Override
+    public Tuple getNextTuple(Tuple reuse) {
+        if (!this.aggregated) {
+            this.aggregateReusing();
+            this.aggregated = true;
+        }
+        if (this.outputPosition < this.groups.size()) {
+            this.aggregateBuffer.moveTo(this.outputPosition++);
+            return this.aggregateBuffer.getSumTuple();
+        }
+        return null;
+    }
+
+    /**
+     * Reset the aggregation state, and the vectorized output.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        this.outputBatch = null;
+        this.aggregated = false;
+    }
+
+    /**
+     * The vectorized version of {@link #getNextTuple()}: the first call aggregates the batches of the child operator
+     * with {@link #aggregateBatches()}, then each call returns the next groups as a batch.
+     * @return a batch of tuples after projection and aggregation, or {@code null} when all the groups are returned.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.outputBatch == null) {
+            this.outputBatch = new TupleBatch(this.varList.size());
+            this.aggregateBatches();
+        }
+        this.outputBatch.clear();
+        while (!this.outputBatch.isFull() && this.outputPosition < this.groups.size()) {
+            this.aggregateBuffer.moveTo(this.outputPosition++);
+            this.outputBatch.appendTuple(this.aggregateBuffer.getSumTuple());
+        }
+        return this.outputBatch.size() > 0 ? this.outputBatch : null;
+    }
 }
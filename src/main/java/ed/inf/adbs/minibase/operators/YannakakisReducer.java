@@ -0,0 +1,139 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.dbhelper.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The full reducer of the Yannakakis algorithm, for the acyclic queries: removes the dangling tuples of every atom
+ * of the query body (the ones that do not take part in the result of the join) before the atoms are joined,
+ * so that no intermediate result of a join order following the join tree is larger than the result of the join.
+ *
+ * The reducer is given a join tree of the query body (see {@link ed.inf.adbs.minibase.JoinTree}), then the scans
+ * of its atoms in the order of the body, and each scan is replaced by a {@link ReducedRelationOperator} in the plan. The first read of any of them materializes all the scans, then runs two passes of semi-joins along the
+ * tree: bottom-up, every parent keeps the tuples that match some tuple of each child, then top-down, every child keeps
+ * the tuples that match some tuple of its (reduced) parent. A semi-join builds a {@link JoinHashTable} over the
+ * filtering relation, keyed by the variables the two atoms share, and keeps the tuples whose key is found.
+ * The reduced relations are held in memory until their operators are closed.
+ */
+public class YannakakisReducer {
+
+    private final int[] parents;
+    // the parent of every atom, -1 for the root
+    private final int[] topDownOrder;
+    // the atoms breadth first from the root
+    private final List<ScanOperator> scans = new ArrayList<>();
+    private List<List<Tuple>> relations = null;
+    // the reduced tuples of every atom, null until the first read
+    private long inputRows = 0;
+    private long reducedRows = 0;
+
+    /**
+     * @param parents the parent of every atom of the query body in a join tree (-1 for the root).
+     * @param topDownOrder the atoms in an order where every atom comes after its parent.
+     */
+    public YannakakisReducer(int[] parents, int[] topDownOrder) {
+        this.parents = parents;
+        this.topDownOrder = topDownOrder;
+    }
+
+    /**
+     * Register the scan of the next atom of the query body.
+     * @param scan the scan of the atom, with its scan conditions.
+     * @return the operator returning the reduced tuples of the atom.
+     */
+    public ReducedRelationOperator leaf(ScanOperator scan) {
+        this.scans.add(scan);
+        return new ReducedRelationOperator(this, this.scans.size() - 1, scan);
+    }
+
+    /**
+     * @return the reduced tuples of an atom, the reduction runs on the first call.
+     */
+    List<Tuple> getRelation(int atom) {
+        if (this.relations == null) this.reduce();
+        return this.relations.get(atom);
+    }
+
+    /**
+     * Materialize the scans, then run the bottom-up and the top-down passes of semi-joins.
+     */
+    private void reduce() {
+        if (this.scans.size() != this.parents.length)
+            throw new IllegalStateException("Expected " + this.parents.length + " scans, got " + this.scans.size());
+        this.relations = new ArrayList<>();
+        for (ScanOperator scan : this.scans) {
+            List<Tuple> tuples = new ArrayList<>();
+            Tuple tuple;
+            while ((tuple = scan.getNextTuple()) != null)
+                tuples.add(tuple);
+            this.inputRows += tuples.size();
+            this.relations.add(tuples);
+        }
+        // every child is visited before its parent on the way up, and after it on the way down
+        for (int i = this.topDownOrder.length - 1; i >= 0; i--) {
+            int atom = this.topDownOrder[i];
+            int parent = this.parents[atom];
+            if (parent >= 0) this.relations.set(parent, this.semiJoin(parent, atom));
+        }
+        for (int atom : this.topDownOrder) {
+            int parent = this.parents[atom];
+            if (parent >= 0) this.relations.set(atom, this.semiJoin(atom, parent));
+        }
+        for (List<Tuple> relation : this.relations)
+            this.reducedRows += relation.size();
+    }
+
+    /**
+     * @return the tuples of an atom that match some tuple of another atom on their shared variables.
+     */
+    private List<Tuple> semiJoin(int atom, int filter) {
+        List<String> variables = this.scans.get(atom).getVarList();
+        List<String> filterVariables = this.scans.get(filter).getVarList();
+        List<Integer> keys = new ArrayList<>();
+        List<Integer> filterKeys = new ArrayList<>();
+        for (int i = 0; i < variables.size(); i++) {
+            int column = filterVariables.indexOf(variables.get(i));
+            if (variables.get(i) == null || column < 0) continue;
+            keys.add(i);
+            filterKeys.add(column);
+        }
+        int[] keyColumns = keys.stream().mapToInt(Integer::intValue).toArray();
+        JoinHashTable table = new JoinHashTable(filterKeys.stream().mapToInt(Integer::intValue).toArray());
+        for (Tuple tuple : this.relations.get(filter))
+            table.add(tuple);
+        List<Tuple> kept = new ArrayList<>();
+        for (Tuple tuple : this.relations.get(atom))
+            if (table.first(tuple, keyColumns) >= 0) kept.add(tuple);
+        return kept;
+    }
+
+    /**
+     * @return the number of tuples read from the scans.
+     */
+    public long getInputRows() {
+        return this.inputRows;
+    }
+
+    /**
+     * @return the number of tuples left after the reduction.
+     */
+    public long getReducedRows() {
+        return this.reducedRows;
+    }
+
+    /**
+     * Close the scan of an atom, and release its reduced tuples.
+     */
+    void close(int atom) {
+        this.scans.get(atom).close();
+        if (this.relations != null) this.relations.set(atom, null);
+    }
+
+    @Override
+    public String toString() {
+        return "YannakakisReducer{atoms=" + this.parents.length + ", inputRows=" + this.inputRows
+                + ", reducedRows=" + this.reducedRows + "}";
+    }
+}
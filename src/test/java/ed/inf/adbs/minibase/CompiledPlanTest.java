@@ -0,0 +1,142 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.dbhelper.Tuple;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the compiled plans: the same queries are evaluated with codegen=on and codegen=off over a small
+ * database of non-ASCII strings (including characters above U+FFFF, encoded with surrogates in Java),
+ * and must give the same rows, with the strings compared in code point order on both paths.
+ */
+public class CompiledPlanTest {
+
+    // S(int, string) and T(string, string), the non-ASCII strings are escaped
+    private static final String[] STRINGS = {"a", "b", "z", "\u00e9", "\uff21", "\ud83d\ude00", "\u4e2d\u6587", "a",
+            "\uff5a", "\ud835\udd38b"};
+    private static final String[][] PAIRS = {{"a", "\ud83d\ude00"}, {"\uff21", "\ud83d\ude00"},
+            {"\ud83d\ude00", "\uff21"}, {"\u00e9", "a"}, {"b", "b"}, {"z", "\u4e2d\u6587"},
+            {"\ud835\udd38b", "\uff5a"}};
+
+    private static final String[] QUERIES = {
+            "Q(i, j) :- S(i, x), S(j, y), x < y",
+            "Q(i, j) :- S(i, x), S(j, y), x >= y, i != j",
+            "Q(i) :- S(i, x), x > 'b'",
+            "Q(i) :- S(i, x), 'z' <= x",
+            "Q(x, y) :- T(x, y), x < y",
+            "Q(i, y) :- S(i, x), T(x, y), x > y",
+            "Q(i, w) :- S(i, x), T(y, w), x < w",
+            "Q(x, SUM(i)) :- S(i, x)",
+    };
+
+    @Test
+    public void compareStringsFollowsTheUtf8Bytes() {
+        for (String a : STRINGS) {
+            for (String b : STRINGS) {
+                byte[] bytesA = a.getBytes(StandardCharsets.UTF_8);
+                byte[] bytesB = b.getBytes(StandardCharsets.UTF_8);
+                assertEquals(a + " " + b, Integer.signum(compareBytes(bytesA, bytesB)),
+                        Integer.signum(Tuple.compareStrings(a, b)));
+            }
+        }
+    }
+
+    @Test
+    public void compiledPlansGiveTheRowsOfTheInterpretedPlans() throws IOException {
+        File dbDir = generateDatabase();
+        try {
+            checkQueries(dbDir);
+        } finally {
+            delete(dbDir);
+        }
+    }
+
+    private static void checkQueries(File dbDir) throws IOException {
+        for (int q = 0; q < QUERIES.length; q++) {
+            File queryFile = new File(dbDir, "query" + q + ".txt");
+            Files.write(queryFile.toPath(), QUERIES[q].getBytes(StandardCharsets.UTF_8));
+            List<String> interpreted = evaluate(dbDir, queryFile, "codegen=off");
+            List<String> compiled = evaluate(dbDir, queryFile, "codegen=on");
+            assertEquals(QUERIES[q], interpreted, compiled);
+        }
+
+        // the pairs of S with x < y in code point order
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < STRINGS.length; i++)
+            for (int j = 0; j < STRINGS.length; j++)
+                if (compareBytes(STRINGS[i].getBytes(StandardCharsets.UTF_8),
+                        STRINGS[j].getBytes(StandardCharsets.UTF_8)) < 0)
+                    expected.add(i + ", " + j);
+        Collections.sort(expected);
+        File queryFile = new File(dbDir, "query0.txt");
+        assertEquals(QUERIES[0], expected, evaluate(dbDir, queryFile, "codegen=on"));
+        assertEquals(QUERIES[0], expected, evaluate(dbDir, queryFile, "codegen=on", "dictionary=on"));
+    }
+
+    /**
+     * Evaluate a query with some options.
+     * @return the sorted rows of the output.
+     */
+    private static List<String> evaluate(File dbDir, File queryFile, String... options) throws IOException {
+        File output = new File(dbDir, "output.csv");
+        List<String> args = new ArrayList<>(Arrays.asList(dbDir.getPath(), queryFile.getPath(), output.getPath()));
+        args.addAll(Arrays.asList(options));
+        // the options are static, every option that is set once is set on every call
+        args.add(Arrays.asList(options).contains("dictionary=on") ? "dictionary=on" : "dictionary=off");
+        Minibase.main(args.toArray(new String[0]));
+        assertTrue(queryFile.getName(), output.exists());
+        List<String> rows = new ArrayList<>(Files.readAllLines(output.toPath(), Charset.defaultCharset()));
+        output.delete();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children) delete(child);
+        file.delete();
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Write a database directory with the relations S(int, string) and T(string, string), in UTF-8.
+     * @return the database directory.
+     */
+    private static File generateDatabase() throws IOException {
+        File dbDir = Files.createTempDirectory("minibase-test").toFile();
+        File filesDir = new File(dbDir, "files");
+        filesDir.mkdirs();
+        Files.write(new File(dbDir, "schema.txt").toPath(),
+                "S int string\nT string string\n".getBytes(StandardCharsets.UTF_8));
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < STRINGS.length; i++)
+            s.append(i).append(", '").append(STRINGS[i]).append("'\n");
+        Files.write(new File(filesDir, "S.csv").toPath(), s.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder t = new StringBuilder();
+        for (String[] pair : PAIRS)
+            t.append("'").append(pair[0]).append("', '").append(pair[1]).append("'\n");
+        Files.write(new File(filesDir, "T.csv").toPath(), t.toString().getBytes(StandardCharsets.UTF_8));
+        return dbDir;
+    }
+}
@@ -0,0 +1,113 @@
+package ed.inf.adbs.minibase.operators;
+
+import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.SumAggregateTerm;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.Variable;
+import ed.inf.adbs.minibase.dbhelper.Tuple;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the operators whose state is held in a RowArena (ProjectOperator, SumOperator),
+ * over many distinct rows of small ints: their hashes are close to each other, so a weak spreading of the hashes
+ * in the index of the arena makes every insertion walk a long run of slots.
+ * The timeouts are far above the expected running time, and far below the one of such an index.
+ */
+public class MaterializingOperatorTest {
+
+    private static final int ROWS = 200000;
+
+    /**
+     * The rows (i % 64, i / 64 % 64, i / 4096) for i in [0, count), all distinct.
+     */
+    private static class SmallIntOperator extends Operator {
+
+        private final int count;
+        private int next = 0;
+
+        SmallIntOperator(int count) {
+            this.count = count;
+            for (String variable : new String[]{"a", "b", "c"}) {
+                this.varList.add(variable);
+                this.intColumns.add(true);
+            }
+        }
+
+        @Override
+        public Tuple getNextTuple() {
+            if (this.next == this.count) return null;
+            int i = this.next++;
+            return new Tuple("K", new int[]{i % 64, i / 64 % 64, i / 4096}, null);
+        }
+
+        @Override
+        public void reset() {
+            this.next = 0;
+        }
+    }
+
+    private static RelationalAtom head(Term... terms) {
+        List<Term> list = new ArrayList<>();
+        for (Term term : terms) list.add(term);
+        return new RelationalAtom("Q", list);
+    }
+
+    @Test(timeout = 20000)
+    public void projectionKeepsEveryDistinctRow() {
+        ProjectOperator project = new ProjectOperator(new SmallIntOperator(ROWS),
+                head(new Variable("a"), new Variable("b"), new Variable("c")));
+        Set<Tuple> reported = new HashSet<>();
+        Tuple tuple;
+        while ((tuple = project.getNextTuple()) != null)
+            assertTrue("duplicate " + tuple, reported.add(tuple));
+        assertEquals(ROWS, reported.size());
+        project.close();
+    }
+
+    @Test(timeout = 20000)
+    public void projectionRemovesDuplicates() {
+        ProjectOperator project = new ProjectOperator(new SmallIntOperator(ROWS),
+                head(new Variable("b"), new Variable("a")));
+        Set<Tuple> reported = new HashSet<>();
+        Tuple tuple;
+        while ((tuple = project.getNextTuple()) != null)
+            assertTrue("duplicate " + tuple, reported.add(tuple));
+        assertEquals(64 * 64, reported.size());
+        project.reset();
+        int count = 0;
+        while (project.getNextTuple() != null) count++;
+        assertEquals(64 * 64, count);
+        project.close();
+    }
+
+    @Test(timeout = 20000)
+    public void sumOverManySmallIntGroups() {
+        Map<Tuple, Integer> expected = new HashMap<>();
+        for (int i = 0; i < ROWS; i++)
+            expected.merge(new Tuple("Q", new int[]{i / 64 % 64, i / 4096}, null), i % 64, Integer::sum);
+
+        SumOperator sum = new SumOperator(new SmallIntOperator(ROWS),
+                head(new Variable("b"), new Variable("c"), new SumAggregateTerm("a")));
+        int groups = 0;
+        Tuple tuple;
+        while ((tuple = sum.getNextTuple()) != null) {
+            Integer total = expected.get(new Tuple("Q", new int[]{tuple.getInt(0), tuple.getInt(1)}, null));
+            assertEquals("group " + tuple, total, Integer.valueOf(tuple.getInt(2)));
+            groups++;
+        }
+        assertEquals(expected.size(), groups);
+        assertNull(sum.getNextTuple());
+        sum.close();
+    }
+}